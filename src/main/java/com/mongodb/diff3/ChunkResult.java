@@ -20,6 +20,7 @@ public class ChunkResult {
     private final Set<BsonValue> destOnly;
     private final AtomicInteger retryNum;
     private DiffStatus status;
+    private volatile RangeHashTree hashTree;
 
     ChunkResult() {
         matches = new LongAdder();
@@ -104,6 +105,14 @@ public class ChunkResult {
         this.status = status;
     }
 
+    public RangeHashTree getHashTree() {
+        return hashTree;
+    }
+
+    public void setHashTree(RangeHashTree hashTree) {
+        this.hashTree = hashTree;
+    }
+
     public AtomicInteger getRetryNum() {
         return retryNum;
     }
@@ -3,6 +3,7 @@ package com.mongodb.diff3;
 import java.util.Arrays;
 
 import com.mongodb.shardsync.BaseConfiguration;
+import com.mongodb.util.hash.FingerprintAlgorithm;
 
 public class DiffConfiguration extends BaseConfiguration {
 	
@@ -26,6 +27,11 @@ public class DiffConfiguration extends BaseConfiguration {
 	private final String[] knownModes = new String[]{PARTITION_MODE, RECHECK_MODE, SHARD_MODE};
 	private DiffSummaryClient diffSummaryClient;
 	private boolean bypassMongos;
+	private FingerprintAlgorithm fingerprintAlgorithm = FingerprintAlgorithm.MD5;
+	private boolean reverify;
+	private long hashTreeLeafSize = 10000;
+	private long partitionTargetMillis;
+	private int partitionSplitFactor = 4;
 	
 	public DiffSummaryClient getDiffSummaryClient() {
 		if (diffSummaryClient == null) {
@@ -151,4 +157,44 @@ public class DiffConfiguration extends BaseConfiguration {
 	public void setBypassMongos(boolean bypassMongos) {
 		this.bypassMongos = bypassMongos;
 	}
+
+	public FingerprintAlgorithm getFingerprintAlgorithm() {
+		return fingerprintAlgorithm;
+	}
+
+	public void setFingerprintAlgorithm(FingerprintAlgorithm fingerprintAlgorithm) {
+		this.fingerprintAlgorithm = fingerprintAlgorithm;
+	}
+
+	public boolean isReverify() {
+		return reverify;
+	}
+
+	public void setReverify(boolean reverify) {
+		this.reverify = reverify;
+	}
+
+	public long getHashTreeLeafSize() {
+		return hashTreeLeafSize;
+	}
+
+	public void setHashTreeLeafSize(long hashTreeLeafSize) {
+		this.hashTreeLeafSize = hashTreeLeafSize;
+	}
+
+	public long getPartitionTargetMillis() {
+		return partitionTargetMillis;
+	}
+
+	public void setPartitionTargetMillis(long partitionTargetMillis) {
+		this.partitionTargetMillis = partitionTargetMillis;
+	}
+
+	public int getPartitionSplitFactor() {
+		return partitionSplitFactor;
+	}
+
+	public void setPartitionSplitFactor(int partitionSplitFactor) {
+		this.partitionSplitFactor = partitionSplitFactor;
+	}
 }
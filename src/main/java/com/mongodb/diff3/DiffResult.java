@@ -1,9 +1,12 @@
 package com.mongodb.diff3;
 
 import com.mongodb.model.Namespace;
+import com.mongodb.util.hash.Fingerprint;
 import org.bson.BsonValue;
 
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -17,13 +20,16 @@ public class DiffResult {
     private final Namespace namespace;
     private boolean retryable = true;
     private final ChunkDef chunkDef;
+    private RangeHashTree hashTree;
+    // tasks for the part of the range that was split off because the task overran
+    private List<? extends DiffTask> remainderTasks = Collections.emptyList();
 
     static class MismatchEntry {
         private final BsonValue key;
-        private final String srcChksum;
-        private final String destChksum;
+        private final Fingerprint srcChksum;
+        private final Fingerprint destChksum;
 
-        MismatchEntry(BsonValue key, String srcChksum, String destChksum) {
+        MismatchEntry(BsonValue key, Fingerprint srcChksum, Fingerprint destChksum) {
             this.key = key;
             this.srcChksum = srcChksum;
             this.destChksum = destChksum;
@@ -34,11 +40,11 @@ public class DiffResult {
         }
 
         public String getSrcChksum() {
-            return srcChksum;
+            return srcChksum.toHex();
         }
 
         public String getDestChksum() {
-            return destChksum;
+            return destChksum.toHex();
         }
     }
 
@@ -96,4 +102,20 @@ public class DiffResult {
     public void setRetryable(boolean retryable) {
         this.retryable = retryable;
     }
+
+    public RangeHashTree getHashTree() {
+        return hashTree;
+    }
+
+    public void setHashTree(RangeHashTree hashTree) {
+        this.hashTree = hashTree;
+    }
+
+    public List<? extends DiffTask> getRemainderTasks() {
+        return remainderTasks;
+    }
+
+    public void setRemainderTasks(List<? extends DiffTask> remainderTasks) {
+        this.remainderTasks = remainderTasks;
+    }
 }
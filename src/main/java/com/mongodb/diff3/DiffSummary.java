@@ -1,6 +1,7 @@
 package com.mongodb.diff3;
 
 import com.mongodb.model.Namespace;
+import com.mongodb.util.metrics.MetricsRegistry;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,7 +30,7 @@ public class DiffSummary {
 
 	private final Map<Namespace, Map<String, ChunkResult>> chunkResultMap;
 
-	private int totalChunks = -1;
+	private volatile int totalChunks = -1;
 	private final long totalDocs;
 	private final long totalSize;
 	private final long startTime;
@@ -47,6 +48,20 @@ public class DiffSummary {
 		this.ppTotalSize = ppSize(totalSize);
 		chunkResultMap = new HashMap<>();
 		this.startTime = new Date().getTime();
+
+		MetricsRegistry metrics = MetricsRegistry.getDefault();
+		metrics.gauge("diff_processed_chunks", totalProcessedChunks::sum);
+		metrics.gauge("diff_processed_docs", totalProcessedDocs::sum);
+		metrics.gauge("diff_processed_bytes", totalProcessedSize::sum);
+		metrics.gauge("diff_failed_chunks", totalFailedChunks::sum);
+		metrics.gauge("diff_mismatched_docs", totalFailedDocs::sum);
+		metrics.gauge("diff_retrying_chunks", totalRetryChunks::sum);
+		metrics.gauge("diff_source_only_docs", totalSourceOnly::sum);
+		metrics.gauge("diff_dest_only_docs", totalDestOnly::sum);
+		metrics.gauge("diff_total_chunks", () -> totalChunks);
+		metrics.gauge("diff_total_docs", () -> totalDocs);
+		metrics.gauge("diff_total_bytes", () -> totalSize);
+		metrics.gauge("diff_elapsed_seconds", () -> getTimeElapsed() / 1000);
 	}
 
 	public synchronized void setTotalChunks(int totalChunks) {
@@ -201,6 +216,7 @@ public class DiffSummary {
 		cr.setMismatches(result.getMismatchedEntries());
 		cr.setSourceOnly(result.getSrcOnlyKeys());
 		cr.setDestOnly(result.getDestOnlyKeys());
+		cr.setHashTree(result.getHashTree());
 		
 		incrementCountersFromChunkResult(cr);
 
@@ -1,6 +1,7 @@
 package com.mongodb.diff3;
 
 import static com.mongodb.client.model.Projections.exclude;
+import static com.mongodb.client.model.Projections.include;
 
 import java.util.ArrayList;
 import java.util.Date;
@@ -62,7 +63,7 @@ public class DiffSummaryClient {
 
         Map<String, RawBsonDocument> chunksCache = new LinkedHashMap<>();
         //Bson projection = include("min", "max", "ns", "status");
-        Bson projection = exclude("history");
+        Bson projection = exclude("history", "hashTree");
         // TODO sort by UUID in 5+
         FindIterable<RawBsonDocument> sourceChunks = coll.find(chunkQuery).projection(projection).sort(Sorts.ascending("ns", "min"));
 
@@ -122,6 +123,9 @@ public class DiffSummaryClient {
         newDoc.put("destOnlyCount", cr.getDestOnly().size());
         newDoc.put("bytesProcessed", cr.getBytesProcessed().longValue());
         newDoc.put("timestamp", new Date());
+        if (cr.getHashTree() != null) {
+            newDoc.put("hashTree", cr.getHashTree().toBsonDocument());
+        }
 
         BsonDocument newBsonDoc = newDoc.toBsonDocument();
         if (res == null) {
@@ -181,6 +185,9 @@ public class DiffSummaryClient {
         updates.add(Updates.set("destOnlyCount", cr.getDestOnly().size()));
         updates.add(Updates.set("bytesProcessed", cr.getBytesProcessed().longValue()));
         updates.add(Updates.set("timestamp", new Date()));
+        if (cr.getHashTree() != null) {
+            updates.add(Updates.set("hashTree", cr.getHashTree().toBsonDocument()));
+        }
 
         logger.trace("Fire Status update Query");
         try {
@@ -194,6 +201,22 @@ public class DiffSummaryClient {
         }
     }
 
+    /**
+     * Loads the range hash tree persisted by a previous run for this chunk, if any.
+     */
+    public RangeHashTree loadHashTree(ChunkDef cd) {
+        BsonValue min = cd.getMin() == null ? new BsonDocument() : cd.getMin();
+        BsonValue max = cd.getMax() == null ? new BsonDocument() : cd.getMax();
+        Bson filter = Filters.and(
+                Filters.eq("ns", cd.getNs().getNamespace()),
+                Filters.eq("min", min),
+                Filters.eq("max", max),
+                Filters.exists("hashTree")
+        );
+        RawBsonDocument res = coll.find(filter).projection(include("hashTree")).first();
+        return res == null ? null : RangeHashTree.fromBsonDocument(res.getDocument("hashTree"));
+    }
+
     public boolean updateChunkCompletion(Namespace ns, RawBsonDocument chunk, DiffSummary summary) {
 
         Bson filter = Filters.and(
@@ -3,11 +3,13 @@ package com.mongodb.diff3;
 import static com.mongodb.diff3.DiffTask.Target.DEST;
 import static com.mongodb.diff3.DiffTask.Target.SOURCE;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Callable;
 
@@ -15,17 +17,14 @@ import com.mongodb.model.Database;
 import com.mongodb.model.DatabaseCatalog;
 import com.mongodb.model.IndexSpec;
 import org.bson.BsonDocument;
+import org.bson.BsonInt32;
 import org.bson.BsonValue;
-import org.bson.ByteBuf;
-import org.bson.Document;
 import org.bson.RawBsonDocument;
 import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.MapDifference;
-import com.google.common.collect.MapDifference.ValueDifference;
-import com.google.common.collect.Maps;
+import com.mongodb.MongoCommandException;
 import com.mongodb.MongoException;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoClient;
@@ -34,7 +33,9 @@ import com.mongodb.client.MongoCursor;
 import com.mongodb.client.model.Filters;
 import com.mongodb.diff3.partition.PartitionDiffTask;
 import com.mongodb.model.Namespace;
-import com.mongodb.util.CodecUtils;
+import com.mongodb.util.DiffUtils;
+import com.mongodb.util.hash.Fingerprint;
+import com.mongodb.util.hash.FingerprintMap;
 
 public abstract class DiffTask implements Callable<DiffResult> {
 
@@ -66,11 +67,9 @@ public abstract class DiffTask implements Callable<DiffResult> {
     protected long sourceBytesProcessed;
     protected long destBytesProcessed;
 
-    protected MongoCursor<RawBsonDocument> sourceCursor = null;
-    protected MongoCursor<RawBsonDocument> destCursor = null;
+    private BsonDocument hintKey;
 
-    protected Map<BsonValue, String> sourceDocs = null;
-    protected Map<BsonValue, String> destDocs = null;
+    private static final BsonDocument ID_SORT = new BsonDocument("_id", new BsonInt32(1));
 
     public DiffTask(DiffConfiguration config, Namespace namespace, DiffSummary summary) {
         this.config = config;
@@ -83,6 +82,23 @@ public abstract class DiffTask implements Callable<DiffResult> {
 
     protected abstract String unitString();
 
+    /**
+     * Checked periodically while streaming a whole <code>_id</code> ordered range. Returning
+     * true stops the comparison before the next key, which is passed to {@link #split(BsonValue)}.
+     */
+    protected boolean shouldSplit(long elapsedMillis) {
+        return false;
+    }
+
+    /**
+     * Narrows this task to end before <code>resumeId</code> and returns tasks covering the
+     * rest. Only called when {@link #shouldSplit(long)} returned true, tasks that never
+     * split keep the whole range and return no tasks.
+     */
+    protected List<? extends DiffTask> split(BsonValue resumeId) {
+        return Collections.emptyList();
+    }
+
 
     //protected abstract RetryTask endToken();
 
@@ -112,53 +128,319 @@ public abstract class DiffTask implements Callable<DiffResult> {
     }
 
     protected DiffResult computeDiff(Collection<BsonValue> ids) {
-
+        BsonDocument sortSpec = getSortSpec(ids);
+        // partition bounds are sampled on every run, a stored tree would not be found again
+        boolean keepTree = ids == null && isIdSort(sortSpec) && !(this instanceof PartitionDiffTask);
+        RangeHashTree tree = null;
+        if (keepTree && config.isReverify()) {
+            tree = config.getDiffSummaryClient().loadHashTree(chunkDef);
+        }
+        MongoException lastException = null;
         for (int i = 1; i <= 3; i++) {
             try {
-                sourceDocs = load(ids, SOURCE);
-                destDocs = load(ids, DEST);
-                break;
+                if (tree != null) {
+                    try {
+                        return doHashTreeComparison(tree);
+                    } catch (MongoCommandException ce) {
+                        logger.warn("[{}] range hashing failed ({}), falling back to a full comparison ({})",
+                                Thread.currentThread().getName(), ce.getErrorCodeName(), unitString());
+                        tree = null;
+                    }
+                }
+                if (sortSpec != null) {
+                    try {
+                        RangeHashTree.Builder builder = keepTree
+                                ? new RangeHashTree.Builder(config.getHashTreeLeafSize(), RangeHashTree.DEFAULT_FANOUT)
+                                : null;
+                        DiffResult result = doStreamingComparison(ids, sortSpec, null, builder);
+                        if (builder != null && result.getRemainderTasks().isEmpty()) {
+                            result.setHashTree(builder.build());
+                        }
+                        return result;
+                    } catch (SortedDocCursor.OutOfOrderException oe) {
+                        logger.warn("[{}] {}, falling back to in-memory comparison ({})",
+                                Thread.currentThread().getName(), oe.getMessage(), unitString());
+                        sortSpec = null;
+                    }
+                }
+                return doInMemoryComparison(ids);
             } catch (MongoException me) {
                 logger.warn("computeDiff caught mongo exception on attempt " + i, me);
+                lastException = me;
+            }
+        }
+        throw lastException;
+    }
+
+    /**
+     * Determines the order that both sides will be read in for the merge-join, or null if
+     * the documents can't be ordered on the client (hashed shard key), in which case the
+     * comparison is done in memory.
+     */
+    private BsonDocument getSortSpec(Collection<BsonValue> ids) {
+        if ((ids != null && ids.size() > 0) || this instanceof PartitionDiffTask || chunkDef.getMin() == null) {
+            return ID_SORT;
+        }
+        BsonDocument hintKey = getHintKey();
+        for (BsonValue direction : hintKey.values()) {
+            if (!direction.isNumber()) {
+                return null;
             }
         }
-        return doComparison();
+        return hintKey;
     }
 
-    private DiffResult doComparison() {
+    private static boolean isIdSort(BsonDocument sortSpec) {
+        return sortSpec != null && sortSpec.size() == 1 && sortSpec.containsKey("_id")
+                && sortSpec.get("_id").isNumber() && sortSpec.getNumber("_id").intValue() > 0;
+    }
+
+    /**
+     * The _id range covered by this task, used to bound the range hashing queries.
+     */
+    private Bson getIdRangeFilter() {
+        if (this instanceof PartitionDiffTask) {
+            return ((PartitionDiffTask) this).getPartitionDiffQuery();
+        } else if (chunkDef.getMin() == null) {
+            return new BsonDocument();
+        }
+        return Filters.and(Filters.gte("_id", chunkDef.getMin().get("_id")),
+                Filters.lt("_id", chunkDef.getMax().get("_id")));
+    }
+
+    /**
+     * Re-verifies a previously diffed range by descending the stored hash tree, only the
+     * documents of leaf ranges with differing hashes are read and compared, and the stored
+     * hashes of those leaves are updated.
+     */
+    private DiffResult doHashTreeComparison(RangeHashTree tree) {
         long compStart = System.currentTimeMillis();
-        MapDifference<BsonValue, String> diff = Maps.difference(sourceDocs, destDocs);
+        MongoCollection<RawBsonDocument> sourceColl = getRawCollection(getLoadClient(SOURCE), namespace.getNamespace());
+        MongoCollection<RawBsonDocument> destColl = getRawCollection(getLoadClient(DEST), namespace.getNamespace());
+        HashTreeVerifier verifier = new HashTreeVerifier(sourceColl, destColl, getIdRangeFilter());
+        List<RangeHashTree.Node> differingLeaves = verifier.findDifferingLeaves(tree);
 
         Set<DiffResult.MismatchEntry> mismatches = new HashSet<>();
         Set<BsonValue> srcOnly = new HashSet<>();
         Set<BsonValue> destOnly = new HashSet<>();
-        int numMatches;
-        if (diff.areEqual()) {
-            numMatches = sourceDocs.size();
-//            result.setMatches(numMatches);
-        } else {
-            Map<BsonValue, ValueDifference<String>> valueDiff = diff.entriesDiffering();
-            for (Map.Entry<BsonValue, ValueDifference<String>> entry : valueDiff.entrySet()) {
-                BsonValue key = entry.getKey();
-                ValueDifference<String> val = entry.getValue();
-                mismatches.add(new DiffResult.MismatchEntry(key, val.leftValue(), val.rightValue()));
+        long numMatches = verifier.getMatchedDocs();
+        long srcBytes = 0;
+        long destBytes = 0;
+        for (RangeHashTree.Node leaf : differingLeaves) {
+            // a single leaf, the builder never splits
+            RangeHashTree.Builder leafBuilder = new RangeHashTree.Builder(Long.MAX_VALUE, tree.getFanout());
+            DiffResult rangeResult = doStreamingComparison(null, ID_SORT, HashTreeVerifier.rangeFilter(leaf),
+                    leafBuilder);
+            RangeHashTree leafTree = leafBuilder.build();
+            tree.setLeafHashes(leaf.getFirstLeaf(), leafTree.getSourceHash(leafTree.root()),
+                    leafTree.getDestHash(leafTree.root()));
+            numMatches += rangeResult.getMatches();
+            mismatches.addAll(rangeResult.getMismatchedEntries());
+            srcOnly.addAll(rangeResult.getSrcOnlyKeys());
+            destOnly.addAll(rangeResult.getDestOnlyKeys());
+            srcBytes += sourceBytesProcessed;
+            destBytes += destBytesProcessed;
+        }
+        sourceBytesProcessed = srcBytes;
+        destBytesProcessed = destBytes;
+        logger.debug("[{}] hash tree re-verification read {} of {} ranges ({})",
+                Thread.currentThread().getName(), differingLeaves.size(), tree.getNumLeaves(), unitString());
+        DiffResult result = diffResult(compStart, numMatches, mismatches, srcOnly, destOnly);
+        result.setHashTree(tree);
+        return result;
+    }
+
+    private BsonDocument getHintKey() {
+        if (hintKey == null) {
+            BsonDocument hintDoc = findHintDoc(chunkDef.getMin());
+            logger.debug("hint: {}", hintDoc);
+            hintKey = hintDoc.getDocument("key");
+        }
+        return hintKey;
+    }
+
+    DiffResult doStreamingComparison(Collection<BsonValue> ids, BsonDocument sortSpec, Bson rangeFilter,
+                                             RangeHashTree.Builder treeBuilder) {
+        long compStart = System.currentTimeMillis();
+        Set<DiffResult.MismatchEntry> mismatches = new HashSet<>();
+        Set<BsonValue> srcOnly = new HashSet<>();
+        Set<BsonValue> destOnly = new HashSet<>();
+        long numMatches = 0;
+        boolean splittable = ids == null && rangeFilter == null && isIdSort(sortSpec);
+        List<? extends DiffTask> remainderTasks = Collections.emptyList();
+        int groups = 0;
+
+        try (SortedDocCursor src = new SortedDocCursor(openCursor(ids, SOURCE, rangeFilter, sortSpec), sortSpec);
+             SortedDocCursor dest = new SortedDocCursor(openCursor(ids, DEST, rangeFilter, sortSpec), sortSpec)) {
+            while (src.hasNext() || dest.hasNext()) {
+                int cmp;
+                if (!dest.hasNext()) {
+                    cmp = -1;
+                } else if (!src.hasNext()) {
+                    cmp = 1;
+                } else {
+                    cmp = src.compareKeys(src.peekKey(), dest.peekKey());
+                }
+
+                if (splittable && (++groups & 1023) == 0 && shouldSplit(System.currentTimeMillis() - compStart)) {
+                    BsonValue resumeId = (cmp <= 0 ? src.peekKey() : dest.peekKey())[0];
+                    remainderTasks = split(resumeId);
+                    logger.debug("[{}] split off {} tasks from {} after {} ms ({})",
+                            Thread.currentThread().getName(), remainderTasks.size(), resumeId,
+                            System.currentTimeMillis() - compStart, unitString());
+                    break;
+                }
+
+                if (cmp < 0) {
+                    for (RawBsonDocument doc : nextSourceGroup(src, treeBuilder)) {
+                        srcOnly.add(doc.get("_id"));
+                    }
+                } else if (cmp > 0) {
+                    for (RawBsonDocument doc : nextDestGroup(dest, treeBuilder)) {
+                        destOnly.add(doc.get("_id"));
+                    }
+                } else {
+                    // the source group goes to the tree builder first, it splits leaves on source ids
+                    List<RawBsonDocument> srcGroup = nextSourceGroup(src, treeBuilder);
+                    numMatches += compareGroups(srcGroup, nextDestGroup(dest, treeBuilder),
+                            mismatches, srcOnly, destOnly);
+                }
             }
-            Set<BsonValue> onlyOnSource = diff.entriesOnlyOnLeft().keySet();
-            if (!onlyOnSource.isEmpty()) {
-                //logger.debug("[{}] {} - diff failure, onlyOnSource: {}", Thread.currentThread().getName(), namespace, onlyOnSource);
-                srcOnly.addAll(onlyOnSource);
+            sourceBytesProcessed = src.getBytesProcessed();
+            destBytesProcessed = dest.getBytesProcessed();
+            if (logger.isTraceEnabled()) {
+                logger.trace("[{}] streamed {} source and {} dest docs for {} ({})",
+                        Thread.currentThread().getName(), src.getDocCount(), dest.getDocCount(),
+                        namespace.getNamespace(), unitString());
             }
+        }
+        DiffResult result = diffResult(compStart, numMatches, mismatches, srcOnly, destOnly);
+        result.setRemainderTasks(remainderTasks);
+        return result;
+    }
 
-            Set<BsonValue> onlyOnDest = diff.entriesOnlyOnRight().keySet();
-            if (!onlyOnDest.isEmpty()) {
-                //logger.warn("[{}] {} - diff failure, onlyOnDest: {}", Thread.currentThread().getName(), namespace, onlyOnDest);
-                destOnly.addAll(onlyOnDest);
+    private List<RawBsonDocument> nextSourceGroup(SortedDocCursor src, RangeHashTree.Builder treeBuilder) {
+        List<RawBsonDocument> group = src.nextGroup();
+        if (treeBuilder != null) {
+            for (RawBsonDocument doc : group) {
+                treeBuilder.addSource(doc.get("_id"), hash64(doc));
             }
+        }
+        return group;
+    }
 
-            numMatches = (int) (sourceDocs.size() - valueDiff.size()
-                    - onlyOnSource.size() - onlyOnDest.size());
-//            result.setMatches(numMatches);
+    private List<RawBsonDocument> nextDestGroup(SortedDocCursor dest, RangeHashTree.Builder treeBuilder) {
+        List<RawBsonDocument> group = dest.nextGroup();
+        if (treeBuilder != null) {
+            for (RawBsonDocument doc : group) {
+                treeBuilder.addDest(hash64(doc));
+            }
         }
+        return group;
+    }
+
+    /**
+     * Compares two groups of documents that share the same sort key, returning the number
+     * of matches. For an <code>_id</code> sort both groups are single documents.
+     */
+    private long compareGroups(List<RawBsonDocument> srcGroup, List<RawBsonDocument> destGroup,
+                               Set<DiffResult.MismatchEntry> mismatches, Set<BsonValue> srcOnly, Set<BsonValue> destOnly) {
+        if (srcGroup.size() == 1 && destGroup.size() == 1) {
+            RawBsonDocument srcDoc = srcGroup.get(0);
+            RawBsonDocument destDoc = destGroup.get(0);
+            BsonValue id = srcDoc.get("_id");
+            BsonValue destId = destDoc.get("_id");
+            if (!id.equals(destId)) {
+                srcOnly.add(id);
+                destOnly.add(destId);
+                return 0;
+            }
+            return compareDocs(id, srcDoc, destDoc, mismatches) ? 1 : 0;
+        }
+
+        long matches = 0;
+        Map<BsonValue, RawBsonDocument> srcDocs = new HashMap<>();
+        for (RawBsonDocument doc : srcGroup) {
+            srcDocs.put(doc.get("_id"), doc);
+        }
+        for (RawBsonDocument destDoc : destGroup) {
+            BsonValue id = destDoc.get("_id");
+            RawBsonDocument srcDoc = srcDocs.remove(id);
+            if (srcDoc == null) {
+                destOnly.add(id);
+            } else if (compareDocs(id, srcDoc, destDoc, mismatches)) {
+                matches++;
+            }
+        }
+        srcOnly.addAll(srcDocs.keySet());
+        return matches;
+    }
+
+    private boolean compareDocs(BsonValue id, RawBsonDocument srcDoc, RawBsonDocument destDoc,
+                                Set<DiffResult.MismatchEntry> mismatches) {
+        // both documents are in hand, so the bytes can be compared directly and
+        // the checksums are only needed to record a mismatch
+        if (srcDoc.getByteBuffer().asNIO().equals(destDoc.getByteBuffer().asNIO())) {
+            return true;
+        }
+        mismatches.add(new DiffResult.MismatchEntry(id, hash(srcDoc), hash(destDoc)));
+        if (DiffUtils.getReportWriter() != null) {
+            DiffUtils.reportMismatch(namespace.getNamespace(), id, srcDoc, destDoc);
+        }
+        return false;
+    }
+
+    private long hash64(RawBsonDocument doc) {
+        ByteBuffer bb = doc.getByteBuffer().asNIO();
+        return config.getFingerprintAlgorithm().hash64(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+    }
+
+    private Fingerprint hash(RawBsonDocument doc) {
+        ByteBuffer bb = doc.getByteBuffer().asNIO();
+        return config.getFingerprintAlgorithm().fingerprint(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+    }
+
+    /**
+     * Used when the two sides can't be read in a common order, the source fingerprints are
+     * held in memory and the destination is streamed against them.
+     */
+    private DiffResult doInMemoryComparison(Collection<BsonValue> ids) {
+        FingerprintMap sourceDocs = load(ids, SOURCE);
+        long compStart = System.currentTimeMillis();
+
+        Set<DiffResult.MismatchEntry> mismatches = new HashSet<>();
+        Set<BsonValue> srcOnly = new HashSet<>();
+        Set<BsonValue> destOnly = new HashSet<>();
+        long numMatches = 0;
+        long bytesProcessed = 0;
+
+        try (MongoCursor<RawBsonDocument> cursor = openCursor(ids, DEST, null, null)) {
+            while (cursor.hasNext()) {
+                RawBsonDocument doc = cursor.next();
+                BsonValue id = doc.get("_id");
+                bytesProcessed += doc.getByteBuffer().remaining();
+                Fingerprint destHash = hash(doc);
+                switch (sourceDocs.matches(id, destHash.getHigh(), destHash.getLow())) {
+                    case 1:
+                        numMatches++;
+                        break;
+                    case 0:
+                        mismatches.add(new DiffResult.MismatchEntry(id, sourceDocs.get(id), destHash));
+                        break;
+                    default:
+                        destOnly.add(id);
+                        continue;
+                }
+                sourceDocs.remove(id);
+            }
+        }
+        destBytesProcessed = bytesProcessed;
+        sourceDocs.forEachId(srcOnly::add);
+        return diffResult(compStart, numMatches, mismatches, srcOnly, destOnly);
+    }
+
+    private DiffResult diffResult(long compStart, long numMatches, Set<DiffResult.MismatchEntry> mismatches,
+                                  Set<BsonValue> srcOnly, Set<BsonValue> destOnly) {
         long bytes = Math.max(sourceBytesProcessed, destBytesProcessed);
         long diffTime = System.currentTimeMillis() - compStart;
         logger.trace("[{}] computed diff in {} ms ({})",
@@ -201,12 +483,21 @@ public abstract class DiffTask implements Callable<DiffResult> {
         }).get().getSourceSpec().toBsonDocument();
     }
 
-    protected Map<BsonValue, String> load(Collection<BsonValue> ids, Target target) {
-        MongoClient loadClient = getLoadClient(target);
-        long bytesProcessed = 0;
+    /**
+     * Opens a cursor over the documents of this task on one side, in <code>sortSpec</code>
+     * order unless it is null.
+     */
+    MongoCursor<RawBsonDocument> openCursor(Collection<BsonValue> ids, Target target, Bson rangeFilter,
+                                            BsonDocument sortSpec) {
+        FindIterable<RawBsonDocument> finder = find(ids, target, rangeFilter);
+        if (sortSpec != null) {
+            finder.sort(sortSpec);
+        }
+        return finder.cursor();
+    }
 
-        Map<BsonValue, String> output = new HashMap<>();
-        long loadStart = System.currentTimeMillis();
+    private FindIterable<RawBsonDocument> find(Collection<BsonValue> ids, Target target, Bson rangeFilter) {
+        MongoClient loadClient = getLoadClient(target);
         MongoCollection<RawBsonDocument> coll = getRawCollection(loadClient, namespace.getNamespace());
         FindIterable<RawBsonDocument> finder;
 
@@ -217,30 +508,40 @@ public abstract class DiffTask implements Callable<DiffResult> {
             PartitionDiffTask pdt = (PartitionDiffTask) this;
             Bson q = pdt.getPartitionDiffQuery();
             finder = coll.find(q).batchSize(10000);
+            if (rangeFilter != null) {
+                finder.filter(Filters.and(q, rangeFilter));
+            }
         } else {
-//            Pair<Bson, Bson> bounds = getChunkBounds();
             // TODO: not sure if it's possible for one of min/max to be null and not the other
             if (chunkDef.getMin() == null) {
                 finder = coll.find().batchSize(10000);
+                if (rangeFilter != null) {
+                    finder.filter(rangeFilter);
+                }
             } else {
                 BsonDocument min = chunkDef.getMin();
                 BsonDocument max = chunkDef.getMax();
-                Set<String> shardKeys = min.keySet();
-                BsonDocument hintDoc = findHintDoc(min);
-
-                logger.debug("hint: {}", hintDoc);
-                finder = coll.find().min(min).max(max).hint(hintDoc.getDocument("key")).batchSize(10000);
+                finder = coll.find().min(min).max(max).hint(getHintKey()).batchSize(10000);
+                if (rangeFilter != null) {
+                    finder.filter(rangeFilter);
+                }
             }
         }
+        return finder;
+    }
 
-        for (RawBsonDocument doc : finder) {
-            BsonValue id = doc.get("_id");
-            ByteBuf bb = doc.getByteBuffer();
-            byte[] docBytes = bb.array();
-            bytesProcessed += bb.remaining();
+    protected FingerprintMap load(Collection<BsonValue> ids, Target target) {
+        long bytesProcessed = 0;
 
-            String docHash = CodecUtils.md5Hex(docBytes);
-            output.put(id, docHash);
+        FingerprintMap output = new FingerprintMap();
+        long loadStart = System.currentTimeMillis();
+        try (MongoCursor<RawBsonDocument> cursor = openCursor(ids, target, null, null)) {
+            while (cursor.hasNext()) {
+                RawBsonDocument doc = cursor.next();
+                BsonValue id = doc.get("_id");
+                bytesProcessed += doc.getByteBuffer().remaining();
+                output.put(id, hash(doc));
+            }
         }
         switch (target) {
             case SOURCE:
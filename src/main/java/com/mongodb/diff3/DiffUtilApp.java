@@ -31,6 +31,10 @@ import org.slf4j.LoggerFactory;
 
 import com.mongodb.diff3.partition.PartitionDiffUtil;
 import com.mongodb.diff3.shard.ShardDiffUtil;
+import com.mongodb.util.DiffReportWriter;
+import com.mongodb.util.DiffUtils;
+import com.mongodb.util.hash.FingerprintAlgorithm;
+import com.mongodb.util.metrics.MetricsExporter;
 
 public class DiffUtilApp {
 
@@ -45,6 +49,8 @@ public class DiffUtilApp {
     private final static String SAMPLE_MIN_DOCS = "sampleMinDocs";
     private final static String MAX_DOCS_TO_SAMPLE_PER_PARTITION = "maxDocsToSamplePerPartition";
     private final static String DEFAULT_PARTITION_SIZE = "defaultPartitionSize";
+    private final static String PARTITION_TARGET_SECONDS = "partitionTargetSeconds";
+    private final static String PARTITION_SPLIT_FACTOR = "partitionSplitFactor";
     private final static String MODE = "mode";
     private final static String DEFAULT_MODE = "shard";
     private final static String MAX_RETRIES = "maxRetries";
@@ -57,15 +63,27 @@ public class DiffUtilApp {
     private final static String SYNC_MISMATCHES = "syncMismatches";
     private final static String FILTER = "filter";
     private static final String BYPASS_MONGOS = "bypassMongos";
+    private final static String FINGERPRINT = "fingerprint";
+    private final static String REVERIFY = "reverify";
+    private final static String DIFF_REPORT = "diffReport";
+    private final static String DIFF_REPORT_MAX_BYTES = "diffReportMaxBytes";
+    private final static String HASH_TREE_LEAF_SIZE = "hashTreeLeafSize";
+    private final static String METRICS_PORT = "metricsPort";
+    private final static String METRICS_FILE = "metricsFile";
 
     private final static String DEFAULT_THREADS = "8";
     private final static String DEFAULT_SAMPLE_RATE = "0.04";
     private final static String DEFAULT_SAMPLE_MIN_DOCS = "101";
     private final static String DEFAULT_MAX_DOCS_TO_SAMPLE_PER_PARTITION = "10";
     private final static String DEFAULT_DEFAULT_PARTITION_SIZE = String.valueOf(400  * 1024 * 1024);
+    private final static String DEFAULT_PARTITION_TARGET_SECONDS = "600";
+    private final static String DEFAULT_PARTITION_SPLIT_FACTOR = "4";
     private final static String DEFAULT_MAX_RETRIES = "5";
     private final static String DEFAULT_STATUS_DB_NAME = "Diff3";
     private final static String DEFAULT_STATUS_DB_COLL_NAME = "Status";
+    private final static String DEFAULT_FINGERPRINT = "md5";
+    private final static String DEFAULT_HASH_TREE_LEAF_SIZE = "10000";
+    private final static String DEFAULT_DIFF_REPORT_MAX_BYTES = String.valueOf(1024L * 1024 * 1024);
 
     @SuppressWarnings("static-access")
     private static CommandLine initializeAndParseCommandLineOptions(String[] args) {
@@ -92,12 +110,30 @@ public class DiffUtilApp {
                 .withLongOpt(MAX_DOCS_TO_SAMPLE_PER_PARTITION).create());
         options.addOption(withArgName("Default size (bytes) for partitions").hasArg()
                 .withLongOpt(DEFAULT_PARTITION_SIZE).create());
+        options.addOption(withArgName("Seconds after which a running partition is split (0 to disable)").hasArg()
+                .withLongOpt(PARTITION_TARGET_SECONDS).create());
+        options.addOption(withArgName("Number of partitions the remainder of an overrunning partition is split into")
+                .hasArg().withLongOpt(PARTITION_SPLIT_FACTOR).create());
         options.addOption(withArgName("Max retries").hasArg().withLongOpt(MAX_RETRIES).create());
         options.addOption(withArgName("Status DB URI").hasArg().withLongOpt(STATUS_DB_URI).create());
         options.addOption(withArgName("Status DB Name").hasArg().withLongOpt(STATUS_DB_NAME).create());
         options.addOption(withArgName("Status DB Collection Name").hasArg().withLongOpt(STATUS_DB_COLL_NAME).create());
         options.addOption(OptionBuilder.withArgName("Bypass mongos (requires exact chunk alignment between source and target")
                 .hasArg().withLongOpt(BYPASS_MONGOS).create(BYPASS_MONGOS));
+        options.addOption(withArgName("Document fingerprint algorithm (one of: [md5 {default}, murmur3_128, xxhash64])")
+                .hasArg().withLongOpt(FINGERPRINT).create());
+        options.addOption(withArgName("Re-verify completed chunks using their stored hash trees")
+                .withLongOpt(REVERIFY).create());
+        options.addOption(withArgName("Write field level differences of mismatched docs to this file (JSON lines)")
+                .hasArg().withLongOpt(DIFF_REPORT).create());
+        options.addOption(withArgName("Maximum size of the diff report file in bytes").hasArg()
+                .withLongOpt(DIFF_REPORT_MAX_BYTES).create());
+        options.addOption(withArgName("Documents per hash tree leaf range").hasArg()
+                .withLongOpt(HASH_TREE_LEAF_SIZE).create());
+        options.addOption(withArgName("Serve metrics on this local port").hasArg()
+                .withLongOpt(METRICS_PORT).create());
+        options.addOption(withArgName("Write metrics snapshots to this file").hasArg()
+                .withLongOpt(METRICS_FILE).create());
         CommandLineParser parser = new GnuParser();
 
         try {
@@ -170,6 +206,10 @@ public class DiffUtilApp {
                         DEFAULT_MAX_DOCS_TO_SAMPLE_PER_PARTITION)));
         config.setDefaultPartitionSize(Long.parseLong(
                 getConfigValue(line, properties, DEFAULT_PARTITION_SIZE, DEFAULT_DEFAULT_PARTITION_SIZE)));
+        config.setPartitionTargetMillis(1000L * Long.parseLong(
+                getConfigValue(line, properties, PARTITION_TARGET_SECONDS, DEFAULT_PARTITION_TARGET_SECONDS)));
+        config.setPartitionSplitFactor(Integer.parseInt(
+                getConfigValue(line, properties, PARTITION_SPLIT_FACTOR, DEFAULT_PARTITION_SPLIT_FACTOR)));
         config.setMaxRetries(Integer.parseInt(getConfigValue(line, properties, MAX_RETRIES, DEFAULT_MAX_RETRIES)));
         config.setArchiveAndDeleteDestOnly(Boolean.parseBoolean(getConfigValue(
                 line, properties, ARCHIVE_AND_DELETE_DEST_ONLY, "false")));
@@ -180,6 +220,12 @@ public class DiffUtilApp {
         config.setDestRsManual(properties.getStringArray(DEST_RS_MANUAL));
         config.setBypassMongos(Boolean.parseBoolean(getConfigValue(
                 line, properties, BYPASS_MONGOS, "true")));
+        config.setFingerprintAlgorithm(FingerprintAlgorithm.fromString(
+                getConfigValue(line, properties, FINGERPRINT, DEFAULT_FINGERPRINT)));
+        DiffUtils.setFingerprintAlgorithm(config.getFingerprintAlgorithm());
+        config.setReverify(line.hasOption(REVERIFY) || properties.getBoolean(REVERIFY, false));
+        config.setHashTreeLeafSize(Long.parseLong(
+                getConfigValue(line, properties, HASH_TREE_LEAF_SIZE, DEFAULT_HASH_TREE_LEAF_SIZE)));
 
         Set<Namespace> inclNamespaces = new HashSet<>();
         String[] filters = getConfigValues(line, properties, FILTER);
@@ -201,6 +247,14 @@ public class DiffUtilApp {
         }
 
         config.setNamespaceFilters(line.getOptionValues("f"));
+
+        String diffReport = getConfigValue(line, properties, DIFF_REPORT);
+        if (diffReport != null) {
+            DiffUtils.setReportWriter(new DiffReportWriter(diffReport, Long.parseLong(
+                    getConfigValue(line, properties, DIFF_REPORT_MAX_BYTES, DEFAULT_DIFF_REPORT_MAX_BYTES))));
+        }
+        MetricsExporter metricsExporter = MetricsExporter.start(getConfigValue(line, properties, METRICS_PORT),
+                getConfigValue(line, properties, METRICS_FILE), MetricsExporter.DEFAULT_SNAPSHOT_INTERVAL_MILLIS);
         if (config.getMode().equals(PARTITION_MODE)) {
             PartitionDiffUtil diffUtil = new PartitionDiffUtil(config);
             diffUtil.run();
@@ -216,6 +270,12 @@ public class DiffUtilApp {
             System.out.println("Unknown mode: " + config.getMode() + ". Exiting.");
             System.exit(1);
         }
+        if (DiffUtils.getReportWriter() != null) {
+            DiffUtils.getReportWriter().close();
+        }
+        if (metricsExporter != null) {
+            metricsExporter.stop();
+        }
 
     }
 
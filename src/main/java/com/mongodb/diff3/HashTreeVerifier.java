@@ -0,0 +1,202 @@
+package com.mongodb.diff3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Facet;
+import com.mongodb.client.model.Filters;
+
+/**
+ * Walks a {@link RangeHashTree} top down to find the leaf ranges that differ between
+ * source and destination. The nodes of one level are hashed on each cluster by an
+ * aggregation with one <code>$facet</code> per node, and only the children of nodes that
+ * differ are hashed next, so ranges that still match are never read over the network.
+ *
+ * The server side range hash is the document count, the summed <code>$bsonSize</code> and
+ * the summed <code>$toHashedIndexKey</code> of the documents (MongoDB 7.0+). That key
+ * hashes numbers by their 64 bit integer value, so a node is also descended into whenever
+ * the exact hashes stored in the tree show that it differed when it was last diffed. A
+ * change made since then that only alters the fraction of a double, or swaps a long for
+ * an equal double, is not seen; a run without <code>--reverify</code> rules those out.
+ */
+public class HashTreeVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(HashTreeVerifier.class);
+
+    // keeps each summand small enough that the sum of a range can't overflow a long
+    private static final long HASH_MODULUS = 1_000_000_007L;
+
+    // bounds the number of sub-pipelines that every document of a level is matched against
+    private static final int MAX_FACETS = 64;
+
+    private final Function<List<RangeHashTree.Node>, RangeDigest[]> sourceHasher;
+    private final Function<List<RangeHashTree.Node>, RangeDigest[]> destHasher;
+
+    private long matchedDocs;
+
+    public HashTreeVerifier(MongoCollection<RawBsonDocument> sourceColl, MongoCollection<RawBsonDocument> destColl,
+                            Bson baseFilter) {
+        this(nodes -> hashRanges(sourceColl, baseFilter, nodes), nodes -> hashRanges(destColl, baseFilter, nodes));
+    }
+
+    HashTreeVerifier(Function<List<RangeHashTree.Node>, RangeDigest[]> sourceHasher,
+                     Function<List<RangeHashTree.Node>, RangeDigest[]> destHasher) {
+        this.sourceHasher = sourceHasher;
+        this.destHasher = destHasher;
+    }
+
+    /**
+     * @return the leaves whose ranges differ between source and destination
+     */
+    public List<RangeHashTree.Node> findDifferingLeaves(RangeHashTree tree) {
+        List<RangeHashTree.Node> differing = new ArrayList<>();
+        List<RangeHashTree.Node> level = new ArrayList<>();
+        level.add(tree.root());
+        int depth = 0;
+        while (!level.isEmpty()) {
+            RangeDigest[] src = sourceHasher.apply(level);
+            RangeDigest[] dest = destHasher.apply(level);
+            depth++;
+            List<RangeHashTree.Node> next = new ArrayList<>();
+            for (int i = 0; i < level.size(); i++) {
+                RangeHashTree.Node node = level.get(i);
+                if (src[i].equals(dest[i]) && tree.wasEqual(node)) {
+                    matchedDocs += src[i].count;
+                    continue;
+                }
+                logger.trace("range {} differs, source: {}, dest: {}", node, src[i], dest[i]);
+                if (node.isLeaf()) {
+                    differing.add(node);
+                } else {
+                    next.addAll(node.children());
+                }
+            }
+            level = next;
+        }
+        logger.debug("{} of {} leaves differ after {} levels", differing.size(), tree.getNumLeaves(), depth);
+        return differing;
+    }
+
+    /**
+     * Hashes the node ranges with one aggregation per {@value #MAX_FACETS} nodes, reading
+     * only the documents of those ranges.
+     */
+    private static RangeDigest[] hashRanges(MongoCollection<RawBsonDocument> coll, Bson baseFilter,
+                                            List<RangeHashTree.Node> nodes) {
+        RangeDigest[] digests = new RangeDigest[nodes.size()];
+        for (int start = 0; start < nodes.size(); start += MAX_FACETS) {
+            List<RangeHashTree.Node> batch = nodes.subList(start, Math.min(start + MAX_FACETS, nodes.size()));
+            RangeDigest[] batchDigests = hashBatch(coll, baseFilter, batch);
+            System.arraycopy(batchDigests, 0, digests, start, batchDigests.length);
+        }
+        return digests;
+    }
+
+    private static RangeDigest[] hashBatch(MongoCollection<RawBsonDocument> coll, Bson baseFilter,
+                                           List<RangeHashTree.Node> nodes) {
+        List<Bson> ranges = new ArrayList<>(nodes.size());
+        List<Facet> facets = new ArrayList<>(nodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            Bson range = rangeFilter(nodes.get(i));
+            ranges.add(range);
+            facets.add(new Facet(String.valueOf(i), Aggregates.match(range), rangeHashGroup()));
+        }
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(Filters.and(baseFilter, Filters.or(ranges))));
+        pipeline.add(Aggregates.facet(facets));
+        RawBsonDocument res = coll.aggregate(pipeline).first();
+
+        RangeDigest[] digests = new RangeDigest[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            BsonArray group = res == null ? new BsonArray() : res.getArray(String.valueOf(i));
+            if (group.isEmpty()) {
+                digests[i] = new RangeDigest(0, 0, 0);
+            } else {
+                BsonDocument doc = group.get(0).asDocument();
+                digests[i] = new RangeDigest(doc.getNumber("n").longValue(), doc.getNumber("h").longValue(),
+                        doc.getNumber("b").longValue());
+            }
+        }
+        return digests;
+    }
+
+    private static Bson rangeHashGroup() {
+        BsonDocument hash = new BsonDocument("$mod", new BsonArray(List.of(
+                new BsonDocument("$toHashedIndexKey", new BsonString("$$ROOT")), new BsonInt64(HASH_MODULUS))));
+        BsonDocument group = new BsonDocument("_id", new BsonInt32(0));
+        group.put("n", new BsonDocument("$sum", new BsonInt32(1)));
+        group.put("h", new BsonDocument("$sum", hash));
+        group.put("b", new BsonDocument("$sum", new BsonDocument("$bsonSize", new BsonString("$$ROOT"))));
+        return new BsonDocument("$group", group);
+    }
+
+    static Bson rangeFilter(RangeHashTree.Node node) {
+        return rangeFilter(node.getLowerBound(), node.getUpperBound());
+    }
+
+    static Bson rangeFilter(BsonValue lower, BsonValue upper) {
+        if (lower == null && upper == null) {
+            return new BsonDocument();
+        } else if (lower == null) {
+            return Filters.lt("_id", upper);
+        } else if (upper == null) {
+            return Filters.gte("_id", lower);
+        }
+        return Filters.and(Filters.gte("_id", lower), Filters.lt("_id", upper));
+    }
+
+    /**
+     * @return the number of documents in the ranges that matched without being read
+     */
+    public long getMatchedDocs() {
+        return matchedDocs;
+    }
+
+    /**
+     * The server side hash of a range, see the class comment.
+     */
+    static class RangeDigest {
+        private final long count;
+        private final long hash;
+        private final long bytes;
+
+        RangeDigest(long count, long hash, long bytes) {
+            this.count = count;
+            this.hash = hash;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof RangeDigest)) {
+                return false;
+            }
+            RangeDigest other = (RangeDigest) obj;
+            return count == other.count && hash == other.hash && bytes == other.bytes;
+        }
+
+        @Override
+        public int hashCode() {
+            return (Long.hashCode(count) * 31 + Long.hashCode(hash)) * 31 + Long.hashCode(bytes);
+        }
+
+        @Override
+        public String toString() {
+            return count + " docs, " + bytes + " bytes, hash " + Long.toHexString(hash);
+        }
+    }
+}
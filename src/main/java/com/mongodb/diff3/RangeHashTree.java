@@ -0,0 +1,275 @@
+package com.mongodb.diff3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonValue;
+
+/**
+ * Hierarchical hash tree over the <code>_id</code> ranges of a chunk or partition. The
+ * leaves are consecutive <code>_id</code> ranges of roughly <code>leafSize</code> documents
+ * that are captured while a chunk is first diffed, and each internal node covers up to
+ * <code>fanout</code> children. The tree is persisted with the chunk status so that a
+ * re-verification can compare range hashes on both clusters and only read the documents
+ * of the leaf ranges whose hashes differ, see {@link HashTreeVerifier}.
+ *
+ * Each leaf stores the count and the summed 64 bit document hashes of both sides as they
+ * were when the leaf was last diffed. Range hashes are sums, so the hashes of a node are
+ * the sums of its leaves and only the leaves are stored.
+ *
+ * A tree is found again by the exact bounds of its chunk, so it is only kept for chunks:
+ * partition bounds are drawn from a random <code>$sample</code> on every run and would
+ * almost never match a stored tree.
+ */
+public class RangeHashTree {
+
+    public static final int DEFAULT_FANOUT = 16;
+
+    private final int fanout;
+    // n - 1 split points for n leaves, leaf i covers [splits[i - 1], splits[i])
+    private final List<BsonValue> splits;
+    private final RangeHash[] sourceLeaves;
+    private final RangeHash[] destLeaves;
+
+    RangeHashTree(int fanout, List<BsonValue> splits, RangeHash[] sourceLeaves, RangeHash[] destLeaves) {
+        this.fanout = fanout;
+        this.splits = splits;
+        this.sourceLeaves = sourceLeaves;
+        this.destLeaves = destLeaves;
+    }
+
+    public int getFanout() {
+        return fanout;
+    }
+
+    public int getNumLeaves() {
+        return sourceLeaves.length;
+    }
+
+    public Node root() {
+        return new Node(0, getNumLeaves());
+    }
+
+    /**
+     * @return the lower (inclusive) bound of the leaf, or null if unbounded
+     */
+    BsonValue lowerBound(int leaf) {
+        return leaf == 0 ? null : splits.get(leaf - 1);
+    }
+
+    /**
+     * @return the upper (exclusive) bound of the leaf, or null if unbounded
+     */
+    BsonValue upperBound(int leaf) {
+        return leaf >= splits.size() ? null : splits.get(leaf);
+    }
+
+    /**
+     * @return whether both sides of the node hashed the same when its leaves were last diffed
+     */
+    boolean wasEqual(Node node) {
+        return sum(sourceLeaves, node).equals(sum(destLeaves, node));
+    }
+
+    RangeHash getSourceHash(Node node) {
+        return sum(sourceLeaves, node);
+    }
+
+    RangeHash getDestHash(Node node) {
+        return sum(destLeaves, node);
+    }
+
+    void setLeafHashes(int leaf, RangeHash source, RangeHash dest) {
+        sourceLeaves[leaf] = source;
+        destLeaves[leaf] = dest;
+    }
+
+    private static RangeHash sum(RangeHash[] leaves, Node node) {
+        long count = 0;
+        long hash = 0;
+        for (int i = node.getFirstLeaf(); i < node.getEndLeaf(); i++) {
+            count += leaves[i].count;
+            hash += leaves[i].hash;
+        }
+        return new RangeHash(count, hash);
+    }
+
+    /**
+     * The document count and the (order independent) wrapping sum of the 64 bit document
+     * hashes of a range.
+     */
+    static class RangeHash {
+        private final long count;
+        private final long hash;
+
+        RangeHash(long count, long hash) {
+            this.count = count;
+            this.hash = hash;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        long getHash() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof RangeHash)) {
+                return false;
+            }
+            RangeHash other = (RangeHash) obj;
+            return count == other.count && hash == other.hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(count) * 31 + Long.hashCode(hash);
+        }
+
+        @Override
+        public String toString() {
+            return count + " docs, hash " + Long.toHexString(hash);
+        }
+    }
+
+    /**
+     * A contiguous range of leaves, <code>[firstLeaf, endLeaf)</code>.
+     */
+    public class Node {
+        private final int firstLeaf;
+        private final int endLeaf;
+
+        Node(int firstLeaf, int endLeaf) {
+            this.firstLeaf = firstLeaf;
+            this.endLeaf = endLeaf;
+        }
+
+        public boolean isLeaf() {
+            return endLeaf - firstLeaf == 1;
+        }
+
+        public int getFirstLeaf() {
+            return firstLeaf;
+        }
+
+        public int getEndLeaf() {
+            return endLeaf;
+        }
+
+        public BsonValue getLowerBound() {
+            return lowerBound(firstLeaf);
+        }
+
+        public BsonValue getUpperBound() {
+            return upperBound(endLeaf - 1);
+        }
+
+        public List<Node> children() {
+            List<Node> children = new ArrayList<>(fanout);
+            int numLeaves = endLeaf - firstLeaf;
+            // smallest power of fanout that is at least the number of leaves, divided once
+            int span = 1;
+            while (span * fanout < numLeaves) {
+                span *= fanout;
+            }
+            for (int start = firstLeaf; start < endLeaf; start += span) {
+                children.add(new Node(start, Math.min(start + span, endLeaf)));
+            }
+            return children;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + getLowerBound() + ", " + getUpperBound() + ")";
+        }
+    }
+
+    public BsonDocument toBsonDocument() {
+        BsonDocument doc = new BsonDocument();
+        doc.put("fanout", new BsonInt32(fanout));
+        doc.put("splits", new BsonArray(splits));
+        BsonArray leaves = new BsonArray();
+        for (int i = 0; i < sourceLeaves.length; i++) {
+            BsonDocument leaf = new BsonDocument("n", new BsonInt64(sourceLeaves[i].count));
+            leaf.put("h", new BsonInt64(sourceLeaves[i].hash));
+            leaf.put("dn", new BsonInt64(destLeaves[i].count));
+            leaf.put("dh", new BsonInt64(destLeaves[i].hash));
+            leaves.add(leaf);
+        }
+        doc.put("leaves", leaves);
+        return doc;
+    }
+
+    public static RangeHashTree fromBsonDocument(BsonDocument doc) {
+        int fanout = doc.getInt32("fanout", new BsonInt32(DEFAULT_FANOUT)).getValue();
+        List<BsonValue> splits = new ArrayList<>(doc.getArray("splits").getValues());
+        BsonArray leaves = doc.getArray("leaves");
+        RangeHash[] source = new RangeHash[leaves.size()];
+        RangeHash[] dest = new RangeHash[leaves.size()];
+        for (int i = 0; i < leaves.size(); i++) {
+            BsonDocument leaf = leaves.get(i).asDocument();
+            source[i] = new RangeHash(leaf.getNumber("n").longValue(), leaf.getNumber("h").longValue());
+            dest[i] = new RangeHash(leaf.getNumber("dn").longValue(), leaf.getNumber("dh").longValue());
+        }
+        return new RangeHashTree(fanout, splits, source, dest);
+    }
+
+    /**
+     * Captures the leaf boundaries and hashes from the documents of a merge-join, visited in
+     * ascending <code>_id</code> order. Leaves are split on source documents, when both
+     * sides hold the same <code>_id</code> the source document must be added first.
+     */
+    public static class Builder {
+        private final long leafSize;
+        private final int fanout;
+        private final List<BsonValue> splits = new ArrayList<>();
+        private final List<RangeHash> sourceLeaves = new ArrayList<>();
+        private final List<RangeHash> destLeaves = new ArrayList<>();
+        private long sourceCount;
+        private long sourceHash;
+        private long destCount;
+        private long destHash;
+
+        public Builder(long leafSize, int fanout) {
+            this.leafSize = leafSize;
+            this.fanout = fanout;
+        }
+
+        public void addSource(BsonValue id, long hash) {
+            if (sourceCount == leafSize) {
+                splits.add(id);
+                endLeaf();
+            }
+            sourceCount++;
+            sourceHash += hash;
+        }
+
+        public void addDest(long hash) {
+            destCount++;
+            destHash += hash;
+        }
+
+        private void endLeaf() {
+            sourceLeaves.add(new RangeHash(sourceCount, sourceHash));
+            destLeaves.add(new RangeHash(destCount, destHash));
+            sourceCount = 0;
+            sourceHash = 0;
+            destCount = 0;
+            destHash = 0;
+        }
+
+        public RangeHashTree build() {
+            endLeaf();
+            RangeHash[] source = sourceLeaves.toArray(new RangeHash[0]);
+            RangeHash[] dest = destLeaves.toArray(new RangeHash[0]);
+            return new RangeHashTree(fanout, new ArrayList<>(splits), source, dest);
+        }
+    }
+}
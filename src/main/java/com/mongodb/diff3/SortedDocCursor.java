@@ -0,0 +1,171 @@
+package com.mongodb.diff3;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.bson.BsonDocument;
+import org.bson.BsonNull;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.util.bson.BsonValueComparator;
+
+/**
+ * Wraps a cursor that is sorted on a key pattern (e.g. <code>{_id: 1}</code> or the
+ * shard key index) and hands out documents in groups that share the same sort key, so
+ * that two sides can be merge-joined while holding only one group per side in memory.
+ */
+class SortedDocCursor implements Closeable {
+
+    private static final BsonValueComparator comparator = new BsonValueComparator();
+
+    private final MongoCursor<RawBsonDocument> cursor;
+    private final String[] keyFields;
+    private final int[] directions;
+
+    private RawBsonDocument next;
+    private BsonValue[] nextKey;
+    private BsonValue[] lastKey;
+    private boolean started;
+    private long bytesProcessed;
+    private long docCount;
+
+    SortedDocCursor(MongoCursor<RawBsonDocument> cursor, BsonDocument sortSpec) {
+        this.cursor = cursor;
+        this.keyFields = new String[sortSpec.size()];
+        this.directions = new int[sortSpec.size()];
+        int i = 0;
+        for (Map.Entry<String, BsonValue> entry : sortSpec.entrySet()) {
+            keyFields[i] = entry.getKey();
+            directions[i] = entry.getValue().asNumber().intValue() < 0 ? -1 : 1;
+            i++;
+        }
+    }
+
+    boolean hasNext() {
+        if (!started) {
+            started = true;
+            advance();
+        }
+        return next != null;
+    }
+
+    BsonValue[] peekKey() {
+        return hasNext() ? nextKey : null;
+    }
+
+    /**
+     * Returns all of the consecutive documents that share the current sort key. When the
+     * sort key is unique (<code>_id</code>) the group always holds a single document.
+     */
+    List<RawBsonDocument> nextGroup() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        List<RawBsonDocument> group = new ArrayList<>(1);
+        BsonValue[] groupKey = nextKey;
+        do {
+            group.add(next);
+            advance();
+        } while (next != null && compareKeys(groupKey, nextKey) == 0);
+        return group;
+    }
+
+    int compareKeys(BsonValue[] x, BsonValue[] y) {
+        for (int i = 0; i < keyFields.length; i++) {
+            int result = comparator.compare(x[i], y[i]) * directions[i];
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    private void advance() {
+        if (!cursor.hasNext()) {
+            next = null;
+            nextKey = null;
+            return;
+        }
+        next = cursor.next();
+        bytesProcessed += next.getByteBuffer().remaining();
+        docCount++;
+        lastKey = nextKey;
+        nextKey = extractKey(next);
+        if (lastKey != null && compareKeys(lastKey, nextKey) > 0) {
+            throw new OutOfOrderException(String.format("cursor returned %s after %s",
+                    keyString(nextKey), keyString(lastKey)));
+        }
+    }
+
+    private BsonValue[] extractKey(BsonDocument doc) {
+        BsonValue[] key = new BsonValue[keyFields.length];
+        for (int i = 0; i < keyFields.length; i++) {
+            key[i] = extract(doc, keyFields[i]);
+        }
+        return key;
+    }
+
+    /**
+     * Resolves a (possibly dotted) field path, a missing field sorts as null the same way
+     * that it does in an index.
+     */
+    static BsonValue extract(BsonDocument doc, String path) {
+        BsonValue current = doc;
+        int start = 0;
+        while (current != null) {
+            if (!current.isDocument()) {
+                return BsonNull.VALUE;
+            }
+            int dot = path.indexOf('.', start);
+            String field = dot < 0 ? path.substring(start) : path.substring(start, dot);
+            current = current.asDocument().get(field);
+            if (dot < 0) {
+                break;
+            }
+            start = dot + 1;
+        }
+        return current == null ? BsonNull.VALUE : current;
+    }
+
+    private static String keyString(BsonValue[] key) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < key.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(key[i]);
+        }
+        return sb.append("]").toString();
+    }
+
+    long getBytesProcessed() {
+        return bytesProcessed;
+    }
+
+    long getDocCount() {
+        return docCount;
+    }
+
+    @Override
+    public void close() {
+        cursor.close();
+    }
+
+    /**
+     * Thrown when the server ordering does not agree with the client side comparator,
+     * e.g. a collection with a non-simple default collation.
+     */
+    static class OutOfOrderException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        OutOfOrderException(String message) {
+            super(message);
+        }
+    }
+}
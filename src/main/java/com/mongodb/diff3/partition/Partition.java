@@ -6,6 +6,7 @@ import com.mongodb.model.Namespace;
 import org.bson.BsonDocument;
 import org.bson.BsonMaxKey;
 import org.bson.BsonMinKey;
+import org.bson.BsonValue;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 
@@ -29,7 +30,8 @@ public class Partition {
     }
 
     public ChunkDef toChunkDef() {
-        return new ChunkDef(namespace, (BsonDocument) lowerBound, (BsonDocument) upperBound);
+        return new ChunkDef(namespace, new BsonDocument("_id", (BsonValue) lowerBound),
+                new BsonDocument("_id", (BsonValue) upperBound));
     }
 
     public Namespace getNamespace() {
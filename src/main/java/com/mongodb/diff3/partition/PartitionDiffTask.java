@@ -8,25 +8,29 @@ import com.mongodb.diff3.DiffTask;
 import com.mongodb.diff3.RetryStatus;
 import com.mongodb.diff3.RetryTask;
 import org.bson.BsonDocument;
+import org.bson.BsonValue;
 import org.bson.conversions.Bson;
 
-import java.util.Queue;
+import java.util.ArrayList;
+import java.util.List;
 
 
 public class PartitionDiffTask extends DiffTask {
 
 
-    protected final Partition partition;
+    protected Partition partition;
+    private final PartitionManager partitionManager;
     protected final MongoClient sourceClient;
     protected final MongoClient destClient;
     public static final PartitionDiffTask END_TOKEN = new PartitionDiffTask(
-            null, null, null, null, null);
+            null, null, null, null, null, null);
 
 
     public PartitionDiffTask(Partition partition, MongoClient sourceClient, MongoClient destClient,
-    		DiffSummary summary, DiffConfiguration config) {
+    		DiffSummary summary, DiffConfiguration config, PartitionManager partitionManager) {
         super(config, (partition == null) ? null : partition.getNamespace(), summary);
         this.partition = partition;
+        this.partitionManager = partitionManager;
         this.sourceClient = sourceClient;
         this.destClient = destClient;
         if (this.partition != null) {
@@ -44,6 +48,26 @@ public class PartitionDiffTask extends DiffTask {
 //        return null;
 //    }
 
+    @Override
+    protected boolean shouldSplit(long elapsedMillis) {
+        long target = config.getPartitionTargetMillis();
+        return partitionManager != null && target > 0 && elapsedMillis > target;
+    }
+
+    @Override
+    protected List<PartitionDiffTask> split(BsonValue resumeId) {
+        List<Partition> parts = partitionManager.splitRemainder(partition, resumeId, sourceClient,
+                config.getPartitionSplitFactor());
+        partition = new Partition(partition.getNamespace(), partition.getLowerBound(), resumeId,
+                partition.getEstimatedDocCount());
+        chunkDef = partition.toChunkDef();
+        List<PartitionDiffTask> tasks = new ArrayList<>(parts.size());
+        for (Partition p : parts) {
+            tasks.add(new PartitionDiffTask(p, sourceClient, destClient, summary, config, partitionManager));
+        }
+        return tasks;
+    }
+
     @Override
     protected String unitString() {
         return partition.toString();
@@ -6,11 +6,10 @@ import com.mongodb.MongoClientSettings;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.diff3.DiffConfiguration;
-//import com.mongodb.diff3.DiffResult;
 import com.mongodb.diff3.DiffResult;
 import com.mongodb.diff3.DiffSummary;
 import com.mongodb.diff3.DiffSummaryClient;
-import com.mongodb.diff3.RetryTask;
+import com.mongodb.diff3.DiffTask;
 import com.mongodb.model.Collection;
 import com.mongodb.model.DatabaseCatalog;
 import com.mongodb.model.DatabaseCatalogProvider;
@@ -22,16 +21,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.DelayQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -40,7 +37,6 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -54,12 +50,11 @@ public class PartitionDiffUtil {
     private final ThreadPoolExecutor initialTaskPool;
 
     private final ThreadPoolExecutor partitionerTaskPool;
-    private ExecutorService retryTaskPool;
-    private final List<Future<DiffResult>> initialTaskPoolResults = new ArrayList<>();
     private final List<Future<Pair<String, Integer>>> partitionerTaskPoolResults = new ArrayList<>();
     private final long estimatedTotalDocs;
     private final long totalSize;
-    private Queue<PartitionDiffTask> partitionerTaskPoolQueue;
+    private BlockingQueue<PartitionDiffTask> partitionerTaskPoolQueue;
+    private static final Future<DiffResult> LISTENER_DONE = CompletableFuture.completedFuture(null);
 
     public PartitionDiffUtil(DiffConfiguration config) {
         this.config = config;
@@ -91,15 +86,6 @@ public class PartitionDiffUtil {
     }
 
     public void run() {
-        AtomicBoolean partitionerTaskPoolDone = new AtomicBoolean(false);
-        AtomicBoolean initialTaskPoolDone = new AtomicBoolean(false);
-        AtomicBoolean retryTaskPoolDone = new AtomicBoolean(false);
-        AtomicBoolean partitionerTaskPoolListenerDone = new AtomicBoolean(false);
-        AtomicBoolean partitionerTaskPoolCollectorDone = new AtomicBoolean(false);
-        AtomicBoolean retryTaskPoolCollectorDone = new AtomicBoolean(false);
-        AtomicBoolean retryTaskPoolListenerDone = new AtomicBoolean(false);
-        AtomicBoolean initialTaskPoolCollectorDone = new AtomicBoolean(false);
-
         Set<Collection> colls = databaseCatalogProvider.get().getUnshardedCollections();
 
         // Initialize diff summary (optionally with db storage)
@@ -112,186 +98,108 @@ public class PartitionDiffUtil {
 
         partitionerTaskPoolQueue = new LinkedBlockingQueue<>();
 
-        AtomicInteger totalPartitions = new AtomicInteger(-1);
-
         ThreadFactory partitionerTaskPoolThreadFactory =
                 new ThreadFactoryBuilder().setNameFormat("PartionerTaskPool-%d").build();
         partitionerTaskPool.setThreadFactory(partitionerTaskPoolThreadFactory);
+        ThreadFactory initialTaskPoolThreadFactory = new ThreadFactoryBuilder().setNameFormat("WorkerPool-%d").build();
+        initialTaskPool.setThreadFactory(initialTaskPoolThreadFactory);
 
-        ScheduledExecutorService partitionerTaskPoolListener = Executors.newSingleThreadScheduledExecutor();
+        // Results are handed to the collector as soon as each task completes, the listener adds
+        // LISTENER_DONE to the same queue once every partition has been submitted
+        BlockingQueue<Future<DiffResult>> completionQueue = new LinkedBlockingQueue<>();
+        CompletionService<DiffResult> initialTaskCompletionService =
+                new ExecutorCompletionService<>(initialTaskPool, completionQueue);
 
         for (Collection coll : colls) {
             PartitionTask pt = new PartitionTask(coll.getNamespace(), sourceClient,
                     destClient, partitionManager, partitionerTaskPoolQueue, summary, config);
             partitionerTaskPoolResults.add(partitionerTaskPool.submit(pt));
         }
-        partitionerTaskPoolListener.scheduleWithFixedDelay(new Runnable() {
+
+        AtomicInteger totalPartitions = new AtomicInteger(-1);
+        ExecutorService partitionerTaskPoolListener = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("PartitionerTaskPoolListener").build());
+        partitionerTaskPoolListener.execute(() -> {
             int endTokensSeen = 0;
             int numPartitions = 0;
-
-            @Override
-            public void run() {
-                PartitionDiffTask pt;
-                while ((pt = partitionerTaskPoolQueue.poll()) != null) {
-                    try {
-                        if (pt == PartitionDiffTask.END_TOKEN) {
-                            logger.debug("[PartitionerTaskPoolListener] saw an EndToken ({}/{})",
-                                    endTokensSeen + 1, colls.size());
-                            if (++endTokensSeen == colls.size()) {
-                                logger.debug("[PartitionerTaskPoolListener] has seen all end tokens ({})", endTokensSeen);
-                                totalPartitions.set(numPartitions);
-                                summary.setTotalChunks(numPartitions);
-                                partitionerTaskPoolListenerDone.set(true);
-//                                break;
-                            }
-                        } else {
-                            initialTaskPoolResults.add(initialTaskPool.submit(pt));
-                            numPartitions++;
-                        }
-                    } catch (Exception e) {
-                        logger.error("[PartitionerTaskPoolListener] Exception occurred while running partition task", e);
-                        throw new RuntimeException(e);
+            try {
+                while (endTokensSeen < colls.size()) {
+                    PartitionDiffTask pt = partitionerTaskPoolQueue.take();
+                    if (pt == PartitionDiffTask.END_TOKEN) {
+                        logger.debug("[PartitionerTaskPoolListener] saw an EndToken ({}/{})",
+                                endTokensSeen + 1, colls.size());
+                        endTokensSeen++;
+                    } else {
+                        initialTaskCompletionService.submit(pt);
+                        numPartitions++;
                     }
                 }
+                logger.debug("[PartitionerTaskPoolListener] has seen all end tokens ({})", endTokensSeen);
+            } catch (InterruptedException e) {
+                logger.error("[PartitionerTaskPoolListener] was interrupted", e);
+                Thread.currentThread().interrupt();
+            } finally {
+                totalPartitions.set(numPartitions);
+                completionQueue.add(LISTENER_DONE);
             }
-        }, 0, 100, TimeUnit.MILLISECONDS);
-
-        ThreadFactory initialTaskPoolThreadFactory = new ThreadFactoryBuilder().setNameFormat("WorkerPool-%d").build();
-        initialTaskPool.setThreadFactory(initialTaskPoolThreadFactory);
-
-        ScheduledExecutorService partitionerTaskPoolCollector = Executors.newSingleThreadScheduledExecutor();
-        Set<Future<Pair<String, Integer>>> partitionerTaskPoolFuturesSeen = new HashSet<>();
-
-        Future<?> partitionerTaskPoolFuture = partitionerTaskPoolCollector.scheduleWithFixedDelay(
-                new Runnable() {
-                    int runs = 0;
-                    int expectedResultSize = colls.size();
-
-                    @Override
-                    public void run() {
-                        logger.trace("[PartitionerTaskPoolCollector] loop: {} :: {} expected results, {} seen",
-                                ++runs, expectedResultSize, partitionerTaskPoolFuturesSeen.size());
-                        if (partitionerTaskPoolFuturesSeen.size() < expectedResultSize) {
-                            for (Future<Pair<String, Integer>> future : partitionerTaskPoolResults) {
-                                try {
-                                    if (!partitionerTaskPoolFuturesSeen.contains(future) && future.isDone()) {
-                                        partitionerTaskPoolFuturesSeen.add(future);
-                                        Pair<String, Integer> pair = future.get();
-                                        int newPartitions = pair.getRight();
-                                        String coll = pair.getLeft();
-                                        logger.debug("[PartitionerTaskPoolCollector] saw {} partitions created for {}",
-                                                newPartitions, coll);
-//                                    totalPartitions.getAndAdd(newPartitions);
-                                    }
-                                } catch (InterruptedException e) {
-                                    logger.error("[PartitionerTaskPoolCollector] was interrupted", e);
-                                    throw new RuntimeException(e);
-                                } catch (ExecutionException e) {
-                                    logger.error("[PartitionerTaskPoolCollector] threw an exception", e);
-                                    throw new RuntimeException(e);
-                                }
-                            }
-                        } else {
-                            partitionerTaskPoolCollectorDone.set(true);
+        });
+
+        // only the collector counts splits and sets the total, so none is missed
+        int collected = 0;
+        int splitPartitions = 0;
+        boolean listenerDone = false;
+        try {
+            while (!listenerDone || collected < totalPartitions.get() + splitPartitions) {
+                Future<DiffResult> future = completionQueue.take();
+                if (future == LISTENER_DONE) {
+                    listenerDone = true;
+                    summary.setTotalChunks(totalPartitions.get() + splitPartitions);
+                    continue;
+                }
+                collected++;
+                try {
+                    DiffResult result = future.get();
+                    int failures = result.getFailedKeys().size();
+                    logger.trace("[InitialTaskPoolCollector] got result for {}: " +
+                                    "{} matches, {} failures, {} bytes",
+                            result.getChunkDef().unitString(), result.getMatches(),
+                            failures, result.getBytesProcessed());
+                    summary.updateInitTask(result);
+                    if (!result.getRemainderTasks().isEmpty()) {
+                        // an overrunning partition was narrowed, diff the rest of its range as new partitions
+                        splitPartitions += result.getRemainderTasks().size();
+                        if (listenerDone) {
+                            summary.setTotalChunks(totalPartitions.get() + splitPartitions);
                         }
-                    }
-                }, 0, 1000, TimeUnit.MILLISECONDS);
-
-        ScheduledExecutorService initialTaskPoolCollector = Executors.newSingleThreadScheduledExecutor();
-        Set<Future<DiffResult>> initialTaskPoolFuturesSeen = new HashSet<>();
-        Future<?> initialTaskPoolFuture = initialTaskPoolCollector.scheduleWithFixedDelay(new Runnable() {
-            int runs = 0;
-
-            @Override
-            public void run() {
-                int expectedResultSize = totalPartitions.get();
-                logger.trace("[InitialTaskPoolCollector] loop: {} :: {} expected results, {} seen",
-                        ++runs, expectedResultSize, initialTaskPoolFuturesSeen.size());
-                if (expectedResultSize >= 0) {
-                    if (initialTaskPoolFuturesSeen.size() < expectedResultSize) {
-                        for (Future<DiffResult> future : initialTaskPoolResults) {
-                            try {
-                                if (!initialTaskPoolFuturesSeen.contains(future) && future.isDone()) {
-                                    initialTaskPoolFuturesSeen.add(future);
-                                    DiffResult result = future.get();
-                                    int failures = result.getFailedKeys().size();
-                                    logger.trace("[InitialTaskPoolCollector] got result for {}: " +
-                                                    "{} matches, {} failures, {} bytes",
-                                            result.getChunkDef().unitString(), result.getMatches(),
-                                            failures, result.getBytesProcessed());
-
-                                    summary.updateInitTask(result);
-
-                                }
-                            } catch (InterruptedException e) {
-                                logger.error("[InitialTaskPoolCollector] diff task was interrupted", e);
-                                throw new RuntimeException(e);
-                            } catch (ExecutionException e) {
-                                logger.error("[InitialTaskPoolCollector] diff task threw an exception", e);
-                                throw new RuntimeException(e);
-                            }
+                        for (DiffTask task : result.getRemainderTasks()) {
+                            initialTaskCompletionService.submit(task);
                         }
-                    } else {
-                        initialTaskPoolCollectorDone.set(true);
                     }
+                } catch (ExecutionException e) {
+                    logger.error("[InitialTaskPoolCollector] diff task threw an exception", e);
                 }
             }
-        }, 0, 1, TimeUnit.SECONDS);
-
+        } catch (InterruptedException e) {
+            logger.error("[Main] interrupted while collecting diff results", e);
+            Thread.currentThread().interrupt();
+        }
 
-        boolean partitionerTaskPoolResult = false;
-        boolean initialTaskPoolResult = false;
-        while (!(partitionerTaskPoolDone.get() && initialTaskPoolDone.get() && retryTaskPoolDone.get())) {
+        logger.info("[Main] shutting down partitioner task pool listener");
+        partitionerTaskPoolListener.shutdown();
+        logger.info("[Main] shutting down partitioner task pool");
+        partitionerTaskPool.shutdown();
+        for (Future<Pair<String, Integer>> future : partitionerTaskPoolResults) {
             try {
-                Thread.sleep(1000);
-                logger.trace("Check completion status");
-                if (!partitionerTaskPoolDone.get()) {
-                    if (partitionerTaskPoolListenerDone.get() && !partitionerTaskPoolListener.isShutdown()) {
-                        logger.info("[Main] shutting down partitioner task pool listener");
-                        partitionerTaskPoolListener.shutdown();
-                    } else {
-                        logger.trace("[Main] task pool listener still running");
-                    }
-                    if (partitionerTaskPoolCollectorDone.get() && !partitionerTaskPoolCollector.isShutdown()) {
-                        logger.info("[Main] shutting down partitioner task pool collector");
-                        partitionerTaskPoolResult = partitionerTaskPoolFuture.cancel(false);
-                        partitionerTaskPoolCollector.shutdown();
-                    } else {
-                        logger.trace("[Main] partitioner task pool collector still running");
-                    }
-                    if (partitionerTaskPoolResult) {
-                        partitionerTaskPoolDone.set(true);
-                        logger.info("[Main] shutting down partitioner task pool");
-                        partitionerTaskPool.shutdown();
-                        if (!partitionerTaskPoolListener.isShutdown()) {
-                            partitionerTaskPoolListener.shutdown();
-                        }
-                    }
-                } else {
-                    logger.trace("[Main] partitioner task pool still running");
-                }
-                if (!initialTaskPoolDone.get()) {
-                    if (initialTaskPoolCollectorDone.get() && !initialTaskPoolCollector.isShutdown()) {
-                        logger.info("[Main] shutting down initial task pool collector");
-                        initialTaskPoolResult = initialTaskPoolFuture.cancel(false);
-                        initialTaskPoolCollector.shutdown();
-                    } else {
-                        logger.trace("[Main] Initial task pool collector still running");
-                    }
-                    if (initialTaskPoolResult) {
-                        initialTaskPoolDone.set(true);
-                        logger.info("[Main] shutting down initial task pool");
-                        initialTaskPool.shutdown();
-                    }
-                } else {
-                    logger.trace("[Main] Initial task pool still runnign");
-                }
-
-            } catch (Exception e) {
-                logger.error("[Main] Error collecting partition pool and/or worker pool", e);
-                throw new RuntimeException(e);
+                Pair<String, Integer> pair = future.get();
+                logger.debug("[Main] saw {} partitions created for {}", pair.getRight(), pair.getLeft());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                logger.error("[Main] partitioner task threw an exception", e);
             }
         }
+        logger.info("[Main] shutting down initial task pool");
+        initialTaskPool.shutdown();
 
         logger.info("[Main] shutting down statusReporter thread");
         statusReporter.shutdown();
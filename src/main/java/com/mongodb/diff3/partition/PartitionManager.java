@@ -1,26 +1,50 @@
 package com.mongodb.diff3.partition;
 
-import com.mongodb.ReadConcern;
+import com.mongodb.MongoCommandException;
 import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.model.Aggregates;
-import com.mongodb.client.model.Projections;
-import com.mongodb.client.model.Sorts;
 import com.mongodb.model.Namespace;
+import com.mongodb.util.bson.BsonValueComparator;
 import org.apache.commons.lang3.tuple.Pair;
 import org.bson.BsonDocument;
+import org.bson.BsonInt32;
 import org.bson.BsonMaxKey;
 import org.bson.BsonMinKey;
+import org.bson.BsonString;
+import org.bson.BsonValue;
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static com.mongodb.client.model.Accumulators.sum;
 
+/**
+ * Partitions unsharded collections into <code>_id</code> ranges of similar diff cost. The cost of
+ * a range is estimated from a <code>$sample</code> of document sizes plus a fixed per-document
+ * overhead, so collections with skewed key density or document sizes still produce evenly sized
+ * tasks. Partitions that still overrun at runtime can have their remainder re-split with
+ * {@link #splitRemainder}.
+ */
 public class PartitionManager {
+    private static final Logger logger = LoggerFactory.getLogger(PartitionManager.class);
+    // approximate fixed cost of fetching, comparing and hashing one document, in bytes
+    private static final long DOC_OVERHEAD_BYTES = 256;
+    // a remainder is re-split while it is already overrunning, so its quantiles are sampled more densely
+    private static final int REMAINDER_OVERSAMPLE_FACTOR = 10;
+    // the remainder sample is a random sort of the whole range, this bounds its memory and result size
+    private static final int MAX_REMAINDER_SAMPLE_SIZE = 10000;
+    private static final BsonMinKey MIN_KEY = new BsonMinKey();
+    private static final BsonMaxKey MAX_KEY = new BsonMaxKey();
+    private static final BsonValueComparator ID_COMPARATOR = new BsonValueComparator();
+
     private final double sampleRate;
     private final int sampleMinDocs;
     private final int maxDocsToSamplePerPartition;
@@ -34,35 +58,161 @@ public class PartitionManager {
     }
 
     public List<Partition> partitionCollection(Namespace ns, MongoClient client) {
-        List<Partition> output = new ArrayList<>();
         Pair<Long, Integer> collMetrics = getCollMetrics(client, ns);
-        double collSize = collMetrics.getLeft();
+        long collSize = collMetrics.getLeft();
         long collNumDocs = collMetrics.getRight();
+        return partitionRange(ns, client, MIN_KEY, MAX_KEY, collSize, collNumDocs);
+    }
+
+    /**
+     * Re-partitions the unfinished part of a partition, <code>[resumeId, upperBound)</code>, into
+     * <code>numParts</code> partitions of similar estimated cost. Used when a partition overruns
+     * its target duration.
+     *
+     * The <code>$sample</code> follows a <code>$match</code> on the range, so the server reads
+     * every document of the remainder through the <code>_id</code> index once; the sample size
+     * is bounded by {@link #getRemainderSampleSize(int, int, long)}.
+     */
+    public List<Partition> splitRemainder(Partition partition, BsonValue resumeId, MongoClient client, int numParts) {
+        Namespace ns = partition.getNamespace();
+        Partition remainder = new Partition(ns, resumeId, partition.getUpperBound(), 0);
+        long estimatedDocs = partition.getEstimatedDocCount();
+        int sampleSize = getRemainderSampleSize(maxDocsToSamplePerPartition, numParts, estimatedDocs);
+        List<SampledDoc> samples = sample(ns, client, remainder.query(), sampleSize);
+        return splitAtWeightedQuantiles(ns, resumeId, partition.getUpperBound(), samples, numParts, estimatedDocs);
+    }
 
-        Object minIdBound = getOuterIdBound(ns, client, false);
-        Object maxIdBound = getOuterIdBound(ns, client, true);
-//        Object minIdBound = new BsonMinKey();
-//        Object maxIdBound = new BsonMaxKey();
+    /**
+     * @return {@value #REMAINDER_OVERSAMPLE_FACTOR} times the per partition sample for each
+     *         part, capped at {@value #MAX_REMAINDER_SAMPLE_SIZE} and at the estimated
+     *         document count of the partition, past which the sample can't grow
+     */
+    static int getRemainderSampleSize(int maxDocsPerPartition, int numParts, long estimatedDocs) {
+        long size = (long) maxDocsPerPartition * numParts * REMAINDER_OVERSAMPLE_FACTOR;
+        size = Math.min(size, MAX_REMAINDER_SAMPLE_SIZE);
+        if (estimatedDocs > 0) {
+            size = Math.min(size, estimatedDocs);
+        }
+        return (int) Math.max(size, 0);
+    }
 
-        int numPartitions = (int) ((collSize / defaultPartitionSize) + 1);
-        List<Object> midIdBounds = getMidIdBounds(ns, client, numPartitions, collNumDocs);
-        List<Object> allIdBounds = allIdBounds(minIdBound, midIdBounds, maxIdBound);
-        long estimatedDocCount = collNumDocs / numPartitions;
+    private List<Partition> partitionRange(Namespace ns, MongoClient client, Object lower, Object upper,
+                                           long collSize, long collNumDocs) {
+        if (collNumDocs == 0 || sampleMinDocs > collNumDocs) {
+            return Collections.singletonList(new Partition(ns, lower, upper, collNumDocs));
+        }
 
-        for (int i = 0; i < allIdBounds.size() - 1; i++) {
-            output.add(new Partition(ns, allIdBounds.get(i), allIdBounds.get(i + 1), estimatedDocCount));
+        // initial guess from the collection stats, only used to bound the sample size
+        double avgDocSize = (double) collSize / collNumDocs;
+        int estimatedPartitions = (int) (collNumDocs * (avgDocSize + DOC_OVERHEAD_BYTES) / defaultPartitionSize) + 1;
+        int numDocsToSample = (int) Math.min(sampleRate * collNumDocs,
+                (long) maxDocsToSamplePerPartition * estimatedPartitions);
+        List<SampledDoc> samples = sample(ns, client, null, numDocsToSample);
+        if (samples.isEmpty()) {
+            return Collections.singletonList(new Partition(ns, lower, upper, collNumDocs));
+        }
+
+        double meanCost = 0;
+        for (SampledDoc sd : samples) {
+            meanCost += sd.cost;
+        }
+        meanCost /= samples.size();
+        int numPartitions = (int) Math.min(samples.size(), (collNumDocs * meanCost) / defaultPartitionSize + 1);
+        logger.debug("{}: {} docs, {} samples, mean cost {} bytes, {} partitions",
+                ns, collNumDocs, samples.size(), (long) meanCost, numPartitions);
+        return splitAtWeightedQuantiles(ns, lower, upper, samples, numPartitions, collNumDocs);
+    }
+
+    /**
+     * Splits <code>[lower, upper)</code> so that each partition holds an equal share of the
+     * sampled cost. The sample is uniform over documents, so dense key ranges receive more
+     * splits, and each document is weighted by its size so that ranges of large documents
+     * are split more finely than ranges of small ones.
+     */
+    private List<Partition> splitAtWeightedQuantiles(Namespace ns, Object lower, Object upper,
+                                                     List<SampledDoc> samples, int numPartitions, long numDocs) {
+        List<Partition> output = new ArrayList<>(numPartitions);
+        if (numPartitions < 2 || samples.size() < 2) {
+            output.add(new Partition(ns, lower, upper, numDocs));
+            return output;
+        }
+        samples.sort((x, y) -> ID_COMPARATOR.compare(x.id, y.id));
+        double totalCost = 0;
+        for (SampledDoc sd : samples) {
+            totalCost += sd.cost;
+        }
+        double targetCost = totalCost / numPartitions;
+        double docsPerSample = (double) numDocs / samples.size();
+
+        Object partitionLower = lower;
+        double acc = 0;
+        int samplesInPartition = 0;
+        for (SampledDoc sd : samples) {
+            if (acc >= targetCost && output.size() < numPartitions - 1
+                    && ID_COMPARATOR.compare((BsonValue) partitionLower, sd.id) < 0) {
+                output.add(new Partition(ns, partitionLower, sd.id, Math.round(samplesInPartition * docsPerSample)));
+                partitionLower = sd.id;
+                acc = 0;
+                samplesInPartition = 0;
+            }
+            acc += sd.cost;
+            samplesInPartition++;
         }
+        output.add(new Partition(ns, partitionLower, upper, Math.round(samplesInPartition * docsPerSample)));
         return output;
     }
 
-    private List<Object> allIdBounds(Object min, List<Object> mid, Object max) {
-        List<Object> output = new ArrayList<>();
-        output.add(min);
-        output.addAll(mid);
-        output.add(max);
+    private List<SampledDoc> sample(Namespace ns, MongoClient client, Bson match, int numDocsToSample) {
+        List<SampledDoc> output = new ArrayList<>(Math.max(numDocsToSample, 0));
+        if (numDocsToSample < 1) {
+            return output;
+        }
+        MongoCollection<BsonDocument> coll = client.getDatabase(ns.getDatabaseName())
+                .getCollection(ns.getCollectionName(), BsonDocument.class);
+        try {
+            sample(coll, match, numDocsToSample, true, output);
+        } catch (MongoCommandException e) {
+            // $bsonSize requires 4.4, weigh all documents equally
+            logger.debug("{}: sampling document sizes failed, partitioning by document count: {}",
+                    ns, e.getErrorMessage());
+            output.clear();
+            sample(coll, match, numDocsToSample, false, output);
+        }
         return output;
     }
 
+    private void sample(MongoCollection<BsonDocument> coll, Bson match, int numDocsToSample, boolean withSize,
+                        List<SampledDoc> output) {
+        List<Bson> pipeline = new ArrayList<>();
+        if (match != null) {
+            pipeline.add(Aggregates.match(match));
+        }
+        pipeline.add(Aggregates.sample(numDocsToSample));
+        BsonDocument projection = new BsonDocument("_id", new BsonInt32(1));
+        if (withSize) {
+            projection.append("s", new BsonDocument("$bsonSize", new BsonString("$$ROOT")));
+        }
+        pipeline.add(Aggregates.project(projection));
+
+        try (MongoCursor<BsonDocument> cursor = coll.aggregate(pipeline).allowDiskUse(true).iterator()) {
+            while (cursor.hasNext()) {
+                BsonDocument doc = cursor.next();
+                long size = withSize ? doc.getNumber("s").longValue() : 0;
+                output.add(new SampledDoc(doc.get("_id"), size + DOC_OVERHEAD_BYTES));
+            }
+        }
+    }
+
+    private static class SampledDoc {
+        private final BsonValue id;
+        private final long cost;
+
+        SampledDoc(BsonValue id, long cost) {
+            this.id = id;
+            this.cost = cost;
+        }
+    }
+
     private Pair<Long, Integer> getCollMetrics(MongoClient client, Namespace ns) {
         long collSize;
         int collNumDocs;
@@ -87,56 +237,6 @@ public class PartitionManager {
         return Pair.of(collSize, collNumDocs);
     }
 
-    private Object getOuterIdBound(Namespace ns, MongoClient client, boolean max) {
-        String db = ns.getDatabaseName();
-        String coll = ns.getCollectionName();
-
-        List<Bson> pipeline = new ArrayList<>();
-        Bson sortSpec = max ? Sorts.descending("_id") : Sorts.ascending("_id");
-        pipeline.add(Aggregates.sort(Sorts.orderBy(sortSpec)));
-        pipeline.add(Aggregates.project(Projections.fields(Projections.include("_id"))));
-        pipeline.add(Aggregates.limit(1));
-
-        AggregateIterable<BsonDocument> results = client.getDatabase(db).getCollection(coll, BsonDocument.class)
-                .aggregate(pipeline).hint(new Document("_id", 1));
-
-        MongoCursor<BsonDocument> cursor = results.iterator();
-        BsonDocument first = cursor.next();
-
-        return first.get("_id");
-    }
-
-    private List<Object> getMidIdBounds(Namespace ns, MongoClient client, int numPartitions, long collDocCount) {
-        if (numPartitions < 2 || sampleMinDocs > collDocCount) {
-            return new ArrayList<>();
-        }
-
-        List<Object> output = new ArrayList<>(numPartitions);
-        int numDocsToSample = (int) Math.min(sampleRate * collDocCount, maxDocsToSamplePerPartition * numPartitions);
-
-        String db = ns.getDatabaseName();
-        String coll = ns.getCollectionName();
-
-        List<Bson> pipeline = new ArrayList<>();
-        pipeline.add(Aggregates.sample(numDocsToSample));
-        pipeline.add(Aggregates.project(Projections.fields(Projections.include("_id"))));
-        pipeline.add(Aggregates.bucketAuto("$_id", numPartitions));
-
-        AggregateIterable<BsonDocument> results = client.getDatabase(db).getCollection(coll, BsonDocument.class)
-                .aggregate(pipeline)
-                .allowDiskUse(true);
-
-        try (MongoCursor<BsonDocument> cursor = results.iterator()) {
-            while (cursor.hasNext()) {
-                BsonDocument doc = cursor.next();
-                Object maxId = ((BsonDocument) doc.get("_id")).get("max");
-                output.add(maxId);
-            }
-        }
-
-        return output;
-    }
-
     private long asLong(Object o) {
         return ((Number) o).longValue();
     }
@@ -41,16 +41,21 @@ public class PartitionTask implements Callable<Pair<String, Integer>> {
     public Pair<String, Integer> call() throws Exception {
         long start = System.currentTimeMillis();
 
-        List<Partition> partitions = partitionManager.partitionCollection(namespace, sourceClient);
-        logger.debug("[{}] created {} partitions for {}",
-                Thread.currentThread().getName(), partitions.size(), namespace.getNamespace());
-        Collections.shuffle(partitions);
-
-        for (Partition p : partitions) {
-            logger.debug("[{}] added {} to the partition queue", Thread.currentThread().getName(), p.toString());
-            partitionQueue.add(new PartitionDiffTask(p, sourceClient, destClient, summary, config));
+        List<Partition> partitions;
+        try {
+            partitions = partitionManager.partitionCollection(namespace, sourceClient);
+            logger.debug("[{}] created {} partitions for {}",
+                    Thread.currentThread().getName(), partitions.size(), namespace.getNamespace());
+            Collections.shuffle(partitions);
+
+            for (Partition p : partitions) {
+                logger.debug("[{}] added {} to the partition queue", Thread.currentThread().getName(), p.toString());
+                partitionQueue.add(new PartitionDiffTask(p, sourceClient, destClient, summary, config, partitionManager));
+            }
+        } finally {
+            // always signal the listener, it waits for one end token per collection
+            partitionQueue.add(PartitionDiffTask.END_TOKEN);
         }
-        partitionQueue.add(PartitionDiffTask.END_TOKEN);
         logger.debug("[{}] Partition task completed in {} ms",
                 Thread.currentThread().getName(), System.currentTimeMillis() - start);
         return Pair.of(namespace.getNamespace(), partitions.size());
@@ -1,18 +1,16 @@
 package com.mongodb.diff3.shard;
 
 import java.util.Map;
-import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.DelayQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.bson.RawBsonDocument;
 import org.slf4j.Logger;
@@ -23,7 +21,6 @@ import com.mongodb.diff3.DiffConfiguration;
 import com.mongodb.diff3.DiffResult;
 import com.mongodb.diff3.DiffSummary;
 import com.mongodb.diff3.DiffSummaryClient;
-import com.mongodb.diff3.RetryTask;
 import com.mongodb.model.Namespace;
 import com.mongodb.util.BlockWhenQueueFull;
 
@@ -42,7 +39,7 @@ public class ShardDiffTaskExecutor {
 	private ExecutorCompletionService<DiffResult> completionService;
 	private ThreadPoolExecutor threadPoolExecutor;
 	
-	private AtomicBoolean complete = new AtomicBoolean(false);
+	private final CountDownLatch complete = new CountDownLatch(1);
 	
 	private int submitCount = 0;
 	private int count = 0;
@@ -72,7 +69,7 @@ public class ShardDiffTaskExecutor {
 		for (RawBsonDocument chunk : chunkMap.values()) {
 			String nsStr = chunk.get("ns").asString().getValue();
 			Namespace ns = new Namespace(nsStr);
-			boolean complete = diffSummaryClient.updateChunkCompletion(ns, chunk, summary);
+			boolean complete = !config.isReverify() && diffSummaryClient.updateChunkCompletion(ns, chunk, summary);
 			if (complete) {
 				logger.debug("Skipping chunk, already complete");
 			} else {
@@ -88,22 +85,18 @@ public class ShardDiffTaskExecutor {
 	}
 
 	public void run() {
-		ScheduledExecutorService initialTaskPoolCollector = Executors.newSingleThreadScheduledExecutor();
-		initialTaskPoolCollector.scheduleAtFixedRate(new Runnable() {
-		
-
-			@Override
-			public void run() {
-				
+		ExecutorService initialTaskPoolCollector = Executors.newSingleThreadExecutor(
+				new ThreadFactoryBuilder().setNameFormat("InitialTaskPoolCollector-" + sourceShardName).build());
+		initialTaskPoolCollector.execute(() -> {
+			try {
+				// take() blocks until the next task finishes, so each result is handled as soon as it is available
 				while (count < submitCount) {
-					logger.debug("{} [InitialTaskPoolCollector] loop: {}, tasks: {}", sourceShardName, count, threadPoolExecutor.getQueue().size());
-
+					logger.trace("{} [InitialTaskPoolCollector] loop: {}, tasks: {}", sourceShardName, count,
+							threadPoolExecutor.getQueue().size());
+					Future<DiffResult> future = completionService.take();
+					count++;
 					try {
-
-						//logger.debug("**** {} starting take/get: {}", sourceShardName, count);
-						DiffResult result = completionService.take().get();
-						count++;
-						//logger.debug("**** {} finished take/get: {}", sourceShardName, count);
+						DiffResult result = future.get();
 						int failures = result.getFailedKeys().size();
 						if (failures > 0) {
 							logger.debug("[InitialTaskPoolCollector] will retry {} failed ids for ({})",
@@ -116,27 +109,30 @@ public class ShardDiffTaskExecutor {
 									result.getBytesProcessed());
 						}
 						summary.updateInitTask(result);
-
-					} catch (InterruptedException e) {
-						logger.error("[InitialTaskPoolCollector] Diff task was interrupted", e);
 					} catch (Exception e) {
 						logger.error("[InitialTaskPoolCollector] Diff task threw an exception", e);
 					}
 				}
-
+			} catch (InterruptedException e) {
+				logger.error("[InitialTaskPoolCollector] Diff task was interrupted", e);
+				Thread.currentThread().interrupt();
+			} finally {
 				logger.debug("Starting pool shutdown for shard {}", sourceShardName);
 				threadPoolExecutor.shutdown();
-				logger.debug("Pool shutdown complete for shard {}", sourceShardName);				
+				logger.debug("Pool shutdown complete for shard {}", sourceShardName);
 				initialTaskPoolCollector.shutdown();
 				logger.debug("*** Collector shutdown complete for shard {}", sourceShardName);
-				complete.set(true);
+				complete.countDown();
 			}
-
-		}, 0, 1, TimeUnit.SECONDS);
+		});
 	}
 	
+	public void awaitCompletion() throws InterruptedException {
+		complete.await();
+	}
+
 	public boolean isComplete() {
-		return complete.get();
+		return complete.getCount() == 0;
 	}
 
 }
@@ -2,20 +2,21 @@ package com.mongodb.diff3.shard;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -51,7 +52,8 @@ public class ShardDiffUtil {
 	private final DiffConfiguration config;
 
 	protected Map<String, ThreadPoolExecutor> initialTaskPoolMap = new HashMap<>();
-	 Map<String, List<Future<DiffResult>>> initialTaskPoolFutureMap = new HashMap<>();
+	private final Map<String, CompletionService<DiffResult>> initialTaskCompletionServiceMap = new HashMap<>();
+	private final BlockingQueue<Future<DiffResult>> initialTaskCompletionQueue = new LinkedBlockingQueue<>();
 
 	private Map<String, ShardDiffTaskExecutor> shardDiffTaskExecutors = new HashMap<>();
 
@@ -119,13 +121,14 @@ public class ShardDiffUtil {
             totalInitialTasks += qSize;
             logger.debug("[Main] Setting workQueue size to {}", qSize);
             BlockingQueue<Runnable> workQueue = new ArrayBlockingQueue<>(qSize);
-            initialTaskPoolFutureMap.put(shard, new ArrayList<>());
             ThreadFactory initialTaskPoolThreadFactory =
                     new ThreadFactoryBuilder().setNameFormat("WorkerPool-" + shard + "-%d").build();
             ThreadPoolExecutor initialTaskPool = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS,
                     workQueue, new BlockWhenQueueFull());
             initialTaskPool.setThreadFactory(initialTaskPoolThreadFactory);
             initialTaskPoolMap.put(shard, initialTaskPool);
+            initialTaskCompletionServiceMap.put(shard,
+                    new ExecutorCompletionService<>(initialTaskPool, initialTaskCompletionQueue));
         }
         totalInitialTasks += unshardedColls.size();
 
@@ -148,7 +151,7 @@ public class ShardDiffUtil {
 			RawBsonDocument chunk = entry.getValue();
 			String chunkId = entry.getKey();
 
-			if (completedChunks.containsKey(chunkId)) {
+			if (completedChunks.containsKey(chunkId) && !config.isReverify()) {
 
 				RawBsonDocument completedChunk = completedChunks.get(chunkId);
 
@@ -214,23 +217,10 @@ public class ShardDiffUtil {
 		logger.info("[Main] found {} initial tasks", totalInitialTasks);
 	}
 
-	private boolean shardDiffTaskExecutorsComplete() {
-
-		for (ShardDiffTaskExecutor e : shardDiffTaskExecutors.values()) {
-			if (!e.isComplete()) {
-				return false;
-			}
-		}
-		return true;
-	}
-
 	public void run() {
 
 		initializeTasks();
 		
-		AtomicBoolean initialTaskPoolCollectorDone = new AtomicBoolean(false);
-        AtomicBoolean initialTaskPoolDone = new AtomicBoolean(false);
-
 		int totalChunks = getTotalChunks() + alreadyCompletedCount;
 		final int numShards = srcShardNames.size();
 
@@ -250,104 +240,45 @@ public class ShardDiffUtil {
 			String destShard = destShardNames.get(shardIdx);
 			ShardDiffTask task = new ShardDiffTask(config, null, unshardedColl.getNamespace(), srcShard, destShard, summary);
 			logger.debug("[Main] Added an UnshardedDiffTask for {}", unshardedColl.getNamespace());
-			 List<Future<DiffResult>> initialTaskPoolFutures = initialTaskPoolFutureMap.get(srcShard);
-			ThreadPoolExecutor initialTaskPool = initialTaskPoolMap.get(srcShard);
-			initialTaskPoolFutures.add(initialTaskPool.submit(task));
+			initialTaskCompletionServiceMap.get(srcShard).submit(task);
 		}
 
-		Set<String> finishedShards = new HashSet<>();
-        Map<String, Set<Future<DiffResult>>> initialTaskPoolFuturesSeen = new HashMap<>();
-
-		ScheduledExecutorService initialTaskPoolCollector = Executors.newSingleThreadScheduledExecutor();
-        Future<?> initialTaskPoolFuture = initialTaskPoolCollector.scheduleAtFixedRate(new Runnable() {
-            int runs = 0;
-
-            @Override
-            public void run() {
-                // Poll for completed futures every second
-                if (finishedShards.size() < numShards) {
-                    logger.trace("[InitialTaskPoolCollector] loop: {}", ++runs);
-                    for (String shard : srcShardNames) {
-                        if (!initialTaskPoolFuturesSeen.containsKey(shard)) {
-                            initialTaskPoolFuturesSeen.put(shard, new HashSet<>());
-                        }
-                        Set<Future<DiffResult>> futuresSeen = initialTaskPoolFuturesSeen.get(shard);
-                        List<Future<DiffResult>> diffResults = initialTaskPoolFutureMap.get(shard);
-
-                        if (futuresSeen.size() >= diffResults.size()) {
-                            finishedShards.add(shard);
-                        } else {
-                            for (Future<DiffResult> future : diffResults) {
-                                try {
-                                    if (!futuresSeen.contains(future) && future.isDone()) {
-                                        futuresSeen.add(future);
-
-                                        DiffResult result = future.get();
-                                        int failures = result.getFailedKeys().size();
-                                        if (failures > 0) {
-                                            logger.debug("[InitialTaskPoolCollector] will retry {} failed ids for ({})",
-                                                    result.getFailedKeys().size(), result.getChunkDef().unitString());
-                                        } else {
-                                            logger.debug("[InitialTaskPoolCollector] got result for ({}): " +
-                                                            "{} matches, {} failures, {} bytes",
-                                                    result.getChunkDef().unitString(), result.getMatches(),
-                                                    result.getFailedKeys().size(), result.getBytesProcessed());
-                                        }
-                                        summary.updateInitTask(result);
-                                    }
-                                } catch (InterruptedException e) {
-                                    logger.error("[InitialTaskPoolCollector] Diff task was interrupted", e);
-                                } catch (ExecutionException e) {
-                                    logger.error("[InitialTaskPoolCollector] Diff task threw an exception", e);
-                                }
-                            }
-                        }
-                    }
-                } else {
-                    initialTaskPoolCollectorDone.set(true);
-                }
-            }
-        }, 0, 1, TimeUnit.SECONDS);
-
-        boolean initialTaskPoolResult = false;
-
-		while (!initialTaskPoolDone.get()) {
-			try {
-				Thread.sleep(1000);
-				logger.debug("[Main] check completion status: shardDiffTaskExecutorsComplete: {}",
-						shardDiffTaskExecutorsComplete());
-
-				
-                if (!initialTaskPoolDone.get()) {
-                    if (initialTaskPoolCollectorDone.get() && !initialTaskPoolCollector.isShutdown()) {
-                        logger.info("[Main] shutting down initial task pool collector");
-                        initialTaskPoolResult = initialTaskPoolFuture.cancel(false);
-                        initialTaskPoolCollector.shutdown();
-                    } else {
-                        logger.trace("[Main] Initial task pool collector still running");
-                    }
-                    if (initialTaskPoolResult) {
-                        initialTaskPoolDone.set(true);
-                        logger.info("[Main] shutting down {} initial task pools", initialTaskPoolMap.size());
-                        for (ThreadPoolExecutor e : initialTaskPoolMap.values()) {
-                            e.shutdown();
-                        }
-                    }
-                } else {
-                    logger.trace("[Main] Initial task pool still running");
-                }
-			} catch (Exception e) {
-				logger.error("[Main] Error collector worker and/or retry pool", e);
-				throw new RuntimeException(e);
+		// Unsharded tasks from every shard pool complete into one queue, so each result
+		// is collected as soon as it is done instead of rescanning the futures
+		int collected = 0;
+		try {
+			while (collected < unshardedCollections.size()) {
+				Future<DiffResult> future = initialTaskCompletionQueue.take();
+				collected++;
+				try {
+					DiffResult result = future.get();
+					int failures = result.getFailedKeys().size();
+					if (failures > 0) {
+						logger.debug("[InitialTaskPoolCollector] will retry {} failed ids for ({})",
+								result.getFailedKeys().size(), result.getChunkDef().unitString());
+					} else {
+						logger.debug("[InitialTaskPoolCollector] got result for ({}): "
+										+ "{} matches, {} failures, {} bytes",
+								result.getChunkDef().unitString(), result.getMatches(),
+								result.getFailedKeys().size(), result.getBytesProcessed());
+					}
+					summary.updateInitTask(result);
+				} catch (ExecutionException e) {
+					logger.error("[InitialTaskPoolCollector] Diff task threw an exception", e);
+				}
 			}
-		}
-		
-		while (! shardDiffTaskExecutorsComplete()) {
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-				logger.debug("interrupted waiting for shardDiffTaskExecutorsComplete");
+
+			logger.info("[Main] shutting down {} initial task pools", initialTaskPoolMap.size());
+			for (ThreadPoolExecutor e : initialTaskPoolMap.values()) {
+				e.shutdown();
+			}
+
+			for (ShardDiffTaskExecutor e : shardDiffTaskExecutors.values()) {
+				e.awaitCompletion();
 			}
+		} catch (InterruptedException e) {
+			logger.error("[Main] interrupted waiting for diff tasks to complete", e);
+			Thread.currentThread().interrupt();
 		}
 
 		logger.info("[Main] shutting down statusReporter thread");
@@ -5,6 +5,7 @@ import static com.mongodb.client.model.Filters.in;
 import java.util.Set;
 import java.util.concurrent.Callable;
 
+import org.bson.BsonValue;
 import org.bson.Document;
 import org.bson.RawBsonDocument;
 import org.bson.conversions.Bson;
@@ -17,6 +18,7 @@ import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.model.Namespace;
 import com.mongodb.util.DiffUtils;
+import com.mongodb.util.bson.BsonFieldDiff;
 
 
 public class DiffTask implements Callable<DiffResult> {
@@ -66,7 +68,7 @@ public class DiffTask implements Callable<DiffResult> {
 		long lastReport = System.currentTimeMillis();
 		while (sourceCursor.hasNext()) {
 			sourceDoc = sourceCursor.next();
-			Object sourceId = sourceDoc.get("_id");
+			BsonValue sourceId = sourceDoc.get("_id");
 			if (destCursor.hasNext()) {
 				destDoc = destCursor.next();
 			} else {
@@ -78,13 +80,12 @@ public class DiffTask implements Callable<DiffResult> {
 			destBytes = destDoc.getByteBuffer().array();
 			if (sourceBytes.length == destBytes.length) {
 				if (!DiffUtils.compareHashes(sourceBytes, destBytes)) {
-					Object id = sourceDoc.get("_id");
-
-					if (sourceDoc.equals(destDoc)) {
-						logger.error(String.format("%s - docs equal, but hash mismatch, id: %s", ns, id));
+					BsonFieldDiff diff = DiffUtils.reportMismatch(ns.getNamespace(), sourceId, sourceDoc, destDoc);
+					if (diff.isEquivalent()) {
+						logger.error(String.format("%s - docs equal, but hash mismatch, id: %s", ns, sourceId));
 						result.incrementKeysMisordered();
 					} else {
-						logger.error(String.format("%s - doc hash mismatch, id: %s", ns, id));
+						logger.error(String.format("%s - doc hash mismatch, id: %s", ns, sourceId));
 						result.incrementHashMismatched();
 					}
 
@@ -94,7 +95,7 @@ public class DiffTask implements Callable<DiffResult> {
 				}
 			} else {
 				logger.debug("Doc sizes not equal, id: " + sourceId);
-				boolean xx = DiffUtils.compareDocuments(ns.getNamespace(), sourceDoc, destDoc);
+				DiffUtils.reportMismatch(ns.getNamespace(), sourceId, sourceDoc, destDoc);
 				result.incrementHashMismatched();
 			}
 			result.incrementTotal();
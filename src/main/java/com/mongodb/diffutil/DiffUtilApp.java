@@ -16,6 +16,10 @@ import org.apache.commons.cli.Options;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.mongodb.util.DiffReportWriter;
+import com.mongodb.util.DiffUtils;
+import com.mongodb.util.hash.FingerprintAlgorithm;
+
 public class DiffUtilApp {
 	
 	private static Logger logger = LoggerFactory.getLogger(DiffUtilApp.class);
@@ -37,6 +41,10 @@ public class DiffUtilApp {
     private final static String NO_REPORT_MISSING = "noReportMissing";
     private final static String REPORT_MATCHES = "reportMatches";
     private final static String SAMPLE_RATE = "sampleRate";
+    private final static String FINGERPRINT = "fingerprint";
+    private final static String DIFF_REPORT = "diffReport";
+    private final static String DIFF_REPORT_MAX_BYTES = "diffReportMaxBytes";
+    private final static String DEFAULT_DIFF_REPORT_MAX_BYTES = String.valueOf(1024L * 1024 * 1024);
 
     @SuppressWarnings("static-access")
     private static CommandLine initializeAndParseCommandLineOptions(String[] args) {
@@ -64,6 +72,12 @@ public class DiffUtilApp {
                 .withLongOpt(REPORT_MATCHES).create(REPORT_MATCHES));
         options.addOption(OptionBuilder.withArgName("Sample rate")
                 .withLongOpt(SAMPLE_RATE).hasArg().create());
+        options.addOption(OptionBuilder.withArgName("Document fingerprint algorithm (md5, murmur3_128, xxhash64)")
+                .withLongOpt(FINGERPRINT).hasArg().create());
+        options.addOption(OptionBuilder.withArgName("Write field level differences of mismatched docs to this file (JSON lines)")
+                .withLongOpt(DIFF_REPORT).hasArg().create());
+        options.addOption(OptionBuilder.withArgName("Maximum size of the diff report file in bytes")
+                .withLongOpt(DIFF_REPORT_MAX_BYTES).hasArg().create());
         
 
         CommandLineParser parser = new GnuParser();
@@ -134,6 +148,15 @@ public class DiffUtilApp {
         	sync.setGlobalSampleRate(Double.parseDouble(sampleRateStr));
         }
         
+        DiffUtils.setFingerprintAlgorithm(FingerprintAlgorithm.fromString(
+        		line.getOptionValue(FINGERPRINT, configFileProps.getProperty(FINGERPRINT))));
+        
+        String diffReport = line.getOptionValue(DIFF_REPORT, configFileProps.getProperty(DIFF_REPORT));
+        if (diffReport != null) {
+        	DiffUtils.setReportWriter(new DiffReportWriter(diffReport, Long.parseLong(line.getOptionValue(
+        			DIFF_REPORT_MAX_BYTES, configFileProps.getProperty(DIFF_REPORT_MAX_BYTES, DEFAULT_DIFF_REPORT_MAX_BYTES)))));
+        }
+        
         String[] mappings = line.getOptionValues("m");
         sync.setMappings(mappings);
         
@@ -161,6 +184,9 @@ public class DiffUtilApp {
         if (line.hasOption(RETRY)) {
         	sync.retry();
         }
+        if (DiffUtils.getReportWriter() != null) {
+        	DiffUtils.getReportWriter().close();
+        }
         
         
 
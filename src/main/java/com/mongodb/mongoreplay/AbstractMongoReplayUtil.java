@@ -1,13 +1,10 @@
 package com.mongodb.mongoreplay;
 
-import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.file.Paths;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
@@ -29,11 +26,12 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
-import org.bson.BSONDecoder;
-import org.bson.BSONObject;
-import org.bson.BasicBSONDecoder;
 import org.bson.BasicBSONEncoder;
+import org.bson.BsonDocument;
+import org.bson.BsonSerializationException;
+import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,6 +46,9 @@ import com.mongodb.connection.ClusterDescription;
 import com.mongodb.connection.ClusterType;
 import com.mongodb.util.CallerBlocksPolicy;
 import com.mongodb.util.PausableThreadPoolExecutor;
+import com.mongodb.util.bson.MappedBsonReader;
+import com.mongodb.util.metrics.MetricsExporter;
+import com.mongodb.util.metrics.MetricsRegistry;
 
 public abstract class AbstractMongoReplayUtil {
 
@@ -55,6 +56,9 @@ public abstract class AbstractMongoReplayUtil {
     
     private final static String DB_NAME_MAP = "dbNameMap";
     private final static String READ_ONLY = "readOnly";
+    private final static String METRICS_PORT = "metricsPort";
+    private final static String METRICS_FILE = "metricsFile";
+    private final static String SPEED = "speed";
     
     private final static long unixToInternal = 62135596800L;
     private final static long internalToUnix = -unixToInternal;
@@ -75,6 +79,8 @@ public abstract class AbstractMongoReplayUtil {
 
     protected PausableThreadPoolExecutor pool = null;
     private BlockingQueue<Runnable> workQueue;
+    protected ConnectionReplayDispatcher dispatcher;
+    // split mode tasks, one per file
     List<Future<?>> futures = new LinkedList<>();
 
     private String mongoUriStr;
@@ -87,13 +93,20 @@ public abstract class AbstractMongoReplayUtil {
     int ignored = 0;
     int getMoreCount = 0;
     
-    private BSONObject firstSeen;
-    private BSONObject lastSeen;
+    private BsonDocument firstSeen;
+    private BsonDocument lastSeen;
     
     private Set<Integer> opcodeWhitelist = new HashSet<Integer>();
     
     private ReplayOptions replayOptions;
     
+    private String metricsPort;
+    private String metricsFile;
+    private MetricsExporter metricsExporter;
+    
+    private Double speed;
+    private ReplayScheduler scheduler;
+    
     //private Set<Long> seenConnections = new HashSet<Long>();
     
     private Replayer replayer;
@@ -141,17 +154,70 @@ public abstract class AbstractMongoReplayUtil {
         workQueue = new LinkedBlockingQueue<Runnable>(queueSize);
         
         pool = new PausableThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, workQueue, new CallerBlocksPolicy(ONE_MINUTE*5));
-        pool.pause();
+        if (speed == null) {
+            pool.pause();
+        } else {
+            // ops must start when they are due, not once the queue has filled up
+            scheduler = new ReplayScheduler(speed);
+        }
         
         
         //executor.prestartAllCoreThreads();
 
+        // bounds the ops read ahead of the replay like the queue did, at most one pool task
+        // per connection is queued
+        dispatcher = new ConnectionReplayDispatcher(pool, queueSize);
+        MetricsRegistry.getDefault().gauge("mongoreplay_in_flight", () -> dispatcher.getInFlight());
+        MetricsRegistry.getDefault().gauge("mongoreplay_connections", () -> dispatcher.getConnectionCount());
+
         monitor = new Monitor(Thread.currentThread());
         monitor.setPool(pool);
+        monitor.setScheduler(scheduler);
         monitor.start();
         replayer = new Replayer(monitor, mongoClient, replayOptions);
+        monitor.setStatistics(replayer.getStatistics());
+        
+        try {
+            metricsExporter = MetricsExporter.start(metricsPort, metricsFile, MetricsExporter.DEFAULT_SNAPSHOT_INTERVAL_MILLIS);
+        } catch (IOException e) {
+            logger.error("Error starting metrics exporter", e);
+        }
+        
+        if (scheduler != null) {
+            scheduler.start(getRecordedStart());
+            logger.info("replaying at {}x recorded speed", speed);
+        }
     }
-
+    
+    /**
+     * @return the earliest capture time of the first records of the input files
+     */
+    private long getRecordedStart() {
+        long start = Long.MAX_VALUE;
+        for (String filename : fileNames) {
+            try (MappedBsonReader reader = new MappedBsonReader(Paths.get(filename))) {
+                for (RawBsonDocument obj : reader) {
+                    BsonDocument seen = obj.getDocument("seen", null);
+                    if (seen != null) {
+                        start = Math.min(start, ReplayScheduler.seenNanos(seen));
+                        break;
+                    }
+                }
+            } catch (IOException | BsonSerializationException e) {
+                logger.error("error reading " + filename, e);
+            }
+        }
+        return start == Long.MAX_VALUE ? 0 : start;
+    }
+    
+    protected ReplayScheduler getScheduler() {
+        return scheduler;
+    }
+    
+    protected ReplayStatistics getStatistics() {
+        return replayer.getStatistics();
+    }
+    
     public void close() {
         pool.shutdown();
 
@@ -180,6 +246,9 @@ public abstract class AbstractMongoReplayUtil {
         }
 
         halt();
+        if (metricsExporter != null) {
+            metricsExporter.stop();
+        }
         mongoClient.close();
         logger.debug("close() complete");
     }
@@ -207,52 +276,48 @@ public abstract class AbstractMongoReplayUtil {
     }
     
     public void replayFileSplitMode(String filename) throws FileNotFoundException, DataFormatException {
-    	File file = new File(filename);
-    	InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
-    	SplitModeReplayTask rawTask = new SplitModeReplayTask(replayer, inputStream);
+    	SplitModeReplayTask rawTask = new SplitModeReplayTask(replayer, Paths.get(filename), scheduler);
         futures.add(pool.submit(rawTask));
         count++;
     }
 
     public void replayFile(String filename) throws FileNotFoundException, DataFormatException {
-        File file = new File(filename);
-        InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
-        BSONDecoder decoder = new BasicBSONDecoder();
-        
-        try {
-            while (inputStream.available() > 0) {
+        try (MappedBsonReader reader = new MappedBsonReader(Paths.get(filename))) {
+            for (RawBsonDocument obj : reader) {
 
                 if (count >= limit) {
                     break;
                 }
 
-                BSONObject obj = decoder.readObject(inputStream);
-                if (obj == null) {
-                    break;
-                }
-
-                BSONObject raw = (BSONObject) obj.get("rawop");
+                RawBsonDocument raw = (RawBsonDocument) obj.get("rawop");
                 
                 if (raw == null) {
                     continue;
                 }
-                BSONObject header = (BSONObject) raw.get("header");
-                int opcode = (Integer) header.get("opcode");
+                BsonDocument header = raw.getDocument("header");
+                int opcode = header.getInt32("opcode").getValue();
                 if (! opcodeWhitelist.contains(opcode)) {
                 	ignored++;
                     continue;
                 }
                 
-                Long seenconnectionnum = (Long)obj.get("seenconnectionnum");
-                //seenConnections.add(seenconnectionnum);
+                //seenConnections.add(obj.getInt64("seenconnectionnum"));
                 
-                lastSeen = (BSONObject) obj.get("seen");
+                lastSeen = obj.getDocument("seen", null);
                 if (count == 0) {
                     firstSeen = lastSeen;
                 }
                 
-                RawReplayTask rawTask = new RawReplayTask(replayer, raw);
-                futures.add(pool.submit(rawTask));
+                RawReplayTask rawTask;
+                if (scheduler != null && lastSeen != null) {
+                    long scheduled = scheduler.scheduledNanos(ReplayScheduler.seenNanos(lastSeen));
+                    scheduler.awaitScheduled(scheduled);
+                    rawTask = new RawReplayTask(replayer, raw, scheduler, scheduled);
+                } else {
+                    rawTask = new RawReplayTask(replayer, raw);
+                }
+                BsonValue connection = obj.get("seenconnectionnum");
+                dispatcher.submit(connection == null ? null : connection.asNumber().longValue(), rawTask);
 
                 count++;
 //                if ((count % 100000) == 0) {
@@ -260,13 +325,11 @@ public abstract class AbstractMongoReplayUtil {
 //                    //logger.debug("seenConnections: " + seenConnections.size());
 //                }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-            }
+        } catch (IOException | BsonSerializationException e) {
+            logger.error("error reading " + filename, e);
+        } catch (InterruptedException e) {
+            logger.warn("interrupted while waiting for the next scheduled op");
+            Thread.currentThread().interrupt();
         }
         logger.debug(String.format("%s objects read, %s filtered objects written, %s ignored", count, written, ignored));
         logger.debug(String.format("%s getMore", getMoreCount));
@@ -301,6 +364,11 @@ public abstract class AbstractMongoReplayUtil {
         
         options.addOption(OptionBuilder.withArgName("read only mode").withLongOpt(READ_ONLY).create());
         
+        options.addOption(OptionBuilder.withArgName("replay ops at their recorded times, scaled by this speed factor").hasArg().withLongOpt(SPEED).create());
+        
+        options.addOption(OptionBuilder.withArgName("serve metrics on this local port").hasArg().withLongOpt(METRICS_PORT).create());
+        options.addOption(OptionBuilder.withArgName("write metrics snapshots to this file").hasArg().withLongOpt(METRICS_FILE).create());
+        
         CommandLineParser parser = new GnuParser();
         CommandLine line = null;
         try {
@@ -381,6 +449,14 @@ public abstract class AbstractMongoReplayUtil {
         	replayOptions.setReplayMode(ReplayMode.READ_WRITE);
         }
         
+        String speedStr = line.getOptionValue(SPEED);
+        if (speedStr != null) {
+            speed = Double.parseDouble(speedStr);
+        }
+        
+        metricsPort = line.getOptionValue(METRICS_PORT);
+        metricsFile = line.getOptionValue(METRICS_FILE);
+        
     }
 
     private void setQueueSize(int q) {
@@ -413,8 +489,11 @@ public abstract class AbstractMongoReplayUtil {
         this.mongoUriStr = mongoUriStr;
     }
     
-    private static ZonedDateTime convertSeen(BSONObject seen) {
-        Long sec = (Long)seen.get("sec");
+    private static ZonedDateTime convertSeen(BsonDocument seen) {
+        if (seen == null) {
+            return null;
+        }
+        long sec = seen.getNumber("sec").longValue();
         Long t = (sec + internalToUnix) * 1000;
         return ZonedDateTime.ofInstant(Instant.ofEpochMilli(t), ZoneId.of("UTC"));
     }
@@ -0,0 +1,81 @@
+package com.mongodb.mongoreplay;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Replays each recorded connection as an ordered stream: the ops of one connection run
+ * one at a time in capture order, so read-your-writes sequences are kept, while
+ * different connections run concurrently on the shared pool. Each connection gets a
+ * sequential executor on top of the pool, which only holds a pool thread while the
+ * connection has ops to run.
+ *
+ * At most maxInFlight ops are submitted and not yet completed, submit() blocks the
+ * reader beyond that. Results are not kept, the {@link Replayer} records the latency
+ * of every op in its {@link ReplayStatistics}.
+ */
+public class ConnectionReplayDispatcher {
+
+    protected static final Logger logger = LoggerFactory.getLogger(ConnectionReplayDispatcher.class);
+
+    private final Executor pool;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final Map<Long, Executor> connections = new ConcurrentHashMap<>();
+
+    public ConnectionReplayDispatcher(Executor pool, int maxInFlight) {
+        this.pool = pool;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * @param connection the recorded connection, null if unknown, then the op is not
+     *                   ordered with any other
+     */
+    public void submit(Long connection, Callable<?> task) throws InterruptedException {
+        inFlight.acquire();
+        Executor executor = connection == null ? pool
+                : connections.computeIfAbsent(connection, c -> MoreExecutors.newSequentialExecutor(pool));
+        try {
+            executor.execute(() -> run(task));
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private void run(Callable<?> task) {
+        try {
+            task.call();
+        } catch (Exception e) {
+            logger.error("Error replaying op", e);
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    /**
+     * Waits until every submitted op has completed.
+     */
+    public void awaitCompletion() throws InterruptedException {
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+    }
+
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+}
@@ -3,21 +3,25 @@ package com.mongodb.mongoreplay;
 import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
 import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.zip.DataFormatException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -27,20 +31,23 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.bson.BSONCallback;
-import org.bson.BSONDecoder;
 import org.bson.BSONException;
 import org.bson.BSONObject;
 import org.bson.BasicBSONCallback;
-import org.bson.BasicBSONDecoder;
-import org.bson.BasicBSONEncoder;
+import org.bson.BsonBinary;
 import org.bson.BsonBinaryReader;
 import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
 import org.bson.BsonSerializationException;
+import org.bson.BsonValue;
 import org.bson.BsonWriter;
 import org.bson.BsonWriterSettings;
 import org.bson.ByteBufNIO;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.UuidRepresentation;
+import org.bson.codecs.BsonDocumentCodec;
 import org.bson.codecs.DecoderContext;
 import org.bson.codecs.DocumentCodec;
 import org.bson.codecs.EncoderContext;
@@ -55,19 +62,23 @@ import org.xerial.snappy.Snappy;
 
 import com.mongodb.MongoClientSettings;
 import com.mongodb.mongoreplay.opcodes.MessageHeader;
+import com.mongodb.util.bson.MappedBsonReader;
 import com.mongodb.mongoreplay.opcodes.Section;
 
 /**
  * Filter a mongoreplay bson file
  *
+ * Input files are filtered concurrently and each file is split at document boundaries
+ * into up to threads ranges, each filtered by a worker into its own part files. The
+ * parts are concatenated in range order, so the output is the same as filtering the
+ * file on one thread and ops of a connection stay in capture order.
  */
 public class MongoReplayFilter {
 
 	protected static final Logger logger = LoggerFactory.getLogger(MongoReplayFilter.class);
 
-	private final BasicBSONEncoder encoder;
-	private final BSONDecoder decoder;
 	private static final EncoderContext encoderContext = EncoderContext.builder().build();
+	private static final BsonDocumentCodec bsonDocumentCodec = new BsonDocumentCodec();
 
 	//private final static DecoderContext decoderContext = DecoderContext.builder().build();
 
@@ -83,14 +94,16 @@ public class MongoReplayFilter {
 
 	private int splits = 1;
 
+	private int threads = Runtime.getRuntime().availableProcessors();
+
 	private Map<Integer, Integer> opcodeSeenCounters = new TreeMap<Integer, Integer>();
 
 	private int systemDatabasesSkippedCount = 0;
 	int count = 0;
 	int written = 0;
-	BSONObject obj;
-	BSONObject raw;
-	BSONObject header;
+	RawBsonDocument obj;
+	RawBsonDocument raw;
+	BsonDocument header;
 	MessageHeader parsedHeader;
 
 	private List<FileChannel> fileChannels;
@@ -99,20 +112,82 @@ public class MongoReplayFilter {
 	LinkedList<Document> documents = new LinkedList<>();
 
 	public MongoReplayFilter() {
-		this.encoder = new BasicBSONEncoder();
-		this.decoder = new BasicBSONDecoder();
 	}
 
-	private void createOutputFiles(String filename) throws FileNotFoundException {
+	/**
+	 * A worker with the settings of parent, for one range of a file.
+	 */
+	private MongoReplayFilter(MongoReplayFilter parent) {
+		this.removeUpdateFields = parent.removeUpdateFields;
+		this.limit = parent.limit;
+		this.splits = parent.splits;
+	}
+
+	private static String outputFileName(String filename, int split) {
+		return String.format("%s.%s.FILTERED", filename, split);
+	}
+
+	private static String partFileName(String filename, int split, int range, int ranges) {
+		if (ranges == 1) {
+			return outputFileName(filename, split);
+		}
+		return String.format("%s.%s.FILTERED.%s.part", filename, split, range);
+	}
+
+	private void createOutputFiles(String filename, int range, int ranges) throws FileNotFoundException {
 		// outputFiles = new ArrayList<>(splits);
 		fileChannels = new ArrayList<>(splits);
 		for (int i = 1; i <= splits; i++) {
-			File outputFile = new File(String.format("%s.%s.FILTERED", filename, i));
+			File outputFile = new File(partFileName(filename, i, range, ranges));
 			FileOutputStream fos = new FileOutputStream(outputFile);
 			fileChannels.add(fos.getChannel());
 		}
 	}
 
+	private void closeOutputFiles() {
+		for (FileChannel fileChannel : fileChannels) {
+			try {
+				fileChannel.close();
+			} catch (IOException e) {
+				logger.warn("Error closing output file", e);
+			}
+		}
+	}
+
+	/**
+	 * Appends the part files of each split to its output file, in range order.
+	 */
+	private void mergeOutputFiles(String filename, int ranges) throws IOException {
+		if (ranges == 1) {
+			return;
+		}
+		for (int i = 1; i <= splits; i++) {
+			try (FileChannel out = FileChannel.open(Paths.get(outputFileName(filename, i)), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				for (int range = 0; range < ranges; range++) {
+					Path part = Paths.get(partFileName(filename, i, range, ranges));
+					try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+						long size = in.size();
+						long position = 0;
+						while (position < size) {
+							position += in.transferTo(position, size - position, out);
+						}
+					}
+					Files.delete(part);
+				}
+			}
+		}
+	}
+
+	private void merge(MongoReplayFilter worker) {
+		count += worker.count;
+		written += worker.written;
+		systemDatabasesSkippedCount += worker.systemDatabasesSkippedCount;
+		for (Map.Entry<Integer, Integer> entry : worker.opcodeSeenCounters.entrySet()) {
+			opcodeSeenCounters.merge(entry.getKey(), entry.getValue(), Integer::sum);
+		}
+	}
+
 	private void setOutputFileChannel(Long seenNum) {
 		int index = 0;
 		if (seenNum != null) {
@@ -121,53 +196,128 @@ public class MongoReplayFilter {
 		channel = fileChannels.get(index);
 	}
 
-	@SuppressWarnings({ "unused", "unchecked" })
-	public void filterFile(String filename) throws FileNotFoundException, DataFormatException {
-		logger.debug("filterFile: " + filename);
-		File file = new File(filename);
-		InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
+	public void filterFile(String filename) throws IOException, InterruptedException, ExecutionException {
+		filterFiles(new String[] { filename });
+	}
 
-		createOutputFiles(filename);
+	/**
+	 * Filters the files on up to threads threads, see the class comment. A file with a range
+	 * that failed gets no output, the other files are still filtered and the first failure
+	 * is thrown at the end.
+	 */
+	public void filterFiles(String[] fileNames) throws IOException, InterruptedException, ExecutionException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ExecutionException failure = null;
+		try {
+			List<List<Future<MongoReplayFilter>>> results = new ArrayList<>(fileNames.length);
+			for (String filename : fileNames) {
+				results.add(submitRanges(pool, filename));
+			}
+			for (int i = 0; i < fileNames.length; i++) {
+				MongoReplayFilter total = new MongoReplayFilter(this);
+				try {
+					for (Future<MongoReplayFilter> result : results.get(i)) {
+						total.merge(result.get());
+					}
+				} catch (ExecutionException e) {
+					logger.error("{}: filtering failed, no output written", fileNames[i], e.getCause());
+					deleteOutputFiles(fileNames[i], results.get(i));
+					if (failure == null) {
+						failure = e;
+					}
+					continue;
+				}
+				mergeOutputFiles(fileNames[i], results.get(i).size());
+				total.logCounts();
+				System.err.println(String.format("%s: %s objects read, %s filtered objects written", fileNames[i],
+						total.count, total.written));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Deletes the part files of a file once none of its ranges is still writing them.
+	 */
+	private void deleteOutputFiles(String filename, List<Future<MongoReplayFilter>> ranges) 
+			throws IOException, InterruptedException {
+		for (Future<MongoReplayFilter> range : ranges) {
+			try {
+				range.get();
+			} catch (ExecutionException e) {
+				// already reported for the file
+			}
+		}
+		for (int i = 1; i <= splits; i++) {
+			for (int range = 0; range < ranges.size(); range++) {
+				Files.deleteIfExists(Paths.get(partFileName(filename, i, range, ranges.size())));
+			}
+		}
+	}
+
+	private List<Future<MongoReplayFilter>> submitRanges(ExecutorService pool, String filename) throws IOException {
+		Path path = Paths.get(filename);
+		// the limit counts ops from the start of the file, so it can't be split
+		long[] offsets = threads > 1 && limit == Integer.MAX_VALUE ? MappedBsonReader.splitOffsets(path, threads)
+				: new long[] { 0, Files.size(path) };
+		int ranges = Math.max(1, offsets.length - 1);
+		List<Future<MongoReplayFilter>> results = new ArrayList<>(ranges);
+		for (int range = 0; range < ranges; range++) {
+			MongoReplayFilter worker = new MongoReplayFilter(this);
+			long start = offsets[range];
+			long end = range + 1 < offsets.length ? offsets[range + 1] : start;
+			int r = range;
+			results.add(pool.submit(() -> {
+				worker.filterRange(filename, start, end, r, ranges);
+				return worker;
+			}));
+		}
+		return results;
+	}
+
+	@SuppressWarnings({ "unused", "unchecked" })
+	private void filterRange(String filename, long start, long end, int range, int ranges) throws IOException {
+		logger.debug("filterRange: {} [{}, {})", filename, start, end);
+		createOutputFiles(filename, range, ranges);
 
 		count = 0;
 		written = 0;
-		try {
+		try (MappedBsonReader bsonFile = new MappedBsonReader(Paths.get(filename), start, end)) {
 
-			while (inputStream.available() > 0) {
+			while (bsonFile.hasNext()) {
 
 				if (count >= limit) {
 					break;
 				}
 				count++;
 
-				obj = decoder.readObject(inputStream);
-				if (obj == null) {
-					break;
-				}
-				Long seenconnectionnum = (Long) obj.get("seenconnectionnum");
+				obj = bsonFile.next();
+				BsonValue seenconnectionnum = obj.get("seenconnectionnum");
 				// logger.debug("seen: " + seenconnectionnum);
 
-				setOutputFileChannel(seenconnectionnum);
+				setOutputFileChannel(seenconnectionnum == null ? null : seenconnectionnum.asNumber().longValue());
 
-				raw = (BSONObject) obj.get("rawop");
+				raw = (RawBsonDocument) obj.get("rawop");
 				if (raw == null) {
 					logger.trace("raw was null");
-					ByteBuffer buffer = ByteBuffer.wrap(encoder.encode(obj));
-					channel.write(buffer);
+					channel.write(obj.getByteBuffer().asNIO());
 					continue;
 				}
-				byte[] bodyBytes = (byte[]) raw.get("body");
+				byte[] bodyBytes = raw.getBinary("body").getData();
 
 				if (bodyBytes.length == 0) {
 					logger.trace("body length was 0");
 					continue;
 				}
 
-				header = (BSONObject) raw.get("header");
-				int responseto = (Integer) header.get("responseto");
+				header = raw.getDocument("header", null);
 
 				if (header != null) {
-					int opcode = (Integer) header.get("opcode");
+					int opcode = header.getInt32("opcode").getValue();
 					incrementOpcodeSeenCount(opcode);
 					ByteBufferBsonInput bsonInput = new ByteBufferBsonInput(new ByteBufNIO(ByteBuffer.wrap(bodyBytes)));
 					BsonBinaryReader reader = new BsonBinaryReader(bsonInput);
@@ -255,15 +405,10 @@ public class MongoReplayFilter {
 						documentCodec.encode(writer, commandDoc, encoderContext);
 
 						int size1 = writer.getBsonOutput().getPosition();
-						header.put("messagelength", size1);
 						// System.out.println("obj: " + obj);
-						raw.put("body", rawOut.toByteArray());
-						ByteBuffer buffer = ByteBuffer.wrap(encoder.encode(obj));
-						channel.write(buffer);
-						written++;
+						writeRecord(2004, size1, rawOut.toByteArray());
 
 					} else if (opcode == 2010) {
-						header.put("opcode", 2004);
 						int p1 = bsonInput.getPosition();
 						String databaseName = bsonInput.readCString();
 						if (databaseName.equals("local") || databaseName.equals("admin")) {
@@ -320,12 +465,8 @@ public class MongoReplayFilter {
 
 						int size1 = writer.getBsonOutput().getPosition();
 
-						header.put("messagelength", size1);
-
-						raw.put("body", rawOut.toByteArray());
-						ByteBuffer buffer = ByteBuffer.wrap(encoder.encode(obj));
-						channel.write(buffer);
-						written++;
+						// the header opcode is rewritten to 2004, as before
+						writeRecord(2004, size1, rawOut.toByteArray());
 
 					} else if (opcode == 2011) {
 						// These are the command replies, we don't need to write
@@ -344,18 +485,9 @@ public class MongoReplayFilter {
 
 			// count++;
 
-		} catch (IOException e) {
-			e.printStackTrace();
-		} catch (Exception e) {
-			e.printStackTrace();
 		} finally {
-			try {
-				inputStream.close();
-			} catch (IOException e) {
-			}
+			closeOutputFiles();
 		}
-		logCounts();
-		System.err.println(String.format("%s objects read, %s filtered objects written", count, written));
 	}
 
 	private void transcode2013(Document commandDoc, String collectionName) throws IOException {
@@ -382,12 +514,25 @@ public class MongoReplayFilter {
 		documentCodec.encode(writer, commandDoc, encoderContext);
 
 		int size1 = writer.getBsonOutput().getPosition();
-		header.put("messagelength", size1);
-		header.put("opcode", 2004);
 		// System.out.println("obj: " + obj);
-		raw.put("body", rawOut.toByteArray());
-		ByteBuffer buffer = ByteBuffer.wrap(encoder.encode(obj));
-		channel.write(buffer);
+		writeRecord(2004, size1, rawOut.toByteArray());
+	}
+
+	/**
+	 * Writes the current record with its rawop header and body replaced.
+	 */
+	private void writeRecord(int opcode, int messageLength, byte[] body) throws IOException {
+		// a mutable copy, RawBsonDocument.toBsonDocument() returns the document itself
+		BsonDocument out = obj.decode(bsonDocumentCodec);
+		BsonDocument rawop = out.getDocument("rawop");
+		BsonDocument outHeader = rawop.getDocument("header");
+		outHeader.put("messagelength", new BsonInt32(messageLength));
+		outHeader.put("opcode", new BsonInt32(opcode));
+		rawop.put("body", new BsonBinary(body));
+
+		BasicOutputBuffer buffer = new BasicOutputBuffer();
+		bsonDocumentCodec.encode(new BsonBinaryWriter(buffer), out, encoderContext);
+		channel.write(ByteBuffer.wrap(buffer.getInternalBuffer(), 0, buffer.getPosition()));
 		written++;
 	}
 
@@ -474,7 +619,7 @@ public class MongoReplayFilter {
 					
 					moreSections = messageLength > bsonInput.getPosition();
 				} catch (BsonSerializationException bse) {
-					Integer req = (Integer) header.get("requestid");
+					BsonValue req = header.get("requestid");
 					System.out.println("*** req: " + req + ",  pos: " + bsonInput.getPosition()
 							+ ", len: " + parsedHeader.getMessageLength());
 
@@ -520,13 +665,8 @@ public class MongoReplayFilter {
 		//documentCodec.encode(writer, commandDoc, encoderContext);
 
 		int size1 = writer.getBsonOutput().getPosition();
-		header.put("messagelength", size1);
-		header.put("opcode", 2013);
 		// System.out.println("obj: " + obj);
-		raw.put("body", rawOut.toByteArray());
-		ByteBuffer buffer = ByteBuffer.wrap(encoder.encode(obj));
-		channel.write(buffer);
-		written++;
+		writeRecord(2013, size1, rawOut.toByteArray());
 		
 		
 			
@@ -604,6 +744,8 @@ public class MongoReplayFilter {
 
 		options.addOption(OptionBuilder.withArgName("limit # operations").hasArg().withLongOpt("limit").create("l"));
 
+		options.addOption(OptionBuilder.withArgName("# threads").hasArg().withLongOpt("threads").create("t"));
+
 		CommandLineParser parser = new GnuParser();
 		CommandLine line = null;
 		try {
@@ -656,9 +798,13 @@ public class MongoReplayFilter {
 			filter.setSplits(splits);
 		}
 
-		for (String filename : fileNames) {
-			filter.filterFile(filename);
+		String threadsStr = line.getOptionValue("t");
+		if (threadsStr != null) {
+			int threads = Integer.parseInt(threadsStr);
+			filter.setThreads(threads);
 		}
+
+		filter.filterFiles(fileNames);
 	}
 
 	public String[] getRemoveUpdateFields() {
@@ -677,4 +823,8 @@ public class MongoReplayFilter {
 		this.splits = splits;
 	}
 
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
 }
@@ -26,12 +26,14 @@ import org.slf4j.LoggerFactory;
 
 import com.mongodb.util.PausableThreadPoolExecutor;
 import com.mongodb.util.Timer;
+import com.mongodb.util.metrics.MetricsRegistry;
 
 
 public class Monitor extends Thread {
     
     public static final int displayMillis = 15000;
     public static final int sleepMillis = 500;
+    public static final int tableMillis = 60000;
 
     protected static final Logger logger = LoggerFactory.getLogger(Monitor.class);
 
@@ -43,9 +45,15 @@ public class Monitor extends Thread {
 
     
 
-    private PausableThreadPoolExecutor pool;
+    private volatile PausableThreadPoolExecutor pool;
 
-    private int totalSkipped = 0;
+    private volatile ReplayScheduler scheduler;
+
+    private volatile ReplayStatistics statistics;
+
+    private long lastTableMillis = System.currentTimeMillis();
+
+    private volatile int totalSkipped = 0;
 
     private Thread parent;
 
@@ -60,6 +68,14 @@ public class Monitor extends Thread {
     public Monitor(Thread _p) {
         parent = _p;
         lastDisplayMillis = System.currentTimeMillis();
+        
+        // the timer and pool are set later, so every gauge checks for them
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        metrics.gauge("mongoreplay_events", () -> timer == null ? 0 : timer.getEventCount().get());
+        metrics.gauge("mongoreplay_errors", () -> timer == null ? 0 : timer.getErrorCount());
+        metrics.gauge("mongoreplay_skipped", () -> totalSkipped);
+        metrics.gauge("mongoreplay_active_threads", () -> pool == null ? 0 : pool.getActiveCount());
+        metrics.gauge("mongoreplay_queued_tasks", () -> pool == null ? 0 : pool.getQueue().size());
     }
 
     public void run() {
@@ -131,6 +147,13 @@ public class Monitor extends Thread {
                 logger.info("thread count: core="
                         + pool.getCorePoolSize() + ", active="
                         + pool.getActiveCount());
+                if (scheduler != null) {
+                    logger.info(scheduler.getReport());
+                }
+                if (statistics != null && statistics.size() > 0 && currentMillis - lastTableMillis > tableMillis) {
+                    lastTableMillis = currentMillis;
+                    logger.info("latency by query shape (ms):\n" + statistics.formatTable());
+                }
                 
                 // hack, resume executor as it may never get full
                 if (count >= 2 && pool.isPaused()) {
@@ -218,6 +241,14 @@ public class Monitor extends Thread {
         this.pool = pool;
     }
 
+    public void setScheduler(ReplayScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void setStatistics(ReplayStatistics statistics) {
+        this.statistics = statistics;
+    }
+
 //    /**
 //     * @param _msg
 //     */
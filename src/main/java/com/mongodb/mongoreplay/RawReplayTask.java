@@ -2,7 +2,7 @@ package com.mongodb.mongoreplay;
 
 import java.util.concurrent.Callable;
 
-import org.bson.BSONObject;
+import org.bson.RawBsonDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,16 +12,30 @@ public class RawReplayTask implements Callable<ReplayResult> {
     protected static final Logger logger = LoggerFactory.getLogger(RawReplayTask.class);
     
     private Replayer replayer;
-    private BSONObject raw;
+    private RawBsonDocument raw;
+    private ReplayScheduler scheduler;
+    private long scheduledNanos;
 
-    public RawReplayTask(Replayer replayer, BSONObject raw) {
+    public RawReplayTask(Replayer replayer, RawBsonDocument raw) {
         this.replayer = replayer;
         this.raw = raw;
     }
+
+    /**
+     * @param scheduledNanos when the op was due, see {@link ReplayScheduler#scheduledNanos(long)}
+     */
+    public RawReplayTask(Replayer replayer, RawBsonDocument raw, ReplayScheduler scheduler, long scheduledNanos) {
+        this(replayer, raw);
+        this.scheduler = scheduler;
+        this.scheduledNanos = scheduledNanos;
+    }
    
 
     @Override
     public ReplayResult call() {
+        if (scheduler != null) {
+            scheduler.recordStart(scheduledNanos);
+        }
         return replayer.replay(raw);
     }
 }
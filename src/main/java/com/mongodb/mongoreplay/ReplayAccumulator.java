@@ -1,12 +1,60 @@
 package com.mongodb.mongoreplay;
 
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import java.util.concurrent.atomic.LongAdder;
 
+import com.mongodb.util.metrics.Histogram;
+
+/**
+ * Response latencies of one namespace, command and query shape, in a fixed memory
+ * histogram, so percentiles don't require keeping every sample.
+ */
 public class ReplayAccumulator {
-    
-    private String dbName;
-    private String collName;
-    private String shape;
-    DescriptiveStatistics executionStats = new DescriptiveStatistics();
 
+    private final static double NANOS_TO_MILLIS = 1000000.0;
+
+    private final AccumulatorKey key;
+    private final Histogram latencyNanos = new Histogram();
+    private final LongAdder errors = new LongAdder();
+
+    public ReplayAccumulator(AccumulatorKey key) {
+        this.key = key;
+    }
+
+    public void record(long durationNanos, boolean success) {
+        latencyNanos.record(durationNanos);
+        if (!success) {
+            errors.increment();
+        }
+    }
+
+    public AccumulatorKey getKey() {
+        return key;
+    }
+
+    public long getCount() {
+        return latencyNanos.getCount();
+    }
+
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    /**
+     * @param percentile 0 - 100
+     */
+    public double getPercentileMillis(double percentile) {
+        return latencyNanos.getValueAtPercentile(percentile) / NANOS_TO_MILLIS;
+    }
+
+    public double getMinMillis() {
+        return latencyNanos.getMin() / NANOS_TO_MILLIS;
+    }
+
+    public double getMaxMillis() {
+        return latencyNanos.getMax() / NANOS_TO_MILLIS;
+    }
+
+    public double getMeanMillis() {
+        return latencyNanos.getMean() / NANOS_TO_MILLIS;
+    }
 }
@@ -0,0 +1,108 @@
+package com.mongodb.mongoreplay;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.bson.BsonDocument;
+
+import com.mongodb.util.metrics.Histogram;
+import com.mongodb.util.metrics.MetricsRegistry;
+
+/**
+ * Schedules recorded ops at their original time offset from the start of the capture,
+ * divided by a speed factor (2.0 replays twice as fast as recorded). Callers wait for an
+ * op's scheduled time with {@link #awaitScheduled(long)} and call
+ * {@link #recordStart(long)} when it actually starts executing. The difference is how
+ * far behind schedule the replayer is, e.g. when all threads are busy and ops wait in
+ * the queue, which is reported separately from the latency of the target.
+ */
+public class ReplayScheduler {
+
+    private final static long NANOS_PER_SECOND = 1000000000L;
+    private final static long NANOS_TO_MILLIS = 1000000L;
+
+    private final double speed;
+
+    private long recordedStart;
+    private long wallStart;
+
+    private final AtomicLong lastLagNanos = new AtomicLong();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+    private final Histogram lagMillis;
+
+    public ReplayScheduler(double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be > 0: " + speed);
+        }
+        this.speed = speed;
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        lagMillis = metrics.histogram("mongoreplay_schedule_lag_millis");
+        metrics.gauge("mongoreplay_schedule_behind_millis", () -> getLagMillis());
+    }
+
+    /**
+     * @param seen the seen field of a mongoreplay record, {sec, nsec}
+     * @return the capture time in nanos, only meaningful relative to other records
+     */
+    public static long seenNanos(BsonDocument seen) {
+        return seen.getNumber("sec").longValue() * NANOS_PER_SECOND + seen.getNumber("nsec").longValue();
+    }
+
+    /**
+     * Starts the schedule now.
+     *
+     * @param recordedStartNanos capture time of the first op, see {@link #seenNanos(BsonDocument)}
+     */
+    public synchronized void start(long recordedStartNanos) {
+        this.recordedStart = recordedStartNanos;
+        this.wallStart = System.nanoTime();
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} at which the op captured at seenNanos is due
+     */
+    public synchronized long scheduledNanos(long seenNanos) {
+        return wallStart + (long) ((seenNanos - recordedStart) / speed);
+    }
+
+    public void awaitScheduled(long scheduledNanos) throws InterruptedException {
+        long wait;
+        while ((wait = scheduledNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Records that the op scheduled at scheduledNanos starts executing now.
+     */
+    public void recordStart(long scheduledNanos) {
+        long lag = Math.max(0, System.nanoTime() - scheduledNanos);
+        lastLagNanos.set(lag);
+        maxLagNanos.accumulateAndGet(lag, Math::max);
+        lagMillis.record(lag / NANOS_TO_MILLIS);
+    }
+
+    /**
+     * @return how far behind schedule the most recently started op was
+     */
+    public long getLagMillis() {
+        return lastLagNanos.get() / NANOS_TO_MILLIS;
+    }
+
+    public long getMaxLagMillis() {
+        return maxLagNanos.get() / NANOS_TO_MILLIS;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    public String getReport() {
+        return String.format("behind schedule: %sms now, p50 %sms, p99 %sms, max %sms (speed %s, %s ops)",
+                getLagMillis(), lagMillis.getValueAtPercentile(50), lagMillis.getValueAtPercentile(99),
+                getMaxLagMillis(), speed, lagMillis.getCount());
+    }
+}
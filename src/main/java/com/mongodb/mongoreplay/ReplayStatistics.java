@@ -0,0 +1,64 @@
+package com.mongodb.mongoreplay;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latency histograms of the replayed ops by namespace, command and query shape, recorded
+ * concurrently by the replay threads and formatted as a percentile table.
+ */
+public class ReplayStatistics {
+
+    private final Map<AccumulatorKey, ReplayAccumulator> accumulators = new ConcurrentHashMap<>();
+
+    public void record(ReplayResult result) {
+        AccumulatorKey key = new AccumulatorKey(result.getDbName(), result.getCollectionName(), result.getCommand(),
+                result.getQueryShape());
+        accumulators.computeIfAbsent(key, ReplayAccumulator::new).record((long) result.getDuration(),
+                result.isSuccess());
+    }
+
+    public int size() {
+        return accumulators.size();
+    }
+
+    /**
+     * @return the percentile table, in milliseconds, sorted by namespace and count
+     */
+    public String formatTable() {
+        List<ReplayAccumulator> rows = new ArrayList<>(accumulators.values());
+        rows.sort(Comparator.comparing((ReplayAccumulator a) -> a.getKey().getNamespace())
+                .thenComparing(Comparator.comparingLong(ReplayAccumulator::getCount).reversed()));
+
+        int maxNamespaceLen = 9;
+        int maxShapeLen = 14;
+        for (ReplayAccumulator acc : rows) {
+            maxNamespaceLen = Math.max(maxNamespaceLen, acc.getKey().getNamespace().length());
+            if (acc.getKey().getShape() != null) {
+                maxShapeLen = Math.max(maxShapeLen, acc.getKey().getShape().length());
+            }
+        }
+        maxNamespaceLen++;
+        maxShapeLen++;
+
+        String formatString = "%-" + maxNamespaceLen + "s %-" + maxShapeLen
+                + "s %-16s %-10d %-8d %-10.1f %-10.1f %-10.1f %-10.1f %-10.1f %-10.1f%n";
+        String headerFormatString = "%-" + maxNamespaceLen + "s %-" + maxShapeLen
+                + "s %-16s %-10s %-8s %-10s %-10s %-10s %-10s %-10s %-10s%n";
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(headerFormatString, "namespace", "query shape", "cmd", "count", "errors", "min",
+                "p50", "p99", "p999", "max", "avg"));
+        for (ReplayAccumulator acc : rows) {
+            AccumulatorKey key = acc.getKey();
+            sb.append(String.format(formatString, key.getNamespace(), key.getShape(), key.getCommand().name(),
+                    acc.getCount(), acc.getErrorCount(), acc.getMinMillis(), acc.getPercentileMillis(50),
+                    acc.getPercentileMillis(99), acc.getPercentileMillis(99.9), acc.getMaxMillis(),
+                    acc.getMeanMillis()));
+        }
+        return sb.toString();
+    }
+}
@@ -2,29 +2,28 @@ package com.mongodb.mongoreplay;
 
 import static java.util.Collections.singletonList;
 
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
-import org.bson.BSONObject;
 import org.bson.BsonArray;
-import org.bson.BsonBinaryReader;
 import org.bson.BsonDocument;
 import org.bson.BsonInt64;
 import org.bson.BsonString;
-import org.bson.ByteBufNIO;
+import org.bson.BsonValue;
 import org.bson.Document;
-import org.bson.codecs.DecoderContext;
+import org.bson.RawBsonDocument;
 import org.bson.codecs.DocumentCodec;
-import org.bson.io.ByteBufferBsonInput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mongodb.MongoCommandException;
 import com.mongodb.WriteConcern;
 import com.mongodb.client.MongoClient;
+import com.mongodb.mongoreplay.opcodes.Opcode2013;
+import com.mongodb.mongoreplay.opcodes.Section;
+import com.mongodb.mongoreplay.opcodes.WireMessage;
 import com.mongodb.util.ShapeUtil;
 
 public class Replayer {
@@ -40,10 +39,11 @@ public class Replayer {
     
     private ReplayOptions replayOptions;
     
+    private final ReplayStatistics statistics = new ReplayStatistics();
+    
     //private boolean ignore = false;
     
     private final static DocumentCodec documentCodec = new DocumentCodec();
-    private final static DecoderContext decoderContext = DecoderContext.builder().build();
 
     protected static final Logger logger = LoggerFactory.getLogger(Replayer.class);
     
@@ -195,6 +195,13 @@ public class Replayer {
         return commandResult;
     }
     
+    /**
+     * @return latencies of the ops replayed so far, by query shape
+     */
+    public ReplayStatistics getStatistics() {
+        return statistics;
+    }
+    
     public Document adminCommand(Document command) {
         return mongoClient.getDatabase("admin").runCommand(command);
     }
@@ -204,126 +211,87 @@ public class Replayer {
                        .append("cursors", new BsonArray(singletonList(new BsonInt64(cursorId))));
     }
 
-    public ReplayResult replay(BSONObject raw) {
+    /**
+     * @param raw the rawop of a mongoreplay record
+     */
+    public ReplayResult replay(RawBsonDocument raw) {
         
     	Document commandDoc = null;
     	CommandResult commandResult = null;
     	String databaseName = null;
-        byte[] bytes = (byte[]) raw.get("body");
+        WireMessage message = WireMessage.fromRawOp(raw);
 
-        if (bytes.length == 0) {
+        if (message == null) {
             return null;
         }
 
-        BSONObject header = (BSONObject) raw.get("header");
-
-        if (header != null) {
-            int opcode = (Integer) header.get("opcode");
-            ByteBufferBsonInput bsonInput = new ByteBufferBsonInput(new ByteBufNIO(ByteBuffer.wrap(bytes)));
-            BsonBinaryReader reader = new BsonBinaryReader(bsonInput);
-
-            int messageLength = bsonInput.readInt32();
-            int requestId = bsonInput.readInt32();
-            int responseTo = bsonInput.readInt32();
-            int headerOpcode = bsonInput.readInt32();
+        // filter on the views into the capture, only commands that are replayed are decoded
+        int opcode = message.getOpcode();
+        if (opcode == WireMessage.OP_QUERY) {
+            String collectionName = message.getFullCollectionName();
+            databaseName = StringUtils.substringBefore(collectionName, ".$cmd");
+            if (databaseName.equals("local") || databaseName.equals("admin")) {
+                return null;
+            }
+            if (replayOptions.getIgnoredCollections().contains(collectionName)) {
+                return null;
+            }
+            
+            commandDoc = message.getQueryDocument().decode(documentCodec);
+            commandResult = processCommand(databaseName, commandDoc);
+            //written++;
 
-            if (opcode == 2004) {
-                int flags = bsonInput.readInt32();
-                String collectionName = bsonInput.readCString();
-                databaseName = StringUtils.substringBefore(collectionName, ".$cmd");
-                if (databaseName.equals("local") || databaseName.equals("admin")) {
-                    return null;
-                }
-                if (replayOptions.getIgnoredCollections().contains(collectionName)) {
-                    return null;
+        } else if (opcode == WireMessage.OP_COMMAND) {
+            databaseName = message.getDatabaseName();
+            if (databaseName.equals("local") || databaseName.equals("admin")) {
+                return null;
+            }
+            commandDoc = message.getCommandDocument().decode(documentCodec);
+            commandDoc.remove("shardVersion");
+            commandResult = processCommand(databaseName, commandDoc);
+        } else if (opcode == WireMessage.OP_MSG) {
+            Opcode2013 msg = message.getOpMsg();
+            RawBsonDocument body = msg.getBody();
+            if (body == null) {
+                return null;
+            }
+            BsonValue db = body.get("$db");
+            if (db == null || !db.isString()) {
+                return null;
+            }
+            databaseName = db.asString().getValue();
+            if (databaseName.equals("local") || databaseName.equals("admin")) {
+                return null;
+            }
+            // OP_MSG replays finds, and inserts and updates with a document sequence
+            String commandName = body.getFirstKey();
+            RawBsonDocument sequence = null;
+            for (Section section : msg.getSections()) {
+                if (section.getPayloadType() == 1 && section.getRawDocuments() != null) {
+                    sequence = section.getRawDocuments().get(0);
                 }
-                
-                int nskip = bsonInput.readInt32();
-                int nreturn = bsonInput.readInt32();
-                
-                commandDoc = documentCodec.decode(reader, decoderContext);
-                commandResult = processCommand(databaseName, commandDoc);
-                //written++;
+            }
+            boolean replayed = sequence != null ? commandName.equals("insert") || commandName.equals("update")
+                    : commandName.equals("find");
+            if (!replayed) {
+                return null;
+            }
 
-            } else if (opcode == 2010) {
-                int p1 = bsonInput.getPosition();
-                databaseName = bsonInput.readCString();
-                if (databaseName.equals("local") || databaseName.equals("admin")) {
-                    return null;
-                }
-                String command = bsonInput.readCString();
-                commandDoc = documentCodec.decode(reader, decoderContext);
-                commandDoc.remove("shardVersion");
-                commandResult = processCommand(databaseName, commandDoc);
-            } else if (opcode == 2013) {  // OP_MSG
-                int flags = bsonInput.readInt32();
-                boolean moreSections = true;
-                Document k0 = null;
-                Document d1 = null;
-                int count = 0;
-                while (moreSections) {
-                    byte kindByte = bsonInput.readByte();
-                    count++;
-                    if (kindByte == 0) {
-                    	
-                    	commandDoc = documentCodec.decode(reader, decoderContext);
-                        k0 = commandDoc;
-                        moreSections = messageLength > bsonInput.getPosition();
-                        
-                        databaseName = commandDoc.getString("$db");
-                        if (databaseName == null || databaseName.equals("local") || databaseName.equals("admin")) {
-                            continue;
-                        }
-                        
-                        commandDoc.remove("lsid");
-                        commandDoc.remove("$db");
-                        commandDoc.remove("$readPreference");
-                        
-                    } else {
-                        int p0 = bsonInput.getPosition();
-                        int size = bsonInput.readInt32();
-                        String seq = bsonInput.readCString();
-                        int p1 = bsonInput.getPosition();
-                        int remaining = size - (p1 - p0);
-                        
-                        byte[] mb = new byte[remaining];
-                        
-                        bsonInput.readBytes(mb);
-                        
-                        BsonBinaryReader r2 = new BsonBinaryReader(ByteBuffer.wrap(mb));
-                        d1 = documentCodec.decode(r2, decoderContext);
-                        
-                        if (seq == null) {
-                        	logger.warn("null seq");
-                        	return null;
-                        }
-                        
-                        moreSections = messageLength > bsonInput.getPosition();
-                    }
-                }
-                if (k0 != null && d1 != null) {
-                	if (k0.containsKey("insert")) {
-                		String collName = k0.getString("insert");
-                		commandDoc.put("documents", Arrays.asList(d1));
-                		commandResult = processCommand(databaseName, commandDoc);
-                	} else if (k0.containsKey("update")) {
-                		commandDoc.put("updates", Arrays.asList(d1));
-                		commandResult = processCommand(databaseName, commandDoc);
-                	} else {
-                		//System.out.println("here");
-                	}
-                } else if (commandDoc.containsKey("find")) {
-                	commandResult = processCommand(databaseName, commandDoc);
-                } else {
-                	//System.out.println("here");
-                }
-                
-                    
-            } else {
-                logger.warn("ignored opcode: " + opcode);
-                //ignored++;
-                commandResult.ignore = true;
+            commandDoc = body.decode(documentCodec);
+            commandDoc.remove("lsid");
+            commandDoc.remove("$db");
+            commandDoc.remove("$readPreference");
+
+            if (sequence != null) {
+                // only the first document of the (last) sequence is replayed
+                Document d1 = sequence.decode(documentCodec);
+                commandDoc.put(commandName.equals("insert") ? "documents" : "updates", Arrays.asList(d1));
             }
+            commandResult = processCommand(databaseName, commandDoc);
+        } else {
+            logger.warn("ignored opcode: " + opcode);
+            //ignored++;
+            return null;
         }
         
         if (commandResult == null || commandResult.command == null || commandResult.ignore) {
@@ -407,6 +375,9 @@ public class Replayer {
         }
 
         // monitor.add(event);
+        if (replayResult != null) {
+            statistics.record(replayResult);
+        }
         return replayResult;
     }
 }
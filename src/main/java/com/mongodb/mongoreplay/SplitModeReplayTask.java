@@ -1,24 +1,28 @@
 package com.mongodb.mongoreplay;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
 
-import org.bson.BSONDecoder;
-import org.bson.BSONObject;
-import org.bson.BasicBSONDecoder;
+import org.bson.BsonDocument;
+import org.bson.BsonSerializationException;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.codecs.DecoderContext;
 import org.bson.codecs.DocumentCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class SplitModeReplayTask implements Callable<List<ReplayResult>> {
+import com.mongodb.util.bson.MappedBsonReader;
+
+/**
+ * Replays the ops of one file, in order. Files written by MongoReplayFilter hold one
+ * connection each.
+ */
+public class SplitModeReplayTask implements Callable<Integer> {
 
     // private TimedEvent event;
     
@@ -30,8 +34,7 @@ public class SplitModeReplayTask implements Callable<List<ReplayResult>> {
     
     private ReplayOptions replayOptions;
     
-    private InputStream inputStream;
-    private BSONObject raw;
+    private Path path;
     private boolean ignore = false;
     
     private int limit = Integer.MAX_VALUE;
@@ -40,8 +43,8 @@ public class SplitModeReplayTask implements Callable<List<ReplayResult>> {
     int ignored = 0;
     int getMoreCount = 0;
     
-    private BSONObject firstSeen;
-    private BSONObject lastSeen;
+    private BsonDocument firstSeen;
+    private BsonDocument lastSeen;
     
     private Set<Integer> opcodeWhitelist = new HashSet<Integer>();
     
@@ -51,54 +54,51 @@ public class SplitModeReplayTask implements Callable<List<ReplayResult>> {
     protected static final Logger logger = LoggerFactory.getLogger(SplitModeReplayTask.class);
     
     Replayer replayer;
-    List<ReplayResult> replayResults = new LinkedList<>();
+    private ReplayScheduler scheduler;
 
-    public SplitModeReplayTask(Replayer replayer, InputStream inputStream) {
+    /**
+     * @param scheduler null to replay as fast as possible
+     */
+    public SplitModeReplayTask(Replayer replayer, Path path, ReplayScheduler scheduler) {
         this.replayer = replayer;
-        this.inputStream = inputStream;
+        this.path = path;
+        this.scheduler = scheduler;
         opcodeWhitelist.addAll(Arrays.asList(2004, 2010, 2013));
     }
     
     private void process() {
-    	BSONDecoder decoder = new BasicBSONDecoder();
-        
-        try {
-            while (inputStream.available() > 0) {
+        try (MappedBsonReader reader = new MappedBsonReader(path)) {
+            for (RawBsonDocument obj : reader) {
 
                 if (count >= limit) {
                     break;
                 }
 
-                BSONObject obj = decoder.readObject(inputStream);
-                if (obj == null) {
-                    break;
-                }
-
-                BSONObject raw = (BSONObject) obj.get("rawop");
+                RawBsonDocument raw = (RawBsonDocument) obj.get("rawop");
                 
                 if (raw == null) {
                     continue;
                 }
-                BSONObject header = (BSONObject) raw.get("header");
-                int opcode = (Integer) header.get("opcode");
+                BsonDocument header = raw.getDocument("header");
+                int opcode = header.getInt32("opcode").getValue();
                 if (! opcodeWhitelist.contains(opcode)) {
                 	ignored++;
                     continue;
                 }
                 
-                Long seenconnectionnum = (Long)obj.get("seenconnectionnum");
-                //seenConnections.add(seenconnectionnum);
-                
-                lastSeen = (BSONObject) obj.get("seen");
+                lastSeen = obj.getDocument("seen", null);
                 if (count == 0) {
                     firstSeen = lastSeen;
                 }
                 
-                ReplayResult result = replayer.replay(raw);
-                if (result != null) {
-                	replayResults.add(result);
+                if (scheduler != null && lastSeen != null) {
+                    long scheduled = scheduler.scheduledNanos(ReplayScheduler.seenNanos(lastSeen));
+                    scheduler.awaitScheduled(scheduled);
+                    scheduler.recordStart(scheduled);
                 }
                 
+                replayer.replay(raw);
+                
 
                 count++;
 //                if ((count % 100000) == 0) {
@@ -106,13 +106,10 @@ public class SplitModeReplayTask implements Callable<List<ReplayResult>> {
 //                    //logger.debug("seenConnections: " + seenConnections.size());
 //                }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-            }
+        } catch (IOException | BsonSerializationException e) {
+            logger.error("error reading " + path, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
         
         logger.debug(String.format("%s objects read, %s filtered objects written, %s ignored", count, written, ignored));
@@ -125,9 +122,12 @@ public class SplitModeReplayTask implements Callable<List<ReplayResult>> {
     
     
 
+    /**
+     * @return the number of ops read
+     */
     @Override
-    public List<ReplayResult> call() {
+    public Integer call() {
         process();
-        return replayResults;
+        return count;
     }
 }
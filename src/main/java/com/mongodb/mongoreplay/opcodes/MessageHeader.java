@@ -25,6 +25,14 @@ public class MessageHeader {
         return new MessageHeader(messageLength, requestId, responseTo, headerOpcode);
     }
 
+    /**
+     * Parses the header at offset of a wire protocol message, without copying.
+     */
+    public static MessageHeader parse(byte[] bytes, int offset) {
+        return new MessageHeader(WireMessage.readInt32(bytes, offset), WireMessage.readInt32(bytes, offset + 4),
+                WireMessage.readInt32(bytes, offset + 8), WireMessage.readInt32(bytes, offset + 12));
+    }
+
     public int getMessageLength() {
         return messageLength;
     }
@@ -1,9 +1,106 @@
 package com.mongodb.mongoreplay.opcodes;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonSerializationException;
+import org.bson.RawBsonDocument;
+
+/**
+ * OP_MSG: flag bits followed by sections, see
+ * https://github.com/mongodb/specifications/blob/master/source/message/OP_MSG.rst
+ */
 public class Opcode2013 {
-    
+
+    public final static int CHECKSUM_PRESENT = 1;
+
+    private int flagBits;
+
+    private final List<Section> sections = new ArrayList<>(2);
+
     public Opcode2013() {
-        
+
+    }
+
+    /**
+     * Parses the message after the header. Section documents are views into bytes.
+     *
+     * @param offset offset of the flag bits
+     * @param end    offset after the message
+     */
+    public static Opcode2013 parse(byte[] bytes, int offset, int end) {
+        Opcode2013 msg = new Opcode2013();
+        msg.flagBits = WireMessage.readInt32(bytes, offset);
+        if ((msg.flagBits & CHECKSUM_PRESENT) != 0) {
+            end -= 4;
+        }
+        int position = offset + 4;
+        while (position < end) {
+            byte kind = bytes[position++];
+            Section section = new Section(kind);
+            if (kind == 0) {
+                RawBsonDocument doc = WireMessage.documentAt(bytes, position, end);
+                section.setRawDocument(doc);
+                section.setSize(doc.getByteBuffer().remaining());
+                position += section.getSize();
+            } else if (kind == 1) {
+                int size = WireMessage.readInt32(bytes, position);
+                int sectionEnd = position + size;
+                if (size < 4 || sectionEnd > end) {
+                    throw new BsonSerializationException("invalid OP_MSG section size " + size);
+                }
+                section.setSize(size);
+                int idEnd = WireMessage.cstringEnd(bytes, position + 4, sectionEnd);
+                section.setMessageIdentifier(WireMessage.readCString(bytes, position + 4, idEnd));
+                position = idEnd + 1;
+                while (position < sectionEnd) {
+                    RawBsonDocument doc = WireMessage.documentAt(bytes, position, sectionEnd);
+                    section.addRawDocument(doc);
+                    position += doc.getByteBuffer().remaining();
+                }
+            } else {
+                throw new BsonSerializationException("unknown OP_MSG section kind " + kind);
+            }
+            msg.sections.add(section);
+        }
+        return msg;
+    }
+
+    public int getFlagBits() {
+        return flagBits;
+    }
+
+    public List<Section> getSections() {
+        return sections;
+    }
+
+    /**
+     * @return the document of the kind 0 section
+     */
+    public RawBsonDocument getBody() {
+        for (Section section : sections) {
+            if (section.getPayloadType() == 0) {
+                return section.getRawDocument();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the documents of all kind 1 sections
+     */
+    public List<RawBsonDocument> getSequenceDocuments() {
+        List<RawBsonDocument> result = null;
+        for (Section section : sections) {
+            if (section.getPayloadType() == 1 && section.getRawDocuments() != null) {
+                if (result == null) {
+                    result = new ArrayList<>(section.getRawDocuments());
+                } else {
+                    result.addAll(section.getRawDocuments());
+                }
+            }
+        }
+        return result;
     }
 
 }
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 
 public class Section {
 	
@@ -21,6 +22,11 @@ public class Section {
 	private int size;
 	
 	private List<Document> documents;
+	
+	// views into the message, set when parsed by Opcode2013.parse()
+	private RawBsonDocument rawDocument;
+	
+	private List<RawBsonDocument> rawDocuments;
 
 	public byte getPayloadType() {
 		return payloadType;
@@ -57,6 +63,31 @@ public class Section {
 		documents.add(d);
 	}
 
+	/**
+	 * @return the document of a kind 0 section, as a view into the message
+	 */
+	public RawBsonDocument getRawDocument() {
+		return rawDocument;
+	}
+
+	void setRawDocument(RawBsonDocument rawDocument) {
+		this.rawDocument = rawDocument;
+	}
+
+	/**
+	 * @return the documents of a kind 1 section, as views into the message
+	 */
+	public List<RawBsonDocument> getRawDocuments() {
+		return rawDocuments;
+	}
+
+	void addRawDocument(RawBsonDocument d) {
+		if (rawDocuments == null) {
+			rawDocuments = new ArrayList<>(1);
+		}
+		rawDocuments.add(d);
+	}
+
 	public String getMessageIdentifier() {
 		return messageIdentifier;
 	}
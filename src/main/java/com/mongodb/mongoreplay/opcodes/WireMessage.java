@@ -0,0 +1,221 @@
+package com.mongodb.mongoreplay.opcodes;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.bson.BsonSerializationException;
+import org.bson.RawBsonDocument;
+
+/**
+ * A wire protocol message of a mongoreplay capture, as a view over the bytes of the
+ * capture record. The header, OP_MSG sections and documents are parsed in place and
+ * documents are returned as {@link RawBsonDocument} views, nothing is decoded or copied
+ * until a caller decodes a document it needs.
+ */
+public class WireMessage {
+
+    public final static int OP_REPLY = 1;
+    public final static int OP_QUERY = 2004;
+    public final static int OP_COMMAND = 2010;
+    public final static int OP_COMPRESSED = 2012;
+    public final static int OP_MSG = 2013;
+
+    private final static int HEADER_SIZE = 16;
+    private final static byte BSON_BINARY = 5;
+
+    private final byte[] bytes;
+    private final int offset;
+    private final int end;
+    private final MessageHeader header;
+
+    public WireMessage(byte[] bytes, int offset, int length) {
+        if (length < HEADER_SIZE) {
+            throw new BsonSerializationException("wire protocol message too short: " + length);
+        }
+        this.bytes = bytes;
+        this.offset = offset;
+        this.header = MessageHeader.parse(bytes, offset);
+        // the header length can be shorter than the captured body, never longer
+        this.end = offset + Math.min(length, Math.max(header.getMessageLength(), HEADER_SIZE));
+    }
+
+    /**
+     * @param rawop the rawop document of a mongoreplay record
+     * @return the message in its body field, null if there is none or it is empty
+     */
+    public static WireMessage fromRawOp(RawBsonDocument rawop) {
+        ByteBuffer buffer = rawop.getByteBuffer().asNIO();
+        byte[] bytes = buffer.array();
+        int docOffset = buffer.arrayOffset() + buffer.position();
+        int element = findElement(bytes, docOffset, "body");
+        if (element < 0 || bytes[element] != BSON_BINARY) {
+            return null;
+        }
+        int value = cstringEnd(bytes, element + 1, docOffset + buffer.remaining()) + 1;
+        int length = readInt32(bytes, value);
+        if (length == 0) {
+            return null;
+        }
+        // int32 length, subtype byte, data
+        return new WireMessage(bytes, value + 5, length);
+    }
+
+    public MessageHeader getHeader() {
+        return header;
+    }
+
+    public int getOpcode() {
+        return header.getHeaderOpcode();
+    }
+
+    /**
+     * @return the OP_MSG, parsed in place
+     */
+    public Opcode2013 getOpMsg() {
+        checkOpcode(OP_MSG);
+        return Opcode2013.parse(bytes, offset + HEADER_SIZE, end);
+    }
+
+    /**
+     * @return the full collection name of an OP_QUERY
+     */
+    public String getFullCollectionName() {
+        checkOpcode(OP_QUERY);
+        int start = offset + HEADER_SIZE + 4;
+        return readCString(bytes, start, cstringEnd(bytes, start, end));
+    }
+
+    /**
+     * @return the query of an OP_QUERY
+     */
+    public RawBsonDocument getQueryDocument() {
+        checkOpcode(OP_QUERY);
+        int start = offset + HEADER_SIZE + 4;
+        // skip the collection name, numberToSkip and numberToReturn
+        return documentAt(bytes, cstringEnd(bytes, start, end) + 1 + 8, end);
+    }
+
+    /**
+     * @return the database of an OP_COMMAND
+     */
+    public String getDatabaseName() {
+        checkOpcode(OP_COMMAND);
+        int start = offset + HEADER_SIZE;
+        return readCString(bytes, start, cstringEnd(bytes, start, end));
+    }
+
+    /**
+     * @return the command document of an OP_COMMAND
+     */
+    public RawBsonDocument getCommandDocument() {
+        checkOpcode(OP_COMMAND);
+        int dbEnd = cstringEnd(bytes, offset + HEADER_SIZE, end);
+        int commandNameEnd = cstringEnd(bytes, dbEnd + 1, end);
+        return documentAt(bytes, commandNameEnd + 1, end);
+    }
+
+    private void checkOpcode(int opcode) {
+        if (getOpcode() != opcode) {
+            throw new IllegalStateException(String.format("opcode is %s, not %s", getOpcode(), opcode));
+        }
+    }
+
+    static int readInt32(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16
+                | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    /**
+     * @return offset of the terminating 0 of the cstring at offset
+     */
+    static int cstringEnd(byte[] bytes, int offset, int end) {
+        for (int i = offset; i < end; i++) {
+            if (bytes[i] == 0) {
+                return i;
+            }
+        }
+        throw new BsonSerializationException("unterminated cstring at offset " + offset);
+    }
+
+    static String readCString(byte[] bytes, int offset, int cstringEnd) {
+        return new String(bytes, offset, cstringEnd - offset, StandardCharsets.UTF_8);
+    }
+
+    static RawBsonDocument documentAt(byte[] bytes, int offset, int end) {
+        int length = offset + 4 <= end ? readInt32(bytes, offset) : -1;
+        if (length < 5 || offset + length > end) {
+            throw new BsonSerializationException(
+                    String.format("invalid document length %s at offset %s", length, offset));
+        }
+        return new RawBsonDocument(bytes, offset, length);
+    }
+
+    /**
+     * @return offset of the type byte of the top level field name of the document at
+     *         docOffset, -1 if there is none
+     */
+    static int findElement(byte[] bytes, int docOffset, String name) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int docEnd = docOffset + readInt32(bytes, docOffset) - 1;
+        int position = docOffset + 4;
+        while (position < docEnd) {
+            byte type = bytes[position];
+            int nameStart = position + 1;
+            int nameEnd = cstringEnd(bytes, nameStart, docEnd);
+            if (nameEnd - nameStart == nameBytes.length && regionMatches(bytes, nameStart, nameBytes)) {
+                return position;
+            }
+            position = nameEnd + 1 + valueSize(bytes, type, nameEnd + 1, docEnd);
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(byte[] bytes, int offset, byte[] other) {
+        for (int i = 0; i < other.length; i++) {
+            if (bytes[offset + i] != other[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int valueSize(byte[] bytes, byte type, int value, int end) {
+        switch (type) {
+        case 1: // double
+        case 9: // date
+        case 17: // timestamp
+        case 18: // int64
+            return 8;
+        case 2: // string
+        case 13: // javascript
+        case 14: // symbol
+            return 4 + readInt32(bytes, value);
+        case 3: // document
+        case 4: // array
+        case 15: // javascript with scope
+            return readInt32(bytes, value);
+        case 5: // binary
+            return 4 + 1 + readInt32(bytes, value);
+        case 6: // undefined
+        case 10: // null
+        case 127: // max key
+        case -1: // min key
+            return 0;
+        case 7: // object id
+            return 12;
+        case 8: // boolean
+            return 1;
+        case 11: // regex, pattern and options cstrings
+            int patternEnd = cstringEnd(bytes, value, end);
+            return cstringEnd(bytes, patternEnd + 1, end) + 1 - value;
+        case 12: // db pointer
+            return 4 + readInt32(bytes, value) + 12;
+        case 16: // int32
+            return 4;
+        case 19: // decimal128
+            return 16;
+        default:
+            throw new BsonSerializationException("unknown BSON type " + type + " at offset " + value);
+        }
+    }
+}
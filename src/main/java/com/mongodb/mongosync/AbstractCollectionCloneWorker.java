@@ -10,14 +10,9 @@ import org.bson.RawBsonDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoException;
-import com.mongodb.bulk.BulkWriteError;
-import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.BulkWriteOptions;
-import com.mongodb.client.model.WriteModel;
 import com.mongodb.model.Namespace;
 import com.mongodb.shardsync.ShardClient;
 
@@ -41,11 +36,9 @@ public abstract class AbstractCollectionCloneWorker {
     
     protected List<RawBsonDocument> docsBuffer;
     
-    List<WriteModel<RawBsonDocument>> writesBuffer;
+    protected CloneBatchInserter inserter;
     
     //protected List<Document> hashesBuffer;
-    //protected InsertManyOptions insertManyOptions;
-    protected final static BulkWriteOptions bulkWriteOptions = new BulkWriteOptions();
     
     protected long successCount;
     protected long errorCount;
@@ -66,11 +59,11 @@ public abstract class AbstractCollectionCloneWorker {
             destDb = destShardClient.getMongoClient().getDatabase(ns.getDatabaseName());
             destCollection = destDb.getCollection(ns.getCollectionName(), RawBsonDocument.class);
             shardCollection = sourceShardClient.getCollectionsMap().get(ns.getNamespace());
+            inserter = new CloneBatchInserter(ns, destCollection);
         }
         
         
         docsBuffer = new ArrayList<RawBsonDocument>(options.getBatchSize());
-        writesBuffer = new ArrayList<>(options.getBatchSize());
         
         //hashesBuffer = new ArrayList<Document>(options.getBatchSize());
         
@@ -89,18 +82,6 @@ public abstract class AbstractCollectionCloneWorker {
         return lastId;
     }
     
-    private int getDuplicateKeyErrorCount(List<BulkWriteError> errors) {
-    	int count = 0;
-    	for (BulkWriteError bwe : errors) {
-    		if (bwe.getCode() == 11000) {
-    			count++;
-    		} else {
-    			logger.warn(String.format("%s - insertMany() error : %s", ns, bwe.getMessage()));
-    		}
-    	}
-    	return count;
-    }
-    
     protected Number getCount() {
     	Number total = null;
     	try {
@@ -124,52 +105,11 @@ public abstract class AbstractCollectionCloneWorker {
     }
     
     protected void doInsert() {
-        boolean retry = false;
-        
-        
-        try {
-            //destCollection.insertMany(buffer, insertManyOptions);
-            BulkWriteResult result = destCollection.bulkWrite(writesBuffer, bulkWriteOptions);
-            successCount += result.getInsertedCount();
-            
-            // this would be double counting?
-            //errorCount += docsBuffer.size() - result.getInsertedCount();
-            
-            
-        } catch (MongoBulkWriteException bwe) {
-            //logger.warn(String.format("%s - insertMany() error : %s", ns, bwe.getMessage()));
-        	List<BulkWriteError> errors = bwe.getWriteErrors();
-        	int batchDuplicateKeyCount = getDuplicateKeyErrorCount(errors);
-        	int batchErrorCount = bwe.getWriteErrors().size() - batchDuplicateKeyCount;
-            errorCount += batchErrorCount;
-            duplicateKeyCount += batchDuplicateKeyCount;
-        } catch (MongoException e) {
-            logger.warn(String.format("%s - insertMany() unexpected error: %s", ns, e.getMessage()));
-            //errorCount++;
-            retry = true;
-        }
-        
-        if (retry) {
-            //logger.debug(String.format("%s - Starting retry block, docsBuffer size: %s", ns, docsBuffer.size()));
-            
-            int pos = 0;
-            BsonValue prevId = null;
-            BsonValue id = null;
-            for (RawBsonDocument doc : docsBuffer) {
-                
-                try {
-                    id = getId(doc);
-                    destCollection.insertOne(doc);
-                    //logger.debug("inserted " + id);
-                    successCount++;
-                    prevId = id;
-                } catch (MongoException me) {
-                    logger.warn(String.format("%s - {_id: %s, prevId: %s, pos: %s} retry using insertOne() unexpected error: %s", ns, id, prevId, pos, me.getMessage()));
-                    errorCount++;
-                }
-                pos++;
-            }
-        }
+        ChunkCloneResult batchResult = new ChunkCloneResult(ns, null);
+        inserter.insert(docsBuffer, batchResult);
+        successCount += batchResult.successCount;
+        errorCount += batchResult.errorCount;
+        duplicateKeyCount += batchResult.duplicateKeyCount;
     }
 
 }
\ No newline at end of file
@@ -3,15 +3,20 @@ package com.mongodb.mongosync;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.bson.BsonDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoException;
 import com.mongodb.bulk.BulkWriteError;
-import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.BulkWriteOptions;
@@ -33,106 +38,95 @@ public class ApplyOperationsHelper  {
 	private String shardId;
 	
 	private final static UpdateOptions upsertOptions = new UpdateOptions().upsert(true);
-	private final static BulkWriteOptions orderedBulkWriteOptions = new BulkWriteOptions();
 	private final static BulkWriteOptions unorderedBulkWriteOptions = new BulkWriteOptions().ordered(false);
 	
 	
-	public ApplyOperationsHelper(String shardId, OplogTailMonitor oplogTailMonitor, ShardClient destShardClient) {
+	// don't bother splitting a wave into sub-batches smaller than this
+	private final static int MIN_SUB_BATCH_SIZE = 100;
+	
+	private final int applyThreads;
+	private final ExecutorService applyExecutor;
+	
+	public ApplyOperationsHelper(String shardId, OplogTailMonitor oplogTailMonitor, ShardClient destShardClient, int applyThreads) {
 		this.shardId = shardId;
 		this.oplogTailMonitor = oplogTailMonitor;
 		this.destShardClient = destShardClient;
+		this.applyThreads = applyThreads;
+		if (applyThreads > 1) {
+			applyExecutor = Executors.newFixedThreadPool(applyThreads, new ThreadFactoryBuilder()
+					.setNameFormat("oplog-apply_" + shardId + "_%d").setDaemon(true).build());
+		} else {
+			applyExecutor = null;
+		}
 	}
 	
 	
-	private void applyBulkWriteModelsOnCollection(Namespace namespace, OplogBatch batch, List<WriteModel<BsonDocument>> writeModels,
-			boolean useOrdered,
-			final BulkWriteOutput output)
-			throws MongoException {
-		MongoCollection<BsonDocument> collection = destShardClient.getCollectionBson(namespace);
-		BulkWriteResult bulkWriteResult = null;
-		
-		try {
-			//BulkWriteResult bulkWriteResult = applyBulkWriteModelsOnCollection(collection, operations, originalOps);
-			if (useOrdered) {
-				//logger.debug("{}: using ordered batch, {} ops", shardId, writeModels.size());
-				bulkWriteResult = collection.bulkWrite(writeModels, orderedBulkWriteOptions);
-			} else {
-				//logger.debug("{}: using un-ordered batch, {} ops", shardId, writeModels.size());
-				bulkWriteResult = collection.bulkWrite(writeModels, unorderedBulkWriteOptions);
+	/**
+	 * Applies the batch wave by wave, see {@link OplogBatch}. A wave has at most one
+	 * operation per _id, so it is written unordered and, when an apply pool is configured,
+	 * split into sub-batches that run in parallel. The next wave starts only after the
+	 * previous one completed, which keeps the order of operations on the same document.
+	 * Failed operations do not block later operations on other documents.
+	 * 
+	 * Only per document write errors are counted. Any other failure of a sub-batch, or an
+	 * interrupt, stops the apply and is thrown, so that the caller keeps the batch: the
+	 * waves that did complete are safe to apply again as they hold idempotent oplog
+	 * operations in order.
+	 */
+	public BulkWriteOutput applyBulkWriteModelsOnCollection(Namespace namespace, OplogBatch oplogBatch) 
+			throws InterruptedException {
+		BulkWriteOutput output = new BulkWriteOutput();
+		for (List<WriteModel<BsonDocument>> wave : oplogBatch.getWaves()) {
+			int parts = applyExecutor == null ? 1 : Math.min(applyThreads, wave.size() / MIN_SUB_BATCH_SIZE);
+			if (parts <= 1) {
+				output.add(applyUnordered(namespace, wave));
+				continue;
 			}
 			
-			output.increment(bulkWriteResult);
-		} catch (MongoBulkWriteException err) {
-			List<BulkWriteError> errors = err.getWriteErrors();
-			bulkWriteResult = err.getWriteResult();
-			output.increment(bulkWriteResult, errors.size());
-			//output = new BulkWriteOutput(bulkWriteResult);
-			if (errors.size() == writeModels.size()) {
-				//logger.error("{} bulk write errors, all {} operations failed: {}", shardId, err);
-			} else {
-				if (useOrdered) {
-					for (BulkWriteError bwe : errors) {
-						int index = bwe.getIndex();
-						//operations.remove(index);
-						batch.removeWriteModel(writeModels.get(index), true);
+			List<Callable<BulkWriteOutput>> tasks = new ArrayList<>(parts);
+			int partSize = (wave.size() + parts - 1) / parts;
+			for (int start = 0; start < wave.size(); start += partSize) {
+				List<WriteModel<BsonDocument>> subBatch = wave.subList(start, Math.min(start + partSize, wave.size()));
+				tasks.add(() -> applyUnordered(namespace, subBatch));
+			}
+			// invokeAll cancels the sub-batches that have not run when it is interrupted
+			for (Future<BulkWriteOutput> future : applyExecutor.invokeAll(tasks)) {
+				try {
+					output.add(future.get());
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
 					}
-					//logger.debug("{} retrying {} operations, errorCount: {}", shardId, batch.size(), errors.size());
-					//logger.warn("{}: bulk write errors", shardId, err);
-					batch.clearUnordered();
-					applyBulkWriteModelsOnCollection(namespace, batch, output);
-					//return applySoloBulkWriteModelsOnCollection(operations, collection, output);
+					throw new MongoException(cause.getMessage(), cause);
 				}
 			}
-		} catch (Exception ex) {
-			logger.error("{} unknown error: {}", shardId, ex.getMessage(), ex);
 		}
+		return output;
 	}
 	
-	public BulkWriteOutput applyBulkWriteModelsOnCollection(Namespace namespace, OplogBatch oplogBatch) {
+	private BulkWriteOutput applyUnordered(Namespace namespace, List<WriteModel<BsonDocument>> writeModels) {
 		BulkWriteOutput output = new BulkWriteOutput();
-		applyBulkWriteModelsOnCollection(namespace, oplogBatch, output);
+		MongoCollection<BsonDocument> collection = destShardClient.getCollectionBson(namespace);
+		try {
+			output.increment(collection.bulkWrite(writeModels, unorderedBulkWriteOptions));
+		} catch (MongoBulkWriteException err) {
+			List<BulkWriteError> errors = err.getWriteErrors();
+			output.increment(err.getWriteResult(), errors.size());
+			if (logger.isDebugEnabled()) {
+				logger.debug("{}: {} of {} operations failed on {}, first error: {}", shardId, errors.size(), 
+						writeModels.size(), namespace, errors.get(0).getMessage());
+			}
+		}
 		return output;
 	}
 	
-	private void applyBulkWriteModelsOnCollection(Namespace namespace, OplogBatch oplogBatch, final BulkWriteOutput output)
-			throws MongoException {
-		
-		List<WriteModel<BsonDocument>> orderedWriteModels = oplogBatch.getOrderedWriteModels();
-		if (!orderedWriteModels.isEmpty()) {
-			applyBulkWriteModelsOnCollection(namespace, oplogBatch, orderedWriteModels, true, output);
-		}
-		List<WriteModel<BsonDocument>> unorderedWriteModels = oplogBatch.getUnorderedWriteModels();
-		if (!unorderedWriteModels.isEmpty()) {
-			applyBulkWriteModelsOnCollection(namespace, oplogBatch, unorderedWriteModels, false, output);
+	public void shutdown() {
+		if (applyExecutor != null) {
+			applyExecutor.shutdown();
 		}
 	}
 	
-	private BulkWriteOutput applySoloBulkWriteModelsOnCollection(List<WriteModel<BsonDocument>> operations, 
-			MongoCollection<BsonDocument> collection, BulkWriteOutput output) {
-        BulkWriteResult soloResult = null;
-        int i = 1;
-        for (WriteModel<BsonDocument> op : operations) {
-            List<WriteModel<BsonDocument>> soloBulkOp = new ArrayList<>();
-            soloBulkOp.add(op);
-            try {
-            	soloResult = collection.bulkWrite(operations, orderedBulkWriteOptions);
-            	logger.debug("{}: retry {} of {} - {}", shardId, i, operations.size(), output);
-            	output.incDeleted(soloResult.getDeletedCount());
-            	output.incInserted(soloResult.getInsertedCount());
-            	output.incModified(soloResult.getModifiedCount());
-            	output.incUpserted(soloResult.getUpserts().size());
-            } catch (MongoBulkWriteException bwe) {
-                output.incDuplicateKeyExceptionCount(1);
-            } catch (Exception soloErr) {
-            	output.incDuplicateKeyExceptionCount(1);
-                logger.error("[BULK-WRITE-RETRY] unknown exception occurred while applying solo op {} on collection: {}; error {}",
-                        op.toString(), collection.getNamespace().getFullName(), soloErr.toString());
-            }
-            i++;
-        }
-        return output;
-    }
-	
 	public static WriteModel<BsonDocument> getWriteModelForOperation(BsonDocument operation) throws MongoException {
 		return getWriteModelForOperation(operation, false);
 	}
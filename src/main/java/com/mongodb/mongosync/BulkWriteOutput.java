@@ -9,6 +9,8 @@ public class BulkWriteOutput {
     private int modifiedCount = 0;
     private int insertedCount = 0;
     private int upsertedCount = 0;
+    // operations merged into another operation before the write, see OplogCoalescer
+    private int coalescedCount = 0;
     
     public BulkWriteOutput() {
     	
@@ -56,6 +58,10 @@ public class BulkWriteOutput {
     	this.upsertedCount += u;
     }
     
+    public void incCoalesced(int c) {
+    	this.coalescedCount += c;
+    }
+    
     public void incDuplicateKeyExceptionCount(int d) {
     	this.duplicateKeyExceptionCount += d;
     }
@@ -90,6 +96,10 @@ public class BulkWriteOutput {
 		return upsertedCount;
 	}
 
+	public int getCoalescedCount() {
+		return coalescedCount;
+	}
+
 	public void increment(BulkWriteResult result) {
 		incDeleted(result.getDeletedCount());
 		incModified(result.getModifiedCount());
@@ -97,6 +107,15 @@ public class BulkWriteOutput {
 		incUpserted(result.getUpserts().size());
 	}
 	
+	public void add(BulkWriteOutput other) {
+		incDeleted(other.deletedCount);
+		incModified(other.modifiedCount);
+		incInserted(other.insertedCount);
+		incUpserted(other.upsertedCount);
+		incDuplicateKeyExceptionCount(other.duplicateKeyExceptionCount);
+		incCoalesced(other.coalescedCount);
+	}
+	
 	public void increment(BulkWriteResult result, int errorCount) {
 		increment(result);
 		incDuplicateKeyExceptionCount(errorCount);
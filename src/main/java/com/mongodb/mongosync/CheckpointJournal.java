@@ -0,0 +1,213 @@
+package com.mongodb.mongosync;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.bson.BsonTimestamp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of oplog checkpoints: the timestamp through which every oplog
+ * entry has been applied, per shard and per child worker of a shard. One text line per
+ * record,
+ * <pre>shardId \t child \t timestamp \t crc32</pre>
+ * where child is {@link #SHARD} for the shard level checkpoint that oplog tailing resumes
+ * from. Each batch of appends is forced to disk before returning. On open the journal is
+ * replayed, the last record per (shard, child) wins, and a torn or corrupt tail left by a
+ * crash is truncated. Once {@link #COMPACT_RECORDS} records were appended, the journal is
+ * rewritten with only the latest records and atomically moved into place.
+ *
+ * Thread safe, shared by the oplog tail monitors of all shards.
+ */
+public class CheckpointJournal implements Closeable {
+
+	protected static final Logger logger = LoggerFactory.getLogger(CheckpointJournal.class);
+
+	public final static int SHARD = -1;
+
+	private final static int COMPACT_RECORDS = 100000;
+
+	private final Path path;
+	private final Map<String, Map<Integer, BsonTimestamp>> latest = new LinkedHashMap<>();
+	private FileChannel channel;
+	private int recordsSinceCompact;
+
+	public CheckpointJournal(Path path) throws IOException {
+		this.path = path;
+		long validLength = replay();
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		if (channel.size() > validLength) {
+			logger.warn("checkpoint journal {}: truncating {} bytes of incomplete or corrupt records", path,
+					channel.size() - validLength);
+			channel.truncate(validLength);
+			channel.force(true);
+		}
+		channel.position(validLength);
+	}
+
+	/**
+	 * @return the length of the valid prefix of the journal
+	 */
+	private long replay() throws IOException {
+		if (!Files.exists(path)) {
+			return 0;
+		}
+		long size = Files.size(path);
+		long validLength = 0;
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// readLine also returns a last line without its newline, which is a torn write
+				long lineEnd = validLength + line.getBytes(StandardCharsets.UTF_8).length + 1;
+				if (lineEnd > size || !parse(line)) {
+					break;
+				}
+				validLength = lineEnd;
+				recordsSinceCompact++;
+			}
+		}
+		return validLength;
+	}
+
+	private boolean parse(String line) {
+		int crcStart = line.lastIndexOf('\t');
+		if (crcStart < 0) {
+			return false;
+		}
+		String[] fields = line.substring(0, crcStart).split("\t");
+		if (fields.length != 3) {
+			return false;
+		}
+		try {
+			if (Long.parseLong(line.substring(crcStart + 1), 16) != crc(line.substring(0, crcStart))) {
+				return false;
+			}
+			put(fields[0], Integer.parseInt(fields[1]), new BsonTimestamp(Long.parseLong(fields[2])));
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private void put(String shardId, int child, BsonTimestamp ts) {
+		latest.computeIfAbsent(shardId, k -> new HashMap<>()).put(child, ts);
+	}
+
+	private static long crc(String s) {
+		CRC32 crc = new CRC32();
+		crc.update(s.getBytes(StandardCharsets.UTF_8));
+		return crc.getValue();
+	}
+
+	private static void appendRecord(StringBuilder sb, String shardId, int child, BsonTimestamp ts) {
+		String record = shardId + '\t' + child + '\t' + ts.getValue();
+		sb.append(record).append('\t').append(Long.toHexString(crc(record))).append('\n');
+	}
+
+	/**
+	 * Appends the shard checkpoint and the checkpoints of its child workers, durable when
+	 * this returns.
+	 */
+	public synchronized void append(String shardId, BsonTimestamp shardTs, Map<Integer, BsonTimestamp> childTs) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		appendRecord(sb, shardId, SHARD, shardTs);
+		put(shardId, SHARD, shardTs);
+		for (Map.Entry<Integer, BsonTimestamp> entry : childTs.entrySet()) {
+			appendRecord(sb, shardId, entry.getKey(), entry.getValue());
+			put(shardId, entry.getKey(), entry.getValue());
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		channel.force(false);
+		recordsSinceCompact += childTs.size() + 1;
+		if (recordsSinceCompact >= COMPACT_RECORDS) {
+			compact();
+		}
+	}
+
+	public void append(String shardId, BsonTimestamp shardTs) throws IOException {
+		append(shardId, shardTs, new HashMap<>());
+	}
+
+	/**
+	 * Rewrites the journal with only the latest record per (shard, child).
+	 */
+	public synchronized void compact() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int records = 0;
+		for (Map.Entry<String, Map<Integer, BsonTimestamp>> shard : latest.entrySet()) {
+			for (Map.Entry<Integer, BsonTimestamp> entry : shard.getValue().entrySet()) {
+				appendRecord(sb, shard.getKey(), entry.getKey(), entry.getValue());
+				records++;
+			}
+		}
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel tmpChannel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+			while (buffer.hasRemaining()) {
+				tmpChannel.write(buffer);
+			}
+			tmpChannel.force(true);
+		}
+		channel.close();
+		Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		channel = FileChannel.open(path, StandardOpenOption.WRITE);
+		channel.position(channel.size());
+		recordsSinceCompact = records;
+	}
+
+	/**
+	 * Drops all checkpoints, e.g. to start over with an initial sync.
+	 */
+	public synchronized void reset() throws IOException {
+		latest.clear();
+		channel.truncate(0);
+		channel.position(0);
+		channel.force(true);
+		recordsSinceCompact = 0;
+	}
+
+	/**
+	 * @return the shard checkpoint, null if the journal has none for this shard
+	 */
+	public synchronized BsonTimestamp getShardCheckpoint(String shardId) {
+		Map<Integer, BsonTimestamp> records = latest.get(shardId);
+		return records == null ? null : records.get(SHARD);
+	}
+
+	public synchronized Map<Integer, BsonTimestamp> getChildCheckpoints(String shardId) {
+		Map<Integer, BsonTimestamp> result = new HashMap<>();
+		Map<Integer, BsonTimestamp> records = latest.get(shardId);
+		if (records != null) {
+			result.putAll(records);
+			result.remove(SHARD);
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+
+	@Override
+	public String toString() {
+		return path.toString();
+	}
+}
@@ -2,16 +2,13 @@ package com.mongodb.mongosync;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.bson.BsonDocument;
-import org.bson.BsonTimestamp;
-import org.bson.BsonValue;
-import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.mongodb.MongoException;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.model.WriteModel;
 import com.mongodb.model.Namespace;
@@ -20,8 +17,12 @@ public class ChildOplogWorker implements Runnable {
 	
 	protected static final Logger logger = LoggerFactory.getLogger(ChildOplogWorker.class);
 	
+	private final static long FLUSH_CHECK_MILLIS = 250;
+	private final static long APPLY_RETRY_MILLIS = 1000;
+	
 	private String shardId;
-	private BlockingQueue<OplogQueueEntry> workQueue;
+	private SpscRingBuffer<OplogQueueEntry> workQueue;
+	private final WaitStrategy waitStrategy;
 	private ApplyOperationsHelper applyOperationsHelper;
 	private OplogTailMonitor oplogTailMonitor;
 	
@@ -29,21 +30,29 @@ public class ChildOplogWorker implements Runnable {
 	
 	private Map<String, OplogBatch> oplogBatches;
 	
-	private BsonTimestamp lastTimestamp = null;
+	// ts of the last entry taken from the queue
+	private long takenTs;
+	// per namespace with unflushed operations, the taken ts before its first operation
+	private Map<String, Long> pendingSince = new HashMap<>();
+	private volatile Progress progress = new Progress(0, 0, false);
 	
 	private MongoSyncOptions options;
 	
 	private Map<String, LookupTransformer> lookupTransformers;
 	
-	private long lastFlushMillis;
+	private Map<String, FlushController> flushControllers;
+	
+	private long lastFlushCheckMillis;
 	
-	public ChildOplogWorker(String shardId, BlockingQueue<OplogQueueEntry> workQueue, 
+	public ChildOplogWorker(String shardId, SpscRingBuffer<OplogQueueEntry> workQueue, 
 			ApplyOperationsHelper applyOperationsHelper, OplogTailMonitor oplogTailMonitor, MongoSyncOptions options) {
 		this.shardId = shardId;
 		this.workQueue = workQueue;
+		this.waitStrategy = options.getOplogWaitStrategy();
 		this.applyOperationsHelper = applyOperationsHelper;
 		this.oplogTailMonitor = oplogTailMonitor;
 		this.oplogBatches = new HashMap<>();
+		this.flushControllers = new HashMap<>();
 		this.options = options;
 		initializeTransformers();
 	}
@@ -64,35 +73,73 @@ public class ChildOplogWorker implements Runnable {
 		shutdown = true;
 	}
 	
-	private void flush(int minThreshold) {
-		//synchronized (writeModelsMap) {
-			for (Map.Entry<String, OplogBatch> entry : oplogBatches.entrySet()) {
-				Namespace ns = new Namespace(entry.getKey());
-				flush(minThreshold, ns, entry.getValue());
-			}
-		//}
-			
+	private void flushAll(boolean force) throws InterruptedException {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, OplogBatch> entry : oplogBatches.entrySet()) {
+			flush(entry.getKey(), entry.getValue(), force, now);
+		}
+		lastFlushCheckMillis = now;
+		publishProgress();
 	}
 	
-	private void flush(int minThreshold, Namespace ns, OplogBatch oplogBatch) {
-		BulkWriteOutput output = null;
-		long current = System.currentTimeMillis();
-		long elapsed = current - lastFlushMillis;
-		
-		
+	/**
+	 * Every entry this worker took with a ts up to <code>appliedTs</code> has been applied.
+	 * Entries are taken in oplog order and a namespace batch only holds entries taken after
+	 * its pendingSince ts, so this is the smallest pendingSince, or the last taken ts when
+	 * nothing is pending.
+	 */
+	private void publishProgress() {
+		long appliedTs = takenTs;
+		for (long since : pendingSince.values()) {
+			appliedTs = Math.min(appliedTs, since);
+		}
+		progress = new Progress(takenTs, appliedTs, !pendingSince.isEmpty());
+	}
+	
+	public Progress getProgress() {
+		return progress;
+	}
+	
+	private void flush(String ns, OplogBatch oplogBatch, boolean force, long now) throws InterruptedException {
 		int size = oplogBatch.size();
-		if (size > minThreshold || (size > 0 && elapsed > 15000)) {
-			//logger.debug("flush: oplogBatch.size: {}, minThreshold: {}, elapsed: {}", oplogBatch.size(), minThreshold, elapsed);
-			output = applyOperationsHelper.applyBulkWriteModelsOnCollection(ns, oplogBatch);
-			oplogBatch.clear();
-			lastFlushMillis = current;
+		FlushController controller = flushControllers.get(ns);
+		if (size == 0 || !(force || controller.shouldFlush(size, now))) {
+			return;
 		}
 		
-		if (output != null) {
-			oplogTailMonitor.updateStatus(output);
-			oplogTailMonitor.setLatestTimestamp(new BsonTimestamp(lastTimestamp.getValue()));
+		if (lookupTransformers != null) {
+			LookupTransformer tran = lookupTransformers.get(ns);
+			if (tran != null) {
+				tran.resolvePending();
+			}
 		}
 		
+		// the batch and its pendingSince are only dropped once every wave has been applied,
+		// until then the checkpoint can't move past its first entry
+		long start = System.currentTimeMillis();
+		BulkWriteOutput output = null;
+		while (output == null) {
+			try {
+				output = applyOperationsHelper.applyBulkWriteModelsOnCollection(new Namespace(ns), oplogBatch);
+			} catch (MongoException me) {
+				if (shutdown) {
+					logger.error("{}: applying {} operations on {} failed, leaving them unapplied", shardId, size, ns, me);
+					return;
+				}
+				logger.error("{}: applying {} operations on {} failed, retrying in {} ms", shardId, size, ns,
+						APPLY_RETRY_MILLIS, me);
+				Thread.sleep(APPLY_RETRY_MILLIS);
+			}
+		}
+		long end = System.currentTimeMillis();
+		output.incCoalesced(oplogBatch.getCoalescedCount());
+		oplogBatch.clear();
+		controller.onFlush(size, end - start, output.getDuplicateKeyExceptionCount(), workQueue.size(), end);
+		
+		pendingSince.remove(ns);
+		publishProgress();
+		oplogTailMonitor.updateStatus(output);
+		oplogTailMonitor.recordFlush(size, end - start);
 	}
 	
 
@@ -105,7 +152,7 @@ public class ChildOplogWorker implements Runnable {
 				OplogQueueEntry currentQueueEntry = null;
 				
 				try {
-					currentQueueEntry = workQueue.poll(5, TimeUnit.SECONDS);
+					currentQueueEntry = workQueue.poll(FLUSH_CHECK_MILLIS, TimeUnit.MILLISECONDS, waitStrategy);
 					//currentDocument = workQueue.take();
 				} catch (InterruptedException e) {
 					if (shutdown) {
@@ -115,10 +162,12 @@ public class ChildOplogWorker implements Runnable {
 				}
 				
 				if (currentQueueEntry == null) {
-					flush(options.getOplogBatchSize());
+					flushAll(false);
 					continue;
 				}
 				BsonDocument currentDocument = currentQueueEntry.doc;
+				long previousTakenTs = takenTs;
+				takenTs = currentDocument.getTimestamp("ts").getValue();
 				
 				String ns = currentDocument.getString("ns").getValue();
 				Namespace namespace = new Namespace(ns);
@@ -129,44 +178,47 @@ public class ChildOplogWorker implements Runnable {
 				
 				OplogBatch batch = oplogBatches.get(ns);
 				if (batch == null) {
-					batch = new OplogBatch(options.getOplogBatchSize());
+					batch = new OplogBatch(options.getOplogBatchSize(), options.isOplogCoalesce());
 					oplogBatches.put(ns, batch);
+					flushControllers.put(ns, new FlushController(shardId + " " + ns, options.getOplogBatchSize(),
+							options.getOplogTargetLagMillis(), options.getOplogMaxWriteMillis()));
 				}
 				
 				if (lookupTransformers != null && op.equals("u")) {
 					LookupTransformer tran = lookupTransformers.get(ns);
 					if (tran != null) {
-						BsonDocument updateQuery = currentDocument.getDocument("o2");
-						ObjectId id = updateQuery.getObjectId("_id").getValue();
-						BsonValue lookupValue = null;
-						try {
-							lookupValue = tran.lookup(id);
-							updateQuery.put(tran.getLookupValueKey(), lookupValue);
-						} catch (Exception e) {
-							logger.warn("ChildOplogWorker exception executing transformation lookup", e);
-						}
-						
-						//BsonDocument updateQuery = currentDocument.getDocument("o2");
-						
+						// the update model keeps this filter, the lookup value is added for the
+						// whole batch right before it's flushed
+						tran.addPending(currentDocument.getDocument("o2"));
 					}
 					
 				}
 				
 				WriteModel<BsonDocument> model = ApplyOperationsHelper.getWriteModelForOperation(currentDocument);
 				if (model != null) {
-					//synchronized(oplogBatches) {
-						batch.addWriteModel(model, currentQueueEntry.id);
-					//}
+					if (batch.size() == 0) {
+						pendingSince.put(ns, previousTakenTs);
+					}
+					batch.addWriteModel(model, currentQueueEntry.id);
 				} else {
 					// if the command is $cmd for create index or create collection, there would not
 					// be any write model.
 					logger.warn("{}: ignoring oplog entry. could not convert the document to model. Given document is {}", 
 							shardId, currentDocument.toJson());
 				}
-				lastTimestamp = currentDocument.getTimestamp("ts");
-				
-				flush(options.getOplogBatchSize(), namespace, batch);
+				long now = System.currentTimeMillis();
+				flush(ns, batch, false, now);
+				// namespaces that stopped receiving entries still need their timed flush
+				if (now - lastFlushCheckMillis >= FLUSH_CHECK_MILLIS) {
+					flushAll(false);
+				}
 				
+			} catch (InterruptedException e) {
+				// a flush stopped before its batch was applied, the batch is kept
+				if (shutdown) {
+					logger.debug("{}: interruped, breaking", shardId);
+					break;
+				}
 			} catch (Exception e) {
 				logger.error("{}: ChildOplogWorker error", shardId, e);
 				
@@ -174,8 +226,28 @@ public class ChildOplogWorker implements Runnable {
 			
 		}
 		logger.debug("{}: child flush", shardId);
-		flush(0);
+		try {
+			flushAll(true);
+		} catch (InterruptedException e) {
+			logger.warn("{}: interrupted during the final flush", shardId);
+			Thread.currentThread().interrupt();
+		}
 		
 	}
+	
+	/**
+	 * Snapshot of a worker's position for checkpointing, see {@link OplogTailMonitor#checkpoint()}.
+	 */
+	public static class Progress {
+		final long takenTs;
+		final long appliedTs;
+		final boolean pending;
+		
+		Progress(long takenTs, long appliedTs, boolean pending) {
+			this.takenTs = takenTs;
+			this.appliedTs = appliedTs;
+			this.pending = pending;
+		}
+	}
 
 }
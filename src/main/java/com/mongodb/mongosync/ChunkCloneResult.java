@@ -20,6 +20,14 @@ public class ChunkCloneResult {
 		this.chunkQuery = chunkQuery;
 	}
 
+	public void add(ChunkCloneResult other) {
+		sourceCount += other.sourceCount;
+		successCount += other.successCount;
+		errorCount += other.errorCount;
+		duplicateKeyCount += other.duplicateKeyCount;
+		skippedCount += other.skippedCount;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
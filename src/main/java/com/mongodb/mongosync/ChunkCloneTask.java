@@ -1,34 +1,64 @@
 package com.mongodb.mongosync;
 
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lt;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
-import org.bson.BsonSerializationException;
+import org.bson.BsonDocument;
 import org.bson.BsonValue;
+import org.bson.Document;
 import org.bson.RawBsonDocument;
 import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoException;
-import com.mongodb.bulk.BulkWriteError;
-import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Projections;
 import com.mongodb.model.Namespace;
 import com.mongodb.shardsync.ShardClient;
+import com.mongodb.util.bson.BsonValueComparator;
 
+/**
+ * Copies one chunk (or a whole unsharded collection). Large chunks are split into _id
+ * subranges at sampled quantiles. Each subrange is read by its own cursor, and reading is
+ * decoupled from writing by a bounded queue of batches drained by as many writers as
+ * there are subranges, so a jumbo chunk is not limited by a single cursor and inserts
+ * overlap with reads.
+ */
 public class ChunkCloneTask implements Callable<ChunkCloneResult> {
-	
-	
+
+
 	protected static final Logger logger = LoggerFactory.getLogger(ChunkCloneTask.class);
-	
+
+	// batches each subrange may read ahead of the writers
+	private final static int BUFFERED_BATCHES_PER_RANGE = 4;
+	// only split when every subrange gets at least this many batches
+	private final static int MIN_SUBRANGE_BATCHES = 10;
+	private final static int SAMPLES_PER_SUBRANGE = 20;
+	// each sampled document is a random read, this bounds the cost of splitting a chunk
+	private final static int MAX_SAMPLE_SIZE = 10000;
+	private final static long POLL_MILLIS = 100;
+
 	protected Namespace ns;
     protected ShardClient sourceShardClient;
     protected ShardClient destShardClient;
@@ -37,29 +67,32 @@ public class ChunkCloneTask implements Callable<ChunkCloneResult> {
     protected MongoDatabase destDb;
     protected MongoCollection<RawBsonDocument> sourceCollection;
     protected MongoCollection<RawBsonDocument> destCollection;
-    
+
     protected Bson chunkQuery;
-    
-    
-    private final static InsertManyOptions insertManyOptions = new InsertManyOptions().ordered(false);
-	
-	public ChunkCloneTask(Namespace ns, ShardClient sourceShardClient, ShardClient destShardClient, Bson chunkQuery, MongoSyncOptions options) {
+
+    private final ExecutorService cloneExecutor;
+    private final CloneBatchInserter inserter;
+
+	public ChunkCloneTask(Namespace ns, ShardClient sourceShardClient, ShardClient destShardClient, Bson chunkQuery,
+			MongoSyncOptions options, ExecutorService cloneExecutor) {
         this.ns = ns;
         this.sourceShardClient = sourceShardClient;
         this.destShardClient = destShardClient;
         this.options = options;
         this.chunkQuery = chunkQuery;
-        
+        this.cloneExecutor = cloneExecutor;
+
         sourceDb = sourceShardClient.getMongoClient().getDatabase(ns.getDatabaseName());
         sourceCollection = sourceDb.getCollection(ns.getCollectionName(), RawBsonDocument.class);
-        
+
         destDb = destShardClient.getMongoClient().getDatabase(ns.getDatabaseName());
         destCollection = destDb.getCollection(ns.getCollectionName(), RawBsonDocument.class);
+        inserter = new CloneBatchInserter(ns, destCollection);
     }
 
 	@Override
 	public ChunkCloneResult call() throws Exception {
-		
+
 		ChunkCloneResult result = cloneChunk();
 		if (result == null) {
 			logger.warn("problem cloning chunk, retrying, ns: {}, query: {}", ns, chunkQuery);
@@ -70,21 +103,17 @@ public class ChunkCloneTask implements Callable<ChunkCloneResult> {
 		}
 		return result;
 	}
-	
-	private ChunkCloneResult cloneChunk() {
+
+	private ChunkCloneResult cloneChunk() throws InterruptedException {
 		ChunkCloneResult result = new ChunkCloneResult(ns, chunkQuery);
-		MongoCursor<RawBsonDocument> cursor = null;
 		try {
 			long sourceTotal;
-	        List<RawBsonDocument> docsBuffer = new ArrayList<>(options.getBatchSize());
-	        
 			if (chunkQuery == null) {
 				sourceTotal = sourceCollection.countDocuments();
-	    		cursor = sourceCollection.find().sort(eq("$natural", 1)).noCursorTimeout(true).iterator();
 	    	} else {
 	    		sourceTotal = sourceCollection.countDocuments(chunkQuery);
 	    		if (options.isSkipChunkSyncIfMatchingCounts()) {
-	    			
+
 	    			if (sourceTotal > 0) {
 	    				long destCount = destCollection.countDocuments(chunkQuery);
 	    				if (sourceTotal == destCount) {
@@ -95,125 +124,273 @@ public class ChunkCloneTask implements Callable<ChunkCloneResult> {
  	    				return result;
  	    			}
 	    		}
-	    		cursor = sourceCollection.find(chunkQuery).noCursorTimeout(true).iterator();
-	    		
 	    	}
-			long start = System.currentTimeMillis();
-	        long last = start;
-	    	int count = 0;
-	        while (cursor.hasNext()) {
-	            RawBsonDocument doc = cursor.next();
-	            result.sourceCount++;
-	            docsBuffer.add(doc);
-	            
-	            if (docsBuffer.size() >= options.getBatchSize()) {
-	                doInsert(docsBuffer, result);
-	                docsBuffer.clear();
-	                
-	                long current = System.currentTimeMillis();
-                    long delta = (current - last) / 1000;
-                    if (delta >= 30) {
-                    	Long percent = null;
-                    	if (sourceTotal > 0) {
-                    		percent = (result.sourceCount / sourceTotal);
-                    	}
-                        logger.debug("{} - cloned {} / {} documents, {} %", 
-                        		ns, result.sourceCount, sourceTotal, percent);
-                        last = current;
-                    }
-	            }
-	            
-	            count++;
-	            if (count > 1 && count % 1000000 == 0) {
-	            	logger.debug("{}: read {} docs for chunk clone, query: {}", ns, count, chunkQuery);
-	            }
-	        }
-	        // flush any remaining from the buffer
-	        if (docsBuffer.size() > 0) {
-	            doInsert(docsBuffer, result);
-	            docsBuffer.clear();
-	        }
+			copyRanges(getSubranges(sourceTotal), sourceTotal, result);
 		} catch (MongoException me) {
         	logger.error("fatal error cloning chunk, ns: {}", ns, me);
         	result = null;
-        } finally {
+        }
+		return result;
+	}
+
+	private void copyRanges(List<Bson> ranges, long sourceTotal, ChunkCloneResult result) throws InterruptedException {
+		BlockingQueue<List<RawBsonDocument>> queue = new ArrayBlockingQueue<>(BUFFERED_BATCHES_PER_RANGE * ranges.size());
+		CountDownLatch readersDone = new CountDownLatch(ranges.size());
+		AtomicReference<RuntimeException> failure = new AtomicReference<>();
+		AtomicLong written = new AtomicLong();
+
+		for (Bson range : ranges) {
+			cloneExecutor.execute(() -> read(range, queue, readersDone, failure));
+		}
+		List<Future<ChunkCloneResult>> writers = new ArrayList<>(ranges.size() - 1);
+		for (int i = 1; i < ranges.size(); i++) {
+			writers.add(cloneExecutor.submit(() -> write(queue, readersDone, failure, written, -1)));
+		}
+
+		try {
+			// this thread is one of the writers, and the one reporting progress
+			result.add(write(queue, readersDone, failure, written, sourceTotal));
+			for (Future<ChunkCloneResult> writer : writers) {
+				try {
+					result.add(writer.get());
+				} catch (ExecutionException e) {
+					failure.compareAndSet(null, new MongoException("chunk clone writer failed", e.getCause()));
+				}
+			}
+		} catch (InterruptedException e) {
+			failure.compareAndSet(null, new MongoException("chunk clone interrupted"));
+			throw e;
+		}
+		// readers stop on their own once failure is set, wait for them so a retry doesn't overlap
+		readersDone.await();
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+	}
+
+	private void read(Bson range, BlockingQueue<List<RawBsonDocument>> queue, CountDownLatch readersDone,
+			AtomicReference<RuntimeException> failure) {
+		int batchSize = options.getBatchSize();
+		long count = 0;
+		MongoCursor<RawBsonDocument> cursor = null;
+		try {
+			if (range == null) {
+	    		cursor = sourceCollection.find().sort(eq("$natural", 1)).noCursorTimeout(true).iterator();
+			} else {
+				cursor = sourceCollection.find(range).noCursorTimeout(true).iterator();
+			}
+			List<RawBsonDocument> batch = new ArrayList<>(batchSize);
+			while (cursor.hasNext() && failure.get() == null) {
+				batch.add(cursor.next());
+				if (batch.size() >= batchSize) {
+					enqueue(batch, queue, failure);
+					batch = new ArrayList<>(batchSize);
+				}
+				count++;
+	            if (count % 1000000 == 0) {
+	            	logger.debug("{}: read {} docs for chunk clone, query: {}", ns, count, range);
+	            }
+			}
+			if (!batch.isEmpty()) {
+				enqueue(batch, queue, failure);
+			}
+		} catch (RuntimeException e) {
+			failure.compareAndSet(null, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure.compareAndSet(null, new MongoException("chunk clone reader interrupted"));
+		} finally {
 			try {
 				if (cursor != null) {
 	        		cursor.close();
 	        	}
 			} catch (Exception e) {
 			}
-			
+			readersDone.countDown();
+		}
+	}
+
+	private void enqueue(List<RawBsonDocument> batch, BlockingQueue<List<RawBsonDocument>> queue,
+			AtomicReference<RuntimeException> failure) throws InterruptedException {
+		while (!queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+			if (failure.get() != null) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Drains batches until all readers are done and the queue is empty.
+	 * @param sourceTotal expected document count for progress logging, -1 to not log
+	 */
+	private ChunkCloneResult write(BlockingQueue<List<RawBsonDocument>> queue, CountDownLatch readersDone,
+			AtomicReference<RuntimeException> failure, AtomicLong written, long sourceTotal) throws InterruptedException {
+		ChunkCloneResult result = new ChunkCloneResult(ns, chunkQuery);
+		long last = System.currentTimeMillis();
+		try {
+			while (failure.get() == null) {
+				List<RawBsonDocument> batch = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (batch == null) {
+					if (readersDone.getCount() == 0 && queue.isEmpty()) {
+						break;
+					}
+					continue;
+				}
+				result.sourceCount += batch.size();
+				inserter.insert(batch, result);
+				long total = written.addAndGet(batch.size());
+
+				long current = System.currentTimeMillis();
+				if (sourceTotal >= 0 && current - last >= 30000) {
+					Long percent = null;
+					if (sourceTotal > 0) {
+						percent = (total * 100 / sourceTotal);
+					}
+					logger.debug("{} - cloned {} / {} documents, {} %", ns, total, sourceTotal, percent);
+					last = current;
+				}
+			}
+		} catch (RuntimeException e) {
+			failure.compareAndSet(null, e);
 		}
 		return result;
-		
 	}
-	
-    protected void doInsert(final List<RawBsonDocument> docsBuffer, final ChunkCloneResult result) {
-        boolean retry = false;
-        
-        try {
-            destCollection.insertMany(docsBuffer, insertManyOptions);
-            result.successCount += docsBuffer.size();
-            
-        } catch (MongoBulkWriteException bwe) {
-            logger.warn(String.format("%s - insertMany() error : %s", ns, bwe.getMessage()));
-        	List<BulkWriteError> errors = bwe.getWriteErrors();
-        	
-        	int batchDuplicateKeyCount = getDuplicateKeyErrorCount(errors);
-        	int batchErrorCount = bwe.getWriteErrors().size() - batchDuplicateKeyCount;
-            result.errorCount += batchErrorCount;
-            result.duplicateKeyCount += batchDuplicateKeyCount;
-            BulkWriteResult bulkWriteResult = bwe.getWriteResult();
-            result.successCount += bulkWriteResult.getInsertedCount();
-        } catch (MongoException e) {
-            logger.warn(String.format("%s - insertMany() unexpected error: %s", ns, e.getMessage()));
-            //errorCount++;
-            retry = true;
-        }
-        
-        if (retry) {
-            //logger.debug(String.format("%s - Starting retry block, docsBuffer size: %s", ns, docsBuffer.size()));
-            
-            int pos = 0;
-            BsonValue prevId = null;
-            BsonValue id = null;
-            for (RawBsonDocument doc : docsBuffer) {
-                
-                try {
-                    id = getId(doc);
-                    destCollection.insertOne(doc);
-                    result.successCount++;
-                    prevId = id;
-                } catch (MongoException me) {
-                    logger.warn(String.format("%s - {_id: %s, prevId: %s, pos: %s} retry using insertOne() unexpected error: %s", ns, id, prevId, pos, me.getMessage()));
-                    result.errorCount++;
-                }
-                pos++;
-            }
-        }
-    }
-    
-    protected static BsonValue getId(RawBsonDocument doc) {
-        BsonValue lastId = null;
-        try {
-            lastId = doc.get("_id");
-        } catch (BsonSerializationException bse) {
-            //logger.warn("Failed to get _id, previous _id was: " + lastId);
-        }
-        return lastId;
-    }
-    
-    private int getDuplicateKeyErrorCount(List<BulkWriteError> errors) {
-    	int count = 0;
-    	for (BulkWriteError bwe : errors) {
-    		if (bwe.getCode() == 11000) {
-    			count++;
-    		} else {
-    			logger.warn(String.format("%s - insertMany() error : %s", ns, bwe.getMessage()));
-    		}
-    	}
-    	return count;
-    }
+
+	/**
+	 * @return the chunk query split into _id subranges that together cover the chunk, or
+	 * just the chunk query when the chunk is small or its _ids can't be split safely
+	 */
+	private List<Bson> getSubranges(long sourceTotal) {
+		int subranges = (int) Math.min(options.getCloneSubranges(),
+				sourceTotal / ((long) MIN_SUBRANGE_BATCHES * options.getBatchSize()));
+		if (subranges <= 1) {
+			return Collections.singletonList(chunkQuery);
+		}
+
+		List<Bson> ranges = getSubranges(sampleIds(subranges * SAMPLES_PER_SUBRANGE, sourceTotal), subranges, chunkQuery);
+		if (ranges.size() > 1) {
+			logger.debug("{}: split chunk of {} docs into {} subranges, query: {}", ns, sourceTotal, ranges.size(), chunkQuery);
+		}
+		return ranges;
+	}
+
+	/**
+	 * Splits the chunk into up to <code>subranges</code> _id ranges at quantiles of the
+	 * sampled _ids, plus a last range for _ids of other types.
+	 *
+	 * @return the filters of the ranges, or just the chunk query if the samples can't be
+	 *         used to split it
+	 */
+	static List<Bson> getSubranges(List<BsonValue> ids, int subranges, Bson chunkQuery) {
+		if (ids.isEmpty() || subranges <= 1) {
+			return Collections.singletonList(chunkQuery);
+		}
+		// range operators only match values of the bound's type bracket, so every sampled
+		// _id must be in one bracket and a last range picks up _ids of any other type
+		List<String> typeAliases = getTypeBracket(ids.get(0));
+		if (typeAliases == null) {
+			return Collections.singletonList(chunkQuery);
+		}
+		for (BsonValue id : ids) {
+			if (!typeAliases.equals(getTypeBracket(id))) {
+				return Collections.singletonList(chunkQuery);
+			}
+		}
+		BsonValueComparator comparator = new BsonValueComparator();
+		ids = new ArrayList<>(ids);
+		ids.sort(comparator);
+
+		List<BsonValue> bounds = new ArrayList<>(subranges - 1);
+		for (int i = 1; i < subranges; i++) {
+			BsonValue bound = ids.get(i * ids.size() / subranges);
+			if (bounds.isEmpty() || comparator.compare(bounds.get(bounds.size() - 1), bound) < 0) {
+				bounds.add(bound);
+			}
+		}
+
+		List<Bson> ranges = new ArrayList<>(bounds.size() + 2);
+		ranges.add(withChunkQuery(chunkQuery, lt("_id", bounds.get(0))));
+		for (int i = 1; i < bounds.size(); i++) {
+			ranges.add(withChunkQuery(chunkQuery, and(gte("_id", bounds.get(i - 1)), lt("_id", bounds.get(i)))));
+		}
+		ranges.add(withChunkQuery(chunkQuery, gte("_id", bounds.get(bounds.size() - 1))));
+		ranges.add(withChunkQuery(chunkQuery, new Document("_id", new Document("$not", new Document("$type", typeAliases)))));
+		return ranges;
+	}
+
+	private static Bson withChunkQuery(Bson chunkQuery, Bson rangeFilter) {
+		return chunkQuery == null ? rangeFilter : and(chunkQuery, rangeFilter);
+	}
+
+	/**
+	 * Samples the _ids of the chunk with <code>$sample</code> as the first stage, which the
+	 * server serves from a random cursor instead of scanning and sorting the whole chunk,
+	 * see {@link #getSampleSize(int, long, long)}. Only the samples inside the chunk are kept.
+	 */
+	private List<BsonValue> sampleIds(int samples, long sourceTotal) {
+		long collectionCount = chunkQuery == null ? sourceTotal : sourceCollection.estimatedDocumentCount();
+		int sampleSize = getSampleSize(samples, sourceTotal, collectionCount);
+		if (sampleSize <= 0) {
+			return Collections.emptyList();
+		}
+		List<Bson> pipeline = new ArrayList<>(3);
+		pipeline.add(Aggregates.sample(sampleSize));
+		if (chunkQuery != null) {
+			pipeline.add(Aggregates.match(chunkQuery));
+		}
+		pipeline.add(Aggregates.project(Projections.include("_id")));
+
+		List<BsonValue> ids = new ArrayList<>(sampleSize);
+		try {
+			for (BsonDocument doc : sourceCollection.aggregate(pipeline, BsonDocument.class)) {
+				ids.add(doc.get("_id"));
+			}
+		} catch (MongoException me) {
+			logger.warn("{}: could not sample _ids to split chunk, cloning it with one cursor: {}", ns, me.getMessage());
+			ids.clear();
+		}
+		return ids;
+	}
+
+	/**
+	 * @return the size of a collection wide sample that is expected to hold
+	 *         <code>samples</code> documents of a chunk of <code>chunkCount</code>, capped at
+	 *         {@value #MAX_SAMPLE_SIZE} and kept below 5% of the collection, above which the
+	 *         server scans and sorts the collection instead of using a random cursor.
+	 *         0 when no useful sample fits.
+	 */
+	static int getSampleSize(int samples, long chunkCount, long collectionCount) {
+		if (chunkCount <= 0) {
+			return 0;
+		}
+		// the estimated count can lag behind the chunk count
+		collectionCount = Math.max(collectionCount, chunkCount);
+		long size = Math.min(MAX_SAMPLE_SIZE, (long) samples * collectionCount / chunkCount);
+		size = Math.min(size, collectionCount / 20 - 1);
+		return size < 2 ? 0 : (int) size;
+	}
+
+	/**
+	 * @return the $type aliases of the values a range on this value can match, null if
+	 * this type isn't used for splitting
+	 */
+	private static List<String> getTypeBracket(BsonValue value) {
+		switch (value.getBsonType()) {
+		case OBJECT_ID:
+			return Arrays.asList("objectId");
+		case STRING:
+		case SYMBOL:
+			return Arrays.asList("string", "symbol");
+		case INT32:
+		case INT64:
+		case DOUBLE:
+		case DECIMAL128:
+			return Arrays.asList("number");
+		case DATE_TIME:
+			return Arrays.asList("date");
+		default:
+			return null;
+		}
+	}
 
 }
@@ -0,0 +1,89 @@
+package com.mongodb.mongosync;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.model.Namespace;
+
+/**
+ * Inserts batches of cloned documents with unordered insertMany. When a batch fails as
+ * a whole (i.e. not with per document write errors), it is split in halves that are
+ * retried the same way, so a bad document costs O(log batchSize) round trips instead of
+ * falling back to one insertOne per document. Holds no state of its own, so concurrent
+ * writers can share it as long as each passes its own result.
+ */
+public class CloneBatchInserter {
+
+	protected static final Logger logger = LoggerFactory.getLogger(CloneBatchInserter.class);
+
+	private final static InsertManyOptions insertManyOptions = new InsertManyOptions().ordered(false);
+
+	private final Namespace ns;
+	// the unordered insertMany on the destination collection in production
+	private final Consumer<List<RawBsonDocument>> insertMany;
+
+	public CloneBatchInserter(Namespace ns, MongoCollection<RawBsonDocument> destCollection) {
+		this(ns, docs -> destCollection.insertMany(docs, insertManyOptions));
+	}
+
+	CloneBatchInserter(Namespace ns, Consumer<List<RawBsonDocument>> insertMany) {
+		this.ns = ns;
+		this.insertMany = insertMany;
+	}
+
+	public void insert(List<RawBsonDocument> docs, ChunkCloneResult result) {
+		if (docs.isEmpty()) {
+			return;
+		}
+		try {
+			insertMany.accept(docs);
+			result.successCount += docs.size();
+		} catch (MongoBulkWriteException bwe) {
+			List<BulkWriteError> errors = bwe.getWriteErrors();
+			int batchDuplicateKeyCount = getDuplicateKeyErrorCount(errors);
+			result.errorCount += errors.size() - batchDuplicateKeyCount;
+			result.duplicateKeyCount += batchDuplicateKeyCount;
+			result.successCount += bwe.getWriteResult().getInsertedCount();
+		} catch (MongoException e) {
+			if (docs.size() == 1) {
+				logger.warn(String.format("%s - {_id: %s} insert unexpected error: %s", ns, getId(docs.get(0)), e.getMessage()));
+				result.errorCount++;
+				return;
+			}
+			logger.warn(String.format("%s - insertMany() of %s docs unexpected error, retrying in halves: %s", ns, docs.size(), e.getMessage()));
+			int half = docs.size() / 2;
+			insert(docs.subList(0, half), result);
+			insert(docs.subList(half, docs.size()), result);
+		}
+	}
+
+	private int getDuplicateKeyErrorCount(List<BulkWriteError> errors) {
+		int count = 0;
+		for (BulkWriteError bwe : errors) {
+			if (bwe.getCode() == 11000) {
+				count++;
+			} else {
+				logger.warn(String.format("%s - insertMany() error : %s", ns, bwe.getMessage()));
+			}
+		}
+		return count;
+	}
+
+	private static BsonValue getId(RawBsonDocument doc) {
+		try {
+			return doc.get("_id");
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+}
@@ -7,7 +7,6 @@ import org.bson.RawBsonDocument;
 
 import com.mongodb.MongoException;
 import com.mongodb.client.MongoCursor;
-import com.mongodb.client.model.InsertOneModel;
 import com.mongodb.model.Namespace;
 import com.mongodb.shardsync.ShardClient;
 
@@ -37,7 +36,6 @@ public class CollectionCloneWorker extends AbstractCollectionCloneWorker impleme
                 BsonValue id = getId(doc);
                 // don't even bother inserting if we couldn't get the _id from the doc
                 if (id != null) {
-                    writesBuffer.add(new InsertOneModel<RawBsonDocument>(doc));
                     docsBuffer.add(doc);
                 } else {
                     logger.warn(String.format("%s - skipping insert, no _id could be read, lastId: %s", ns, lastId));
@@ -46,8 +44,6 @@ public class CollectionCloneWorker extends AbstractCollectionCloneWorker impleme
                 
                 if (docsBuffer.size() >= options.getBatchSize()) {
                     doInsert();
-                    
-                    writesBuffer.clear();
                     docsBuffer.clear();
                     
                     long current = System.currentTimeMillis();
@@ -65,7 +61,6 @@ public class CollectionCloneWorker extends AbstractCollectionCloneWorker impleme
             // flush any remaining from the buffer
             if (docsBuffer.size() > 0) {
                 doInsert();
-                writesBuffer.clear();
                 docsBuffer.clear();
             }
         
@@ -0,0 +1,84 @@
+package com.mongodb.mongosync;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides when a {@link ChildOplogWorker} flushes the batch of one namespace, adapting to
+ * what the destination shows instead of using fixed settings.
+ * <ul>
+ * <li>Batch size is additive-increase/multiplicative-decrease: it halves when a bulk write
+ * takes longer than <code>maxWriteMillis</code> or more than 10% of its operations fail,
+ * and grows by 1/8 when a full batch was written in time while the worker's queue still
+ * had a backlog.</li>
+ * <li>The flush interval, which only matters for batches that don't fill up, is the
+ * target lag minus the (smoothed) write latency, so a quiet namespace collects as many
+ * operations as it can without falling behind the lag target.</li>
+ * </ul>
+ * Not thread safe, each worker owns its controllers.
+ */
+public class FlushController {
+
+	protected static final Logger logger = LoggerFactory.getLogger(FlushController.class);
+
+	private final static int MIN_BATCH_SIZE = 100;
+	private final static int MAX_BATCH_SIZE = 100000;
+	private final static long MIN_INTERVAL_MILLIS = 100;
+	private final static double MAX_ERROR_RATE = 0.1;
+	private final static double LATENCY_WEIGHT = 0.2;
+
+	private final String name;
+	private final long targetLagMillis;
+	private final long maxWriteMillis;
+	private final int minBatchSize;
+
+	private int batchSize;
+	private double latencyMillis;
+	private long lastFlushMillis;
+
+	public FlushController(String name, int initialBatchSize, long targetLagMillis, long maxWriteMillis) {
+		this.name = name;
+		this.minBatchSize = Math.min(MIN_BATCH_SIZE, initialBatchSize);
+		this.batchSize = Math.max(minBatchSize, Math.min(initialBatchSize, MAX_BATCH_SIZE));
+		this.targetLagMillis = targetLagMillis;
+		this.maxWriteMillis = maxWriteMillis;
+		this.lastFlushMillis = System.currentTimeMillis();
+	}
+
+	public boolean shouldFlush(int size, long now) {
+		return size >= batchSize || (size > 0 && now - lastFlushMillis >= getFlushIntervalMillis());
+	}
+
+	/**
+	 * Feeds back the result of a flush.
+	 * @param ops operations written
+	 * @param writeMillis time the bulk writes took
+	 * @param errors operations that failed
+	 * @param queueDepth entries waiting in the worker's queue after the flush
+	 */
+	public void onFlush(int ops, long writeMillis, int errors, int queueDepth, long now) {
+		lastFlushMillis = now;
+		latencyMillis = latencyMillis == 0 ? writeMillis
+				: LATENCY_WEIGHT * writeMillis + (1 - LATENCY_WEIGHT) * latencyMillis;
+
+		int previous = batchSize;
+		if (writeMillis > maxWriteMillis || errors > ops * MAX_ERROR_RATE) {
+			batchSize = Math.max(minBatchSize, batchSize / 2);
+		} else if (ops >= batchSize && queueDepth > 0) {
+			batchSize = Math.min(MAX_BATCH_SIZE, batchSize + Math.max(1, batchSize / 8));
+		}
+		if (batchSize != previous && logger.isDebugEnabled()) {
+			logger.debug("{}: flush size {} -> {}, ops: {}, writeMillis: {}, errors: {}, queueDepth: {}, interval: {}",
+					name, previous, batchSize, ops, writeMillis, errors, queueDepth, getFlushIntervalMillis());
+		}
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public long getFlushIntervalMillis() {
+		return Math.max(MIN_INTERVAL_MILLIS, targetLagMillis - (long) latencyMillis);
+	}
+
+}
@@ -1,51 +1,137 @@
 package com.mongodb.mongosync;
 
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
 
-import java.util.concurrent.ExecutionException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.bson.BsonDocument;
 import org.bson.BsonValue;
 import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.mongodb.MongoException;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 
+/**
+ * Adds a value looked up from a source collection to update filters. Filters are
+ * registered as their updates arrive and resolved together right before the batch is
+ * flushed, so all cache misses of a flush window cost one $in query (per
+ * {@link #MAX_IN_SIZE} keys) instead of one find each.
+ */
 public class LookupTransformer {
-	
+
+	protected static final Logger logger = LoggerFactory.getLogger(LookupTransformer.class);
+
+	private final static int MAX_IN_SIZE = 1000;
+
 	private MongoCollection<BsonDocument> coll;
 	private String lookupValueKey;
-	
-	LoadingCache<ObjectId, BsonValue> cache;
-	
-	public class DbCacheLoader extends CacheLoader<ObjectId, BsonValue> {
-
-		@Override
-		public BsonValue load(ObjectId key) throws Exception {
-			BsonDocument doc = coll.find(eq("_id", key)).projection(eq(lookupValueKey, 1)).first();
-			if (doc != null) {
-				return doc.get(lookupValueKey);
-			}
-			return null;
-		}
-	}
-	
-	
+
+	private Cache<ObjectId, BsonValue> cache;
+
+	// update filters waiting for their lookup value
+	private final List<BsonDocument> pending = new ArrayList<>();
+
 	public LookupTransformer(MongoClient client, String dbName, String collName, String lookupValueKey) {
 		this.lookupValueKey = lookupValueKey;
 		MongoDatabase db = client.getDatabase(dbName);
 		this.coll = db.getCollection(collName, BsonDocument.class);
 		this.cache = CacheBuilder.newBuilder()
 				  .maximumSize(1000000)
-				  .build(new DbCacheLoader());
+				  .build();
+	}
+
+	/**
+	 * Registers an update filter to receive the lookup value of its ObjectId _id on the
+	 * next {@link #resolvePending()}.
+	 */
+	public void addPending(BsonDocument updateQuery) {
+		BsonValue id = updateQuery.get("_id");
+		if (id != null && id.isObjectId()) {
+			pending.add(updateQuery);
+		} else {
+			logger.warn("LookupTransformer ignoring update without an ObjectId _id: {}", updateQuery);
+		}
+	}
+
+	/**
+	 * Loads the lookup values missing from the cache for all pending filters and adds
+	 * them to the filters. Filters whose source document can't be found or loaded are
+	 * left unchanged.
+	 */
+	public void resolvePending() {
+		if (pending.isEmpty()) {
+			return;
+		}
+		Set<ObjectId> misses = new LinkedHashSet<>();
+		for (BsonDocument updateQuery : pending) {
+			ObjectId id = updateQuery.getObjectId("_id").getValue();
+			if (cache.getIfPresent(id) == null) {
+				misses.add(id);
+			}
+		}
+
+		// values loaded here are used directly, they may already be evicted from the cache
+		Map<ObjectId, BsonValue> loaded = new HashMap<>(misses.size());
+		try {
+			load(misses, loaded);
+		} catch (MongoException e) {
+			logger.warn("LookupTransformer exception loading {} lookup values", misses.size(), e);
+		}
+
+		int unresolved = 0;
+		for (BsonDocument updateQuery : pending) {
+			ObjectId id = updateQuery.getObjectId("_id").getValue();
+			BsonValue value = loaded.get(id);
+			if (value == null) {
+				value = cache.getIfPresent(id);
+			}
+			if (value != null) {
+				updateQuery.put(lookupValueKey, value);
+			} else {
+				unresolved++;
+			}
+		}
+		if (unresolved > 0) {
+			logger.warn("LookupTransformer could not resolve {} of {} lookups", unresolved, pending.size());
+		}
+		pending.clear();
 	}
-	
-	public BsonValue lookup(ObjectId id) throws ExecutionException {
-		return cache.get(id);
+
+	private void load(Set<ObjectId> ids, Map<ObjectId, BsonValue> loaded) {
+		List<ObjectId> chunk = new ArrayList<>(Math.min(ids.size(), MAX_IN_SIZE));
+		for (ObjectId id : ids) {
+			chunk.add(id);
+			if (chunk.size() == MAX_IN_SIZE) {
+				loadChunk(chunk, loaded);
+				chunk.clear();
+			}
+		}
+		if (!chunk.isEmpty()) {
+			loadChunk(chunk, loaded);
+		}
+	}
+
+	private void loadChunk(List<ObjectId> ids, Map<ObjectId, BsonValue> loaded) {
+		for (BsonDocument doc : coll.find(in("_id", ids)).projection(eq(lookupValueKey, 1))) {
+			BsonValue value = doc.get(lookupValueKey);
+			if (value != null) {
+				ObjectId id = doc.getObjectId("_id").getValue();
+				loaded.put(id, value);
+				cache.put(id, value);
+			}
+		}
 	}
 
 	public String getLookupValueKey() {
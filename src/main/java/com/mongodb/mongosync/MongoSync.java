@@ -5,6 +5,7 @@ import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -30,6 +31,7 @@ import org.apache.commons.configuration2.PropertiesConfiguration;
 import org.apache.commons.configuration2.builder.fluent.Configurations;
 import org.apache.commons.configuration2.ex.ConfigurationException;
 import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
 import org.bson.Document;
 import org.bson.codecs.DocumentCodec;
 import org.bson.codecs.configuration.CodecRegistry;
@@ -44,6 +46,7 @@ import com.mongodb.model.Namespace;
 import com.mongodb.model.Shard;
 import com.mongodb.model.ShardTimestamp;
 import com.mongodb.shardsync.ShardClient;
+import com.mongodb.util.metrics.MetricsExporter;
 
 
 public class MongoSync {
@@ -63,8 +66,20 @@ public class MongoSync {
     private final static String CLEAN_TIMESTAMPS = "cleanTs";
     private final static String MULTI_OPLOG_WORKER = "multiWorker";
     private final static String OPLOG_THREADS = "oplogThreads";
+    private final static String OPLOG_APPLY_THREADS = "oplogApplyThreads";
+    private final static String CLONE_SUBRANGES = "cloneSubranges";
+    private final static String NO_OPLOG_COALESCE = "noOplogCoalesce";
+    private final static String OPLOG_TARGET_LAG_MILLIS = "oplogTargetLagMillis";
+    private final static String OPLOG_MAX_WRITE_MILLIS = "oplogMaxWriteMillis";
+    private final static String CHECKPOINT_INTERVAL_MILLIS = "checkpointIntervalMillis";
+    private final static String METRICS_PORT = "metricsPort";
+    private final static String METRICS_FILE = "metricsFile";
+    
+    private final static String CHECKPOINT_JOURNAL_FILE = "mongosync.checkpoint";
     private final static String OPLOG_QUEUE_SIZE = "oplogQueueSize";
     private final static String OPLOG_BATCH_SIZE = "oplogBatchSize";
+    private final static String OPLOG_WAIT_STRATEGY = "oplogWaitStrategy";
+    private final static String OPLOG_BACKPRESSURE_STRATEGY = "oplogBackpressureStrategy";
     private final static String INITIAL_SYNC = "initialSync";
     private final static String NAME = "name";
     private final static String OPLOG_TRANSFORMERS = "oplogTransformers";
@@ -86,11 +101,13 @@ public class MongoSync {
     
     private List<AbstractOplogTailWorker> oplogTailWorkers;
     
-    private Map<String, TimestampFile> timestampFiles;
+    private CheckpointJournal checkpointJournal;
     private Map<String, ShardTimestamp> shardTimestamps;
     
     private boolean doInitialSync = true;
     
+    private MetricsExporter metricsExporter;
+    
     private void initialize() throws IOException {
     	
     	Set<String> shardList = mongoSyncOptions.getShardList();
@@ -131,21 +148,31 @@ public class MongoSync {
     
     private void collectOplogLatestTimestamps() throws InterruptedException, ExecutionException, IOException {
     	Collection<Callable<ShardTimestamp>> tasks = new ArrayList<>();
-    	timestampFiles = new HashMap<>();
     	shardTimestamps = new HashMap<>();
+    	checkpointJournal = new CheckpointJournal(Paths.get(CHECKPOINT_JOURNAL_FILE));
+    	if (mongoSyncOptions.isCleanTimestampFiles()) {
+    		checkpointJournal.reset();
+    	}
     	
     	for (String shardId : sourceShardClient.getShardsMap().keySet()) {
     		
+    		BsonTimestamp checkpoint = checkpointJournal.getShardCheckpoint(shardId);
+    		// timestamp files of earlier versions are only read to migrate them into the journal
     		TimestampFile tsFile = new TimestampFile(shardId);
     		
-    		timestampFiles.put(shardId, tsFile);
-    		if (tsFile.exists() && ! mongoSyncOptions.isCleanTimestampFiles()) {
+    		if (checkpoint != null) {
+    			doInitialSync = false;
+    			ShardTimestamp st = new ShardTimestamp(shardId, checkpoint);
+    			logger.debug("checkpoint journal {} has checkpoint: {}", checkpointJournal, st);
+    			shardTimestamps.put(shardId, st);
+    		} else if (tsFile.exists() && ! mongoSyncOptions.isCleanTimestampFiles()) {
     			
 				doInitialSync = false;
     			try {
 					ShardTimestamp st = tsFile.getShardTimestamp();
-					logger.debug(String.format("timestamp file %s exists: %s", tsFile, st));
+					logger.debug(String.format("timestamp file %s exists, migrating to checkpoint journal: %s", tsFile, st));
 					shardTimestamps.put(shardId, st);
+					checkpointJournal.append(shardId, st.getTimestamp());
 				} catch (IOException e) {
 					logger.error(String.format("Error reading timestamp file %s", tsFile), e);
 					throw e;
@@ -169,8 +196,7 @@ public class MongoSync {
                     sourceShardClient.getShardsMap().get(shardTimestamp.getShardName()).setSyncStartTimestamp(shardTimestamp);
                     logger.debug("GetLatestOplogTimestampTask result: {}", shardTimestamp.toString());
                    
-                    TimestampFile timestampFile = timestampFiles.get(shardTimestamp.getShardName());
-                    timestampFile.update(shardTimestamp);
+                    checkpointJournal.append(shardTimestamp.getShardName(), shardTimestamp.getTimestamp());
                 }
             } catch (InterruptedException | ExecutionException e) {
                 throw(e);
@@ -280,12 +306,11 @@ public class MongoSync {
     
     private void createWorker(String shardId) {
     	ShardTimestamp shardTimestamp = shardTimestamps.get(shardId);
-    	TimestampFile timestampFile = timestampFiles.get(shardId);
     	
     	AbstractOplogTailWorker worker;
 		try {
 			//if (mongoSyncOptions.isUseMultiThreadedOplogTailWorkers()) {
-			worker = new MultiBufferOplogTailWorker(shardTimestamp, timestampFile, sourceShardClient, destShardClient, mongoSyncOptions);
+			worker = new MultiBufferOplogTailWorker(shardTimestamp, checkpointJournal, sourceShardClient, destShardClient, mongoSyncOptions);
 			oplogTailWorkers.add(worker);
 			oplogTailExecutor.execute(worker);
 		} catch (IOException e) {
@@ -299,6 +324,13 @@ public class MongoSync {
     		// TODO
     	}
     	
+    	try {
+			metricsExporter = MetricsExporter.start(mongoSyncOptions.getMetricsPort(), mongoSyncOptions.getMetricsFile(),
+					MetricsExporter.DEFAULT_SNAPSHOT_INTERVAL_MILLIS);
+		} catch (IOException e) {
+			logger.error("Error starting metrics exporter", e);
+		}
+    	
         try {
             collectOplogLatestTimestamps();
         } catch (IOException | InterruptedException | ExecutionException e) {
@@ -335,6 +367,9 @@ public class MongoSync {
     		logger.debug("oplog tail workers stopped");
     	}
     	
+    	if (metricsExporter != null) {
+    		metricsExporter.stop();
+    	}
     }
     
     
@@ -389,12 +424,32 @@ public class MongoSync {
                 .withLongOpt(CLEAN_TIMESTAMPS).create(CLEAN_TIMESTAMPS));
         options.addOption(OptionBuilder.withArgName("Use multi-threaded oplog tail workers")
                 .withLongOpt(MULTI_OPLOG_WORKER).create(MULTI_OPLOG_WORKER));
+        options.addOption(OptionBuilder.withArgName("max # _id subranges copied concurrently per large chunk {default 4}").hasArg()
+                .withLongOpt(CLONE_SUBRANGES).create(CLONE_SUBRANGES));
         options.addOption(OptionBuilder.withArgName("# oplog tailing threads (per shard)").hasArg()
                 .withLongOpt(OPLOG_THREADS).create(OPLOG_THREADS));
+        options.addOption(OptionBuilder.withArgName("# threads applying independent oplog operations in parallel (per shard)").hasArg()
+                .withLongOpt(OPLOG_APPLY_THREADS).create(OPLOG_APPLY_THREADS));
+        options.addOption(OptionBuilder.withArgName("Apply every oplog operation, don't merge consecutive operations on the same document")
+                .withLongOpt(NO_OPLOG_COALESCE).create(NO_OPLOG_COALESCE));
         options.addOption(OptionBuilder.withArgName("oplog queue size (per shard)").hasArg()
                 .withLongOpt(OPLOG_QUEUE_SIZE).create(OPLOG_QUEUE_SIZE));
-        options.addOption(OptionBuilder.withArgName("oplog batch size").hasArg()
+        options.addOption(OptionBuilder.withArgName("initial oplog batch size, adjusted at runtime").hasArg()
                 .withLongOpt(OPLOG_BATCH_SIZE).create(OPLOG_BATCH_SIZE));
+        options.addOption(OptionBuilder.withArgName("longest time (ms) oplog operations wait in a partial batch {default 15000}").hasArg()
+                .withLongOpt(OPLOG_TARGET_LAG_MILLIS).create(OPLOG_TARGET_LAG_MILLIS));
+        options.addOption(OptionBuilder.withArgName("bulk write latency (ms) above which the oplog batch size shrinks {default 5000}").hasArg()
+                .withLongOpt(OPLOG_MAX_WRITE_MILLIS).create(OPLOG_MAX_WRITE_MILLIS));
+        options.addOption(OptionBuilder.withArgName("how often (ms) applied oplog checkpoints are journaled {default 1000}").hasArg()
+                .withLongOpt(CHECKPOINT_INTERVAL_MILLIS).create(CHECKPOINT_INTERVAL_MILLIS));
+        options.addOption(OptionBuilder.withArgName("serve metrics on this local port").hasArg()
+                .withLongOpt(METRICS_PORT).create(METRICS_PORT));
+        options.addOption(OptionBuilder.withArgName("write metrics snapshots to this file").hasArg()
+                .withLongOpt(METRICS_FILE).create(METRICS_FILE));
+        options.addOption(OptionBuilder.withArgName("how oplog workers wait for entries (spin, yield, park {default})").hasArg()
+                .withLongOpt(OPLOG_WAIT_STRATEGY).create(OPLOG_WAIT_STRATEGY));
+        options.addOption(OptionBuilder.withArgName("how the oplog tail waits on a full worker queue (spin, yield, park {default})").hasArg()
+                .withLongOpt(OPLOG_BACKPRESSURE_STRATEGY).create(OPLOG_BACKPRESSURE_STRATEGY));
         
         options.addOption(OptionBuilder.withArgName("name for this sync process")
                 .withLongOpt(NAME).create(NAME));
@@ -475,8 +530,14 @@ public class MongoSync {
         mongoSyncOptions.setSkipChunkSyncIfMatchingCounts(line.hasOption(CHUNK_SKIP));
         mongoSyncOptions.setCleanTimestampFiles(line.hasOption(CLEAN_TIMESTAMPS));
         mongoSyncOptions.setUseMultiThreadedOplogTailWorkers(line.hasOption(MULTI_OPLOG_WORKER));
+        mongoSyncOptions.setOplogCoalesce(!line.hasOption(NO_OPLOG_COALESCE));
+        
         
         
+        String cloneSubrangesStr = line.getOptionValue(CLONE_SUBRANGES);
+        if (cloneSubrangesStr != null) {
+            mongoSyncOptions.setCloneSubranges(Integer.parseInt(cloneSubrangesStr));
+        }
         
         String oplogThreadsStr = line.getOptionValue(OPLOG_THREADS);
         if (oplogThreadsStr != null) {
@@ -484,6 +545,11 @@ public class MongoSync {
             mongoSyncOptions.setOplogThreads(oplogThreads);
         }
         
+        String oplogApplyThreadsStr = line.getOptionValue(OPLOG_APPLY_THREADS);
+        if (oplogApplyThreadsStr != null) {
+            mongoSyncOptions.setOplogApplyThreads(Integer.parseInt(oplogApplyThreadsStr));
+        }
+        
         String oplogQueueSizeStr = line.getOptionValue(OPLOG_QUEUE_SIZE);
         if (oplogQueueSizeStr != null) {
             int oplogQueueSize = Integer.parseInt(oplogQueueSizeStr);
@@ -496,6 +562,26 @@ public class MongoSync {
             int oplogBatchSize = Integer.parseInt(oplogBatchSizeStr);
             mongoSyncOptions.setOplogBatchSize(oplogBatchSize);
         }
+        
+        String oplogTargetLagStr = line.getOptionValue(OPLOG_TARGET_LAG_MILLIS);
+        if (oplogTargetLagStr != null) {
+            mongoSyncOptions.setOplogTargetLagMillis(Long.parseLong(oplogTargetLagStr));
+        }
+        String oplogMaxWriteStr = line.getOptionValue(OPLOG_MAX_WRITE_MILLIS);
+        if (oplogMaxWriteStr != null) {
+            mongoSyncOptions.setOplogMaxWriteMillis(Long.parseLong(oplogMaxWriteStr));
+        }
+        String checkpointIntervalStr = line.getOptionValue(CHECKPOINT_INTERVAL_MILLIS);
+        if (checkpointIntervalStr != null) {
+            mongoSyncOptions.setCheckpointIntervalMillis(Long.parseLong(checkpointIntervalStr));
+        }
+        mongoSyncOptions.setMetricsPort(line.getOptionValue(METRICS_PORT));
+        mongoSyncOptions.setMetricsFile(line.getOptionValue(METRICS_FILE));
+        
+        mongoSyncOptions.setOplogWaitStrategy(WaitStrategy.fromString(
+        		line.getOptionValue(OPLOG_WAIT_STRATEGY, config.getString(OPLOG_WAIT_STRATEGY))));
+        mongoSyncOptions.setOplogBackpressureStrategy(WaitStrategy.fromString(
+        		line.getOptionValue(OPLOG_BACKPRESSURE_STRATEGY, config.getString(OPLOG_BACKPRESSURE_STRATEGY))));
     }
     
     private static void addShutdownHook(MongoSync sync) {
@@ -14,6 +14,7 @@ public class MongoSyncOptions {
 
 	private int threads = 4;
 	private int batchSize = 5000;
+	private int cloneSubranges = 4;
 	private int oplogBatchSize = 5000;
 	private String sourceMongoUri;
 	private String destMongoUri;
@@ -24,6 +25,15 @@ public class MongoSyncOptions {
 	private boolean initialSyncOnly;
 	private int oplogThreads = 4;
 	private int oplogQueueSize = 50;
+	private int oplogApplyThreads = 1;
+	private boolean oplogCoalesce = true;
+	private long oplogTargetLagMillis = 15000;
+	private long oplogMaxWriteMillis = 5000;
+	private long checkpointIntervalMillis = 1000;
+	private String metricsPort;
+	private String metricsFile;
+	private WaitStrategy oplogWaitStrategy = WaitStrategy.PARK;
+	private WaitStrategy oplogBackpressureStrategy = WaitStrategy.PARK;
 
 	private ShardClient sourceShardClient;
 	private ShardClient destShardClient;
@@ -167,6 +177,14 @@ public class MongoSyncOptions {
 		this.useMultiThreadedOplogTailWorkers = useMultiThreadedOplogTailWorkers;
 	}
 
+	public int getCloneSubranges() {
+		return cloneSubranges;
+	}
+
+	public void setCloneSubranges(int cloneSubranges) {
+		this.cloneSubranges = cloneSubranges;
+	}
+
 	public int getOplogThreads() {
 		return oplogThreads;
 	}
@@ -183,6 +201,78 @@ public class MongoSyncOptions {
 		this.oplogQueueSize = oplogQueueSize;
 	}
 
+	public int getOplogApplyThreads() {
+		return oplogApplyThreads;
+	}
+
+	public void setOplogApplyThreads(int oplogApplyThreads) {
+		this.oplogApplyThreads = oplogApplyThreads;
+	}
+
+	public boolean isOplogCoalesce() {
+		return oplogCoalesce;
+	}
+
+	public void setOplogCoalesce(boolean oplogCoalesce) {
+		this.oplogCoalesce = oplogCoalesce;
+	}
+
+	public long getOplogTargetLagMillis() {
+		return oplogTargetLagMillis;
+	}
+
+	public void setOplogTargetLagMillis(long oplogTargetLagMillis) {
+		this.oplogTargetLagMillis = oplogTargetLagMillis;
+	}
+
+	public long getOplogMaxWriteMillis() {
+		return oplogMaxWriteMillis;
+	}
+
+	public void setOplogMaxWriteMillis(long oplogMaxWriteMillis) {
+		this.oplogMaxWriteMillis = oplogMaxWriteMillis;
+	}
+
+	public long getCheckpointIntervalMillis() {
+		return checkpointIntervalMillis;
+	}
+
+	public void setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+		this.checkpointIntervalMillis = checkpointIntervalMillis;
+	}
+
+	public String getMetricsPort() {
+		return metricsPort;
+	}
+
+	public void setMetricsPort(String metricsPort) {
+		this.metricsPort = metricsPort;
+	}
+
+	public String getMetricsFile() {
+		return metricsFile;
+	}
+
+	public void setMetricsFile(String metricsFile) {
+		this.metricsFile = metricsFile;
+	}
+
+	public WaitStrategy getOplogWaitStrategy() {
+		return oplogWaitStrategy;
+	}
+
+	public void setOplogWaitStrategy(WaitStrategy oplogWaitStrategy) {
+		this.oplogWaitStrategy = oplogWaitStrategy;
+	}
+
+	public WaitStrategy getOplogBackpressureStrategy() {
+		return oplogBackpressureStrategy;
+	}
+
+	public void setOplogBackpressureStrategy(WaitStrategy oplogBackpressureStrategy) {
+		this.oplogBackpressureStrategy = oplogBackpressureStrategy;
+	}
+
 	public Set<String> getIncludedNamespaceStrings() {
 		return includedNamespaceStrings;
 	}
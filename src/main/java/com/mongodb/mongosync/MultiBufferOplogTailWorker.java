@@ -13,12 +13,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.bson.BsonDocument;
 import org.bson.BsonValue;
@@ -52,9 +51,16 @@ public class MultiBufferOplogTailWorker extends AbstractOplogTailWorker implemen
 	
 	ScheduledExecutorService monitorExecutor;
 	
-	private Map<Integer, BlockingQueue<OplogQueueEntry>> childQueues;
+	private Map<Integer, SpscRingBuffer<OplogQueueEntry>> childQueues;
+	
+	private final WaitStrategy backpressureStrategy;
+
+	// checkpoint inputs, see OplogTailMonitor.checkpoint(): last ts read from the oplog,
+	// and per child worker the last ts queued to it
+	private volatile long lastReadTs;
+	private final AtomicLongArray lastDispatchedTs;
 
-	public MultiBufferOplogTailWorker(ShardTimestamp shardTimestamp, TimestampFile timestampFile,
+	public MultiBufferOplogTailWorker(ShardTimestamp shardTimestamp, CheckpointJournal checkpointJournal,
 			ShardClient sourceShardClient, ShardClient destShardClient, MongoSyncOptions options) throws IOException {
 		this.shardId = shardTimestamp.getShardName();
 		this.shardTimestamp = shardTimestamp;
@@ -62,6 +68,7 @@ public class MultiBufferOplogTailWorker extends AbstractOplogTailWorker implemen
 		this.destShardClient = destShardClient;
 		this.options = options;
 		this.numChildWorkers = options.getOplogThreads();
+		this.backpressureStrategy = options.getOplogBackpressureStrategy();
 
 		childWorkers = new HashMap<>(numChildWorkers);
 		childExecutors = new ArrayList<>(numChildWorkers);
@@ -69,13 +76,17 @@ public class MultiBufferOplogTailWorker extends AbstractOplogTailWorker implemen
 		
 		// childQueues = new ArrayBlockingQueue<>(options.getOplogQueueSize());
 
-		oplogTailMonitor = new OplogTailMonitor(timestampFile, sourceShardClient, childQueues);
-		this.applyOperationsHelper = new ApplyOperationsHelper(shardId, oplogTailMonitor, destShardClient);
+		this.lastReadTs = shardTimestamp.getTimestamp().getValue();
+		this.lastDispatchedTs = new AtomicLongArray(numChildWorkers);
+		oplogTailMonitor = new OplogTailMonitor(shardId, shardTimestamp.getTimestamp(), checkpointJournal, 
+				sourceShardClient, this, childQueues, childWorkers);
+		this.applyOperationsHelper = new ApplyOperationsHelper(shardId, oplogTailMonitor, destShardClient,
+				options.getOplogApplyThreads());
 	}
 
 	private void startChildExecutors() {
 		for (int i = 0; i < numChildWorkers; i++) {
-			BlockingQueue<OplogQueueEntry> childQueue = new LinkedBlockingQueue<>(options.getOplogQueueSize());
+			SpscRingBuffer<OplogQueueEntry> childQueue = new SpscRingBuffer<>(options.getOplogQueueSize());
 			childQueues.put(i, childQueue);
 			ChildOplogWorker worker = new ChildOplogWorker(shardId, childQueue, applyOperationsHelper, oplogTailMonitor, options);
 			childWorkers.put(i, worker);
@@ -103,6 +114,8 @@ public class MultiBufferOplogTailWorker extends AbstractOplogTailWorker implemen
 				}
 			}
 		}
+		applyOperationsHelper.shutdown();
+		oplogTailMonitor.checkpoint();
 		logger.debug("{}: childExecutors shutdown", shardId);
 	}
 
@@ -110,6 +123,8 @@ public class MultiBufferOplogTailWorker extends AbstractOplogTailWorker implemen
 		startChildExecutors();
 		monitorExecutor = Executors.newScheduledThreadPool(1);
 		monitorExecutor.scheduleAtFixedRate(oplogTailMonitor, 0L, 30L, TimeUnit.SECONDS);
+		long checkpointMillis = options.getCheckpointIntervalMillis();
+		monitorExecutor.scheduleWithFixedDelay(oplogTailMonitor::checkpoint, checkpointMillis, checkpointMillis, TimeUnit.MILLISECONDS);
 
 		MongoDatabase local = sourceShardClient.getShardMongoClient(shardId).getDatabase("local");
 		MongoCollection<BsonDocument> oplog = local.getCollection("oplog.rs", BsonDocument.class);
@@ -140,21 +155,27 @@ public class MultiBufferOplogTailWorker extends AbstractOplogTailWorker implemen
 					.cursorType(CursorType.TailableAwait).iterator();
 			while (cursor.hasNext() && !shutdown) {
 				BsonDocument doc = cursor.next();
+				long ts = doc.getTimestamp("ts").getValue();
 				String op = doc.getString("op").getValue();
 
+				// skipped entries count as read, only dispatched ones need to be applied first
 				if (op.equals("n") || op.equals("c")) {
+					lastReadTs = ts;
 					continue;
 				}
 				currentNs = doc.getString("ns").getValue();
 				if (! options.includeNamespace(currentNs)) {
+					lastReadTs = ts;
 					continue;
 				}
 				
 				if (currentNs == null || currentNs.equals("") || currentNs.startsWith("config.")) {
+					lastReadTs = ts;
 					continue;
 				}
 
 				addToBuffer(doc);
+				lastReadTs = ts;
 				count++;
 			}
 
@@ -175,6 +196,14 @@ public class MultiBufferOplogTailWorker extends AbstractOplogTailWorker implemen
 
 	}
 	
+	public long getLastReadTs() {
+		return lastReadTs;
+	}
+
+	public long getLastDispatchedTs(int child) {
+		return lastDispatchedTs.get(child);
+	}
+
 	private int getCombinedHashModulo(String ns, BsonValue id) {
 		int hash = 7;
 		hash = 31 * hash +  (id == null ? 0 : id.hashCode());
@@ -193,11 +222,11 @@ public class MultiBufferOplogTailWorker extends AbstractOplogTailWorker implemen
 		}
 		BsonValue id = getIdForOperation(doc);
 		Integer hashKey = getCombinedHashModulo(currentNs, id);
-		BlockingQueue<OplogQueueEntry> childQueue = childQueues.get(hashKey);
+		SpscRingBuffer<OplogQueueEntry> childQueue = childQueues.get(hashKey);
 		//logger.debug("{}: child queue {} size {}", shardId, hashKey, childQueue.size());
-		//childQueue.put(doc);
-		//boolean inserted = childQueue.offer(doc, 5, TimeUnit.SECONDS);
-		childQueue.put(new OplogQueueEntry(doc, id));
+		// this tail thread is the only producer for every child queue
+		childQueue.put(new OplogQueueEntry(doc, id), backpressureStrategy);
+		lastDispatchedTs.set(hashKey, doc.getTimestamp("ts").getValue());
 	}
 
 	private BsonValue getIdForOperation(BsonDocument operation) throws MongoException {
@@ -279,6 +308,7 @@ public class MultiBufferOplogTailWorker extends AbstractOplogTailWorker implemen
 			}
 		}
 		logger.debug("{}: child executors shutdown", shardId);
+		oplogTailMonitor.checkpoint();
 		
 		try {
 			monitorExecutor.shutdown();
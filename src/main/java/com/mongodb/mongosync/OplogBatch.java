@@ -10,84 +10,103 @@ import org.bson.BsonValue;
 
 import com.mongodb.client.model.WriteModel;
 
+/**
+ * Write models for one namespace, grouped into waves by their position in the per-_id
+ * dependency chain: wave 0 holds the first operation for every _id, wave 1 the second
+ * operation for the _ids that have one, and so on. A wave never contains two operations
+ * on the same _id, so it can be applied unordered and split across threads, while
+ * applying the waves in sequence keeps per-document order.
+ *
+ * Each wave keeps insertion order, and the last node of every _id is kept in a map, so
+ * adding a model is constant time.
+ *
+ * With coalescing enabled, a model is first merged into the last model of its _id where
+ * {@link OplogCoalescer} allows it, instead of extending the chain.
+ */
 public class OplogBatch {
-	
-	
-	//private Map<Integer, BsonValue> orderedIndexToIdMap;
-	//private Map<Integer, BsonValue> unorderedIndexToIdMap;
-	
-	private List<WriteModel<BsonDocument>> orderedWriteModels;
-	private List<WriteModel<BsonDocument>> unorderedWriteModels;
-
-	private Map<BsonValue, WriteModel<BsonDocument>> idsMap;
-	
+
+	private final List<List<Node>> waves = new ArrayList<>();
+
+	// last node of each id's chain, the next operation on that id goes to the following wave
+	private final Map<BsonValue, Node> lastNodes;
+	private final boolean coalesce;
+	private int size;
+	private int coalescedCount;
+
 	public OplogBatch(int batchSize) {
-		this.orderedWriteModels = new ArrayList<>(batchSize);
-		//this.orderedIndexToIdMap = new HashMap<>(batchSize);
-		this.unorderedWriteModels = new ArrayList<>(batchSize);
-		//this.unorderedIndexToIdMap = new HashMap<>(batchSize);
-		idsMap = new HashMap<>(batchSize);
+		this(batchSize, false);
+	}
+
+	public OplogBatch(int batchSize, boolean coalesce) {
+		this.lastNodes = new HashMap<>(batchSize);
+		this.coalesce = coalesce;
 	}
 
 	public int size() {
-		return orderedWriteModels.size() + unorderedWriteModels.size();
+		return size;
 	}
-	
+
+	/**
+	 * @return the number of models merged into an earlier model since the last clear
+	 */
+	public int getCoalescedCount() {
+		return coalescedCount;
+	}
+
 	public void addWriteModel(WriteModel<BsonDocument> model, BsonValue id) {
-		
-		boolean existing = idsMap.containsKey(id);
-		int index;
-		
-		// if the entry is already existing, it is a duplicate needs to be ordered operations
-		if (existing) {
-			WriteModel<BsonDocument> lastElement = idsMap.get(id);
-			// if it's null there's already more than 1
-			// otherwise the value is the index of the last occurrence
-			if (lastElement != null) {
-				unorderedWriteModels.remove(lastElement);
-				orderedWriteModels.add(lastElement);
-				idsMap.put(id, null);
+		Node last = lastNodes.get(id);
+		if (coalesce && last != null) {
+			WriteModel<BsonDocument> merged = OplogCoalescer.coalesce(last.model, model);
+			if (merged != null) {
+				last.model = merged;
+				coalescedCount++;
+				return;
 			}
-			orderedWriteModels.add(model);
-			index = orderedWriteModels.size() - 1;
-			//orderedIndexToIdMap.put(index, id);
-		} else {
-			unorderedWriteModels.add(model);
-			index = unorderedWriteModels.size() - 1;
-			//unorderedIndexToIdMap.put(index, id);
-			idsMap.put(id, model);
 		}
-	}
-	
-	public void removeWriteModel(WriteModel<BsonDocument> model, boolean ordered) {
-		BsonValue id = null;
-		if (ordered) {
-			//id = orderedIndexToIdMap.remove(model);
-			orderedWriteModels.remove(model);
-		} else {
-			//id = unorderedIndexToIdMap.remove(index);
-			unorderedWriteModels.remove(model);
+		
+		int wave = last == null ? 0 : last.wave + 1;
+		if (wave == waves.size()) {
+			waves.add(new ArrayList<>());
 		}
+		Node node = new Node(model, wave);
+		lastNodes.put(id, node);
+		waves.get(wave).add(node);
+		size++;
 	}
-	
-	public void clearUnordered() {
-		unorderedWriteModels.clear();
-	}
-	
+
 	public void clear() {
-		unorderedWriteModels.clear();
-		//unorderedIndexToIdMap.clear();
-		orderedWriteModels.clear();
-		//orderedIndexToIdMap.clear();
-		idsMap.clear();
+		waves.clear();
+		lastNodes.clear();
+		size = 0;
+		coalescedCount = 0;
 	}
 
-	public List<WriteModel<BsonDocument>> getOrderedWriteModels() {
-		return orderedWriteModels;
+	/**
+	 * @return a snapshot of the waves, each in insertion order
+	 */
+	public List<List<WriteModel<BsonDocument>>> getWaves() {
+		List<List<WriteModel<BsonDocument>>> result = new ArrayList<>(waves.size());
+		for (List<Node> wave : waves) {
+			List<WriteModel<BsonDocument>> models = new ArrayList<>(wave.size());
+			for (Node node : wave) {
+				models.add(node.model);
+			}
+			result.add(models);
+		}
+		return result;
 	}
-	
-	public List<WriteModel<BsonDocument>> getUnorderedWriteModels() {
-		return unorderedWriteModels;
+
+	/**
+	 * A model and its wave, the model is replaced in place when a later one is coalesced into it.
+	 */
+	private static class Node {
+		private WriteModel<BsonDocument> model;
+		private final int wave;
+
+		Node(WriteModel<BsonDocument> model, int wave) {
+			this.model = model;
+			this.wave = wave;
+		}
 	}
 
 }
@@ -0,0 +1,204 @@
+package com.mongodb.mongosync;
+
+import java.util.Map;
+
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Merges two consecutive write models on the same _id into one that leaves the document
+ * in the same final state, so the destination does not replay every intermediate state
+ * of frequently updated documents. The rules:
+ * <ul>
+ * <li>anything followed by a delete is the delete</li>
+ * <li>delete followed by insert is an upserting replace of the inserted document, filtered
+ * like the delete (_id and shard key)</li>
+ * <li>insert, update or replace followed by a replace is the replacement</li>
+ * <li>insert or replace followed by a simple update is the replace of the updated
+ * document</li>
+ * <li>two simple updates are one update with the merged $set and $unset</li>
+ * </ul>
+ * A simple update only uses $set and $unset on top level fields, other operators are
+ * never evaluated here. Anything else is not merged.
+ *
+ * An insert merged with a later model becomes an upserting replace filtered like the
+ * later model (_id and shard key), never a plain insert: entries are replayed at least
+ * once, and when the insert hits a duplicate key the later write must still reach the
+ * existing document, as it would if they were applied one at a time.
+ */
+public class OplogCoalescer {
+
+	private final static String SET = "$set";
+	private final static String UNSET = "$unset";
+
+	private final static ReplaceOptions upsertReplaceOptions = new ReplaceOptions().upsert(true);
+	private final static UpdateOptions upsertUpdateOptions = new UpdateOptions().upsert(true);
+
+	/**
+	 * @return one model equivalent to applying <code>first</code> then <code>second</code>,
+	 * or null if they cannot be merged. The given models are not modified.
+	 */
+	public static WriteModel<BsonDocument> coalesce(WriteModel<BsonDocument> first, WriteModel<BsonDocument> second) {
+		if (second instanceof DeleteOneModel) {
+			return second;
+		}
+		if (first instanceof DeleteOneModel) {
+			if (second instanceof InsertOneModel) {
+				BsonDocument doc = ((InsertOneModel<BsonDocument>) second).getDocument();
+				BsonDocument filter = getFilter(first);
+				if (filter == null) {
+					filter = new BsonDocument("_id", doc.get("_id"));
+				}
+				return new ReplaceOneModel<>(filter, doc, upsertReplaceOptions);
+			}
+			return null;
+		}
+		if (second instanceof ReplaceOneModel) {
+			BsonDocument replacement = ((ReplaceOneModel<BsonDocument>) second).getReplacement();
+			if (first instanceof InsertOneModel) {
+				return new ReplaceOneModel<>(getInsertFilter(replacement, second), replacement, upsertReplaceOptions);
+			}
+			BsonDocument filter = getFilter(first);
+			if (filter == null || !filter.equals(getFilter(second))) {
+				return null;
+			}
+			boolean upsert = isUpsert(first) || isUpsert(second);
+			return upsert ? new ReplaceOneModel<>(filter, replacement, upsertReplaceOptions)
+					: new ReplaceOneModel<>(filter, replacement);
+		}
+		if (second instanceof UpdateOneModel) {
+			BsonDocument update = getSimpleUpdate(second);
+			if (update == null) {
+				return null;
+			}
+			if (first instanceof InsertOneModel) {
+				BsonDocument doc = applyUpdate(((InsertOneModel<BsonDocument>) first).getDocument(), update);
+				return new ReplaceOneModel<>(getInsertFilter(doc, second), doc, upsertReplaceOptions);
+			}
+			BsonDocument filter = getFilter(first);
+			if (filter == null || !filter.equals(getFilter(second))) {
+				return null;
+			}
+			if (first instanceof ReplaceOneModel) {
+				BsonDocument doc = ((ReplaceOneModel<BsonDocument>) first).getReplacement();
+				return isUpsert(first) ? new ReplaceOneModel<>(filter, applyUpdate(doc, update), upsertReplaceOptions)
+						: new ReplaceOneModel<>(filter, applyUpdate(doc, update));
+			}
+			BsonDocument firstUpdate = getSimpleUpdate(first);
+			// an upsert of the second update alone would create a document without the first update's fields
+			if (firstUpdate == null || isUpsert(first) != isUpsert(second)) {
+				return null;
+			}
+			BsonDocument merged = mergeUpdates(firstUpdate, update);
+			return isUpsert(first) ? new UpdateOneModel<>(filter, merged, upsertUpdateOptions)
+					: new UpdateOneModel<>(filter, merged);
+		}
+		return null;
+	}
+
+	private static BsonDocument applyUpdate(BsonDocument doc, BsonDocument update) {
+		BsonDocument result = doc.clone();
+		if (update.containsKey(SET)) {
+			for (Map.Entry<String, BsonValue> entry : update.getDocument(SET).entrySet()) {
+				result.put(entry.getKey(), entry.getValue());
+			}
+		}
+		if (update.containsKey(UNSET)) {
+			for (String field : update.getDocument(UNSET).keySet()) {
+				result.remove(field);
+			}
+		}
+		return result;
+	}
+
+	private static BsonDocument mergeUpdates(BsonDocument first, BsonDocument second) {
+		BsonDocument set = first.containsKey(SET) ? first.getDocument(SET).clone() : new BsonDocument();
+		BsonDocument unset = first.containsKey(UNSET) ? first.getDocument(UNSET).clone() : new BsonDocument();
+		if (second.containsKey(SET)) {
+			for (Map.Entry<String, BsonValue> entry : second.getDocument(SET).entrySet()) {
+				unset.remove(entry.getKey());
+				set.put(entry.getKey(), entry.getValue());
+			}
+		}
+		if (second.containsKey(UNSET)) {
+			for (String field : second.getDocument(UNSET).keySet()) {
+				set.remove(field);
+				unset.put(field, new BsonString(""));
+			}
+		}
+		BsonDocument merged = new BsonDocument();
+		if (!set.isEmpty()) {
+			merged.put(SET, set);
+		}
+		if (!unset.isEmpty()) {
+			merged.put(UNSET, unset);
+		}
+		return merged;
+	}
+
+	/**
+	 * @return the update document if it only uses $set/$unset on top level fields other than _id
+	 */
+	private static BsonDocument getSimpleUpdate(WriteModel<BsonDocument> model) {
+		if (!(model instanceof UpdateOneModel)) {
+			return null;
+		}
+		Bson update = ((UpdateOneModel<BsonDocument>) model).getUpdate();
+		if (!(update instanceof BsonDocument) || ((BsonDocument) update).isEmpty()) {
+			return null;
+		}
+		BsonDocument updateDoc = (BsonDocument) update;
+		for (Map.Entry<String, BsonValue> entry : updateDoc.entrySet()) {
+			if (!(entry.getKey().equals(SET) || entry.getKey().equals(UNSET)) || !entry.getValue().isDocument()) {
+				return null;
+			}
+			for (String field : entry.getValue().asDocument().keySet()) {
+				if (field.equals("_id") || field.indexOf('.') >= 0 || field.startsWith("$")) {
+					return null;
+				}
+			}
+		}
+		return updateDoc;
+	}
+
+	private static BsonDocument getFilter(WriteModel<BsonDocument> model) {
+		Bson filter = null;
+		if (model instanceof UpdateOneModel) {
+			filter = ((UpdateOneModel<BsonDocument>) model).getFilter();
+		} else if (model instanceof ReplaceOneModel) {
+			filter = ((ReplaceOneModel<BsonDocument>) model).getFilter();
+		} else if (model instanceof DeleteOneModel) {
+			filter = ((DeleteOneModel<BsonDocument>) model).getFilter();
+		}
+		return filter instanceof BsonDocument ? (BsonDocument) filter : null;
+	}
+
+	/**
+	 * @return the filter of the model following an insert, which has the shard key, or
+	 *         the _id of the document if it has none
+	 */
+	private static BsonDocument getInsertFilter(BsonDocument doc, WriteModel<BsonDocument> next) {
+		BsonDocument filter = getFilter(next);
+		return filter != null ? filter : new BsonDocument("_id", doc.get("_id"));
+	}
+
+	private static boolean isUpsert(WriteModel<BsonDocument> model) {
+		if (model instanceof UpdateOneModel) {
+			return ((UpdateOneModel<BsonDocument>) model).getOptions().isUpsert();
+		} else if (model instanceof ReplaceOneModel) {
+			return ((ReplaceOneModel<BsonDocument>) model).getReplaceOptions().isUpsert();
+		}
+		return false;
+	}
+
+}
@@ -1,87 +1,136 @@
 package com.mongodb.mongosync;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
 
-import org.bson.BsonDocument;
 import org.bson.BsonTimestamp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mongodb.shardsync.ShardClient;
+import com.mongodb.util.metrics.Counter;
+import com.mongodb.util.metrics.Histogram;
+import com.mongodb.util.metrics.MetricsRegistry;
 
 public class OplogTailMonitor implements Runnable {
 	
 	protected static final Logger logger = LoggerFactory.getLogger(OplogTailMonitor.class);
 	
-	private long duplicateKeyExceptionCount;
-    private long deletedCount;
-    private long modifiedCount;
-    private long insertedCount;
-    private long upsertedCount;
+	private final Counter duplicateKeyExceptionCount;
+	private final Counter deletedCount;
+	private final Counter modifiedCount;
+	private final Counter insertedCount;
+	private final Counter upsertedCount;
+	private final Counter coalescedCount;
+	private final Histogram flushOps;
+	private final Histogram flushMillis;
+	private volatile long lagSeconds = -1;
     //private long failedOpsCount;
 	
-	BsonTimestamp latestTimestamp;
+	private volatile BsonTimestamp latestTimestamp;
+	private Map<Integer, BsonTimestamp> childCheckpoints = new HashMap<>();
 	
-	private TimestampFile timestampFile;
+	private CheckpointJournal checkpointJournal;
 	
 	private ShardClient sourceShardClient;
 	//private ClientSession sourceSession;
 	private String shardId;
 	
-	private Map<Integer, BlockingQueue<OplogQueueEntry>> childQueues;
+	private MultiBufferOplogTailWorker tailWorker;
+	private Map<Integer, SpscRingBuffer<OplogQueueEntry>> childQueues;
+	private Map<Integer, ChildOplogWorker> childWorkers;
 	
-	public OplogTailMonitor(TimestampFile timestampFile, ShardClient sourceShardClient, Map<Integer, BlockingQueue<OplogQueueEntry>> childQueues) {
-		this.timestampFile = timestampFile;
+	public OplogTailMonitor(String shardId, BsonTimestamp startTimestamp, CheckpointJournal checkpointJournal, 
+			ShardClient sourceShardClient, MultiBufferOplogTailWorker tailWorker,
+			Map<Integer, SpscRingBuffer<OplogQueueEntry>> childQueues, Map<Integer, ChildOplogWorker> childWorkers) {
+		this.shardId = shardId;
+		this.latestTimestamp = startTimestamp;
+		this.checkpointJournal = checkpointJournal;
 		this.sourceShardClient = sourceShardClient;
-		this.shardId = timestampFile.getShardId();
+		this.tailWorker = tailWorker;
 		this.childQueues = childQueues;
-		//this.worker = worker;
+		this.childWorkers = childWorkers;
+		
+		MetricsRegistry metrics = MetricsRegistry.getDefault();
+		duplicateKeyExceptionCount = metrics.counter("mongosync_oplog_duplicate_key_total", "shard", shardId);
+		deletedCount = metrics.counter("mongosync_oplog_deleted_total", "shard", shardId);
+		modifiedCount = metrics.counter("mongosync_oplog_modified_total", "shard", shardId);
+		insertedCount = metrics.counter("mongosync_oplog_inserted_total", "shard", shardId);
+		upsertedCount = metrics.counter("mongosync_oplog_upserted_total", "shard", shardId);
+		coalescedCount = metrics.counter("mongosync_oplog_coalesced_total", "shard", shardId);
+		flushOps = metrics.histogram("mongosync_oplog_flush_ops", "shard", shardId);
+		flushMillis = metrics.histogram("mongosync_oplog_flush_millis", "shard", shardId);
+		metrics.gauge("mongosync_oplog_lag_seconds", () -> lagSeconds, "shard", shardId);
+		metrics.gauge("mongosync_oplog_checkpoint_seconds", () -> latestTimestamp.getTime(), "shard", shardId);
+		metrics.gauge("mongosync_oplog_read_seconds", () -> tailWorker.getLastReadTs() >>> 32, "shard", shardId);
+		if (childQueues != null) {
+			for (Map.Entry<Integer, SpscRingBuffer<OplogQueueEntry>> entry : childQueues.entrySet()) {
+				SpscRingBuffer<OplogQueueEntry> queue = entry.getValue();
+				metrics.gauge("mongosync_oplog_queue_size", queue::size, "shard", shardId, "child", entry.getKey().toString());
+			}
+		}
 		//this.sourceSession = sourceShardClient.getShardMongoClient(shardId).startSession();
 	}
 	
-	protected synchronized void setLatestTimestamp(BsonTimestamp ts) {
-		latestTimestamp = ts;
-		//logger.debug("{}: setLatestTimestamp: {}", shardId, latestTimestamp.getTime());
-    }
-	
-	protected synchronized void setLatestTimestamp(BsonDocument document) {
-		latestTimestamp = document.getTimestamp("ts");
-		//logger.debug("{}: setLatestTimestamp: {}", shardId, latestTimestamp.getTime());
-    }
-	
-	private void processLoop() {
+	/**
+	 * Journals the latest timestamp through which every oplog entry of this shard has been
+	 * applied. The tail publishes the last ts it read and, per child, the last ts it queued;
+	 * each child publishes the last ts it took and the ts it has applied through. The tail
+	 * position is read first, so a child that took everything queued to it and has nothing
+	 * pending can't hold back the checkpoint; any other child limits it to its applied ts.
+	 * Stale child snapshots only make the checkpoint lower, never past an unapplied entry.
+	 */
+	public synchronized void checkpoint() {
+		long checkpoint = tailWorker.getLastReadTs();
+		Map<Integer, BsonTimestamp> children = new HashMap<>();
+		for (Map.Entry<Integer, ChildOplogWorker> entry : childWorkers.entrySet()) {
+			ChildOplogWorker.Progress progress = entry.getValue().getProgress();
+			long dispatched = tailWorker.getLastDispatchedTs(entry.getKey());
+			long childTs = (!progress.pending && progress.takenTs == dispatched) ? Long.MAX_VALUE : progress.appliedTs;
+			checkpoint = Math.min(checkpoint, childTs);
+			children.put(entry.getKey(), new BsonTimestamp(Math.max(progress.appliedTs, 0)));
+		}
+		if (checkpoint <= latestTimestamp.getValue() && children.equals(childCheckpoints)) {
+			return;
+		}
+		BsonTimestamp ts = new BsonTimestamp(Math.max(checkpoint, latestTimestamp.getValue()));
 		try {
-			timestampFile.update(latestTimestamp);
+			checkpointJournal.append(shardId, ts, children);
+			latestTimestamp = ts;
+			childCheckpoints = children;
 		} catch (IOException e) {
-			logger.error("error updating timestamp file", e);
+			logger.error("{}: error appending to checkpoint journal {}", shardId, checkpointJournal, e);
 		}
-		
+	}
+	
+	private void processLoop() {
 		BsonTimestamp sourceTs = sourceShardClient.getLatestOplogTimestamp(shardId);
 		Integer lagSeconds = null;
 		
 		if (latestTimestamp != null) {
 			lagSeconds = sourceTs.getTime() - latestTimestamp.getTime();
+			this.lagSeconds = lagSeconds;
 		}
 		
 		//
 		
 		int queuedTasks = 0;
 		if (childQueues != null) {
-			for (Map.Entry<Integer, BlockingQueue<OplogQueueEntry>> entry : childQueues.entrySet()) {
-				BlockingQueue<OplogQueueEntry> queue = entry.getValue();
+			for (Map.Entry<Integer, SpscRingBuffer<OplogQueueEntry>> entry : childQueues.entrySet()) {
+				SpscRingBuffer<OplogQueueEntry> queue = entry.getValue();
 				int queueSize = queue.size();
 				logger.debug("{} - executor {} - queue size: {}", shardId, entry.getKey(), queueSize);
 				queuedTasks += queueSize;
 			}
-			logger.debug("{} - lagSeconds: {}, inserted: {}, modified: {}, upserted: {}, deleted: {}, dupeKey: {}, queuedTasks: {}",
+			logger.debug("{} - lagSeconds: {}, inserted: {}, modified: {}, upserted: {}, deleted: {}, dupeKey: {}, coalesced: {}, queuedTasks: {}",
 					shardId, lagSeconds, insertedCount, modifiedCount, upsertedCount, deletedCount, duplicateKeyExceptionCount,
-					queuedTasks);
+					coalescedCount, queuedTasks);
 			
 		} else {
-			logger.debug("{} - lagSeconds: {}, inserted: {}, modified: {}, upserted: {}, deleted: {}, dupeKey: {}",
-					shardId, lagSeconds, insertedCount, modifiedCount, upsertedCount, deletedCount, duplicateKeyExceptionCount);
+			logger.debug("{} - lagSeconds: {}, inserted: {}, modified: {}, upserted: {}, deleted: {}, dupeKey: {}, coalesced: {}",
+					shardId, lagSeconds, insertedCount, modifiedCount, upsertedCount, deletedCount, duplicateKeyExceptionCount,
+					coalescedCount);
 		}
 	}
 
@@ -94,12 +143,18 @@ public class OplogTailMonitor implements Runnable {
 		}
 	}
 
-	public synchronized void updateStatus(final BulkWriteOutput output) {
-		duplicateKeyExceptionCount += output.getDuplicateKeyExceptionCount();
-		deletedCount += output.getDeletedCount();
-		modifiedCount += output.getModifiedCount();
-		insertedCount += output.getInsertedCount();
-		upsertedCount += output.getUpsertedCount();
+	public void updateStatus(final BulkWriteOutput output) {
+		duplicateKeyExceptionCount.add(output.getDuplicateKeyExceptionCount());
+		deletedCount.add(output.getDeletedCount());
+		modifiedCount.add(output.getModifiedCount());
+		insertedCount.add(output.getInsertedCount());
+		upsertedCount.add(output.getUpsertedCount());
+		coalescedCount.add(output.getCoalescedCount());
+	}
+	
+	public void recordFlush(int ops, long writeMillis) {
+		flushOps.record(ops);
+		flushMillis.record(writeMillis);
 	}
 
 }
@@ -11,6 +11,8 @@ import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -18,6 +20,7 @@ import java.util.concurrent.TimeUnit;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoIterable;
@@ -29,6 +32,8 @@ import com.mongodb.util.BlockWhenQueueFull;
 public class ShardedCollectionCloneWorker extends AbstractCollectionCloneWorker implements Runnable {
 
 	protected ThreadPoolExecutor executor = null;
+	// readers and extra writers of the chunk clone tasks, see ChunkCloneTask
+	private ExecutorService cloneExecutor;
 	private BlockingQueue<Runnable> workQueue;
 
 	List<Future<ChunkCloneResult>> chunkCloneResults;
@@ -40,6 +45,8 @@ public class ShardedCollectionCloneWorker extends AbstractCollectionCloneWorker
 		workQueue = new ArrayBlockingQueue<Runnable>(1000000);
 
 		executor = new ThreadPoolExecutor(options.getThreads(), options.getThreads(), 30, TimeUnit.SECONDS, workQueue, new BlockWhenQueueFull());
+		cloneExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+				.setNameFormat("chunk-clone-io-%d").setDaemon(true).build());
 		// new ThreadFactoryBuilder().setNameFormat("shard-clone-worker-%d").setDaemon(true).build()
 	}
 	
@@ -56,6 +63,7 @@ public class ShardedCollectionCloneWorker extends AbstractCollectionCloneWorker
 			logger.warn("ShardedCollectionCloneWorker interrupted");
 			Thread.currentThread().interrupt();
 		}
+		cloneExecutor.shutdown();
 		logger.debug("ShardedCollectionCloneWorker shutdown complete");
 	}
 
@@ -134,7 +142,7 @@ public class ShardedCollectionCloneWorker extends AbstractCollectionCloneWorker
 
 		shardCollection = sourceShardClient.getCollectionsMap().get(ns.getNamespace());
 		if (shardCollection == null) {
-			ChunkCloneTask task = new ChunkCloneTask(ns, sourceShardClient, destShardClient, null, options);
+			ChunkCloneTask task = new ChunkCloneTask(ns, sourceShardClient, destShardClient, null, options, cloneExecutor);
 			chunkCloneResults.add(executor.submit(task));
 		} else {
 			Document shardKeysDoc = (Document) shardCollection.get("key");
@@ -166,7 +174,7 @@ public class ShardedCollectionCloneWorker extends AbstractCollectionCloneWorker
 					chunkQuery = and(gte(key, min.get(key)), lt(key, max.get(key)));
 				}
 
-				ChunkCloneTask task = new ChunkCloneTask(ns, sourceShardClient, destShardClient, chunkQuery, options);
+				ChunkCloneTask task = new ChunkCloneTask(ns, sourceShardClient, destShardClient, chunkQuery, options, cloneExecutor);
 				chunkCloneResults.add(executor.submit(task));
 				i++;
 			}
@@ -0,0 +1,123 @@
+package com.mongodb.mongosync;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer/single-consumer queue over a preallocated array. The producer
+ * and consumer each own one sequence, published with ordered writes, so neither side
+ * takes a lock or allocates per element. Each side keeps a cached copy of the other's
+ * sequence and only re-reads it when the buffer looks full (or empty).
+ *
+ * Exactly one thread may call the offer/put methods and exactly one thread the poll methods.
+ */
+public class SpscRingBuffer<E> {
+
+	private final Object[] buffer;
+	private final int mask;
+
+	private final AtomicLong head = new PaddedAtomicLong(); // next slot to read, written by the consumer
+	private final AtomicLong tail = new PaddedAtomicLong(); // next slot to write, written by the producer
+
+	// producer local
+	private long cachedHead;
+	// consumer local
+	private long cachedTail;
+
+	public SpscRingBuffer(int requestedCapacity) {
+		int capacity = Integer.highestOneBit(Math.max(2, requestedCapacity) - 1) << 1;
+		this.buffer = new Object[capacity];
+		this.mask = capacity - 1;
+	}
+
+	public int capacity() {
+		return buffer.length;
+	}
+
+	/**
+	 * @return the number of queued elements, approximate while both sides are active
+	 */
+	public int size() {
+		long h = head.get();
+		long t = tail.get();
+		return (int) Math.max(0, Math.min(t - h, buffer.length));
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public boolean offer(E e) {
+		long t = tail.get();
+		if (t - cachedHead >= buffer.length) {
+			cachedHead = head.get();
+			if (t - cachedHead >= buffer.length) {
+				return false;
+			}
+		}
+		buffer[(int) t & mask] = e;
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Adds the element, waiting with the given strategy while the buffer is full.
+	 */
+	public void put(E e, WaitStrategy waitStrategy) throws InterruptedException {
+		int attempt = 0;
+		while (!offer(e)) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			waitStrategy.idle(attempt++);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		long h = head.get();
+		if (h >= cachedTail) {
+			cachedTail = tail.get();
+			if (h >= cachedTail) {
+				return null;
+			}
+		}
+		int index = (int) h & mask;
+		E e = (E) buffer[index];
+		buffer[index] = null;
+		head.lazySet(h + 1);
+		return e;
+	}
+
+	/**
+	 * Takes the next element, waiting with the given strategy up to <code>timeout</code>.
+	 * @return the element, or null if none arrived in time
+	 */
+	public E poll(long timeout, TimeUnit unit, WaitStrategy waitStrategy) throws InterruptedException {
+		E e = poll();
+		if (e != null) {
+			return e;
+		}
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		int attempt = 0;
+		while ((e = poll()) == null) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if (System.nanoTime() - deadline >= 0) {
+				return null;
+			}
+			waitStrategy.idle(attempt++);
+		}
+		return e;
+	}
+
+	/**
+	 * Keeps the hot head and tail sequences on separate cache lines.
+	 */
+	@SuppressWarnings("unused")
+	private static class PaddedAtomicLong extends AtomicLong {
+		private static final long serialVersionUID = 1L;
+		private long p1, p2, p3, p4, p5, p6, p7;
+	}
+}
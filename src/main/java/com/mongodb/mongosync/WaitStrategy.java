@@ -0,0 +1,61 @@
+package com.mongodb.mongosync;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a thread waits on a {@link SpscRingBuffer} that is empty (consumer) or full
+ * (producer, i.e. backpressure). <code>attempt</code> counts the consecutive unsuccessful
+ * tries, so strategies can back off the longer the wait lasts.
+ */
+public enum WaitStrategy {
+
+	/** Lowest latency, burns a core while waiting. */
+	SPIN {
+		@Override
+		public void idle(int attempt) {
+			Thread.onSpinWait();
+		}
+	},
+
+	/** Spins briefly, then yields the CPU to other runnable threads. */
+	YIELD {
+		@Override
+		public void idle(int attempt) {
+			if (attempt < SPIN_TRIES) {
+				Thread.onSpinWait();
+			} else {
+				Thread.yield();
+			}
+		}
+	},
+
+	/** Spins, yields, then parks with an increasing timeout up to {@link #MAX_PARK_NANOS}. */
+	PARK {
+		@Override
+		public void idle(int attempt) {
+			if (attempt < SPIN_TRIES) {
+				Thread.onSpinWait();
+			} else if (attempt < SPIN_TRIES + YIELD_TRIES) {
+				Thread.yield();
+			} else {
+				int shift = Math.min(attempt - SPIN_TRIES - YIELD_TRIES, 10);
+				LockSupport.parkNanos(Math.min(MIN_PARK_NANOS << shift, MAX_PARK_NANOS));
+			}
+		}
+	};
+
+	private static final int SPIN_TRIES = 100;
+	private static final int YIELD_TRIES = 100;
+	private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	public abstract void idle(int attempt);
+
+	public static WaitStrategy fromString(String name) {
+		if (name == null) {
+			return PARK;
+		}
+		return valueOf(name.trim().toUpperCase());
+	}
+}
@@ -0,0 +1,125 @@
+package com.mongodb.oplog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoClient;
+
+/**
+ * Groups consecutive oplog entries into applyOps commands of at most maxOps entries and
+ * {@link #MAX_BATCH_BYTES}. A batch only holds entries of one database, and commands
+ * ("c" entries) are always applied on their own, so entries are applied in oplog order.
+ * applyOps upserts and is atomic for CRUD only batches, so when a batch fails it is
+ * re-applied in halves, down to single entries, which costs O(log batchSize) round trips
+ * per bad entry and counts exactly the entries that fail.
+ */
+public class ApplyOpsBatcher {
+
+	private static Logger logger = LoggerFactory.getLogger(ApplyOpsBatcher.class);
+
+	// applyOps is a single command, stay well below the 16MB BSON limit
+	public final static int MAX_BATCH_BYTES = 8 * 1024 * 1024;
+
+	// runs a command on a database, the destination's in production
+	private final BiConsumer<String, BsonDocument> commandRunner;
+	private final int maxOps;
+
+	private final List<BsonDocument> batch = new ArrayList<>();
+	private String batchDbName;
+	private int batchBytes;
+
+	private long appliedCount;
+	private long errorCount;
+	private long commandCount;
+
+	public ApplyOpsBatcher(MongoClient destClient, int maxOps) {
+		this((dbName, command) -> destClient.getDatabase(dbName).runCommand(command, BsonDocument.class), maxOps);
+	}
+
+	ApplyOpsBatcher(BiConsumer<String, BsonDocument> commandRunner, int maxOps) {
+		this.commandRunner = commandRunner;
+		this.maxOps = maxOps;
+	}
+
+	/**
+	 * Adds an oplog entry, applying the pending batch first when the entry can't join it.
+	 *
+	 * @param size the BSON size of the entry
+	 */
+	public void add(String dbName, BsonDocument op, int size) {
+		boolean command = "c".equals(op.getString("op").getValue());
+		if (shouldFlushBefore(dbName, command, size)) {
+			flush();
+		}
+		batch.add(op);
+		batchDbName = dbName;
+		batchBytes += size;
+		if (command) {
+			commandCount++;
+			flush();
+		}
+	}
+
+	/**
+	 * @return true if the pending batch has to be applied before an entry of dbName and
+	 *         size can be added: it is a command, of another database, or the batch is full
+	 */
+	boolean shouldFlushBefore(String dbName, boolean command, int size) {
+		return !batch.isEmpty() && (command || !dbName.equals(batchDbName) || batch.size() >= maxOps
+				|| batchBytes + size > MAX_BATCH_BYTES);
+	}
+
+	public void flush() {
+		if (batch.isEmpty()) {
+			return;
+		}
+		apply(batchDbName, batch);
+		batch.clear();
+		batchBytes = 0;
+	}
+
+	private void apply(String dbName, List<BsonDocument> ops) {
+		BsonDocument applyOps = new BsonDocument("applyOps", new BsonArray(ops));
+		try {
+			commandRunner.accept(dbName, applyOps);
+			appliedCount += ops.size();
+		} catch (MongoCommandException mce) {
+			if (ops.size() == 1) {
+				errorCount++;
+				logger.error("error applying: " + mce.getMessage());
+				logger.debug("op: " + ops.get(0));
+				return;
+			}
+			logger.debug("applyOps of {} ops failed, retrying in halves: {}", ops.size(), mce.getMessage());
+			int half = ops.size() / 2;
+			apply(dbName, ops.subList(0, half));
+			apply(dbName, ops.subList(half, ops.size()));
+		}
+	}
+
+	public long getAppliedCount() {
+		return appliedCount;
+	}
+
+	public long getErrorCount() {
+		return errorCount;
+	}
+
+	public long getCommandCount() {
+		return commandCount;
+	}
+
+	/**
+	 * @return entries added, applied or not
+	 */
+	public long getCount() {
+		return appliedCount + errorCount + batch.size();
+	}
+}
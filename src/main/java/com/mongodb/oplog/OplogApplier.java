@@ -4,17 +4,17 @@ import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.gte;
 import static com.mongodb.client.model.Filters.ne;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -24,21 +24,21 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.lang3.StringUtils;
-import org.bson.BSONDecoder;
-import org.bson.BSONObject;
-import org.bson.BasicBSONDecoder;
+import org.bson.BsonDocument;
+import org.bson.BsonSerializationException;
 import org.bson.BsonTimestamp;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.mongodb.MongoCommandException;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.shardsync.ShardClient;
+import com.mongodb.util.bson.MappedBsonReader;
 
 /**
  * 
@@ -58,12 +58,18 @@ public class OplogApplier {
 	private final static String SOURCE_SHARD = "sourceShard";
 	private final static String DEST_SHARD = "destShard";
 	private final static String TIMESTAMP = "ts";
+	private final static String BATCH_SIZE = "batchSize";
+	private final static String ARCHIVE = "archive";
+	private final static String NAMESPACES = "ns";
 
 	private String sourceClusterUri;
 	private String destClusterUri;
 	private String sourceShardId;
 	private String destShardId;
 	private File sourceFile;
+	private File archiveFile;
+	private Set<String> namespaces;
+	private int batchSize = 1000;
 	
 	private BsonTimestamp timestamp;
 
@@ -89,53 +95,48 @@ public class OplogApplier {
 		MongoClient destClient = destShardClient.getShardMongoClient(destShardId);
 		
 		MongoDatabase local = sourceClient.getDatabase("local");
-        MongoCollection<Document> oplog = local.getCollection("oplog.rs", Document.class);
+        MongoCollection<RawBsonDocument> oplog = local.getCollection("oplog.rs", RawBsonDocument.class);
         
-        List<Document> opsList = new ArrayList<>(1);
+        ApplyOpsBatcher batcher = new ApplyOpsBatcher(destClient, batchSize);
         
-        MongoCursor<Document> cursor = null;
+        MongoCursor<RawBsonDocument> cursor = null;
         Bson query = and(gte("ts", timestamp), ne("op", "n"));
         long start = System.currentTimeMillis();
-        long count = 0;
-        long errorCount = 0;
         try {
             //cursor = oplog.find(query).noCursorTimeout(true).cursorType(CursorType.TailableAwait).iterator();
         	cursor = oplog.find(query).sort(new Document("$natural", 1)).noCursorTimeout(true).iterator();
             while (cursor.hasNext()) {
-                Document doc = cursor.next();
-                String ns = doc.getString("ns");
+                RawBsonDocument raw = cursor.next();
+                String ns = raw.getString("ns").getValue();
                 if (ns.startsWith("config.")) {
                 	continue;
                 }
-                String dbName = StringUtils.substringBefore(ns, ".");
-                doc.remove("ui");
-                //logger.debug("applying: " + doc);
-                
-                opsList.clear();
-                opsList.add(doc);
-                Document applyOps = new Document("applyOps", opsList);
-                try {
-                	Document result = destClient.getDatabase(dbName).runCommand(applyOps);
-                	//logger.debug("result: " + result);
-                } catch (MongoCommandException mce) {
-                	errorCount++;
-                	logger.error("error applying: " + mce.getMessage());
-                	logger.debug("op: " + doc);
-                }
-                
-                count++;
-                if (count % 100 == 0) {
-                	logger.debug(String.format("Executed %s applyOps, errorCount: %s", count, errorCount));
-                }
+                apply(batcher, ns, raw);
             }
+            batcher.flush();
             
         } finally {
             cursor.close();
         }
+        logComplete(batcher, start);
+    }
+	
+	private void apply(ApplyOpsBatcher batcher, String ns, RawBsonDocument raw) {
+        String dbName = StringUtils.substringBefore(ns, ".");
+        BsonDocument op = raw.toBsonDocument();
+        op.remove("ui");
+        batcher.add(dbName, op, raw.getByteBuffer().remaining());
+        
+        if (batcher.getCount() % 10000 == 0) {
+        	logger.debug(String.format("Applied %s ops, errorCount: %s", batcher.getCount(), batcher.getErrorCount()));
+        }
+	}
+	
+	private void logComplete(ApplyOpsBatcher batcher, long start) {
         long end = System.currentTimeMillis();
         Double dur = (end - start)/1000.0;
-        logger.debug(String.format("Executed %s applyOps in %f seconds, errorCount: %s", count, dur, errorCount));
-    }
+        logger.debug(String.format("Applied %s ops in %f seconds, errorCount: %s", batcher.getCount(), dur, batcher.getErrorCount()));
+	}
 	
 	public void runFile() throws FileNotFoundException {
 		logger.debug("OplogApplier starting");
@@ -156,65 +157,66 @@ public class OplogApplier {
 		
         long start = System.currentTimeMillis();
         long count = 0;
-        long errorCount = 0;
         
-        InputStream inputStream = new BufferedInputStream(new FileInputStream(sourceFile));
-        
-        List<BSONObject> opsList = new ArrayList<>(1);
-        BSONDecoder decoder = new BasicBSONDecoder();
-        try {
-            while (inputStream.available() > 0) {
-                
-            	
-                BSONObject obj = decoder.readObject(inputStream);
-                if(obj == null){
-                    break;
-                }
+        ApplyOpsBatcher batcher = new ApplyOpsBatcher(destClient, batchSize);
+        try (MappedBsonReader reader = new MappedBsonReader(sourceFile.toPath())) {
+            for (RawBsonDocument raw : reader) {
+                count++;
                 
-                String ns = (String)obj.get("ns");
+                String ns = raw.getString("ns").getValue();
                 if (ns.startsWith("config.") || ns.contains(".tmp.")) {
                 	continue;
                 }
-                String dbName = StringUtils.substringBefore(ns, ".");
-                obj.removeField("ui");
-                
-                opsList.clear();
-                opsList.add(obj);
-                Document applyOps = new Document("applyOps", opsList);
-                try {
-                	Document result = destClient.getDatabase(dbName).runCommand(applyOps);
-                	logger.debug("result: " + result);
-                } catch (MongoCommandException mce) {
-                	errorCount++;
-                	logger.error("error applying: " + mce.getMessage());
-                	logger.debug("op: " + obj);
-                }
-                
-                count++;
-                if (count % 100 == 0) {
-                	logger.debug(String.format("Executed %s applyOps, errorCount: %s", count, errorCount));
-                }
-                
-            }
-        } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        } finally {
-            try {
-                inputStream.close();
-            } catch (IOException e) {
+                apply(batcher, ns, raw);
             }
+        } catch (IOException | BsonSerializationException e) {
+            logger.error("error reading " + sourceFile, e);
         }
+        // entries read before an error are still applied
+        batcher.flush();
         System.err.println(String.format("%s objects read", count));
         
         
         
-        long end = System.currentTimeMillis();
-        Double dur = (end - start)/1000.0;
-        logger.debug(String.format("Executed %s applyOps in %f seconds, errorCount: %s", count, dur, errorCount));
+        logComplete(batcher, start);
     }
+	
         
 
+	/**
+	 * Applies the entries of an oplog archive, starting at the timestamp if one is set and
+	 * limited to the namespaces if set. Blocks before the timestamp or without any of the
+	 * namespaces are skipped using the archive index.
+	 */
+	public void runArchive() {
+		logger.debug("OplogApplier starting");
+
+		destShardClient = new ShardClient("dest", destClusterUri, sourceToDestShardMap.values(), null);
+		destShardClient.init();
+		destShardClient.populateShardMongoClients();
+		MongoClient destClient = destShardClient.getShardMongoClient(destShardId);
+
+		long start = System.currentTimeMillis();
+		long count = 0;
+
+		ApplyOpsBatcher batcher = new ApplyOpsBatcher(destClient, batchSize);
+		try (OplogArchiveReader reader = new OplogArchiveReader(archiveFile.toPath())) {
+			for (RawBsonDocument raw : reader.read(timestamp, namespaces)) {
+				count++;
+				String ns = raw.getString("ns").getValue();
+				if (ns.startsWith("config.") || ns.contains(".tmp.") || "n".equals(raw.getString("op").getValue())) {
+					continue;
+				}
+				apply(batcher, ns, raw);
+			}
+		} catch (IOException | BsonSerializationException e) {
+			logger.error("error reading " + archiveFile, e);
+		}
+		batcher.flush();
+		System.err.println(String.format("%s objects read", count));
+		logComplete(batcher, start);
+	}
+
 	@SuppressWarnings("static-access")
 	private static CommandLine initializeAndParseCommandLineOptions(String[] args) {
 		options = new Options();
@@ -230,6 +232,12 @@ public class OplogApplier {
 		
 		options.addOption(
 				OptionBuilder.withArgName("source file").hasArg().withLongOpt("sourceFile").create("f"));
+		options.addOption(
+				OptionBuilder.withArgName("source oplog archive").hasArg().withLongOpt(ARCHIVE).create("a"));
+		options.addOption(
+				OptionBuilder.withArgName("namespaces to apply from the archive, comma separated").hasArg().withLongOpt(NAMESPACES).create());
+		options.addOption(
+				OptionBuilder.withArgName("max oplog entries per applyOps command {default 1000}").hasArg().withLongOpt(BATCH_SIZE).create("b"));
 
 		CommandLineParser parser = new GnuParser();
 		try {
@@ -295,8 +303,22 @@ public class OplogApplier {
 		}
 		
 		
+		String batchSize = line.getOptionValue(BATCH_SIZE);
+		if (batchSize != null) {
+			oplog.setBatchSize(Integer.parseInt(batchSize));
+		}
+		
+		String namespaces = line.getOptionValue(NAMESPACES);
+		if (namespaces != null) {
+			oplog.setNamespaces(new HashSet<>(Arrays.asList(namespaces.split(","))));
+		}
+		
 		String sourceFileName = line.getOptionValue("sourceFile");
-		if (sourceFileName != null) {
+		String archiveFileName = line.getOptionValue(ARCHIVE);
+		if (archiveFileName != null) {
+			oplog.setArchiveFile(new File(archiveFileName));
+			oplog.runArchive();
+		} else if (sourceFileName != null) {
 			oplog.setSourceFile(new File(sourceFileName));
 			oplog.runFile();
 		} else {
@@ -339,4 +361,16 @@ public class OplogApplier {
 		this.sourceFile = sourceFile;
 	}
 
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void setArchiveFile(File archiveFile) {
+		this.archiveFile = archiveFile;
+	}
+
+	public void setNamespaces(Set<String> namespaces) {
+		this.namespaces = namespaces;
+	}
+
 }
@@ -0,0 +1,67 @@
+package com.mongodb.oplog;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Index entry of one block of an oplog archive, see {@link OplogArchiveWriter}.
+ */
+class OplogArchiveBlock {
+
+	final long offset;
+	final int compressedLength;
+	final int uncompressedLength;
+	final int count;
+	final long minTs;
+	final long maxTs;
+	final Set<String> namespaces;
+
+	OplogArchiveBlock(long offset, int compressedLength, int uncompressedLength, int count, long minTs, long maxTs,
+			Set<String> namespaces) {
+		this.offset = offset;
+		this.compressedLength = compressedLength;
+		this.uncompressedLength = uncompressedLength;
+		this.count = count;
+		this.minTs = minTs;
+		this.maxTs = maxTs;
+		this.namespaces = namespaces;
+	}
+
+	/**
+	 * @return the offset of the next block
+	 */
+	long getEnd() {
+		return offset + OplogArchiveWriter.BLOCK_HEADER_SIZE + compressedLength;
+	}
+
+	void write(DataOutput out) throws IOException {
+		out.writeLong(offset);
+		out.writeInt(compressedLength);
+		out.writeInt(uncompressedLength);
+		out.writeInt(count);
+		out.writeLong(minTs);
+		out.writeLong(maxTs);
+		out.writeInt(namespaces.size());
+		for (String ns : namespaces) {
+			out.writeUTF(ns);
+		}
+	}
+
+	static OplogArchiveBlock read(DataInput in) throws IOException {
+		long offset = in.readLong();
+		int compressedLength = in.readInt();
+		int uncompressedLength = in.readInt();
+		int count = in.readInt();
+		long minTs = in.readLong();
+		long maxTs = in.readLong();
+		int nsCount = in.readInt();
+		Set<String> namespaces = new TreeSet<>();
+		for (int i = 0; i < nsCount; i++) {
+			namespaces.add(in.readUTF());
+		}
+		return new OplogArchiveBlock(offset, compressedLength, uncompressedLength, count, minTs, maxTs, namespaces);
+	}
+}
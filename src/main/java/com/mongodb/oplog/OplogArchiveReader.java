@@ -0,0 +1,333 @@
+package com.mongodb.oplog;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.bson.BsonSerializationException;
+import org.bson.BsonTimestamp;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xerial.snappy.Snappy;
+
+/**
+ * Reads an oplog archive written by {@link OplogArchiveWriter}. Reads can start at a
+ * timestamp, found with a binary search over the block index, and can be limited to a
+ * set of namespaces, in which case blocks without any of them are not read or
+ * decompressed.
+ */
+public class OplogArchiveReader implements Closeable {
+
+	private static Logger logger = LoggerFactory.getLogger(OplogArchiveReader.class);
+
+	private final Path path;
+	private final FileChannel channel;
+	private final List<OplogArchiveBlock> blocks;
+
+	// running maximum of the block maxTs, non decreasing even if entries were not in order
+	private final long[] maxTsUpTo;
+
+	public OplogArchiveReader(Path path) throws IOException {
+		this.path = path;
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			checkHeader();
+			List<OplogArchiveBlock> index = readIndex();
+			if (index == null) {
+				index = rebuildIndex();
+			}
+			this.blocks = Collections.unmodifiableList(index);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		maxTsUpTo = new long[blocks.size()];
+		long max = Long.MIN_VALUE;
+		for (int i = 0; i < maxTsUpTo.length; i++) {
+			max = Math.max(max, blocks.get(i).maxTs);
+			maxTsUpTo[i] = max;
+		}
+	}
+
+	private void checkHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(OplogArchiveWriter.HEADER_SIZE);
+		readFully(header, 0);
+		if (header.getLong() != OplogArchiveWriter.MAGIC) {
+			throw new IOException(path + " is not an oplog archive");
+		}
+		int version = header.getInt();
+		if (version != OplogArchiveWriter.VERSION) {
+			throw new IOException(String.format("%s: unsupported oplog archive version %s", path, version));
+		}
+	}
+
+	/**
+	 * @return null when there is no index or it doesn't cover the whole archive
+	 */
+	private List<OplogArchiveBlock> readIndex() throws IOException {
+		Path indexPath = OplogArchiveWriter.indexPath(path);
+		if (!Files.exists(indexPath)) {
+			return null;
+		}
+		List<OplogArchiveBlock> index;
+		try (InputStream is = Files.newInputStream(indexPath);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+			if (in.readLong() != OplogArchiveWriter.INDEX_MAGIC || in.readInt() != OplogArchiveWriter.VERSION) {
+				logger.warn("{}: invalid index, rebuilding", indexPath);
+				return null;
+			}
+			int size = in.readInt();
+			index = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				index.add(OplogArchiveBlock.read(in));
+			}
+		}
+		long end = index.isEmpty() ? OplogArchiveWriter.HEADER_SIZE : index.get(index.size() - 1).getEnd();
+		if (end != channel.size()) {
+			logger.warn("{}: index is stale, rebuilding", indexPath);
+			return null;
+		}
+		return index;
+	}
+
+	/**
+	 * Scans all blocks. A partly written last block is ignored.
+	 */
+	private List<OplogArchiveBlock> rebuildIndex() throws IOException {
+		List<OplogArchiveBlock> index = new ArrayList<>();
+		long size = channel.size();
+		long offset = OplogArchiveWriter.HEADER_SIZE;
+		ByteBuffer header = ByteBuffer.allocate(OplogArchiveWriter.BLOCK_HEADER_SIZE);
+		while (offset + OplogArchiveWriter.BLOCK_HEADER_SIZE <= size) {
+			header.clear();
+			readFully(header, offset);
+			int compressedLength = header.getInt();
+			int uncompressedLength = header.getInt();
+			int count = header.getInt();
+			if (offset + OplogArchiveWriter.BLOCK_HEADER_SIZE + compressedLength > size) {
+				break;
+			}
+			OplogArchiveBlock block = new OplogArchiveBlock(offset, compressedLength, uncompressedLength, count, 0, 0,
+					null);
+			long minTs = Long.MAX_VALUE;
+			long maxTs = Long.MIN_VALUE;
+			Set<String> namespaces = new TreeSet<>();
+			for (RawBsonDocument entry : new BlockIterator(readBlock(block), count)) {
+				long ts = entry.getTimestamp("ts").getValue();
+				minTs = Math.min(minTs, ts);
+				maxTs = Math.max(maxTs, ts);
+				namespaces.add(entry.getString("ns").getValue());
+			}
+			block = new OplogArchiveBlock(offset, compressedLength, uncompressedLength, count, minTs, maxTs, namespaces);
+			index.add(block);
+			offset = block.getEnd();
+		}
+		if (offset != size) {
+			logger.warn("{}: ignoring {} bytes of incomplete block at offset {}", path, size - offset, offset);
+		} else {
+			try {
+				OplogArchiveWriter.writeIndex(OplogArchiveWriter.indexPath(path), index);
+			} catch (IOException e) {
+				logger.debug("{}: could not save rebuilt index: {}", path, e.getMessage());
+			}
+		}
+		return index;
+	}
+
+	private void readFully(ByteBuffer buffer, long offset) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, offset + buffer.position());
+			if (n < 0) {
+				throw new IOException(String.format("%s: unexpected end of file at offset %s", path, offset));
+			}
+		}
+		buffer.flip();
+	}
+
+	private byte[] readBlock(OplogArchiveBlock block) throws IOException {
+		ByteBuffer compressed = ByteBuffer.allocate(block.compressedLength);
+		readFully(compressed, block.offset + OplogArchiveWriter.BLOCK_HEADER_SIZE);
+		byte[] uncompressed = Snappy.uncompress(compressed.array());
+		if (uncompressed.length != block.uncompressedLength) {
+			throw new IOException(String.format("%s: corrupt block at offset %s", path, block.offset));
+		}
+		return uncompressed;
+	}
+
+	/**
+	 * @return index of the first block that can hold entries at or after ts
+	 */
+	int seek(long ts) {
+		int low = 0;
+		int high = maxTsUpTo.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (maxTsUpTo[mid] < ts) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	public Iterable<RawBsonDocument> read() {
+		return read(null, null);
+	}
+
+	/**
+	 * @param from       first timestamp to return, null for all
+	 * @param namespaces namespaces to return, null for all
+	 */
+	public Iterable<RawBsonDocument> read(BsonTimestamp from, Set<String> namespaces) {
+		return () -> new EntryIterator(from == null ? Long.MIN_VALUE : from.getValue(), namespaces);
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (OplogArchiveBlock b : blocks) {
+			count += b.count;
+		}
+		return count;
+	}
+
+	public int getBlockCount() {
+		return blocks.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private static boolean containsAny(Set<String> blockNamespaces, Set<String> namespaces) {
+		for (String ns : namespaces) {
+			if (blockNamespaces.contains(ns)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private class EntryIterator implements Iterator<RawBsonDocument> {
+
+		private final long from;
+		private final Set<String> namespaces;
+		private int blockIndex;
+		private BlockIterator block;
+		private RawBsonDocument next;
+
+		EntryIterator(long from, Set<String> namespaces) {
+			this.from = from;
+			this.namespaces = namespaces;
+			this.blockIndex = seek(from);
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null) {
+				if (block == null || !block.hasNext()) {
+					if (!nextBlock()) {
+						return false;
+					}
+					continue;
+				}
+				RawBsonDocument entry = block.next();
+				if (from != Long.MIN_VALUE && entry.getTimestamp("ts").getValue() < from) {
+					continue;
+				}
+				if (namespaces != null && !namespaces.contains(entry.getString("ns").getValue())) {
+					continue;
+				}
+				next = entry;
+			}
+			return true;
+		}
+
+		private boolean nextBlock() {
+			while (blockIndex < blocks.size()) {
+				OplogArchiveBlock b = blocks.get(blockIndex++);
+				if (b.maxTs < from || (namespaces != null && !containsAny(b.namespaces, namespaces))) {
+					continue;
+				}
+				try {
+					block = new BlockIterator(readBlock(b), b.count);
+				} catch (IOException e) {
+					throw new BsonSerializationException(
+							String.format("%s: error reading block at offset %s: %s", path, b.offset, e.getMessage()));
+				}
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public RawBsonDocument next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			RawBsonDocument entry = next;
+			next = null;
+			return entry;
+		}
+	}
+
+	/**
+	 * Entries of a decompressed block, as views into it.
+	 */
+	private class BlockIterator implements Iterator<RawBsonDocument>, Iterable<RawBsonDocument> {
+
+		private final byte[] bytes;
+		private final int count;
+		private int position;
+		private int read;
+
+		BlockIterator(byte[] bytes, int count) {
+			this.bytes = bytes;
+			this.count = count;
+		}
+
+		@Override
+		public Iterator<RawBsonDocument> iterator() {
+			return this;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return read < count;
+		}
+
+		@Override
+		public RawBsonDocument next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			int length = position + 4 > bytes.length ? -1
+					: (bytes[position] & 0xff) | (bytes[position + 1] & 0xff) << 8
+							| (bytes[position + 2] & 0xff) << 16 | (bytes[position + 3] & 0xff) << 24;
+			if (length < 5 || position + length > bytes.length) {
+				throw new BsonSerializationException(
+						String.format("%s: invalid entry length %s in block", path, length));
+			}
+			RawBsonDocument entry = new RawBsonDocument(bytes, position, length);
+			position += length;
+			read++;
+			return entry;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.mongodb.oplog;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xerial.snappy.Snappy;
+
+/**
+ * Writes oplog entries to an archive file of snappy compressed blocks, with a sidecar
+ * index (archive file name + {@link #INDEX_SUFFIX}) holding the offset, timestamp range
+ * and namespaces of every block. {@link OplogArchiveReader} uses the index to seek to a
+ * timestamp with a binary search and to skip blocks without a wanted namespace.
+ *
+ * Archive layout: {@link #MAGIC}, version, then blocks of [compressed length,
+ * uncompressed length, entry count, snappy(concatenated BSON entries)]. All integers
+ * are big endian. Entries are expected in oplog order.
+ *
+ * The index is written when the archive is closed. The reader rebuilds it from the
+ * blocks when it is missing or doesn't cover the whole archive, e.g. after a crash.
+ */
+public class OplogArchiveWriter implements Closeable {
+
+	private static Logger logger = LoggerFactory.getLogger(OplogArchiveWriter.class);
+
+	public final static String INDEX_SUFFIX = ".idx";
+	public final static int DEFAULT_BLOCK_BYTES = 1024 * 1024;
+
+	final static long MAGIC = 0x4f504c4f47415243L; // "OPLOGARC"
+	final static long INDEX_MAGIC = 0x4f504c4f47494458L; // "OPLOGIDX"
+	final static int VERSION = 1;
+	final static int HEADER_SIZE = 12;
+	final static int BLOCK_HEADER_SIZE = 12;
+
+	private final Path path;
+	private final int blockBytes;
+	private final DataOutputStream out;
+	private long position;
+
+	private final List<OplogArchiveBlock> blocks = new ArrayList<>();
+	private final ByteArrayOutputStream block;
+	private int blockCount;
+	private long blockMinTs;
+	private long blockMaxTs;
+	private Set<String> blockNamespaces = new TreeSet<>();
+
+	private long count;
+
+	public OplogArchiveWriter(Path path) throws IOException {
+		this(path, DEFAULT_BLOCK_BYTES);
+	}
+
+	/**
+	 * @param blockBytes uncompressed size at which a block is completed
+	 */
+	public OplogArchiveWriter(Path path, int blockBytes) throws IOException {
+		this.path = path;
+		this.blockBytes = blockBytes;
+		this.block = new ByteArrayOutputStream(blockBytes + blockBytes / 4);
+		this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+		out.writeLong(MAGIC);
+		out.writeInt(VERSION);
+		position = HEADER_SIZE;
+		// a stale index of an earlier archive at this path must not be used
+		Files.deleteIfExists(indexPath(path));
+	}
+
+	public static Path indexPath(Path path) {
+		return path.resolveSibling(path.getFileName() + INDEX_SUFFIX);
+	}
+
+	public void write(RawBsonDocument entry) throws IOException {
+		long ts = entry.getTimestamp("ts").getValue();
+		if (blockCount == 0) {
+			blockMinTs = ts;
+			blockMaxTs = ts;
+		} else {
+			blockMinTs = Math.min(blockMinTs, ts);
+			blockMaxTs = Math.max(blockMaxTs, ts);
+		}
+		blockNamespaces.add(entry.getString("ns").getValue());
+
+		ByteBuffer bytes = entry.getByteBuffer().asNIO();
+		block.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+		blockCount++;
+		count++;
+		if (block.size() >= blockBytes) {
+			flushBlock();
+		}
+	}
+
+	private void flushBlock() throws IOException {
+		if (blockCount == 0) {
+			return;
+		}
+		byte[] uncompressed = block.toByteArray();
+		byte[] compressed = Snappy.compress(uncompressed);
+		out.writeInt(compressed.length);
+		out.writeInt(uncompressed.length);
+		out.writeInt(blockCount);
+		out.write(compressed);
+		blocks.add(new OplogArchiveBlock(position, compressed.length, uncompressed.length, blockCount, blockMinTs,
+				blockMaxTs, blockNamespaces));
+		position += BLOCK_HEADER_SIZE + compressed.length;
+
+		block.reset();
+		blockCount = 0;
+		blockNamespaces = new TreeSet<>();
+	}
+
+	/**
+	 * @return entries written
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Completes the last block and writes the index.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flushBlock();
+		} finally {
+			out.close();
+		}
+		writeIndex(indexPath(path), blocks);
+		logger.debug("{}: wrote {} entries in {} blocks, {} bytes", path, count, blocks.size(), position);
+	}
+
+	static void writeIndex(Path indexPath, List<OplogArchiveBlock> blocks) throws IOException {
+		Path tmp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+		try (OutputStream os = Files.newOutputStream(tmp);
+				DataOutputStream index = new DataOutputStream(new BufferedOutputStream(os))) {
+			index.writeLong(INDEX_MAGIC);
+			index.writeInt(VERSION);
+			index.writeInt(blocks.size());
+			for (OplogArchiveBlock b : blocks) {
+				b.write(index);
+			}
+		}
+		Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
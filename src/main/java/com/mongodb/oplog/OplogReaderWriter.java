@@ -3,6 +3,9 @@ package com.mongodb.oplog;
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.ne;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -16,6 +19,7 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
 import org.bson.UuidRepresentation;
 import org.bson.conversions.Bson;
 import org.slf4j.Logger;
@@ -50,8 +54,12 @@ public class OplogReaderWriter {
 
 	private final static String SOURCE_URI = "source";
 	private final static String DEST_URI = "dest";
+	private final static String ARCHIVE = "archive";
+	private final static String ARCHIVE_OUT = "archiveOut";
 	private String sourceUri;
 	private String destUri;
+	private Path archiveIn;
+	private Path archiveOut;
 
 	// private ShardClient sourceShardClient;
 	// private ShardClient destShardClient;
@@ -66,72 +74,96 @@ public class OplogReaderWriter {
 		this.destUri = destUri;
 	}
 
-	public void run() {
+	public void run() throws IOException {
 		// sourceShardClient = new ShardClient("source", sourceUri);
 		// destShardClient = new ShardClient("dest", destUri);
 
-		ConnectionString sourceCs = new ConnectionString(sourceUri);
-		MongoClientSettings mongoClientSettings = MongoClientSettings.builder().applyConnectionString(sourceCs)
-				.uuidRepresentation(UuidRepresentation.STANDARD).build();
-		sourceClient = MongoClients.create(mongoClientSettings);
+		if (destUri != null) {
+			ConnectionString destCs = new ConnectionString(destUri);
+			MongoClientSettings destMongoClientSettings = MongoClientSettings.builder().applyConnectionString(destCs)
+					.uuidRepresentation(UuidRepresentation.STANDARD).build();
+			destClient = MongoClients.create(destMongoClientSettings);
+		}
 
-		ConnectionString destCs = new ConnectionString(destUri);
-		MongoClientSettings destMongoClientSettings = MongoClientSettings.builder().applyConnectionString(destCs)
-				.uuidRepresentation(UuidRepresentation.STANDARD).build();
-		destClient = MongoClients.create(destMongoClientSettings);
+		Map<Namespace, List<WriteModel<BsonDocument>>> writeModelsMap = new HashMap<>();
 
-		MongoDatabase db = sourceClient.getDatabase("urban");
-		MongoCollection<BsonDocument> oplog = db.getCollection("oplog", BsonDocument.class);
+		OplogArchiveWriter archiveWriter = archiveOut == null ? null : new OplogArchiveWriter(archiveOut);
+		try {
+			if (archiveIn != null) {
+				try (OplogArchiveReader reader = new OplogArchiveReader(archiveIn)) {
+					for (RawBsonDocument doc : reader.read()) {
+						process(doc, writeModelsMap, archiveWriter);
+					}
+				}
+			} else {
+				ConnectionString sourceCs = new ConnectionString(sourceUri);
+				MongoClientSettings mongoClientSettings = MongoClientSettings.builder().applyConnectionString(sourceCs)
+						.uuidRepresentation(UuidRepresentation.STANDARD).build();
+				sourceClient = MongoClients.create(mongoClientSettings);
 
-		MongoCursor<BsonDocument> cursor = null;
+				MongoDatabase db = sourceClient.getDatabase("urban");
+				MongoCollection<RawBsonDocument> oplog = db.getCollection("oplog", RawBsonDocument.class);
 
-		// MongoCursor<Document> cursor = null;
-		Bson query = and(ne("op", "n"));
+				// MongoCursor<Document> cursor = null;
+				Bson query = and(ne("op", "n"));
 
-		Map<Namespace, List<WriteModel<BsonDocument>>> writeModelsMap = new HashMap<>();
+				try (MongoCursor<RawBsonDocument> cursor = oplog.find(query).noCursorTimeout(true).iterator()) {
+					while (cursor.hasNext()) {
+						process(cursor.next(), writeModelsMap, archiveWriter);
+					}
+				}
+			}
+		} finally {
+			if (archiveWriter != null) {
+				archiveWriter.close();
+				logger.debug("{} entries written to {}", archiveWriter.getCount(), archiveOut);
+			}
+		}
 
-		try {
-			cursor = oplog.find(query).noCursorTimeout(true).iterator();
-			while (cursor.hasNext()) {
-				BsonDocument doc = cursor.next();
-				String op = doc.getString("op").getValue();
+	}
 
-				if (op.equals("n") || op.equals("c")) {
-					continue;
-				}
+	private void process(RawBsonDocument raw, Map<Namespace, List<WriteModel<BsonDocument>>> writeModelsMap,
+			OplogArchiveWriter archiveWriter) throws IOException {
+		String op = raw.getString("op").getValue();
 
-				String nsString = doc.getString("ns").getValue();
-				Namespace ns = new Namespace(nsString);
-				if (ns.getDatabaseName().equals("config") || ns.getDatabaseName().equals("admin")) {
-					continue;
-				}
+		if (op.equals("n") || op.equals("c")) {
+			return;
+		}
 
-				List<WriteModel<BsonDocument>> writeModels = writeModelsMap.get(ns);
-				if (writeModels == null) {
-					writeModels = new ArrayList<>(BATCH_SIZE);
-					writeModelsMap.put(ns, writeModels);
-				}
+		String nsString = raw.getString("ns").getValue();
+		Namespace ns = new Namespace(nsString);
+		if (ns.getDatabaseName().equals("config") || ns.getDatabaseName().equals("admin")) {
+			return;
+		}
 
-				WriteModel<BsonDocument> model = ApplyOperationsHelper.getWriteModelForOperation(doc, false);
-				if (model != null) {
-					writeModels.add(model);
+		if (archiveWriter != null) {
+			archiveWriter.write(raw);
+		}
+		if (destClient == null) {
+			return;
+		}
 
-					if (writeModels.size() >= BATCH_SIZE) {
-						flush(ns, writeModels);
-					}
+		List<WriteModel<BsonDocument>> writeModels = writeModelsMap.get(ns);
+		if (writeModels == null) {
+			writeModels = new ArrayList<>(BATCH_SIZE);
+			writeModelsMap.put(ns, writeModels);
+		}
 
-				} else {
-					// if the command is $cmd for create index or create collection, there would not
-					// be any write model.
-					logger.warn("ignoring oplog entry. could not convert the document to model. Given document is {}",
-							doc.toJson());
-				}
+		BsonDocument doc = raw.toBsonDocument();
+		WriteModel<BsonDocument> model = ApplyOperationsHelper.getWriteModelForOperation(doc, false);
+		if (model != null) {
+			writeModels.add(model);
+
+			if (writeModels.size() >= BATCH_SIZE) {
+				flush(ns, writeModels);
 			}
 
-		} finally {
-			cursor.close();
+		} else {
+			// if the command is $cmd for create index or create collection, there would not
+			// be any write model.
+			logger.warn("ignoring oplog entry. could not convert the document to model. Given document is {}",
+					doc.toJson());
 		}
-
 	}
 
 	private void flush(Namespace ns, List<WriteModel<BsonDocument>> writeModels) {
@@ -169,9 +201,13 @@ public class OplogReaderWriter {
 		options = new Options();
 		options.addOption(new Option("help", "print this message"));
 		options.addOption(
-				OptionBuilder.withArgName("source cluster mongo uri").hasArg().withLongOpt(SOURCE_URI).isRequired(true).create("s"));
+				OptionBuilder.withArgName("source cluster mongo uri").hasArg().withLongOpt(SOURCE_URI).create("s"));
+		options.addOption(
+				OptionBuilder.withArgName("destination cluster mongo uri").hasArg().withLongOpt(DEST_URI).create("d"));
+		options.addOption(
+				OptionBuilder.withArgName("oplog archive to read instead of the source").hasArg().withLongOpt(ARCHIVE).create("a"));
 		options.addOption(
-				OptionBuilder.withArgName("destination cluster mongo uri").hasArg().withLongOpt(DEST_URI).isRequired(true).create("d"));
+				OptionBuilder.withArgName("oplog archive to write the entries read to").hasArg().withLongOpt(ARCHIVE_OUT).create("o"));
 
 		CommandLineParser parser = new GnuParser();
 		CommandLine line = null;
@@ -197,11 +233,33 @@ public class OplogReaderWriter {
 		System.exit(-1);
 	}
 
+	public void setArchiveIn(Path archiveIn) {
+		this.archiveIn = archiveIn;
+	}
+
+	public void setArchiveOut(Path archiveOut) {
+		this.archiveOut = archiveOut;
+	}
+
 	public static void main(String[] args) throws Exception {
 		CommandLine line = initializeAndParseCommandLineOptions(args);
 		String sourceUri = line.getOptionValue("s");
 		String destUri = line.getOptionValue("d");
+		if ((sourceUri == null) == !line.hasOption(ARCHIVE)) {
+			System.out.println("exactly one of --source or --archive is required");
+			printHelpAndExit(options);
+		}
+		if (destUri == null && !line.hasOption(ARCHIVE_OUT)) {
+			System.out.println("--dest or --archiveOut is required");
+			printHelpAndExit(options);
+		}
 		OplogReaderWriter op = new OplogReaderWriter(sourceUri, destUri);
+		if (line.hasOption(ARCHIVE)) {
+			op.setArchiveIn(Paths.get(line.getOptionValue(ARCHIVE)));
+		}
+		if (line.hasOption(ARCHIVE_OUT)) {
+			op.setArchiveOut(Paths.get(line.getOptionValue(ARCHIVE_OUT)));
+		}
 		op.run();
 	}
 
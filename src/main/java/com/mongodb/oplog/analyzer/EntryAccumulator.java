@@ -1,5 +1,11 @@
 package com.mongodb.oplog.analyzer;
 
+import com.mongodb.util.metrics.Histogram;
+
+/**
+ * Entry size statistics of an {@link OplogEntryKey}. Sizes are also recorded in a fixed
+ * memory histogram for percentiles, accumulators can be merged, e.g. across shards.
+ */
 public class EntryAccumulator {
     
     private OplogEntryKey key;
@@ -8,6 +14,7 @@ public class EntryAccumulator {
     private long total;
     private long min = Long.MAX_VALUE;
     private long max = Long.MIN_VALUE;
+    private final Histogram sizes = new Histogram();
     
     
     
@@ -25,6 +32,38 @@ public class EntryAccumulator {
         if (amt < min) {
             min = amt;
         }
+        sizes.record(amt);
+    }
+
+    /**
+     * Clears the statistics, so the accumulator can be reused for the next bucket.
+     */
+    public void reset() {
+        count = 0;
+        total = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+        sizes.reset();
+    }
+
+    /**
+     * Adds the entries of other, merges into a shared accumulator can come from several
+     * workers.
+     */
+    public synchronized void merge(EntryAccumulator other) {
+        count += other.count;
+        total += other.total;
+        max = Math.max(max, other.max);
+        min = Math.min(min, other.min);
+        sizes.merge(other.sizes);
+    }
+
+    /**
+     * @param percentile 0 - 100
+     * @return the entry size at the percentile, within the histogram's 1/16 precision
+     */
+    public long getPercentile(double percentile) {
+        return sizes.getValueAtPercentile(percentile);
     }
     
     public String toString() {
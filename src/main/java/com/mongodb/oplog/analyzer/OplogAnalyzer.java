@@ -1,9 +1,15 @@
 package com.mongodb.oplog.analyzer;
 
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
@@ -14,11 +20,14 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.BsonTimestamp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mongodb.model.Shard;
 import com.mongodb.shardsync.ShardClient;
+import com.opencsv.CSVWriter;
 
 public class OplogAnalyzer {
 
@@ -26,10 +35,21 @@ public class OplogAnalyzer {
 
 	private static Options options;
 
+	private final static String ARCHIVE = "archive";
+	private final static String ARCHIVE_DIR = "archiveDir";
+	private final static String TIMESTAMP = "ts";
+	private final static String BUCKET_MINUTES = "bucketMinutes";
+	private final static String SUMMARY_FILE = "oplog_summary.csv";
+
 	private String sourceUri;
+	private String[] archives;
+	private BsonTimestamp archiveStart;
+	private Path archiveDir;
+	private int bucketMinutes = OplogAnalyzerWorker.DEFAULT_BUCKET_MINUTES;
 	private ShardClient sourceShardClient;
 	private ExecutorService executor;
 	private List<OplogAnalyzerWorker> workers;
+	private final Map<OplogEntryKey, EntryAccumulator> totals = new ConcurrentHashMap<>();
 
 	public void init() {
 		sourceShardClient = new ShardClient("source", sourceUri);
@@ -37,7 +57,11 @@ public class OplogAnalyzer {
 		sourceShardClient.populateShardMongoClients();
 	}
 
-	public void run() {
+	public void run() throws IOException {
+		if (archives != null) {
+			runArchives();
+			return;
+		}
 		Map<String, Shard> shardsMap = sourceShardClient.getShardsMap();
 		int numThreads = shardsMap.size();
 		workers = new ArrayList<>(numThreads);
@@ -45,9 +69,60 @@ public class OplogAnalyzer {
 
 		for (String shardId : shardsMap.keySet()) {
 			OplogAnalyzerWorker worker = new OplogAnalyzerWorker(sourceShardClient, shardId);
+			worker.setTotals(totals);
+			worker.setBucketMinutes(bucketMinutes);
+			if (archiveDir != null) {
+				worker.setArchiveOut(archiveDir.resolve("oplog_" + shardId + ".oplog"));
+			}
+			workers.add(worker);
+			executor.execute(worker);
+		}
+	}
+
+	/**
+	 * Analyzes oplog archives instead of the live oplogs, one worker per archive, named
+	 * after the archive file.
+	 */
+	private void runArchives() {
+		workers = new ArrayList<>(archives.length);
+		executor = Executors.newFixedThreadPool(archives.length);
+		for (String archive : archives) {
+			Path path = Paths.get(archive);
+			String name = StringUtils.substringBeforeLast(path.getFileName().toString(), ".");
+			OplogAnalyzerWorker worker = new OplogAnalyzerWorker(path, archiveStart, name);
+			worker.setTotals(totals);
+			worker.setBucketMinutes(bucketMinutes);
 			workers.add(worker);
 			executor.execute(worker);
 		}
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writeSummary();
+	}
+
+	/**
+	 * Writes the entry size statistics of each namespace and op, merged across all shards
+	 * and buckets.
+	 */
+	private void writeSummary() {
+		try (CSVWriter writer = new CSVWriter(new FileWriter(SUMMARY_FILE))) {
+			writer.writeNext(new String[] { "ns", "op", "count", "minSizeBytes", "maxSizeBytes", "totalSizeBytes",
+					"p50SizeBytes", "p90SizeBytes", "p99SizeBytes", "p999SizeBytes" });
+			List<EntryAccumulator> sorted = new ArrayList<>(totals.values());
+			sorted.sort(Comparator.comparing(EntryAccumulator::getNamespace).thenComparing(EntryAccumulator::getOp));
+			for (EntryAccumulator acc : sorted) {
+				writer.writeNext(new String[] { acc.getNamespace(), acc.getOp(), String.valueOf(acc.getCount()),
+						String.valueOf(acc.getMin()), String.valueOf(acc.getMax()), String.valueOf(acc.getTotal()),
+						String.valueOf(acc.getPercentile(50)), String.valueOf(acc.getPercentile(90)),
+						String.valueOf(acc.getPercentile(99)), String.valueOf(acc.getPercentile(99.9)) });
+			}
+		} catch (IOException e) {
+			logger.error("error writing {}", SUMMARY_FILE, e);
+		}
 	}
 
 	@SuppressWarnings("static-access")
@@ -55,7 +130,15 @@ public class OplogAnalyzer {
 		options = new Options();
 		options.addOption(new Option("help", "print this message"));
 		options.addOption(OptionBuilder.withArgName("mongodb connection uri").hasArg().withLongOpt("uri")
-				.isRequired(true).create("u"));
+				.create("u"));
+		options.addOption(OptionBuilder.withArgName("oplog archive(s) to analyze instead of the live oplog").hasArgs()
+				.withLongOpt(ARCHIVE).create("a"));
+		options.addOption(OptionBuilder.withArgName("directory to also write oplog archives to, one per shard").hasArg()
+				.withLongOpt(ARCHIVE_DIR).create());
+		options.addOption(OptionBuilder.withArgName("archive start timestamp <time>,<increment>").hasArg()
+				.withLongOpt(TIMESTAMP).create());
+		options.addOption(OptionBuilder.withArgName("bucket width in minutes {default 5}").hasArg()
+				.withLongOpt(BUCKET_MINUTES).create());
 
 		CommandLineParser parser = new GnuParser();
 		CommandLine line = null;
@@ -91,6 +174,7 @@ public class OplogAnalyzer {
 			//logger.warn("interrupted");
 			Thread.currentThread().interrupt();
 		}
+		writeSummary();
 		logger.debug("shutdown complete");
 	}
 
@@ -113,7 +197,28 @@ public class OplogAnalyzer {
 		CommandLine line = initializeAndParseCommandLineOptions(args);
 
 		OplogAnalyzer analyzer = new OplogAnalyzer();
+		String bucketMinutes = line.getOptionValue(BUCKET_MINUTES);
+		if (bucketMinutes != null) {
+			analyzer.setBucketMinutes(Integer.parseInt(bucketMinutes));
+		}
+		if (line.hasOption(ARCHIVE)) {
+			analyzer.setArchives(line.getOptionValues(ARCHIVE));
+			String timestamp = line.getOptionValue(TIMESTAMP);
+			if (timestamp != null) {
+				String[] tsParts = timestamp.split(",");
+				analyzer.setArchiveStart(new BsonTimestamp(Integer.parseInt(tsParts[0]), Integer.parseInt(tsParts[1])));
+			}
+			analyzer.run();
+			return;
+		}
+		if (!line.hasOption("u")) {
+			System.out.println("--uri or --archive is required");
+			printHelpAndExit(options);
+		}
 		analyzer.setSourceUri(line.getOptionValue("u"));
+		if (line.hasOption(ARCHIVE_DIR)) {
+			analyzer.setArchiveDir(Paths.get(line.getOptionValue(ARCHIVE_DIR)));
+		}
 		analyzer.init();
 		analyzer.run();
 		addShutdownHook(analyzer);
@@ -123,4 +228,20 @@ public class OplogAnalyzer {
 		this.sourceUri = sourceUri;
 	}
 
+	public void setArchives(String[] archives) {
+		this.archives = archives;
+	}
+
+	public void setArchiveStart(BsonTimestamp archiveStart) {
+		this.archiveStart = archiveStart;
+	}
+
+	public void setArchiveDir(Path archiveDir) {
+		this.archiveDir = archiveDir;
+	}
+
+	public void setBucketMinutes(int bucketMinutes) {
+		this.bucketMinutes = bucketMinutes;
+	}
+
 }
@@ -6,14 +6,13 @@ import static com.mongodb.client.model.Filters.ne;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.bson.BsonDateTime;
-import org.bson.BsonString;
 import org.bson.BsonTimestamp;
 import org.bson.Document;
 import org.bson.RawBsonDocument;
@@ -26,6 +25,8 @@ import com.mongodb.MongoInterruptedException;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.oplog.OplogArchiveReader;
+import com.mongodb.oplog.OplogArchiveWriter;
 import com.mongodb.shardsync.ShardClient;
 import com.opencsv.CSVWriter;
 
@@ -33,22 +34,52 @@ public class OplogAnalyzerWorker implements Runnable {
 
 	protected static final Logger logger = LoggerFactory.getLogger(OplogAnalyzerWorker.class);
 
+	public final static int DEFAULT_BUCKET_MINUTES = 5;
+
+	// accumulators of a namespace, indexed by opIndex()
+	private final static int OP_COUNT = 6;
+
 	DateTimeFormatter formatter = DateTimeFormatter.ISO_DATE_TIME;
 
 	private boolean shutdown = false;
 	private ShardClient sourceShardClient;
 	private String shardId;
-	private Map<OplogEntryKey, EntryAccumulator> accumulators = new HashMap<OplogEntryKey, EntryAccumulator>();
+
+	// accumulators of the current bucket, reused (reset) for later buckets
+	private Map<String, EntryAccumulator[]> accumulators = new HashMap<>();
+	private int bucketMinutes = DEFAULT_BUCKET_MINUTES;
+	private long currentBucket = Long.MIN_VALUE;
 
 	private CSVWriter writer;
+	private Map<OplogEntryKey, EntryAccumulator> totals;
+
+	private Path archiveIn;
+	private BsonTimestamp archiveStart;
+	private OplogArchiveWriter archiveWriter;
 
 	public OplogAnalyzerWorker(ShardClient sourceShardClient, String shardId) {
+		this(shardId);
 		this.sourceShardClient = sourceShardClient;
+	}
+
+	/**
+	 * Analyzes an oplog archive
+	 *
+	 * @param start first timestamp to analyze, null for the whole archive
+	 */
+	public OplogAnalyzerWorker(Path archiveIn, BsonTimestamp start, String shardId) {
+		this(shardId);
+		this.archiveIn = archiveIn;
+		this.archiveStart = start;
+	}
+
+	private OplogAnalyzerWorker(String shardId) {
 		this.shardId = shardId;
 
 		try {
 			writer = new CSVWriter(new FileWriter("oplog_" + shardId + ".csv"));
-			String[] header = {"date","shard","ns","op","count","minSizeBytes","maxSizeBytes", "totalSizeBytes"};
+			String[] header = {"date","shard","ns","op","count","minSizeBytes","maxSizeBytes", "totalSizeBytes",
+					"p50SizeBytes", "p90SizeBytes", "p99SizeBytes", "p999SizeBytes"};
 			writer.writeNext(header);
 		} catch (IOException e) {
 			logger.error("error writing csv", e);
@@ -58,6 +89,18 @@ public class OplogAnalyzerWorker implements Runnable {
 
 	@Override
 	public void run() {
+		try {
+			if (archiveIn != null) {
+				runArchive();
+			} else {
+				runTail();
+			}
+		} finally {
+			closeArchive();
+		}
+	}
+
+	private void runTail() {
 
 		BsonTimestamp shardTimestamp = sourceShardClient.getLatestOplogTimestamp(shardId);
 		Bson query = and(gte("ts", shardTimestamp), ne("op", "n"));
@@ -68,43 +111,11 @@ public class OplogAnalyzerWorker implements Runnable {
 		MongoCursor<RawBsonDocument> cursor = null;
 		MongoCollection<RawBsonDocument> oplog = local.getCollection("oplog.rs", RawBsonDocument.class);
 
-		String lastCheckpoint = null;
 		try {
 			cursor = oplog.find(query).sort(new Document("$natural", 1)).noCursorTimeout(true)
 					.cursorType(CursorType.TailableAwait).iterator();
 			while (cursor.hasNext() && !shutdown) {
-
-				RawBsonDocument doc = cursor.next();
-
-				String ns = ((BsonString) doc.get("ns")).getValue();
-				BsonString op = (BsonString) doc.get("op");
-				String opType = op.getValue();
-				BsonDateTime date = doc.getDateTime("wall");
-				long dateLong = date.getValue()/1000;
-				LocalDateTime dt = LocalDateTime.ofEpochSecond(dateLong, 0, ZoneOffset.UTC);
-				dt = dt.withSecond(0).withNano(0).plusMinutes((65 - dt.getMinute()) % 5);
-				String dateStr = formatter.format(dt);
-				
-				if (lastCheckpoint != null && !dateStr.equals(lastCheckpoint)) {
-					flushCsv();
-				}
-
-				// ignore no-op
-				if (ns.startsWith("config.")) {
-					continue;
-				}
-
-				OplogEntryKey key = new OplogEntryKey(ns, opType, dateStr);
-				EntryAccumulator accum = accumulators.get(key);
-				if (accum == null) {
-					accum = new EntryAccumulator(key);
-					accumulators.put(key, accum);
-				}
-
-				long len = doc.getByteBuffer().asNIO().array().length;
-				accum.addExecution(len);
-
-				lastCheckpoint = dateStr;
+				process(cursor.next());
 			}
 
 		} catch (MongoInterruptedException e) {
@@ -120,17 +131,147 @@ public class OplogAnalyzerWorker implements Runnable {
 
 	}
 
+	/**
+	 * Analyzes an oplog archive from archiveStart, instead of tailing the live oplog.
+	 */
+	private void runArchive() {
+		logger.debug("worker {}: reading archive {}, start timestamp: {}", shardId, archiveIn, archiveStart);
+		try (OplogArchiveReader reader = new OplogArchiveReader(archiveIn)) {
+			for (RawBsonDocument doc : reader.read(archiveStart, null)) {
+				if (shutdown) {
+					break;
+				}
+				if (!"n".equals(doc.getString("op").getValue())) {
+					process(doc);
+				}
+			}
+		} catch (Exception e) {
+			logger.error("{}: error reading archive {}", shardId, archiveIn, e);
+		}
+		flushCsv();
+	}
+
+	private void process(RawBsonDocument doc) throws IOException {
+		if (archiveWriter != null) {
+			archiveWriter.write(doc);
+		}
+
+		long bucket = bucketOf(doc.getTimestamp("ts").getTime() & 0xffffffffL, bucketMinutes);
+		if (bucket != currentBucket) {
+			if (currentBucket != Long.MIN_VALUE) {
+				flushCsv();
+			}
+			currentBucket = bucket;
+		}
+
+		String ns = doc.getString("ns").getValue();
+		// ignore no-op
+		if (ns.startsWith("config.")) {
+			return;
+		}
+
+		String opType = doc.getString("op").getValue();
+		EntryAccumulator[] byOp = accumulators.get(ns);
+		if (byOp == null) {
+			byOp = new EntryAccumulator[OP_COUNT];
+			accumulators.put(ns, byOp);
+		}
+		int opIndex = opIndex(opType);
+		EntryAccumulator accum = byOp[opIndex];
+		if (accum == null) {
+			accum = new EntryAccumulator(new OplogEntryKey(ns, opType));
+			byOp[opIndex] = accum;
+		}
+
+		// the document may be a view into a larger buffer
+		long len = doc.getByteBuffer().remaining();
+		accum.addExecution(len);
+	}
+
+	/**
+	 * @param seconds epoch seconds of an entry
+	 * @return epoch seconds of the end of the entry's bucket: the minute of the entry
+	 *         rounded up to a multiple of bucketMinutes
+	 */
+	static long bucketOf(long seconds, int bucketMinutes) {
+		long minutes = seconds / 60;
+		return -Math.floorDiv(-minutes, bucketMinutes) * bucketMinutes * 60;
+	}
+
+	private static int opIndex(String op) {
+		switch (op) {
+		case "i":
+			return 0;
+		case "u":
+			return 1;
+		case "d":
+			return 2;
+		case "c":
+			return 3;
+		case "n":
+			return 4;
+		default:
+			return 5;
+		}
+	}
+
+	public void setBucketMinutes(int bucketMinutes) {
+		this.bucketMinutes = bucketMinutes;
+	}
+
+	/**
+	 * Flushed buckets are also merged into totals by namespace and op, shared by the
+	 * workers of all shards.
+	 */
+	public void setTotals(Map<OplogEntryKey, EntryAccumulator> totals) {
+		this.totals = totals;
+	}
+
+	/**
+	 * Also writes every entry read to an oplog archive.
+	 */
+	public void setArchiveOut(Path archiveOut) throws IOException {
+		this.archiveWriter = new OplogArchiveWriter(archiveOut);
+	}
+
+	private synchronized void closeArchive() {
+		if (archiveWriter == null) {
+			return;
+		}
+		try {
+			archiveWriter.close();
+		} catch (IOException e) {
+			logger.error("{}: error closing oplog archive", shardId, e);
+		}
+		archiveWriter = null;
+	}
+
 	public void flushCsv() {
 
+		if (currentBucket == Long.MIN_VALUE) {
+			return;
+		}
+		String date = formatter.format(LocalDateTime.ofEpochSecond(currentBucket, 0, ZoneOffset.UTC));
 		try {
 
-			for (EntryAccumulator acc : accumulators.values()) {
-				writer.writeNext(new String[] { acc.getDate(), shardId, acc.getNamespace(), acc.getOp(),
-						String.valueOf(acc.getCount()), String.valueOf(acc.getMin()), String.valueOf(acc.getMax()),
-						String.valueOf(acc.getTotal()) });
+			for (EntryAccumulator[] byOp : accumulators.values()) {
+				for (EntryAccumulator acc : byOp) {
+					if (acc == null || acc.getCount() == 0) {
+						continue;
+					}
+					writer.writeNext(new String[] { date, shardId, acc.getNamespace(), acc.getOp(),
+							String.valueOf(acc.getCount()), String.valueOf(acc.getMin()), String.valueOf(acc.getMax()),
+							String.valueOf(acc.getTotal()), String.valueOf(acc.getPercentile(50)),
+							String.valueOf(acc.getPercentile(90)), String.valueOf(acc.getPercentile(99)),
+							String.valueOf(acc.getPercentile(99.9)) });
+					if (totals != null) {
+						totals.computeIfAbsent(new OplogEntryKey(acc.getNamespace(), acc.getOp()), EntryAccumulator::new)
+								.merge(acc);
+					}
+					acc.reset();
+				}
 			}
 			writer.flush();
-			accumulators.clear();
 
 		} catch (IOException e) {
 			logger.error("error writing csv", e);
@@ -143,8 +284,21 @@ public class OplogAnalyzerWorker implements Runnable {
 		flushCsv();
 	}
 
+	/**
+	 * @return accumulators of the current bucket
+	 */
 	public Map<OplogEntryKey, EntryAccumulator> getAccumulators() {
-		return accumulators;
+		String date = currentBucket == Long.MIN_VALUE ? null
+				: formatter.format(LocalDateTime.ofEpochSecond(currentBucket, 0, ZoneOffset.UTC));
+		Map<OplogEntryKey, EntryAccumulator> result = new HashMap<>();
+		for (EntryAccumulator[] byOp : accumulators.values()) {
+			for (EntryAccumulator acc : byOp) {
+				if (acc != null && acc.getCount() > 0) {
+					result.put(new OplogEntryKey(acc.getNamespace(), acc.getOp(), date), acc);
+				}
+			}
+		}
+		return result;
 	}
 
 	public String getShardId() {
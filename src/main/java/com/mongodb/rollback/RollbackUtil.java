@@ -1,15 +1,15 @@
 package com.mongodb.rollback;
 
-import java.io.BufferedInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -26,11 +26,10 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.lang3.StringUtils;
-import org.bson.BSONDecoder;
-import org.bson.BSONObject;
 import org.bson.BasicBSONDecoder;
 import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.UuidRepresentation;
 import org.bson.codecs.BsonDocumentCodec;
 import org.slf4j.Logger;
@@ -43,6 +42,7 @@ import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.MongoIterable;
 import com.mongodb.model.Namespace;
+import com.mongodb.util.bson.MappedBsonReader;
 import com.opencsv.CSVParser;
 import com.opencsv.CSVParserBuilder;
 import com.opencsv.CSVReader;
@@ -135,44 +135,57 @@ public class RollbackUtil {
 	}
 
 	private void readBson(Path p) throws IOException {
-		InputStream stream = null;
-		try {
-			stream = new BufferedInputStream(Files.newInputStream(p));
-
-			
-			BSONDecoder decoder = new BasicBSONDecoder();
-			
-			//byte[] bytes = stream.readAllBytes();
-			
-//			ByteBufferBsonInput bsonInput = new ByteBufferBsonInput(new ByteBufNIO(ByteBuffer.wrap(bytes)));
-//            BsonBinaryReader reader = new BsonBinaryReader(bsonInput);
-            
-            
-			String fileName = p.getFileName().toString();
-			String uuid = StringUtils.substringBefore(fileName, ".");
-			Namespace ns = uuidToNamespaceMap.get(uuid);
-			if (ns == null) {
-				return;
-				//logger.error("Namespace not found for uuid {}", uuid);
-			}
-			int docCount = 0;
-			while (stream.available() > 0) {
-				
-				BSONObject obj = decoder.readObject(stream);
-				if (obj == null) {
-					break;
-				}
-
-				Object id = obj.get("_id");
-				System.out.println(id + "|" + ns + "|" + uuid);
+		String fileName = p.getFileName().toString();
+		String uuid = StringUtils.substringBefore(fileName, ".");
+		Namespace ns = uuidToNamespaceMap.get(uuid);
+		if (ns == null) {
+			return;
+			//logger.error("Namespace not found for uuid {}", uuid);
+		}
+		try (MappedBsonReader reader = new MappedBsonReader(p)) {
+			for (RawBsonDocument obj : reader) {
+				System.out.println(legacyValue(obj, "_id") + "|" + ns + "|" + uuid);
 			}
-
 		} catch (FileNotFoundException e) {
 			logger.error("file not found", e);
-		} finally {
-			stream.close();
 		}
+	}
 
+	/**
+	 * @return the field as BasicBSONDecoder decoded it, so ids print as they did before
+	 *         the files were read as RawBsonDocuments
+	 */
+	static Object legacyValue(RawBsonDocument doc, String key) {
+		BsonValue value = doc.get(key);
+		if (value == null) {
+			return null;
+		}
+		switch (value.getBsonType()) {
+		case OBJECT_ID:
+			return value.asObjectId().getValue();
+		case STRING:
+			return value.asString().getValue();
+		case INT32:
+			return value.asInt32().getValue();
+		case INT64:
+			return value.asInt64().getValue();
+		case DOUBLE:
+			return value.asDouble().getValue();
+		case BOOLEAN:
+			return value.asBoolean().getValue();
+		case DATE_TIME:
+			return new Date(value.asDateTime().getValue());
+		case DECIMAL128:
+			return value.asDecimal128().getValue();
+		case NULL:
+			return null;
+		default:
+			// documents, arrays, binaries etc., rare for an _id, decode the legacy way
+			ByteBuffer buffer = doc.getByteBuffer().asNIO();
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			return new BasicBSONDecoder().readObject(bytes).get(key);
+		}
 	}
 
 	private void initMongoClient() {
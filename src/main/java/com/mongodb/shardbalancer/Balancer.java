@@ -15,6 +15,7 @@ import static com.mongodb.client.model.Sorts.ascending;
 import static com.mongodb.client.model.Sorts.descending;
 import static com.mongodb.client.model.Sorts.orderBy;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -57,6 +58,9 @@ import com.mongodb.shardsync.ChunkManager;
 import com.mongodb.shardsync.ShardClient;
 import com.mongodb.util.bson.BsonUuidUtil;
 import com.mongodb.util.bson.BsonValueWrapper;
+import com.mongodb.util.metrics.Counter;
+import com.mongodb.util.metrics.MetricsExporter;
+import com.mongodb.util.metrics.MetricsRegistry;
 
 import ch.qos.logback.classic.ClassicConstants;
 import picocli.CommandLine;
@@ -82,6 +86,8 @@ public class Balancer implements Callable<Integer> {
 	private final static String DELTA_THRESHOLD_PERCENT = "deltaThresholdPercent";
 	private final static String MOVE_COUNT_BACKOFF_THRESHOLD = "moveCountBackoffThreshold";
 	private final static String ACTIVE_CHUNK_THRESHOLD = "activeChunkThreshold";
+	private final static String METRICS_PORT = "metricsPort";
+	private final static String METRICS_FILE = "metricsFile";
 
 	private BalancerConfig balancerConfig;
 
@@ -100,11 +106,29 @@ public class Balancer implements Callable<Integer> {
 	Map<String, RawBsonDocument> sourceChunksCache;
 	Map<String, NavigableMap<BsonValueWrapper, CountingMegachunk>> chunkMap;
 	
-	private int backoffSleepMinutes = 0;
+	private volatile int backoffSleepMinutes = 0;
+	
+	private String metricsPort;
+	private String metricsFile;
+	private MetricsExporter metricsExporter;
+	
+	private final Counter roundsCount;
+	private final Counter movedCount;
+	private final Counter moveFailedCount;
+	private final Counter splitCount;
+	private volatile int lastRoundMoveCount;
 	
 	public Balancer() {
 		// setup logger here so system property can be set first
 		logger = LoggerFactory.getLogger(Balancer.class);
+		
+		MetricsRegistry metrics = MetricsRegistry.getDefault();
+		roundsCount = metrics.counter("balancer_rounds_total");
+		movedCount = metrics.counter("balancer_chunks_moved_total");
+		moveFailedCount = metrics.counter("balancer_chunk_moves_failed_total");
+		splitCount = metrics.counter("balancer_chunks_split_total");
+		metrics.gauge("balancer_last_round_chunks_moved", () -> lastRoundMoveCount);
+		metrics.gauge("balancer_backoff_sleep_minutes", () -> backoffSleepMinutes);
 	}
 
 	public void init() {
@@ -257,6 +281,12 @@ public class Balancer implements Callable<Integer> {
 
 		parseArgs();
 		init();
+		
+		try {
+			metricsExporter = MetricsExporter.start(metricsPort, metricsFile, MetricsExporter.DEFAULT_SNAPSHOT_INTERVAL_MILLIS);
+		} catch (IOException e) {
+			logger.error("Error starting metrics exporter", e);
+		}
 
 		oplogAnalyzer = new TailingOplogAnalyzer(balancerConfig);
 
@@ -267,6 +297,8 @@ public class Balancer implements Callable<Integer> {
 		while (!stopped.get()) {
 			
 			logger.debug("Balancer call() iteration {}, last round move count: {}", iteration++, moveCount);
+			lastRoundMoveCount = moveCount;
+			roundsCount.increment();
 			
 			
 			if (moveCount <= balancerConfig.getMoveCountBackoffThreshold() && iteration > 2) {
@@ -334,6 +366,7 @@ public class Balancer implements Callable<Integer> {
 						CountingMegachunk mega = innerMap.get(new BsonValueWrapper(id));
 						logger.debug("splitting chunk: {}", mega);
 						sourceShardClient.splitFind(ns, mega.getMin(), true);
+						splitCount.increment();
 						continue;
 					}
 					
@@ -355,6 +388,7 @@ public class Balancer implements Callable<Integer> {
 						
 						if (success) {
 							moveCount++;
+							movedCount.increment();
 							mega.setShard(to.getShard());
 							mega.updateLastMovedTime();
 							balancerConfig.getStatsCollection().updateOne(
@@ -363,6 +397,8 @@ public class Balancer implements Callable<Integer> {
 										Updates.set("chunks.$.balanced", true),
 										Updates.inc("balancedChunks", 1)
 									));
+						} else {
+							moveFailedCount.increment();
 						}
 	
 						if (stopped.get()) {
@@ -505,6 +541,8 @@ public class Balancer implements Callable<Integer> {
 		balancerConfig.setDeltaThresholdPercent(config.getDouble(DELTA_THRESHOLD_PERCENT, 3.0));
 		balancerConfig.setMoveCountBackoffThreshold(config.getInt(MOVE_COUNT_BACKOFF_THRESHOLD, 10));
 		balancerConfig.setActiveChunkThreshold(config.getInt(ACTIVE_CHUNK_THRESHOLD, 10));
+		metricsPort = config.getString(METRICS_PORT, null);
+		metricsFile = config.getString(METRICS_FILE, null);
 	}
 
 	private Configuration readProperties() throws ConfigurationException {
@@ -535,6 +573,9 @@ public class Balancer implements Callable<Integer> {
 
 	protected void stop() {
 		logger.debug("**** SHUTDOWN *****");
+		if (metricsExporter != null) {
+			metricsExporter.stop();
+		}
 	}
 
 }
@@ -0,0 +1,99 @@
+package com.mongodb.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.util.bson.BsonFieldDiff;
+
+/**
+ * Writes one JSON line per mismatched document with its field level differences:
+ * <pre>{"ns": "db.c", "_id": 1, "added": [...], "removed": [...], "changed": [...], "keyOrderOnly": false}</pre>
+ * Output stops once <code>maxBytes</code> have been written, the number of records
+ * dropped after that point is logged on close. Thread safe.
+ */
+public class DiffReportWriter implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiffReportWriter.class);
+
+    private static final JsonWriterSettings JSON_SETTINGS = JsonWriterSettings.builder()
+            .outputMode(JsonMode.RELAXED).build();
+
+    private final Path path;
+    private final long maxBytes;
+    private final Writer writer;
+    private long bytesWritten;
+    private long recordsWritten;
+    private long recordsDropped;
+
+    public DiffReportWriter(String fileName, long maxBytes) throws IOException {
+        this.path = Paths.get(fileName);
+        this.maxBytes = maxBytes;
+        this.writer = new BufferedWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    public void write(String ns, BsonValue id, BsonFieldDiff diff) {
+        BsonDocument record = new BsonDocument("ns", new BsonString(ns));
+        record.put("_id", id);
+        record.put("added", toArray(diff.getAdded()));
+        record.put("removed", toArray(diff.getRemoved()));
+        record.put("changed", toArray(diff.getChanged()));
+        record.put("keyOrderOnly", BsonBoolean.valueOf(diff.isKeyOrderOnly()));
+        if (diff.isTruncated()) {
+            record.put("truncated", BsonBoolean.TRUE);
+        }
+        String line = record.toJson(JSON_SETTINGS);
+
+        synchronized (this) {
+            // line length in chars is close enough to the byte count for the cap
+            if (bytesWritten + line.length() + 1 > maxBytes) {
+                recordsDropped++;
+                return;
+            }
+            try {
+                writer.write(line);
+                writer.write('\n');
+                bytesWritten += line.length() + 1;
+                recordsWritten++;
+            } catch (IOException e) {
+                logger.error("Error writing diff report {}", path, e);
+                recordsDropped++;
+            }
+        }
+    }
+
+    private static BsonArray toArray(List<String> paths) {
+        BsonArray array = new BsonArray();
+        for (String p : paths) {
+            array.add(new BsonString(p));
+        }
+        return array;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+        if (recordsDropped > 0) {
+            logger.warn("Diff report {} reached its {} byte limit, wrote {} records, dropped {}",
+                    path, maxBytes, recordsWritten, recordsDropped);
+        } else {
+            logger.info("Diff report {}: wrote {} records", path, recordsWritten);
+        }
+    }
+}
@@ -1,26 +1,53 @@
 package com.mongodb.util;
 
-import java.util.Set;
-import java.util.TreeSet;
-
-import org.bson.BsonDocument;
 import org.bson.BsonValue;
 import org.bson.RawBsonDocument;
-import org.bson.codecs.BsonDocumentCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Sets;
 import com.mongodb.diffutil.DiffSummary;
+import com.mongodb.util.bson.BsonFieldDiff;
+import com.mongodb.util.hash.FingerprintAlgorithm;
 
 public class DiffUtils {
 	
 	private static Logger logger = LoggerFactory.getLogger(DiffUtils.class);
 	
+	private static volatile FingerprintAlgorithm fingerprintAlgorithm = FingerprintAlgorithm.MD5;
+	
+	private static volatile DiffReportWriter reportWriter;
+	
+	public static void setFingerprintAlgorithm(FingerprintAlgorithm algorithm) {
+		fingerprintAlgorithm = algorithm;
+	}
+	
+	public static FingerprintAlgorithm getFingerprintAlgorithm() {
+		return fingerprintAlgorithm;
+	}
+	
 	public static boolean compareHashes(byte[] sourceBytes, byte[] destBytes) {
-		String sourceHash = CodecUtils.md5Hex(sourceBytes);
-		String destHash = CodecUtils.md5Hex(destBytes);
-		return sourceHash.equals(destHash);
+		return fingerprintAlgorithm.digestsEqual(sourceBytes, destBytes);
+	}
+	
+	public static void setReportWriter(DiffReportWriter writer) {
+		reportWriter = writer;
+	}
+	
+	public static DiffReportWriter getReportWriter() {
+		return reportWriter;
+	}
+	
+	/**
+	 * Computes the field level differences of a mismatched pair of documents and adds
+	 * them to the diff report, if one is configured.
+	 */
+	public static BsonFieldDiff reportMismatch(String collectionName, BsonValue id, RawBsonDocument sourceDoc, RawBsonDocument destDoc) {
+		BsonFieldDiff diff = BsonFieldDiff.diff(sourceDoc, destDoc);
+		DiffReportWriter writer = reportWriter;
+		if (writer != null) {
+			writer.write(collectionName, id, diff);
+		}
+		return diff;
 	}
 	
 	public static void compare(String collectionName, RawBsonDocument sourceDoc, BsonValue sourceId, RawBsonDocument destDoc, DiffSummary result) {
@@ -29,13 +56,12 @@ public class DiffUtils {
 		byte[] destBytes = destDoc.getByteBuffer().array();
 		if (sourceBytes.length == destBytes.length) {
 			if (!DiffUtils.compareHashes(sourceBytes, destBytes)) {
-				Object id = sourceDoc.get("_id");
-
-				if (sourceDoc.equals(destDoc)) {
-					logger.error(String.format("%s - docs equal, but hash mismatch, id: %s", collectionName, id));
+				BsonFieldDiff diff = reportMismatch(collectionName, sourceId, sourceDoc, destDoc);
+				if (diff.isEquivalent()) {
+					logger.error(String.format("%s - docs equal, but hash mismatch, id: %s", collectionName, sourceId));
 					result.totalKeysMisordered++;
 				} else {
-					logger.error(String.format("%s - doc hash mismatch, id: %s", collectionName, id));
+					logger.error(String.format("%s - doc hash mismatch, id: %s", collectionName, sourceId));
 					result.totalHashMismatched++;
 				}
 
@@ -44,7 +70,7 @@ public class DiffUtils {
 			}
 		} else {
 			logger.debug("Doc sizes not equal, id: " + sourceId);
-			compareDocuments(collectionName, sourceDoc, destDoc);
+			reportMismatch(collectionName, sourceId, sourceDoc, destDoc);
 			result.totalHashMismatched++;
 		}
 	}
@@ -56,57 +82,18 @@ public class DiffUtils {
 	 * 
 	 * @param sourceDoc
 	 * @param destDoc
-	 * @return
+	 * @return true if the documents have the same fields and values, regardless of field order
 	 */
 	public static boolean compareDocuments(String collectionName, RawBsonDocument sourceDoc, RawBsonDocument destDoc) {
-		Object id = sourceDoc.get("_id");
-		Set<String> sourceKeys = sourceDoc.keySet();
-		Set<String> destKeys = destDoc.keySet();
-		Set<String> sortedKeys = new TreeSet<String>();
-		boolean setsEqual = sourceKeys.equals(destKeys);
-		Set<String> diff = null;
-		if (!setsEqual) {
-			diff = Sets.difference(sourceKeys, destKeys);
-			if (! diff.isEmpty()) {
-				logger.debug("{} - keys do not match, keys missing from source: {}, _id: {}", collectionName, diff, id);
-			} else {
-				diff = Sets.difference(destKeys, sourceKeys);
-				logger.debug("{} keys do not match, keys missing from dest: {}, _id: {}", collectionName, diff, id);
-			}
-			
-
-			
-			sortedKeys.addAll(diff);
-		}
-
-		sortedKeys.addAll(sourceKeys);
-
-		BsonDocument sourceDocNew = new BsonDocument();
-		BsonDocument destDocNew = new BsonDocument();
-		for (String key : sortedKeys) {
-			BsonValue sourceVal = sourceDoc.get(key);
-			BsonValue destVal = destDoc.get(key);
-			boolean valuesEqual = sourceVal != null && destVal != null && sourceVal.equals(destVal);
-			if (!valuesEqual) {
-				logger.debug("{} - values not equal for key: {}, sourceVal: {}, destVal: {}", collectionName, key,
-						sourceVal, destVal);
-			}
-			if (sourceVal != null) {
-				sourceDocNew.append(key, sourceVal);
-			}
-			if (destVal != null) {
-				destDocNew.append(key, destVal);
-			}
-
-			if (setsEqual) {
-				RawBsonDocument sourceRawNew = new RawBsonDocument(sourceDocNew, new BsonDocumentCodec());
-				RawBsonDocument destRawNew = new RawBsonDocument(destDocNew, new BsonDocumentCodec());
-				boolean newDocsMatch = DiffUtils.compareHashes(sourceRawNew.getByteBuffer().array(),
-						destRawNew.getByteBuffer().array());
-				//logger.debug(String.format("%s - bytes match: %s", ns, newDocsMatch));
-			}
+		BsonValue id = sourceDoc.get("_id");
+		BsonFieldDiff diff = reportMismatch(collectionName, id, sourceDoc, destDoc);
+		if (diff.isKeyOrderOnly()) {
+			logger.debug("{} - field order differs, _id: {}", collectionName, id);
+		} else if (!diff.isEquivalent()) {
+			logger.debug("{} - fields differ, _id: {}, added: {}, removed: {}, changed: {}", collectionName, id,
+					diff.getAdded(), diff.getRemoved(), diff.getChanged());
 		}
-		return sourceDoc.equals(destDoc);
+		return diff.isEquivalent();
 	}
 
 }
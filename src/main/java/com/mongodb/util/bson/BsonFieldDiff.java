@@ -0,0 +1,257 @@
+package com.mongodb.util.bson;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.RawBsonDocument;
+
+/**
+ * Field level difference between two BSON documents, computed by walking the two raw
+ * buffers element by element. Values are compared by their encoded bytes, only field
+ * names are decoded, and nested documents and arrays are descended into so that a
+ * change is reported at its deepest path (e.g. <code>a.b.2</code>).
+ *
+ * Paths present only in the source are "removed", paths present only in the destination
+ * are "added". A pair of documents that differ only in the order of their fields is
+ * flagged as key order only. At most {@link #MAX_PATHS} paths are kept per category.
+ */
+public class BsonFieldDiff {
+
+    public static final int MAX_PATHS = 100;
+
+    private final List<String> added = new ArrayList<>();
+    private final List<String> removed = new ArrayList<>();
+    private final List<String> changed = new ArrayList<>();
+    private boolean keyOrderDiffers;
+    private boolean truncated;
+
+    private BsonFieldDiff() {
+    }
+
+    public static BsonFieldDiff diff(RawBsonDocument source, RawBsonDocument dest) {
+        return diff(source.getByteBuffer().asNIO(), dest.getByteBuffer().asNIO());
+    }
+
+    public static BsonFieldDiff diff(ByteBuffer source, ByteBuffer dest) {
+        BsonFieldDiff result = new BsonFieldDiff();
+        ByteBuffer src = source.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer dst = dest.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        result.diffDocuments(src, src.position(), dst, dst.position(), "");
+        return result;
+    }
+
+    /**
+     * @return true if the documents have the same fields and values, possibly in a different order
+     */
+    public boolean isEquivalent() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    /**
+     * @return true if the only difference is the order of fields
+     */
+    public boolean isKeyOrderOnly() {
+        return keyOrderDiffers && isEquivalent();
+    }
+
+    public boolean isKeyOrderDiffers() {
+        return keyOrderDiffers;
+    }
+
+    public List<String> getAdded() {
+        return Collections.unmodifiableList(added);
+    }
+
+    public List<String> getRemoved() {
+        return Collections.unmodifiableList(removed);
+    }
+
+    public List<String> getChanged() {
+        return Collections.unmodifiableList(changed);
+    }
+
+    /**
+     * @return true if more than {@link #MAX_PATHS} paths of a category were found
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    private void add(List<String> paths, String path) {
+        if (paths.size() < MAX_PATHS) {
+            paths.add(path);
+        } else {
+            truncated = true;
+        }
+    }
+
+    private void diffDocuments(ByteBuffer src, int srcOff, ByteBuffer dst, int dstOff, String prefix) {
+        Level s = new Level(src, srcOff);
+        Level d = new Level(dst, dstOff);
+
+        // common case, same fields in the same order
+        int n = Math.min(s.size, d.size);
+        int i = 0;
+        while (i < n && s.names.get(i).equals(d.names.get(i))) {
+            diffValues(s, i, d, i, prefix);
+            i++;
+        }
+        if (i == s.size && i == d.size) {
+            return;
+        }
+
+        Map<String, Integer> destIndex = new HashMap<>(d.size * 2);
+        for (int j = i; j < d.size; j++) {
+            destIndex.put(d.names.get(j), j);
+        }
+        int lastMatched = -1;
+        for (int k = i; k < s.size; k++) {
+            String name = s.names.get(k);
+            Integer j = destIndex.remove(name);
+            if (j == null) {
+                add(removed, prefix + name);
+                continue;
+            }
+            if (j < lastMatched) {
+                keyOrderDiffers = true;
+            }
+            lastMatched = j;
+            diffValues(s, k, d, j, prefix);
+        }
+        for (int j = i; j < d.size; j++) {
+            if (destIndex.containsKey(d.names.get(j))) {
+                add(added, prefix + d.names.get(j));
+            }
+        }
+    }
+
+    private void diffValues(Level s, int i, Level d, int j, String prefix) {
+        byte sType = s.types[i];
+        byte dType = d.types[j];
+        String path = prefix + s.names.get(i);
+        if (sType == dType && (sType == 0x03 || sType == 0x04)) {
+            if (!s.valueBytesEqual(i, d, j)) {
+                diffDocuments(s.buffer, s.valueOffsets[i], d.buffer, d.valueOffsets[j], path + ".");
+            }
+        } else if (sType != dType || !s.valueBytesEqual(i, d, j)) {
+            add(changed, path);
+        }
+    }
+
+    /**
+     * Element positions of one document level, names are the only thing decoded.
+     */
+    private static class Level {
+        private final ByteBuffer buffer;
+        private final List<String> names = new ArrayList<>();
+        private byte[] types = new byte[8];
+        private int[] valueOffsets = new int[8];
+        private int[] valueLengths = new int[8];
+        private int size;
+
+        Level(ByteBuffer buffer, int offset) {
+            this.buffer = buffer;
+            int end = offset + buffer.getInt(offset) - 1;
+            int pos = offset + 4;
+            while (pos < end) {
+                byte type = buffer.get(pos++);
+                int nameStart = pos;
+                while (buffer.get(pos) != 0) {
+                    pos++;
+                }
+                String name = cstring(buffer, nameStart, pos - nameStart);
+                pos++;
+                int length = valueLength(buffer, type, pos);
+                if (size == types.length) {
+                    types = Arrays.copyOf(types, size * 2);
+                    valueOffsets = Arrays.copyOf(valueOffsets, size * 2);
+                    valueLengths = Arrays.copyOf(valueLengths, size * 2);
+                }
+                names.add(name);
+                types[size] = type;
+                valueOffsets[size] = pos;
+                valueLengths[size] = length;
+                size++;
+                pos += length;
+            }
+        }
+
+        boolean valueBytesEqual(int i, Level other, int j) {
+            int len = valueLengths[i];
+            if (len != other.valueLengths[j]) {
+                return false;
+            }
+            int a = valueOffsets[i];
+            int b = other.valueOffsets[j];
+            for (int k = 0; k < len; k++) {
+                if (buffer.get(a + k) != other.buffer.get(b + k)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static String cstring(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int k = 0; k < length; k++) {
+            bytes[k] = buffer.get(offset + k);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int cstringLength(ByteBuffer buffer, int offset) {
+        int pos = offset;
+        while (buffer.get(pos) != 0) {
+            pos++;
+        }
+        return pos - offset + 1;
+    }
+
+    static int valueLength(ByteBuffer buffer, byte type, int offset) {
+        switch (type) {
+        case 0x01: // double
+        case 0x09: // date
+        case 0x11: // timestamp
+        case 0x12: // int64
+            return 8;
+        case 0x02: // string
+        case 0x0D: // javascript
+        case 0x0E: // symbol
+            return 4 + buffer.getInt(offset);
+        case 0x03: // document
+        case 0x04: // array
+        case 0x0F: // javascript with scope
+            return buffer.getInt(offset);
+        case 0x05: // binary
+            return 5 + buffer.getInt(offset);
+        case 0x06: // undefined
+        case 0x0A: // null
+        case (byte) 0xFF: // min key
+        case 0x7F: // max key
+            return 0;
+        case 0x07: // object id
+            return 12;
+        case 0x08: // boolean
+            return 1;
+        case 0x0B: // regex
+            int patternLength = cstringLength(buffer, offset);
+            return patternLength + cstringLength(buffer, offset + patternLength);
+        case 0x0C: // db pointer
+            return 4 + buffer.getInt(offset) + 12;
+        case 0x10: // int32
+            return 4;
+        case 0x13: // decimal128
+            return 16;
+        default:
+            throw new IllegalArgumentException("Unknown BSON type: " + type);
+        }
+    }
+}
@@ -1,56 +1,279 @@
 package com.mongodb.util.bson;
 
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
 import org.bson.BsonDocument;
+import org.bson.BsonJavaScriptWithScope;
+import org.bson.BsonRegularExpression;
 import org.bson.BsonType;
 import org.bson.BsonValue;
+import org.bson.types.Decimal128;
 
 /**
  * Implements Comparator for BsonValue, for sorting/comparing BsonValues in the same
- * way as MongoDB server.
- * 
+ * way as MongoDB server (simple binary collation).
+ *
+ * Values of different types are ordered by the server's canonical type order, numbers
+ * of different types compare by numeric value, strings compare by their UTF-8 bytes and
+ * documents compare element by element (type, then field name, then value).
+ *
  * @author mh
  * @see <a href="https://docs.mongodb.com/manual/reference/bson-type-comparison-order/#objects">BSON Types Comparison Order</a>
  *
  */
 public class BsonValueComparator implements Comparator<BsonValue> {
-    
-    
 
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     @Override
     public int compare(BsonValue x, BsonValue y) {
         BsonType xType = x.getBsonType();
         BsonType yType = y.getBsonType();
-        
-        boolean xIsComparable = x instanceof Comparable;
-        boolean yIsComparable = y instanceof Comparable;
-        
-        if (xType.equals(yType)) {
-            
-            if (xIsComparable) {
-                return ((Comparable)x).compareTo((Comparable)y);
+
+        int typeCompare = Integer.compare(canonicalType(xType), canonicalType(yType));
+        if (typeCompare != 0) {
+            return Integer.signum(typeCompare);
+        }
+
+        switch (xType) {
+        case MIN_KEY:
+        case MAX_KEY:
+        case NULL:
+        case UNDEFINED:
+            return 0;
+        case INT32:
+        case INT64:
+        case DOUBLE:
+        case DECIMAL128:
+            return compareNumbers(x, y);
+        case STRING:
+        case SYMBOL:
+            return compareStrings(stringValue(x), stringValue(y));
+        case DOCUMENT:
+            return compareDocs(x.asDocument(), y.asDocument());
+        case ARRAY:
+            return compareArrays(x.asArray(), y.asArray());
+        case BINARY:
+            return compareBinary(x.asBinary(), y.asBinary());
+        case OBJECT_ID:
+            return Integer.signum(x.asObjectId().getValue().compareTo(y.asObjectId().getValue()));
+        case BOOLEAN:
+            return Boolean.compare(x.asBoolean().getValue(), y.asBoolean().getValue());
+        case DATE_TIME:
+            return Long.compare(x.asDateTime().getValue(), y.asDateTime().getValue());
+        case TIMESTAMP:
+            return Integer.signum(Long.compareUnsigned(x.asTimestamp().getValue(), y.asTimestamp().getValue()));
+        case REGULAR_EXPRESSION:
+            return compareRegex(x.asRegularExpression(), y.asRegularExpression());
+        case DB_POINTER:
+            int nsCompare = compareStrings(x.asDBPointer().getNamespace(), y.asDBPointer().getNamespace());
+            if (nsCompare != 0) {
+                return nsCompare;
             }
-            
-            switch(xType) {
-            case DOCUMENT:
-              compareDocs((BsonDocument)x, (BsonDocument)y);
-              break;
-            default:
-              throw new IllegalArgumentException("not implemented");
+            return Integer.signum(x.asDBPointer().getId().compareTo(y.asDBPointer().getId()));
+        case JAVASCRIPT:
+            return compareStrings(x.asJavaScript().getCode(), y.asJavaScript().getCode());
+        case JAVASCRIPT_WITH_SCOPE:
+            BsonJavaScriptWithScope xCode = x.asJavaScriptWithScope();
+            BsonJavaScriptWithScope yCode = y.asJavaScriptWithScope();
+            int codeCompare = compareStrings(xCode.getCode(), yCode.getCode());
+            if (codeCompare != 0) {
+                return codeCompare;
             }
-            
+            return compareDocs(xCode.getScope(), yCode.getScope());
+        default:
+            throw new IllegalArgumentException("BsonValueComparator not implemented for type " + xType);
         }
-        
-        
-        return 0;
     }
-    
+
     public int compareDocs(BsonDocument x, BsonDocument y) {
-        String s1 = x.toJson();
-        String s2 = y.toJson();
-        return s1.compareTo(s2);
+        Iterator<Map.Entry<String, BsonValue>> xIter = x.entrySet().iterator();
+        Iterator<Map.Entry<String, BsonValue>> yIter = y.entrySet().iterator();
+        while (xIter.hasNext() && yIter.hasNext()) {
+            Map.Entry<String, BsonValue> xEntry = xIter.next();
+            Map.Entry<String, BsonValue> yEntry = yIter.next();
+            int result = Integer.compare(canonicalType(xEntry.getValue().getBsonType()),
+                    canonicalType(yEntry.getValue().getBsonType()));
+            if (result != 0) {
+                return Integer.signum(result);
+            }
+            result = compareStrings(xEntry.getKey(), yEntry.getKey());
+            if (result != 0) {
+                return result;
+            }
+            result = compare(xEntry.getValue(), yEntry.getValue());
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Boolean.compare(xIter.hasNext(), yIter.hasNext());
+    }
+
+    private int compareArrays(BsonArray x, BsonArray y) {
+        List<BsonValue> xValues = x.getValues();
+        List<BsonValue> yValues = y.getValues();
+        int len = Math.min(xValues.size(), yValues.size());
+        for (int i = 0; i < len; i++) {
+            int result = compare(xValues.get(i), yValues.get(i));
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(xValues.size(), yValues.size());
+    }
+
+    private int compareBinary(BsonBinary x, BsonBinary y) {
+        int result = Integer.compare(x.getData().length, y.getData().length);
+        if (result != 0) {
+            return result;
+        }
+        result = Integer.compare(x.getType() & 0xff, y.getType() & 0xff);
+        if (result != 0) {
+            return result;
+        }
+        return Integer.signum(Arrays.compareUnsigned(x.getData(), y.getData()));
+    }
+
+    private int compareRegex(BsonRegularExpression x, BsonRegularExpression y) {
+        int result = compareStrings(x.getPattern(), y.getPattern());
+        if (result != 0) {
+            return result;
+        }
+        return compareStrings(x.getOptions(), y.getOptions());
+    }
+
+    private int compareNumbers(BsonValue x, BsonValue y) {
+        if (isIntegral(x) && isIntegral(y)) {
+            return Long.compare(x.asNumber().longValue(), y.asNumber().longValue());
+        }
+        // NaN sorts before every other number, and equal to itself
+        boolean xNaN = isNaN(x);
+        boolean yNaN = isNaN(y);
+        if (xNaN || yNaN) {
+            return Boolean.compare(yNaN, xNaN);
+        }
+        int xInf = infinity(x);
+        int yInf = infinity(y);
+        if (xInf != 0 || yInf != 0) {
+            return Integer.compare(xInf, yInf);
+        }
+        if (x.getBsonType() == BsonType.DOUBLE && y.getBsonType() == BsonType.DOUBLE) {
+            double xd = x.asDouble().getValue();
+            double yd = y.asDouble().getValue();
+            // -0.0 and 0.0 are equal on the server
+            return xd == yd ? 0 : Double.compare(xd, yd);
+        }
+        return toBigDecimal(x).compareTo(toBigDecimal(y));
+    }
+
+    private static boolean isIntegral(BsonValue v) {
+        return v.getBsonType() == BsonType.INT32 || v.getBsonType() == BsonType.INT64;
+    }
+
+    private static boolean isNaN(BsonValue v) {
+        switch (v.getBsonType()) {
+        case DOUBLE:
+            return Double.isNaN(v.asDouble().getValue());
+        case DECIMAL128:
+            return v.asDecimal128().getValue().isNaN();
+        default:
+            return false;
+        }
+    }
+
+    private static int infinity(BsonValue v) {
+        switch (v.getBsonType()) {
+        case DOUBLE:
+            double d = v.asDouble().getValue();
+            return Double.isInfinite(d) ? (d > 0 ? 1 : -1) : 0;
+        case DECIMAL128:
+            Decimal128 dec = v.asDecimal128().getValue();
+            return dec.isInfinite() ? (dec.isNegative() ? -1 : 1) : 0;
+        default:
+            return 0;
+        }
+    }
+
+    private static BigDecimal toBigDecimal(BsonValue v) {
+        switch (v.getBsonType()) {
+        case INT32:
+        case INT64:
+            return BigDecimal.valueOf(v.asNumber().longValue());
+        case DOUBLE:
+            return new BigDecimal(v.asDouble().getValue());
+        case DECIMAL128:
+            try {
+                return v.asDecimal128().getValue().bigDecimalValue();
+            } catch (ArithmeticException e) {
+                // negative zero cannot be represented as a BigDecimal
+                return BigDecimal.ZERO;
+            }
+        default:
+            throw new IllegalArgumentException("Not a number: " + v);
+        }
+    }
+
+    private static String stringValue(BsonValue v) {
+        return v.getBsonType() == BsonType.SYMBOL ? v.asSymbol().getSymbol() : v.asString().getValue();
+    }
+
+    private static int compareStrings(String x, String y) {
+        return Integer.signum(Arrays.compareUnsigned(x.getBytes(StandardCharsets.UTF_8),
+                y.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Server canonical type ordering, lower sorts first.
+     */
+    public static int canonicalType(BsonType type) {
+        switch (type) {
+        case MIN_KEY:
+            return -1;
+        case UNDEFINED:
+            return 0;
+        case NULL:
+            return 5;
+        case INT32:
+        case INT64:
+        case DOUBLE:
+        case DECIMAL128:
+            return 10;
+        case STRING:
+        case SYMBOL:
+            return 15;
+        case DOCUMENT:
+            return 20;
+        case ARRAY:
+            return 25;
+        case BINARY:
+            return 30;
+        case OBJECT_ID:
+            return 35;
+        case BOOLEAN:
+            return 40;
+        case DATE_TIME:
+            return 45;
+        case TIMESTAMP:
+            return 47;
+        case REGULAR_EXPRESSION:
+            return 50;
+        case DB_POINTER:
+            return 55;
+        case JAVASCRIPT:
+            return 60;
+        case JAVASCRIPT_WITH_SCOPE:
+            return 65;
+        case MAX_KEY:
+            return 127;
+        default:
+            throw new IllegalArgumentException("No canonical order for type " + type);
+        }
     }
 
 }
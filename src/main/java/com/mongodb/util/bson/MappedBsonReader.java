@@ -0,0 +1,168 @@
+package com.mongodb.util.bson;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.bson.BsonSerializationException;
+import org.bson.RawBsonDocument;
+
+/**
+ * Iterates the BSON documents of a file of concatenated documents (mongodump, mongoreplay
+ * and oplog dump files) as {@link RawBsonDocument}s, without decoding them.
+ *
+ * The file is memory mapped in regions of up to {@link #MAP_SIZE}, so files of any size
+ * can be read. RawBsonDocument can only wrap a heap array, so each
+ * {@link #CHUNK_SIZE} of the mapping is bulk copied once into a chunk array and the
+ * documents returned are views into it. There is no per-document decoding or copying.
+ * A document that is kept holds on to its whole chunk.
+ *
+ * A reader can be limited to a byte range. {@link #splitOffsets(Path, int)} finds
+ * document boundaries to split a file into ranges for parallel readers.
+ */
+public class MappedBsonReader implements Iterator<RawBsonDocument>, Iterable<RawBsonDocument>, Closeable {
+
+    private final static long MAP_SIZE = 1L << 30;
+    private final static int CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+
+    private MappedByteBuffer region;
+    private long regionStart;
+
+    private byte[] chunk;
+    private long chunkStart;
+
+    public MappedBsonReader(Path path) throws IOException {
+        this(path, 0, -1);
+    }
+
+    /**
+     * @param start offset of the first document to read
+     * @param end   offset after the last document to read, -1 for the end of the file
+     */
+    public MappedBsonReader(Path path, long start, long end) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.end = end < 0 ? channel.size() : Math.min(end, channel.size());
+        this.position = start;
+    }
+
+    /**
+     * @return offsets of the first document of each of up to parts ranges of roughly equal
+     *         size, followed by the file size, so range i is [offsets[i], offsets[i + 1])
+     */
+    public static long[] splitOffsets(Path path, int parts) throws IOException {
+        try (MappedBsonReader reader = new MappedBsonReader(path)) {
+            long size = reader.end;
+            long[] offsets = new long[parts + 1];
+            int found = 1;
+            long target = size / parts;
+            while (reader.position < size && found < parts) {
+                if (reader.position >= (long) found * target) {
+                    offsets[found++] = reader.position;
+                }
+                reader.position += reader.readLength();
+            }
+            offsets[found] = size;
+            if (found < parts) {
+                long[] shorter = new long[found + 1];
+                System.arraycopy(offsets, 0, shorter, 0, found + 1);
+                return shorter;
+            }
+            return offsets;
+        }
+    }
+
+    @Override
+    public Iterator<RawBsonDocument> iterator() {
+        return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position < end;
+    }
+
+    @Override
+    public RawBsonDocument next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int length = readLength();
+        if (chunk == null || position + length > chunkStart + chunk.length) {
+            fill(length);
+        }
+        RawBsonDocument doc = new RawBsonDocument(chunk, (int) (position - chunkStart), length);
+        position += length;
+        return doc;
+    }
+
+    /**
+     * @return the offset of the next document
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    private int readLength() {
+        if (position + 4 > end) {
+            throw new BsonSerializationException(String.format("%s: truncated document at offset %s", path, position));
+        }
+        int length;
+        if (chunk != null && position >= chunkStart && position + 4 <= chunkStart + chunk.length) {
+            int i = (int) (position - chunkStart);
+            length = (chunk[i] & 0xff) | (chunk[i + 1] & 0xff) << 8 | (chunk[i + 2] & 0xff) << 16 | (chunk[i + 3] & 0xff) << 24;
+        } else {
+            map(position, 4);
+            length = region.getInt((int) (position - regionStart));
+        }
+        if (length < 5 || position + length > end) {
+            throw new BsonSerializationException(
+                    String.format("%s: invalid document length %s at offset %s", path, length, position));
+        }
+        return length;
+    }
+
+    /**
+     * Copies the next chunk, which starts at the current document and holds at least it.
+     */
+    private void fill(int length) {
+        int size = (int) Math.min(Math.max(CHUNK_SIZE, length), end - position);
+        map(position, size);
+        // a new array every time, documents returned earlier still point into the old one
+        chunk = new byte[size];
+        region.get((int) (position - regionStart), chunk, 0, size);
+        chunkStart = position;
+    }
+
+    private void map(long offset, int length) {
+        if (region != null && offset >= regionStart && offset + length <= regionStart + region.limit()) {
+            return;
+        }
+        long size = Math.min(Math.max(MAP_SIZE, length), end - offset);
+        try {
+            region = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        } catch (IOException e) {
+            throw new BsonSerializationException(String.format("%s: error mapping offset %s: %s", path, offset, e.getMessage()));
+        }
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        regionStart = offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        region = null;
+        chunk = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,315 @@
+package com.mongodb.util.hash;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Document fingerprinting algorithms that the diff tools can choose between. MD5 matches
+ * the checksums produced by earlier versions, the non-cryptographic hashes are several
+ * times faster and produce no garbage per document.
+ */
+public enum FingerprintAlgorithm {
+
+    MD5 {
+        @Override
+        public long hash64(byte[] bytes, int offset, int length) {
+            return md5(bytes, offset, length)[1];
+        }
+
+        @Override
+        public Fingerprint fingerprint(byte[] bytes, int offset, int length) {
+            long[] words = md5(bytes, offset, length);
+            return new Fingerprint(words[0], words[1]);
+        }
+    },
+
+    MURMUR3_128 {
+        @Override
+        public long hash64(byte[] bytes, int offset, int length) {
+            return murmur3x64_128(bytes, offset, length, 0)[0];
+        }
+
+        @Override
+        public Fingerprint fingerprint(byte[] bytes, int offset, int length) {
+            long[] words = murmur3x64_128(bytes, offset, length, 0);
+            return new Fingerprint(words[0], words[1]);
+        }
+    },
+
+    XXHASH64 {
+        @Override
+        public long hash64(byte[] bytes, int offset, int length) {
+            return xxHash64(bytes, offset, length, 0);
+        }
+
+        @Override
+        public Fingerprint fingerprint(byte[] bytes, int offset, int length) {
+            return new Fingerprint(0, xxHash64(bytes, offset, length, 0));
+        }
+    };
+
+    /**
+     * The 64 bit form of the digest, suitable for primitive storage.
+     */
+    public abstract long hash64(byte[] bytes, int offset, int length);
+
+    public abstract Fingerprint fingerprint(byte[] bytes, int offset, int length);
+
+    public long hash64(byte[] bytes) {
+        return hash64(bytes, 0, bytes.length);
+    }
+
+    public Fingerprint fingerprint(byte[] bytes) {
+        return fingerprint(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Compares two buffers by digest without allocating a {@link Fingerprint}.
+     */
+    public boolean digestsEqual(byte[] x, byte[] y) {
+        if (this == XXHASH64) {
+            return xxHash64(x, 0, x.length, 0) == xxHash64(y, 0, y.length, 0);
+        }
+        long[] words = this == MD5 ? md5(x, 0, x.length) : murmur3x64_128(x, 0, x.length, 0);
+        long high = words[0];
+        long low = words[1];
+        words = this == MD5 ? md5(y, 0, y.length) : murmur3x64_128(y, 0, y.length, 0);
+        return high == words[0] && low == words[1];
+    }
+
+    public static FingerprintAlgorithm fromString(String name) {
+        if (name == null) {
+            return MD5;
+        }
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+
+    private static final ThreadLocal<MessageDigest> md5Digest = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final ThreadLocal<byte[]> md5Buffer = ThreadLocal.withInitial(() -> new byte[16]);
+
+    // per thread result holder, the caller reads both words before hashing again
+    private static final ThreadLocal<long[]> words = ThreadLocal.withInitial(() -> new long[2]);
+
+    private static long[] md5(byte[] bytes, int offset, int length) {
+        MessageDigest d = md5Digest.get();
+        byte[] buf = md5Buffer.get();
+        d.reset();
+        d.update(bytes, offset, length);
+        try {
+            d.digest(buf, 0, 16);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        long[] out = words.get();
+        out[0] = getLongBE(buf, 0);
+        out[1] = getLongBE(buf, 8);
+        return out;
+    }
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    /**
+     * MurmurHash3 x64 128 bit variant, returns {h1, h2} (the same words as Guava's
+     * <code>Hashing.murmur3_128()</code> in little endian order).
+     */
+    static long[] murmur3x64_128(byte[] bytes, int offset, int length, int seed) {
+        long h1 = seed & 0xffffffffL;
+        long h2 = seed & 0xffffffffL;
+        int nblocks = length >>> 4;
+        int pos = offset;
+        for (int i = 0; i < nblocks; i++, pos += 16) {
+            long k1 = getLongLE(bytes, pos);
+            long k2 = getLongLE(bytes, pos + 8);
+
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        switch (length & 15) {
+        case 15:
+            k2 ^= (long) (bytes[pos + 14] & 0xff) << 48;
+        case 14:
+            k2 ^= (long) (bytes[pos + 13] & 0xff) << 40;
+        case 13:
+            k2 ^= (long) (bytes[pos + 12] & 0xff) << 32;
+        case 12:
+            k2 ^= (long) (bytes[pos + 11] & 0xff) << 24;
+        case 11:
+            k2 ^= (long) (bytes[pos + 10] & 0xff) << 16;
+        case 10:
+            k2 ^= (long) (bytes[pos + 9] & 0xff) << 8;
+        case 9:
+            k2 ^= (long) (bytes[pos + 8] & 0xff);
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+        case 8:
+            k1 ^= (long) (bytes[pos + 7] & 0xff) << 56;
+        case 7:
+            k1 ^= (long) (bytes[pos + 6] & 0xff) << 48;
+        case 6:
+            k1 ^= (long) (bytes[pos + 5] & 0xff) << 40;
+        case 5:
+            k1 ^= (long) (bytes[pos + 4] & 0xff) << 32;
+        case 4:
+            k1 ^= (long) (bytes[pos + 3] & 0xff) << 24;
+        case 3:
+            k1 ^= (long) (bytes[pos + 2] & 0xff) << 16;
+        case 2:
+            k1 ^= (long) (bytes[pos + 1] & 0xff) << 8;
+        case 1:
+            k1 ^= (long) (bytes[pos] & 0xff);
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+        default:
+            break;
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+
+        long[] out = words.get();
+        out[0] = h1;
+        out[1] = h2;
+        return out;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    static long xxHash64(byte[] bytes, int offset, int length, long seed) {
+        int end = offset + length;
+        int pos = offset;
+        long h;
+        if (length >= 32) {
+            long v1 = seed + P1 + P2;
+            long v2 = seed + P2;
+            long v3 = seed;
+            long v4 = seed - P1;
+            int limit = end - 32;
+            do {
+                v1 = xxRound(v1, getLongLE(bytes, pos));
+                v2 = xxRound(v2, getLongLE(bytes, pos + 8));
+                v3 = xxRound(v3, getLongLE(bytes, pos + 16));
+                v4 = xxRound(v4, getLongLE(bytes, pos + 24));
+                pos += 32;
+            } while (pos <= limit);
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = xxMerge(h, v1);
+            h = xxMerge(h, v2);
+            h = xxMerge(h, v3);
+            h = xxMerge(h, v4);
+        } else {
+            h = seed + P5;
+        }
+        h += length;
+
+        while (pos + 8 <= end) {
+            h ^= xxRound(0, getLongLE(bytes, pos));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+            pos += 8;
+        }
+        if (pos + 4 <= end) {
+            h ^= (getIntLE(bytes, pos) & 0xffffffffL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            pos += 4;
+        }
+        while (pos < end) {
+            h ^= (bytes[pos] & 0xff) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+            pos++;
+        }
+
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long xxRound(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long xxMerge(long acc, long val) {
+        acc ^= xxRound(0, val);
+        return acc * P1 + P4;
+    }
+
+    private static long getLongLE(byte[] b, int i) {
+        return (b[i] & 0xffL)
+                | (b[i + 1] & 0xffL) << 8
+                | (b[i + 2] & 0xffL) << 16
+                | (b[i + 3] & 0xffL) << 24
+                | (b[i + 4] & 0xffL) << 32
+                | (b[i + 5] & 0xffL) << 40
+                | (b[i + 6] & 0xffL) << 48
+                | (b[i + 7] & 0xffL) << 56;
+    }
+
+    private static int getIntLE(byte[] b, int i) {
+        return (b[i] & 0xff)
+                | (b[i + 1] & 0xff) << 8
+                | (b[i + 2] & 0xff) << 16
+                | (b[i + 3] & 0xff) << 24;
+    }
+
+    private static long getLongBE(byte[] b, int i) {
+        return (b[i] & 0xffL) << 56
+                | (b[i + 1] & 0xffL) << 48
+                | (b[i + 2] & 0xffL) << 40
+                | (b[i + 3] & 0xffL) << 32
+                | (b[i + 4] & 0xffL) << 24
+                | (b[i + 5] & 0xffL) << 16
+                | (b[i + 6] & 0xffL) << 8
+                | (b[i + 7] & 0xffL);
+    }
+}
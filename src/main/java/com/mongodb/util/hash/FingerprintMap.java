@@ -0,0 +1,174 @@
+package com.mongodb.util.hash;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import org.bson.BsonValue;
+
+/**
+ * Open addressing map from document _id to a 128 bit fingerprint. Probing is done on a
+ * primitive long key derived from the _id hash, and the digests live in parallel long
+ * arrays, so there are no per-entry node, boxed or String objects as with a
+ * <code>HashMap&lt;BsonValue, String&gt;</code>.
+ *
+ * Not thread safe.
+ */
+public class FingerprintMap {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private BsonValue[] ids;
+    private long[] highs;
+    private long[] lows;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    public FingerprintMap() {
+        this(1024);
+    }
+
+    public FingerprintMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        ids = new BsonValue[capacity];
+        highs = new long[capacity];
+        lows = new long[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static long key(BsonValue id) {
+        long h = id.hashCode() * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    private int slot(BsonValue id, long key) {
+        int i = (int) key & mask;
+        while (ids[i] != null) {
+            if (keys[i] == key && ids[i].equals(id)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    public void put(BsonValue id, long high, long low) {
+        long key = key(id);
+        int i = slot(id, key);
+        if (ids[i] == null) {
+            keys[i] = key;
+            ids[i] = id;
+            if (++size > resizeAt) {
+                highs[i] = high;
+                lows[i] = low;
+                rehash();
+                return;
+            }
+        }
+        highs[i] = high;
+        lows[i] = low;
+    }
+
+    public void put(BsonValue id, Fingerprint fingerprint) {
+        put(id, fingerprint.getHigh(), fingerprint.getLow());
+    }
+
+    public boolean containsKey(BsonValue id) {
+        return ids[slot(id, key(id))] != null;
+    }
+
+    /**
+     * @return the fingerprint for the id, or null if the id is not present
+     */
+    public Fingerprint get(BsonValue id) {
+        int i = slot(id, key(id));
+        return ids[i] == null ? null : new Fingerprint(highs[i], lows[i]);
+    }
+
+    /**
+     * Compares the stored fingerprint for <code>id</code> without allocating.
+     * @return 1 if present and equal, 0 if present and different, -1 if absent
+     */
+    public int matches(BsonValue id, long high, long low) {
+        int i = slot(id, key(id));
+        if (ids[i] == null) {
+            return -1;
+        }
+        return highs[i] == high && lows[i] == low ? 1 : 0;
+    }
+
+    public boolean remove(BsonValue id) {
+        int i = slot(id, key(id));
+        if (ids[i] == null) {
+            return false;
+        }
+        ids[i] = null;
+        size--;
+        // backward shift deletion, pull later entries of the probe chain into the gap
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (ids[j] == null) {
+                return true;
+            }
+            int home = (int) keys[j] & mask;
+            boolean between = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!between) {
+                keys[i] = keys[j];
+                ids[i] = ids[j];
+                highs[i] = highs[j];
+                lows[i] = lows[j];
+                ids[j] = null;
+                i = j;
+            }
+        }
+    }
+
+    public void forEachId(Consumer<BsonValue> action) {
+        for (BsonValue id : ids) {
+            if (id != null) {
+                action.accept(id);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(ids, null);
+        size = 0;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        BsonValue[] oldIds = ids;
+        long[] oldHighs = highs;
+        long[] oldLows = lows;
+        allocate(oldKeys.length << 1);
+        for (int j = 0; j < oldIds.length; j++) {
+            if (oldIds[j] != null) {
+                int i = (int) oldKeys[j] & mask;
+                while (ids[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                ids[i] = oldIds[j];
+                highs[i] = oldHighs[j];
+                lows[i] = oldLows[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.mongodb.util.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter backed by a {@link LongAdder}, so concurrent writers don't contend.
+ */
+public class Counter extends Metric {
+
+    private final LongAdder adder = new LongAdder();
+
+    Counter(String name, String labels) {
+        super(name, labels);
+    }
+
+    public void increment() {
+        adder.increment();
+    }
+
+    public void add(long n) {
+        adder.add(n);
+    }
+
+    public long get() {
+        return adder.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(get());
+    }
+
+    @Override
+    void write(StringBuilder sb) {
+        writeSample(sb, "", null, get());
+    }
+
+    @Override
+    String getType() {
+        return "counter";
+    }
+}
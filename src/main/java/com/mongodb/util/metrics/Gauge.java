@@ -0,0 +1,36 @@
+package com.mongodb.util.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * A value sampled from its owner whenever the registry is read, so publishing it costs
+ * nothing on the owner's hot path.
+ */
+public class Gauge extends Metric {
+
+    private final DoubleSupplier supplier;
+
+    Gauge(String name, String labels, DoubleSupplier supplier) {
+        super(name, labels);
+        this.supplier = supplier;
+    }
+
+    public double get() {
+        return supplier.getAsDouble();
+    }
+
+    @Override
+    void write(StringBuilder sb) {
+        double value = get();
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            writeSample(sb, "", null, (long) value);
+        } else {
+            writeSample(sb, "", null, value);
+        }
+    }
+
+    @Override
+    String getType() {
+        return "gauge";
+    }
+}
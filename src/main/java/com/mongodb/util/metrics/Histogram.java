@@ -0,0 +1,163 @@
+package com.mongodb.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-memory histogram of non-negative longs using log-linear buckets: values below
+ * {@link #SUB_BUCKETS} get a bucket each, above that every power of two is split into
+ * {@link #SUB_BUCKETS} equal buckets, so percentiles are within 1/16 of the true value
+ * whatever the range. Always {@link #BUCKETS} counters (~8KB), recording is lock free
+ * and allocation free, and histograms merge by adding their counters, so per-thread or
+ * per-interval histograms can be combined exactly.
+ */
+public class Histogram extends Metric {
+
+    private final static int SUB_BITS = 4;
+    public final static int SUB_BUCKETS = 1 << SUB_BITS;
+    public final static int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    public Histogram() {
+        this(null, null);
+    }
+
+    Histogram(String name, String labels) {
+        super(name, labels);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >>> SUB_BITS) - 1;
+        return (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >>> SUB_BITS) - 1;
+        long upper = ((long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) + 1) << shift;
+        // the top bucket ends at Long.MAX_VALUE, upper overflows there
+        return upper <= 0 ? Long.MAX_VALUE : upper - 1;
+    }
+
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    /**
+     * Records value n times, negative values are recorded as 0.
+     */
+    public void record(long value, long n) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.addAndGet(bucketIndex(value), n);
+        count.add(n);
+        sum.add(value * n);
+        min.accumulateAndGet(value, Math::min);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Adds all values recorded by other to this histogram.
+     */
+    public void merge(Histogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        count.add(other.count.sum());
+        sum.add(other.sum.sum());
+        min.accumulateAndGet(other.min.get(), Math::min);
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMin() {
+        return getCount() == 0 ? 0 : min.get();
+    }
+
+    public long getMax() {
+        return getCount() == 0 ? 0 : max.get();
+    }
+
+    public double getMean() {
+        long n = getCount();
+        return n == 0 ? 0 : (double) getSum() / n;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return the upper bound of the bucket holding the value at percentile, capped at
+     *         the largest recorded value; 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = getCount();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    void write(StringBuilder sb) {
+        writeSample(sb, "_count", null, getCount());
+        writeSample(sb, "_sum", null, getSum());
+        writeSample(sb, "_min", null, getMin());
+        writeSample(sb, "_max", null, getMax());
+        writeSample(sb, "", "quantile=\"0.5\"", getValueAtPercentile(50));
+        writeSample(sb, "", "quantile=\"0.9\"", getValueAtPercentile(90));
+        writeSample(sb, "", "quantile=\"0.99\"", getValueAtPercentile(99));
+        writeSample(sb, "", "quantile=\"0.999\"", getValueAtPercentile(99.9));
+    }
+
+    @Override
+    String getType() {
+        return "summary";
+    }
+}
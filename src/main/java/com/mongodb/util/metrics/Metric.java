@@ -0,0 +1,48 @@
+package com.mongodb.util.metrics;
+
+/**
+ * A named metric of a {@link MetricsRegistry}, written in the Prometheus text format.
+ */
+public abstract class Metric {
+
+    private final String name;
+    private final String labels;
+
+    Metric(String name, String labels) {
+        this.name = name;
+        this.labels = labels;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the labels as rendered between the braces, e.g. shard="shard0", or null
+     */
+    public String getLabels() {
+        return labels;
+    }
+
+    abstract String getType();
+
+    abstract void write(StringBuilder sb);
+
+    void writeSample(StringBuilder sb, String suffix, String extraLabel, Object value) {
+        sb.append(name).append(suffix);
+        if (labels != null || extraLabel != null) {
+            sb.append('{');
+            if (labels != null) {
+                sb.append(labels);
+            }
+            if (extraLabel != null) {
+                if (labels != null) {
+                    sb.append(',');
+                }
+                sb.append(extraLabel);
+            }
+            sb.append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,130 @@
+package com.mongodb.util.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.util.AtomicFileWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Publishes a {@link MetricsRegistry} over HTTP on the loopback interface (GET /metrics)
+ * and/or as a snapshot file rewritten atomically at a fixed interval, so readers never
+ * see a partial file. Both run on one daemon thread and only read the registry.
+ */
+public class MetricsExporter {
+
+    public final static long DEFAULT_SNAPSHOT_INTERVAL_MILLIS = 15000;
+
+    protected static final Logger logger = LoggerFactory.getLogger(MetricsExporter.class);
+
+    private final MetricsRegistry registry;
+    private final ScheduledExecutorService executor;
+    private HttpServer server;
+    private Path snapshotFile;
+
+    public MetricsExporter(MetricsRegistry registry) {
+        this.registry = registry;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("metrics-exporter-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Starts an exporter for the default registry from the tools' metricsPort and
+     * metricsFile settings.
+     *
+     * @return null when neither is set
+     */
+    public static MetricsExporter start(String port, String snapshotFile, long intervalMillis) throws IOException {
+        if (port == null && snapshotFile == null) {
+            return null;
+        }
+        MetricsExporter exporter = new MetricsExporter(MetricsRegistry.getDefault());
+        if (port != null) {
+            exporter.startHttp(Integer.parseInt(port));
+        }
+        if (snapshotFile != null) {
+            exporter.startSnapshots(Paths.get(snapshotFile), intervalMillis);
+        }
+        return exporter;
+    }
+
+    /**
+     * Starts serving on the loopback interface, port 0 picks a free port.
+     */
+    public void startHttp(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", this::handle);
+        server.setExecutor(executor);
+        server.start();
+        logger.info("serving metrics on http://{}:{}/metrics", server.getAddress().getHostString(),
+                server.getAddress().getPort());
+    }
+
+    public void startSnapshots(Path file, long intervalMillis) {
+        this.snapshotFile = file;
+        executor.scheduleWithFixedDelay(this::writeSnapshot, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        logger.info("writing metrics snapshots to {} every {}ms", file, intervalMillis);
+    }
+
+    public int getPort() {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    public void writeSnapshot() {
+        if (snapshotFile == null) {
+            return;
+        }
+        try {
+            AtomicFileWriter writer = new AtomicFileWriter(snapshotFile, StandardCharsets.UTF_8);
+            try {
+                writer.write(registry.scrape());
+                writer.commit();
+            } finally {
+                writer.abort();
+            }
+        } catch (IOException e) {
+            logger.warn("error writing metrics snapshot {}: {}", snapshotFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Stops serving, writing a final snapshot first.
+     */
+    public void stop() {
+        writeSnapshot();
+        if (server != null) {
+            server.stop(0);
+        }
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,96 @@
+package com.mongodb.util.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Process wide registry of counters, gauges and histograms. Metrics are identified by
+ * name plus label pairs; asking for an existing counter or histogram returns it, so
+ * components look up their metrics once and then only touch the returned objects. A
+ * gauge registered again replaces the previous one, e.g. for a new run of the same task.
+ *
+ * {@link #scrape()} renders every metric in the Prometheus text format, which
+ * {@link MetricsExporter} serves over HTTP and writes to snapshot files.
+ */
+public class MetricsRegistry {
+
+    private final static MetricsRegistry defaultRegistry = new MetricsRegistry();
+
+    private final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    public static MetricsRegistry getDefault() {
+        return defaultRegistry;
+    }
+
+    /**
+     * @param labels label names and values, alternating
+     */
+    public Counter counter(String name, String... labels) {
+        String renderedLabels = renderLabels(labels);
+        return (Counter) metrics.computeIfAbsent(key(name, renderedLabels), k -> new Counter(name, renderedLabels));
+    }
+
+    public Histogram histogram(String name, String... labels) {
+        String renderedLabels = renderLabels(labels);
+        return (Histogram) metrics.computeIfAbsent(key(name, renderedLabels), k -> new Histogram(name, renderedLabels));
+    }
+
+    public Gauge gauge(String name, DoubleSupplier supplier, String... labels) {
+        String renderedLabels = renderLabels(labels);
+        Gauge gauge = new Gauge(name, renderedLabels, supplier);
+        metrics.put(key(name, renderedLabels), gauge);
+        return gauge;
+    }
+
+    public void remove(Metric metric) {
+        metrics.remove(key(metric.getName(), metric.getLabels()), metric);
+    }
+
+    public String scrape() {
+        List<Metric> sorted = new ArrayList<>(metrics.values());
+        sorted.sort(Comparator.comparing(Metric::getName)
+                .thenComparing(m -> m.getLabels() == null ? "" : m.getLabels()));
+        StringBuilder sb = new StringBuilder();
+        String lastName = null;
+        for (Metric metric : sorted) {
+            if (!metric.getName().equals(lastName)) {
+                sb.append("# TYPE ").append(metric.getName()).append(' ').append(metric.getType()).append('\n');
+                lastName = metric.getName();
+            }
+            try {
+                metric.write(sb);
+            } catch (RuntimeException e) {
+                // a failing gauge must not break the whole scrape
+                sb.append("# ").append(metric.getName()).append(" error: ").append(e).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String key(String name, String renderedLabels) {
+        return renderedLabels == null ? name : name + '{' + renderedLabels + '}';
+    }
+
+    private static String renderLabels(String[] labels) {
+        if (labels.length == 0) {
+            return null;
+        }
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("labels must be name/value pairs");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return sb.toString();
+    }
+}
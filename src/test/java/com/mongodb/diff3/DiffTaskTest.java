@@ -0,0 +1,238 @@
+package com.mongodb.diff3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.model.Namespace;
+
+public class DiffTaskTest {
+
+    private static final BsonDocument ID_SORT = BsonDocument.parse("{_id: 1}");
+    private static final BsonDocument SK_SORT = BsonDocument.parse("{sk: 1}");
+
+    /**
+     * Serves each side from a list, in list order whether or not a sort is asked for.
+     */
+    private static class ListDiffTask extends DiffTask {
+        private final List<RawBsonDocument> source;
+        private final List<RawBsonDocument> dest;
+
+        ListDiffTask(List<RawBsonDocument> source, List<RawBsonDocument> dest) {
+            super(new DiffConfiguration(), new Namespace("db.c"), null);
+            this.source = source;
+            this.dest = dest;
+            this.chunkDef = new ChunkDef(namespace, null, null);
+        }
+
+        @Override
+        protected String unitString() {
+            return "test";
+        }
+
+        @Override
+        protected MongoClient getLoadClient(Target target) {
+            return null;
+        }
+
+        @Override
+        MongoCursor<RawBsonDocument> openCursor(Collection<BsonValue> ids, Target target, Bson rangeFilter,
+                                                BsonDocument sortSpec) {
+            return new ListCursor(target == Target.SOURCE ? source : dest);
+        }
+    }
+
+    private static class ListCursor implements MongoCursor<RawBsonDocument> {
+        private final Iterator<RawBsonDocument> it;
+
+        ListCursor(List<RawBsonDocument> docs) {
+            this.it = docs.iterator();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean hasNext() {
+            return it.hasNext();
+        }
+
+        @Override
+        public RawBsonDocument next() {
+            return it.next();
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+
+        @Override
+        public RawBsonDocument tryNext() {
+            return it.hasNext() ? it.next() : null;
+        }
+
+        @Override
+        public ServerCursor getServerCursor() {
+            return null;
+        }
+
+        @Override
+        public ServerAddress getServerAddress() {
+            return null;
+        }
+    }
+
+    private static List<RawBsonDocument> docs(String... json) {
+        List<RawBsonDocument> docs = new ArrayList<>();
+        for (String j : json) {
+            docs.add(RawBsonDocument.parse(j));
+        }
+        return docs;
+    }
+
+    private static Set<BsonValue> ids(BsonValue... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+
+    private static Set<BsonValue> mismatchedIds(DiffResult result) {
+        Set<BsonValue> ids = new HashSet<>();
+        for (DiffResult.MismatchEntry entry : result.getMismatchedEntries()) {
+            ids.add(entry.getKey());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testSourceOnlyAndDestOnly() {
+        ListDiffTask task = new ListDiffTask(
+                docs("{_id: 1, a: 1}", "{_id: 2, a: 2}", "{_id: 4, a: 4}", "{_id: 6, a: 6}"),
+                docs("{_id: 0, a: 0}", "{_id: 2, a: 2}", "{_id: 3, a: 3}", "{_id: 4, a: 5}"));
+        DiffResult result = task.computeDiff();
+        assertEquals(1, result.getMatches());
+        assertEquals(ids(new BsonInt32(4)), mismatchedIds(result));
+        assertEquals(ids(new BsonInt32(1), new BsonInt32(6)), result.getSrcOnlyKeys());
+        assertEquals(ids(new BsonInt32(0), new BsonInt32(3)), result.getDestOnlyKeys());
+        assertEquals(4, result.getHashTree().getSourceHash(result.getHashTree().root()).getCount());
+        assertEquals(4, result.getHashTree().getDestHash(result.getHashTree().root()).getCount());
+    }
+
+    @Test
+    public void testOneSideEmpty() {
+        DiffResult result = new ListDiffTask(docs("{_id: 1}", "{_id: 2}"), docs()).computeDiff();
+        assertEquals(0, result.getMatches());
+        assertEquals(ids(new BsonInt32(1), new BsonInt32(2)), result.getSrcOnlyKeys());
+
+        result = new ListDiffTask(docs(), docs("{_id: 1}")).computeDiff();
+        assertEquals(ids(new BsonInt32(1)), result.getDestOnlyKeys());
+        assertTrue(result.getSrcOnlyKeys().isEmpty());
+    }
+
+    @Test
+    public void testDuplicateSortKeysAreJoinedById() {
+        // sk is not unique, documents sharing it are matched up by _id within the group
+        ListDiffTask task = new ListDiffTask(
+                docs("{_id: 'a', sk: 1}", "{_id: 'b', sk: 1}", "{_id: 'd', sk: 2, x: 1}", "{_id: 'e', sk: 3}"),
+                docs("{_id: 'b', sk: 1}", "{_id: 'c', sk: 1}", "{_id: 'd', sk: 2, x: 2}", "{_id: 'f', sk: 3}"));
+        DiffResult result = task.doStreamingComparison(null, SK_SORT, null, null);
+        assertEquals(1, result.getMatches());
+        assertEquals(ids(new BsonString("d")), mismatchedIds(result));
+        assertEquals(ids(new BsonString("a"), new BsonString("e")), result.getSrcOnlyKeys());
+        assertEquals(ids(new BsonString("c"), new BsonString("f")), result.getDestOnlyKeys());
+    }
+
+    @Test
+    public void testMixedBsonTypes() {
+        // in server order: null, numbers across int, long and double, strings, object ids
+        ListDiffTask task = new ListDiffTask(
+                docs("{_id: null}", "{_id: 1}", "{_id: {$numberLong: '2'}}", "{_id: 2.5}", "{_id: 'a'}",
+                        "{_id: {$oid: '5f0000000000000000000001'}}"),
+                docs("{_id: null}", "{_id: {$numberLong: '1'}}", "{_id: {$numberLong: '2'}}", "{_id: 2.5}",
+                        "{_id: 'a'}", "{_id: {$oid: '5f0000000000000000000001'}}"));
+        DiffResult result = task.doStreamingComparison(null, ID_SORT, null, null);
+        assertEquals(5, result.getMatches());
+        // 1 and NumberLong(1) sort together but are different _ids
+        assertEquals(ids(new BsonInt32(1)), result.getSrcOnlyKeys());
+        assertEquals(ids(new BsonInt64(1)), result.getDestOnlyKeys());
+        assertTrue(result.getMismatchedEntries().isEmpty());
+    }
+
+    @Test
+    public void testOutOfOrderFallsBackToInMemory() {
+        // a collation or client/server disagreement: the cursor isn't in comparator order
+        List<RawBsonDocument> source = docs("{_id: 'b'}", "{_id: 'a'}", "{_id: 'c', x: 1}");
+        List<RawBsonDocument> dest = docs("{_id: 'a'}", "{_id: 'b'}", "{_id: 'c', x: 2}", "{_id: 'd'}");
+        ListDiffTask task = new ListDiffTask(source, dest);
+        assertThrows(SortedDocCursor.OutOfOrderException.class,
+                () -> task.doStreamingComparison(null, ID_SORT, null, null));
+
+        DiffResult result = task.computeDiff();
+        assertEquals(2, result.getMatches());
+        assertEquals(ids(new BsonString("c")), mismatchedIds(result));
+        assertEquals(ids(new BsonString("d")), result.getDestOnlyKeys());
+        assertTrue(result.getSrcOnlyKeys().isEmpty());
+    }
+
+    @Test
+    public void testSortedDocCursorGroups() {
+        SortedDocCursor cursor = new SortedDocCursor(
+                new ListCursor(docs("{_id: 1, sk: 1}", "{_id: 2, sk: 1}", "{_id: 3, sk: 2}", "{_id: 4}")), SK_SORT);
+        assertTrue(cursor.hasNext());
+        assertEquals(new BsonInt32(1), cursor.peekKey()[0]);
+        assertEquals(2, cursor.nextGroup().size());
+        assertEquals(new BsonInt32(2), cursor.peekKey()[0]);
+        // a missing key sorts as null, reading it after 2 ends the group with an error
+        assertThrows(SortedDocCursor.OutOfOrderException.class, cursor::nextGroup);
+    }
+
+    @Test
+    public void testSortedDocCursorKeys() {
+        BsonDocument sortSpec = BsonDocument.parse("{'a.b': 1, c: -1}");
+        SortedDocCursor cursor = new SortedDocCursor(new ListCursor(docs(
+                "{_id: 1, a: {b: 1}, c: 5}", "{_id: 2, a: {b: 1}, c: 4}", "{_id: 3, a: {b: 2}, c: 9}", "{_id: 4, a: 7}")),
+                sortSpec);
+        assertEquals(1, cursor.nextGroup().size());
+        assertEquals(1, cursor.nextGroup().size());
+        // a.b of a non document is null, which sorts before the numbers, so this is out of order
+        assertThrows(SortedDocCursor.OutOfOrderException.class, cursor::nextGroup);
+
+        assertEquals(BsonNull.VALUE, SortedDocCursor.extract(BsonDocument.parse("{a: 7}"), "a.b"));
+        assertEquals(BsonNull.VALUE, SortedDocCursor.extract(BsonDocument.parse("{}"), "a"));
+        assertEquals(new BsonInt32(3), SortedDocCursor.extract(BsonDocument.parse("{a: {b: {c: 3}}}"), "a.b.c"));
+    }
+
+    @Test
+    public void testSortedDocCursorDescending() {
+        SortedDocCursor cursor = new SortedDocCursor(
+                new ListCursor(docs("{_id: 3}", "{_id: 2}", "{_id: 2.0}", "{_id: 1}")), BsonDocument.parse("{_id: -1}"));
+        assertEquals(1, cursor.nextGroup().size());
+        assertEquals(2, cursor.nextGroup().size());
+        assertEquals(1, cursor.nextGroup().size());
+        assertFalse(cursor.hasNext());
+        assertEquals(4, cursor.getDocCount());
+    }
+}
@@ -0,0 +1,218 @@
+package com.mongodb.diff3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.util.hash.FingerprintAlgorithm;
+
+public class RangeHashTreeTest {
+
+    // identical sides, document i has _id i * 10 and hash i
+    private static RangeHashTree build(int numDocs, long leafSize, int fanout) {
+        RangeHashTree.Builder builder = new RangeHashTree.Builder(leafSize, fanout);
+        for (int i = 0; i < numDocs; i++) {
+            builder.addSource(new BsonInt32(i * 10), i);
+            builder.addDest(i);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Hashes node ranges from per-leaf digests, recording the nodes that were asked for.
+     */
+    private static Function<List<RangeHashTree.Node>, HashTreeVerifier.RangeDigest[]> hasher(
+            HashTreeVerifier.RangeDigest[] leaves, List<RangeHashTree.Node> queried) {
+        return nodes -> {
+            queried.addAll(nodes);
+            HashTreeVerifier.RangeDigest[] digests = new HashTreeVerifier.RangeDigest[nodes.size()];
+            for (int i = 0; i < nodes.size(); i++) {
+                long count = 0;
+                long hash = 0;
+                for (int leaf = nodes.get(i).getFirstLeaf(); leaf < nodes.get(i).getEndLeaf(); leaf++) {
+                    count += 10;
+                    hash += leaves[leaf] == null ? leaf : 1000 + leaf;
+                }
+                digests[i] = new HashTreeVerifier.RangeDigest(count, hash, count * 100);
+            }
+            return digests;
+        };
+    }
+
+    private static long hash(String json) {
+        RawBsonDocument doc = new RawBsonDocument(BsonDocument.parse(json), new BsonDocumentCodec());
+        ByteBuffer bb = doc.getByteBuffer().asNIO();
+        return FingerprintAlgorithm.XXHASH64.hash64(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+    }
+
+    @Test
+    public void testBuilderLeaves() {
+        RangeHashTree tree = build(25, 10, 4);
+        assertEquals(3, tree.getNumLeaves());
+        assertNull(tree.lowerBound(0));
+        assertEquals(new BsonInt32(100), tree.upperBound(0));
+        assertEquals(new BsonInt32(100), tree.lowerBound(1));
+        assertEquals(new BsonInt32(200), tree.upperBound(1));
+        assertNull(tree.upperBound(2));
+        assertEquals(new RangeHashTree.RangeHash(10, 45), tree.getSourceHash(tree.new Node(0, 1)));
+        assertEquals(new RangeHashTree.RangeHash(5, 110), tree.getDestHash(tree.new Node(2, 3)));
+        assertEquals(new RangeHashTree.RangeHash(25, 300), tree.getSourceHash(tree.root()));
+        assertTrue(tree.wasEqual(tree.root()));
+
+        RangeHashTree empty = new RangeHashTree.Builder(10, 4).build();
+        assertEquals(1, empty.getNumLeaves());
+        assertTrue(empty.root().isLeaf());
+    }
+
+    @Test
+    public void testChildrenCoverLeavesInOrder() {
+        RangeHashTree tree = build(1000, 10, 4);
+        assertEquals(100, tree.getNumLeaves());
+        List<RangeHashTree.Node> children = tree.root().children();
+        // spans of 64, the largest power of 4 below 100
+        assertEquals(2, children.size());
+        assertEquals(0, children.get(0).getFirstLeaf());
+        assertEquals(64, children.get(0).getEndLeaf());
+        assertEquals(100, children.get(1).getEndLeaf());
+
+        int next = 0;
+        for (RangeHashTree.Node child : children.get(0).children()) {
+            assertEquals(next, child.getFirstLeaf());
+            assertEquals(16, child.getEndLeaf() - child.getFirstLeaf());
+            next = child.getEndLeaf();
+        }
+        assertEquals(64, next);
+        assertEquals(children.get(0).getUpperBound(), children.get(1).getLowerBound());
+        assertNull(children.get(0).getLowerBound());
+        assertNull(children.get(1).getUpperBound());
+    }
+
+    @Test
+    public void testBsonRoundTrip() {
+        RangeHashTree tree = build(45, 10, 4);
+        BsonDocument doc = tree.toBsonDocument();
+        RangeHashTree copy = RangeHashTree.fromBsonDocument(doc);
+        assertEquals(4, copy.getFanout());
+        assertEquals(tree.getNumLeaves(), copy.getNumLeaves());
+        for (int i = 0; i < tree.getNumLeaves(); i++) {
+            assertEquals(tree.lowerBound(i), copy.lowerBound(i));
+            RangeHashTree.Node leaf = tree.new Node(i, i + 1);
+            assertEquals(tree.getSourceHash(leaf), copy.getSourceHash(leaf));
+            assertEquals(tree.getDestHash(leaf), copy.getDestHash(leaf));
+        }
+        assertEquals(doc, copy.toBsonDocument());
+    }
+
+    @Test
+    public void testBuilderAssignsDestDocsToLeaves() {
+        // source ids 0, 10, .. 40 in leaves of 2, dest has 5 and 25 extra and lacks 30
+        RangeHashTree.Builder builder = new RangeHashTree.Builder(2, 4);
+        builder.addSource(new BsonInt32(0), 1);
+        builder.addDest(1);
+        builder.addDest(7);
+        builder.addSource(new BsonInt32(10), 1);
+        builder.addDest(1);
+        builder.addSource(new BsonInt32(20), 1);
+        builder.addDest(1);
+        builder.addDest(7);
+        builder.addSource(new BsonInt32(30), 1);
+        builder.addSource(new BsonInt32(40), 1);
+        builder.addDest(1);
+        RangeHashTree tree = builder.build();
+
+        assertEquals(3, tree.getNumLeaves());
+        assertEquals(new BsonInt32(20), tree.upperBound(0));
+        assertEquals(new RangeHashTree.RangeHash(3, 9), tree.getDestHash(tree.new Node(0, 1)));
+        assertEquals(new RangeHashTree.RangeHash(2, 8), tree.getDestHash(tree.new Node(1, 2)));
+        assertEquals(new RangeHashTree.RangeHash(1, 1), tree.getDestHash(tree.new Node(2, 3)));
+        assertFalse(tree.wasEqual(tree.new Node(0, 1)));
+        assertFalse(tree.wasEqual(tree.new Node(1, 2)));
+        assertTrue(tree.wasEqual(tree.new Node(2, 3)));
+    }
+
+    @Test
+    public void testMatchingTreeHashesOnlyTheRoot() {
+        RangeHashTree tree = build(1000, 10, 4);
+        List<RangeHashTree.Node> queried = new ArrayList<>();
+        HashTreeVerifier.RangeDigest[] leaves = new HashTreeVerifier.RangeDigest[100];
+        HashTreeVerifier verifier = new HashTreeVerifier(hasher(leaves, queried), hasher(leaves, new ArrayList<>()));
+
+        assertTrue(verifier.findDifferingLeaves(tree).isEmpty());
+        assertEquals(1, queried.size());
+        assertEquals(1000, verifier.getMatchedDocs());
+    }
+
+    @Test
+    public void testDescendsOnlyIntoDifferingChildren() {
+        RangeHashTree tree = build(1000, 10, 4);
+        List<RangeHashTree.Node> queried = new ArrayList<>();
+        HashTreeVerifier.RangeDigest[] changed = new HashTreeVerifier.RangeDigest[100];
+        changed[7] = new HashTreeVerifier.RangeDigest(0, 0, 0);
+        changed[70] = new HashTreeVerifier.RangeDigest(0, 0, 0);
+        HashTreeVerifier verifier = new HashTreeVerifier(hasher(new HashTreeVerifier.RangeDigest[100], queried),
+                hasher(changed, new ArrayList<>()));
+
+        List<RangeHashTree.Node> differing = verifier.findDifferingLeaves(tree);
+        assertEquals(2, differing.size());
+        assertEquals(7, differing.get(0).getFirstLeaf());
+        assertEquals(70, differing.get(1).getFirstLeaf());
+        // root, its 2 children, 4 + 3 children of those, then 4 + 4 groups of 4 and 4 + 4 leaves
+        assertEquals(1 + 2 + 7 + 8 + 8, queried.size());
+        assertEquals(980, verifier.getMatchedDocs());
+    }
+
+    @Test
+    public void testDescendsIntoRangesThatDifferedBefore() {
+        // the stored hashes show leaf 3 differed when last diffed, the server hashes agree
+        RangeHashTree.Builder builder = new RangeHashTree.Builder(10, 4);
+        for (int i = 0; i < 100; i++) {
+            builder.addSource(new BsonInt32(i), i);
+            builder.addDest(i / 10 == 3 ? i + 1 : i);
+        }
+        RangeHashTree tree = builder.build();
+        HashTreeVerifier.RangeDigest[] leaves = new HashTreeVerifier.RangeDigest[10];
+        HashTreeVerifier verifier = new HashTreeVerifier(hasher(leaves, new ArrayList<>()),
+                hasher(leaves, new ArrayList<>()));
+
+        List<RangeHashTree.Node> differing = verifier.findDifferingLeaves(tree);
+        assertEquals(1, differing.size());
+        assertEquals(3, differing.get(0).getFirstLeaf());
+        assertEquals(90, verifier.getMatchedDocs());
+
+        tree.setLeafHashes(3, new RangeHashTree.RangeHash(10, 1), new RangeHashTree.RangeHash(10, 1));
+        assertTrue(new HashTreeVerifier(hasher(leaves, new ArrayList<>()), hasher(leaves, new ArrayList<>()))
+                .findDifferingLeaves(tree).isEmpty());
+    }
+
+    @Test
+    public void testRangeFilter() {
+        RangeHashTree tree = build(25, 10, 4);
+        assertEquals(new BsonDocument(), HashTreeVerifier.rangeFilter(tree.root()));
+        assertEquals(BsonDocument.parse("{_id: {$lt: 100}}"),
+                HashTreeVerifier.rangeFilter(tree.new Node(0, 1)).toBsonDocument());
+        assertEquals(BsonDocument.parse("{_id: {$gte: 200}}"),
+                HashTreeVerifier.rangeFilter(tree.new Node(2, 3)).toBsonDocument());
+    }
+
+    @Test
+    public void testDocumentHashIsTypeAndValueExact() {
+        // these collide in $toHashedIndexKey, which truncates numbers to 64 bit integers
+        assertNotEquals(hash("{_id: 1, x: 2.3}"), hash("{_id: 1, x: 2.9}"));
+        assertNotEquals(hash("{_id: 1, x: {$numberInt: '1'}}"), hash("{_id: 1, x: 1.0}"));
+        assertNotEquals(hash("{_id: 1, x: {$numberLong: '1'}}"), hash("{_id: 1, x: 1.0}"));
+        assertEquals(hash("{_id: 1, x: 1}"), hash("{_id: 1, x: 1}"));
+    }
+}
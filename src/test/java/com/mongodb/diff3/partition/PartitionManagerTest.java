@@ -0,0 +1,18 @@
+package com.mongodb.diff3.partition;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class PartitionManagerTest {
+
+    @Test
+    public void testRemainderSampleSize() {
+        assertEquals(400, PartitionManager.getRemainderSampleSize(10, 4, 1_000_000));
+        // capped at the documents the partition is estimated to hold
+        assertEquals(150, PartitionManager.getRemainderSampleSize(10, 4, 150));
+        // capped regardless of the configured per partition sample
+        assertEquals(10000, PartitionManager.getRemainderSampleSize(1000, 64, 1_000_000));
+        assertEquals(10000, PartitionManager.getRemainderSampleSize(Integer.MAX_VALUE, 64, 0));
+    }
+}
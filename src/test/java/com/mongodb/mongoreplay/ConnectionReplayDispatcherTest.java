@@ -0,0 +1,51 @@
+package com.mongodb.mongoreplay;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class ConnectionReplayDispatcherTest {
+
+    @Test
+    public void testOrderedPerConnection() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        Map<Long, List<Integer>> seen = new HashMap<>();
+        for (long c = 0; c < 8; c++) {
+            seen.put(c, Collections.synchronizedList(new ArrayList<>()));
+        }
+        AtomicInteger results = new AtomicInteger();
+        ConnectionReplayDispatcher dispatcher = new ConnectionReplayDispatcher(pool, 16);
+        try {
+            for (int i = 0; i < 2000; i++) {
+                long connection = i % 8;
+                int op = i;
+                dispatcher.submit(connection, () -> {
+                    seen.get(connection).add(op);
+                    results.incrementAndGet();
+                    return new ReplayResult((String) null, "db", "c", Command.FIND, 1, true);
+                });
+            }
+            dispatcher.awaitCompletion();
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(2000, results.get());
+        assertEquals(0, dispatcher.getInFlight());
+        assertEquals(8, dispatcher.getConnectionCount());
+        for (List<Integer> ops : seen.values()) {
+            assertEquals(250, ops.size());
+            for (int i = 1; i < ops.size(); i++) {
+                assertEquals(ops.get(i - 1) + 8, ops.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.mongodb.mongoreplay;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.mongodb.util.bson.MappedBsonReader;
+
+public class MongoReplayFilterTest {
+
+    private static final int CONNECTIONS = 5;
+    private static final int OPS = 2000;
+
+    private static void writeInt32(ByteArrayOutputStream out, int value) {
+        out.writeBytes(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array());
+    }
+
+    private static byte[] bytes(BsonDocument doc) {
+        ByteBuffer buffer = new RawBsonDocument(doc, new BsonDocumentCodec()).getByteBuffer().asNIO();
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        return result;
+    }
+
+    private static byte[] opQuery(int requestId, String collection, BsonDocument query) {
+        ByteArrayOutputStream msg = new ByteArrayOutputStream();
+        writeInt32(msg, 0); // flags
+        msg.writeBytes(collection.getBytes(StandardCharsets.UTF_8));
+        msg.write(0);
+        writeInt32(msg, 0); // skip
+        writeInt32(msg, -1); // return
+        msg.writeBytes(bytes(query));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeInt32(out, 16 + msg.size());
+        writeInt32(out, requestId);
+        writeInt32(out, 0);
+        writeInt32(out, 2004);
+        out.writeBytes(msg.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static void writeCapture(Path file) throws Exception {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (int i = 0; i < OPS; i++) {
+                BsonDocument record = new BsonDocument("seenconnectionnum", new BsonInt64(i % CONNECTIONS));
+                if (i % 7 == 0) {
+                    // passed through as is
+                    out.write(bytes(record));
+                    continue;
+                }
+                byte[] body = opQuery(i, "db.c", new BsonDocument("find", new BsonString("c")).append("filter",
+                        new BsonDocument("x", new BsonInt32(i))));
+                record.append("rawop", new BsonDocument("header", new BsonDocument("opcode", new BsonInt32(2004))
+                        .append("requestid", new BsonInt32(i))).append("body", new BsonBinary(body)));
+                out.write(bytes(record));
+            }
+        }
+    }
+
+    private static List<Integer> requestIds(Path file, long connection) throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        try (MappedBsonReader reader = new MappedBsonReader(file)) {
+            for (RawBsonDocument record : reader) {
+                assertEquals(connection, record.getInt64("seenconnectionnum").getValue() % 2);
+                if (record.containsKey("rawop")) {
+                    ids.add(record.getDocument("rawop").getDocument("header").getInt32("requestid").getValue());
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static Path filter(Path dir, Path capture, int threads) throws Exception {
+        Files.createDirectories(dir);
+        Path input = Files.copy(capture, dir.resolve("capture.bson"));
+        MongoReplayFilter filter = new MongoReplayFilter();
+        filter.setSplits(2);
+        filter.setThreads(threads);
+        filter.filterFile(input.toString());
+        return input;
+    }
+
+    @Test
+    public void testParallelOutputMatchesSequential(@TempDir Path tempDir) throws Exception {
+        Path capture = tempDir.resolve("capture.bson");
+        writeCapture(capture);
+
+        Path sequential = filter(tempDir.resolve("sequential"), capture, 1);
+        Path parallel = filter(tempDir.resolve("parallel"), capture, 4);
+
+        for (int split = 1; split <= 2; split++) {
+            Path expected = Path.of(sequential + "." + split + ".FILTERED");
+            Path actual = Path.of(parallel + "." + split + ".FILTERED");
+            assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(actual));
+
+            // ops of each connection in capture order
+            List<Integer> ids = requestIds(actual, split - 1);
+            assertFalse(ids.isEmpty());
+            for (int i = 1; i < ids.size(); i++) {
+                assertEquals(true, ids.get(i - 1) < ids.get(i));
+            }
+        }
+        try (var files = Files.list(parallel.getParent())) {
+            assertEquals(0, files.filter(f -> f.toString().endsWith(".part")).count());
+        }
+    }
+}
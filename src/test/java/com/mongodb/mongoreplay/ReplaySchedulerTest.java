@@ -0,0 +1,36 @@
+package com.mongodb.mongoreplay;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.junit.jupiter.api.Test;
+
+public class ReplaySchedulerTest {
+
+    @Test
+    public void testSchedule() throws InterruptedException {
+        BsonDocument seen = new BsonDocument("sec", new BsonInt64(63800000000L)).append("nsec", new BsonInt32(5));
+        long recorded = ReplayScheduler.seenNanos(seen);
+        assertEquals(63800000000L * 1000000000L + 5, recorded);
+
+        ReplayScheduler scheduler = new ReplayScheduler(2.0);
+        scheduler.start(recorded);
+        // recorded 100ms after the first op, due 50ms after the start at 2x
+        long first = scheduler.scheduledNanos(recorded);
+        long due = scheduler.scheduledNanos(recorded + 100000000L);
+        assertEquals(50000000L, due - first);
+
+        scheduler.awaitScheduled(due);
+        assertTrue(System.nanoTime() >= due);
+        scheduler.recordStart(due);
+        assertTrue(scheduler.getLagMillis() < 50);
+
+        // an op that only starts 200ms after it was due
+        scheduler.recordStart(System.nanoTime() - 200000000L);
+        assertTrue(scheduler.getLagMillis() >= 200);
+        assertTrue(scheduler.getMaxLagMillis() >= 200);
+    }
+}
@@ -0,0 +1,41 @@
+package com.mongodb.mongoreplay;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class ReplayStatisticsTest {
+
+    private final static long NANOS_PER_MILLI = 1000000L;
+
+    @Test
+    public void testPercentilesByShape() {
+        ReplayStatistics statistics = new ReplayStatistics();
+        for (int i = 1; i <= 1000; i++) {
+            statistics.record(new ReplayResult("{a}", "db", "c", Command.FIND, i * NANOS_PER_MILLI, i % 100 != 0));
+        }
+        statistics.record(new ReplayResult("{b}", "db", "c", Command.FIND, 5 * NANOS_PER_MILLI, true));
+        assertEquals(2, statistics.size());
+
+        ReplayAccumulator acc = new ReplayAccumulator(new AccumulatorKey("db", "c", Command.FIND, "{a}"));
+        for (int i = 1; i <= 1000; i++) {
+            acc.record(i * NANOS_PER_MILLI, i % 100 != 0);
+        }
+        assertEquals(1000, acc.getCount());
+        assertEquals(10, acc.getErrorCount());
+        assertEquals(1.0, acc.getMinMillis(), 0.001);
+        assertEquals(1000.0, acc.getMaxMillis(), 0.001);
+        // histogram percentiles are within 1/16 of the true value
+        assertEquals(500, acc.getPercentileMillis(50), 500 / 16.0);
+        assertEquals(990, acc.getPercentileMillis(99), 990 / 16.0);
+
+        String table = statistics.formatTable();
+        String[] lines = table.split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].contains("p999"));
+        // most frequent shape first within a namespace
+        assertTrue(lines[1].contains("{a}"));
+        assertTrue(lines[2].contains("{b}"));
+    }
+}
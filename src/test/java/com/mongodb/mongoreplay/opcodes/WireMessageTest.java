@@ -0,0 +1,101 @@
+package com.mongodb.mongoreplay.opcodes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.jupiter.api.Test;
+
+public class WireMessageTest {
+
+    private static byte[] bytes(BsonDocument doc) {
+        ByteBuffer buffer = new RawBsonDocument(doc, new BsonDocumentCodec()).getByteBuffer().asNIO();
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        return result;
+    }
+
+    private static void writeInt32(ByteArrayOutputStream out, int value) {
+        out.writeBytes(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array());
+    }
+
+    private static byte[] opMsg(BsonDocument body, String sequenceId, BsonDocument... sequence) {
+        ByteArrayOutputStream msg = new ByteArrayOutputStream();
+        writeInt32(msg, 0); // flag bits
+        msg.write(0);
+        msg.writeBytes(bytes(body));
+        if (sequenceId != null) {
+            ByteArrayOutputStream docs = new ByteArrayOutputStream();
+            for (BsonDocument d : sequence) {
+                docs.writeBytes(bytes(d));
+            }
+            byte[] id = sequenceId.getBytes(StandardCharsets.UTF_8);
+            msg.write(1);
+            writeInt32(msg, 4 + id.length + 1 + docs.size());
+            msg.writeBytes(id);
+            msg.write(0);
+            msg.writeBytes(docs.toByteArray());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeInt32(out, 16 + msg.size());
+        writeInt32(out, 7);
+        writeInt32(out, 0);
+        writeInt32(out, WireMessage.OP_MSG);
+        out.writeBytes(msg.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static RawBsonDocument rawop(byte[] body) {
+        // fields before body, of types the element scan has to skip
+        BsonDocument rawop = new BsonDocument("header", new BsonDocument("opcode", new BsonInt32(2013)))
+                .append("re", new BsonRegularExpression("a.*", "i"))
+                .append("s", new BsonString("x"))
+                .append("body", new BsonBinary(body));
+        return new RawBsonDocument(rawop, new BsonDocumentCodec());
+    }
+
+    @Test
+    public void testOpMsg() {
+        BsonDocument insert = new BsonDocument("insert", new BsonString("c")).append("$db", new BsonString("db"));
+        RawBsonDocument rawop = rawop(opMsg(insert, "documents", new BsonDocument("_id", new BsonInt32(1)),
+                new BsonDocument("_id", new BsonInt32(2))));
+
+        WireMessage message = WireMessage.fromRawOp(rawop);
+        assertEquals(WireMessage.OP_MSG, message.getOpcode());
+        assertEquals(7, message.getHeader().getRequestId());
+
+        Opcode2013 msg = message.getOpMsg();
+        assertEquals(2, msg.getSections().size());
+        RawBsonDocument body = msg.getBody();
+        assertEquals("insert", body.getFirstKey());
+        assertEquals(insert, body);
+        // a view into the capture record
+        assertSame(rawop.getByteBuffer().array(), body.getByteBuffer().array());
+
+        Section sequence = msg.getSections().get(1);
+        assertEquals("documents", sequence.getMessageIdentifier());
+        assertEquals(2, sequence.getRawDocuments().size());
+        assertEquals(2, sequence.getRawDocuments().get(1).getInt32("_id").getValue());
+        assertEquals(2, msg.getSequenceDocuments().size());
+    }
+
+    @Test
+    public void testEmptyBody() {
+        assertNull(WireMessage.fromRawOp(rawop(new byte[0])));
+        RawBsonDocument noBody = new RawBsonDocument(new BsonDocument("header", new BsonDocument()),
+                new BsonDocumentCodec());
+        assertNull(WireMessage.fromRawOp(noBody));
+    }
+}
@@ -0,0 +1,78 @@
+package com.mongodb.mongosync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bson.BsonTimestamp;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CheckpointJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testReplayKeepsLatestAndTruncatesTornTail() throws IOException {
+        Path path = dir.resolve("test.checkpoint");
+        CheckpointJournal journal = new CheckpointJournal(path);
+        Map<Integer, BsonTimestamp> children = new HashMap<>();
+        children.put(0, new BsonTimestamp(100, 1));
+        children.put(1, new BsonTimestamp(100, 2));
+        journal.append("shard0", new BsonTimestamp(100, 1), children);
+        journal.append("shard0", new BsonTimestamp(200, 1));
+        journal.append("shard1", new BsonTimestamp(300, 1));
+        journal.close();
+        long validLength = Files.size(path);
+
+        // a crash in the middle of a write
+        Files.write(path, "shard0\t-1\t999".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        journal = new CheckpointJournal(path);
+        assertEquals(validLength, Files.size(path));
+        assertEquals(new BsonTimestamp(200, 1), journal.getShardCheckpoint("shard0"));
+        assertEquals(new BsonTimestamp(300, 1), journal.getShardCheckpoint("shard1"));
+        assertEquals(children, journal.getChildCheckpoints("shard0"));
+        assertNull(journal.getShardCheckpoint("shard2"));
+
+        journal.append("shard1", new BsonTimestamp(400, 1));
+        journal.close();
+        journal = new CheckpointJournal(path);
+        assertEquals(new BsonTimestamp(400, 1), journal.getShardCheckpoint("shard1"));
+        journal.close();
+    }
+
+    @Test
+    public void testCorruptRecordAndCompaction() throws IOException {
+        Path path = dir.resolve("test.checkpoint");
+        CheckpointJournal journal = new CheckpointJournal(path);
+        for (int i = 1; i <= 10; i++) {
+            journal.append("shard0", new BsonTimestamp(i, 0));
+        }
+        journal.compact();
+        journal.close();
+        assertEquals(1, Files.readAllLines(path).size());
+
+        journal = new CheckpointJournal(path);
+        assertEquals(new BsonTimestamp(10, 0), journal.getShardCheckpoint("shard0"));
+        journal.close();
+
+        // records after a checksum mismatch are not trusted
+        Files.write(path, "shard0\t-1\t47244640256\t0\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        journal = new CheckpointJournal(path);
+        assertEquals(new BsonTimestamp(10, 0), journal.getShardCheckpoint("shard0"));
+        assertEquals(1, Files.readAllLines(path).size());
+
+        journal.reset();
+        assertNull(journal.getShardCheckpoint("shard0"));
+        journal.close();
+    }
+}
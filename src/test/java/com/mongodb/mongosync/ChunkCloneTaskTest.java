@@ -0,0 +1,126 @@
+package com.mongodb.mongosync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Test;
+
+public class ChunkCloneTaskTest {
+
+    private static List<BsonValue> ints(int from, int to) {
+        List<BsonValue> ids = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            ids.add(new BsonInt32(i));
+        }
+        // samples arrive in random order
+        Collections.shuffle(ids);
+        return ids;
+    }
+
+    private static List<BsonDocument> toDocs(List<Bson> ranges) {
+        List<BsonDocument> docs = new ArrayList<>();
+        for (Bson range : ranges) {
+            docs.add(range == null ? null : range.toBsonDocument());
+        }
+        return docs;
+    }
+
+    @Test
+    public void testBoundsAtQuantiles() {
+        List<BsonDocument> ranges = toDocs(ChunkCloneTask.getSubranges(ints(0, 100), 4, null));
+        assertEquals(5, ranges.size());
+        assertEquals(BsonDocument.parse("{_id: {$lt: 25}}"), ranges.get(0));
+        assertEquals(BsonDocument.parse("{$and: [{_id: {$gte: 25}}, {_id: {$lt: 50}}]}"), ranges.get(1));
+        assertEquals(BsonDocument.parse("{$and: [{_id: {$gte: 50}}, {_id: {$lt: 75}}]}"), ranges.get(2));
+        assertEquals(BsonDocument.parse("{_id: {$gte: 75}}"), ranges.get(3));
+        // _ids of other types than the sampled ones
+        assertEquals(BsonDocument.parse("{_id: {$not: {$type: ['number']}}}"), ranges.get(4));
+    }
+
+    @Test
+    public void testEqualBoundsAreDeduplicated() {
+        List<BsonValue> ids = new ArrayList<>();
+        for (int i = 0; i < 90; i++) {
+            ids.add(new BsonInt32(7));
+        }
+        ids.addAll(ints(100, 110));
+        List<BsonDocument> ranges = toDocs(ChunkCloneTask.getSubranges(ids, 4, null));
+        // the 3 quantile bounds are all 7, one bound is left
+        assertEquals(3, ranges.size());
+        assertEquals(BsonDocument.parse("{_id: {$lt: 7}}"), ranges.get(0));
+        assertEquals(BsonDocument.parse("{_id: {$gte: 7}}"), ranges.get(1));
+    }
+
+    @Test
+    public void testMixedNumericTypesShareABracket() {
+        List<BsonValue> ids = ints(0, 50);
+        for (long i = 50; i < 100; i++) {
+            ids.add(new BsonInt64(i));
+        }
+        assertEquals(3, ChunkCloneTask.getSubranges(ids, 2, null).size());
+    }
+
+    @Test
+    public void testNotSplit() {
+        Bson chunkQuery = BsonDocument.parse("{x: {$gte: 1}}");
+        // nothing sampled
+        assertEquals(Collections.singletonList(chunkQuery),
+                ChunkCloneTask.getSubranges(new ArrayList<>(), 4, chunkQuery));
+        // one subrange
+        assertEquals(Collections.singletonList(chunkQuery), ChunkCloneTask.getSubranges(ints(0, 10), 1, chunkQuery));
+        // samples in different type brackets
+        List<BsonValue> mixed = ints(0, 10);
+        mixed.add(new BsonString("a"));
+        assertEquals(Collections.singletonList(chunkQuery), ChunkCloneTask.getSubranges(mixed, 4, chunkQuery));
+        // a type without range support
+        List<BsonValue> docs = new ArrayList<>();
+        docs.add(new BsonDocument("a", new BsonInt32(1)));
+        assertNull(ChunkCloneTask.getSubranges(docs, 4, null).get(0));
+    }
+
+    @Test
+    public void testRangesAreAndedWithChunkQuery() {
+        Bson chunkQuery = BsonDocument.parse("{x: {$gte: 1}}");
+        List<BsonValue> ids = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            ids.add(new BsonObjectId());
+        }
+        List<BsonDocument> ranges = toDocs(ChunkCloneTask.getSubranges(ids, 2, chunkQuery));
+        assertEquals(3, ranges.size());
+        for (BsonDocument range : ranges) {
+            assertEquals(chunkQuery, range.getArray("$and").get(0));
+        }
+        assertEquals(BsonDocument.parse("{_id: {$not: {$type: ['objectId']}}}"),
+                ranges.get(2).getArray("$and").get(1));
+    }
+
+    @Test
+    public void testSampleSizeScalesWithChunkShare() {
+        // a whole collection is sampled as asked
+        assertEquals(200, ChunkCloneTask.getSampleSize(200, 1_000_000, 1_000_000));
+        // a chunk of a tenth of the collection needs ten times the samples
+        assertEquals(2000, ChunkCloneTask.getSampleSize(200, 1_000_000, 10_000_000));
+        // capped, fewer samples land in a small chunk of a large collection
+        assertEquals(10000, ChunkCloneTask.getSampleSize(200, 1_000_000, 1_000_000_000));
+        // an estimated count below the chunk count is taken as the chunk count
+        assertEquals(200, ChunkCloneTask.getSampleSize(200, 1_000_000, 10));
+    }
+
+    @Test
+    public void testSampleSizeStaysBelowRandomCursorLimit() {
+        assertEquals(499, ChunkCloneTask.getSampleSize(2000, 10_000, 10_000));
+        assertEquals(0, ChunkCloneTask.getSampleSize(200, 20, 20));
+        assertEquals(0, ChunkCloneTask.getSampleSize(200, 0, 1000));
+    }
+}
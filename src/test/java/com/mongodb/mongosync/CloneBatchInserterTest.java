@@ -0,0 +1,98 @@
+package com.mongodb.mongosync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.model.Namespace;
+
+public class CloneBatchInserterTest {
+
+    private static final Namespace NS = new Namespace("db", "c");
+
+    private static List<RawBsonDocument> docs(int n) {
+        List<RawBsonDocument> docs = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            docs.add(new RawBsonDocument(new BsonDocument("_id", new BsonInt32(i)), new BsonDocumentCodec()));
+        }
+        return docs;
+    }
+
+    private static int id(RawBsonDocument doc) {
+        return doc.getInt32("_id").getValue();
+    }
+
+    @Test
+    public void testHalvesDownToBadDocuments() {
+        List<Integer> inserted = new ArrayList<>();
+        List<Integer> batchSizes = new ArrayList<>();
+        CloneBatchInserter inserter = new CloneBatchInserter(NS, docs -> {
+            batchSizes.add(docs.size());
+            for (RawBsonDocument doc : docs) {
+                if (id(doc) == 5 || id(doc) == 6) {
+                    throw new MongoException("document too large");
+                }
+            }
+            for (RawBsonDocument doc : docs) {
+                inserted.add(id(doc));
+            }
+        });
+        ChunkCloneResult result = new ChunkCloneResult(NS, null);
+        inserter.insert(docs(32), result);
+
+        assertEquals(30, result.successCount);
+        assertEquals(2, result.errorCount);
+        assertEquals(30, inserted.size());
+        for (int i = 1; i < inserted.size(); i++) {
+            assertTrue(inserted.get(i - 1) < inserted.get(i));
+        }
+        // 32, 16, 8, 4, 2 + 2, 1 + 1, and the other halves, far fewer than one per document
+        assertTrue(batchSizes.size() < 32, batchSizes.toString());
+    }
+
+    @Test
+    public void testWriteErrorsAreNotRetried() {
+        List<Integer> calls = new ArrayList<>();
+        CloneBatchInserter inserter = new CloneBatchInserter(NS, docs -> {
+            calls.add(docs.size());
+            List<BulkWriteError> errors = new ArrayList<>();
+            errors.add(new BulkWriteError(11000, "duplicate key", new BsonDocument(), 0));
+            errors.add(new BulkWriteError(11000, "duplicate key", new BsonDocument(), 1));
+            errors.add(new BulkWriteError(2, "bad value", new BsonDocument(), 2));
+            throw new MongoBulkWriteException(BulkWriteResult.acknowledged(docs.size() - 3, 0, 0, 0,
+                    Collections.emptyList(), Collections.emptyList()), errors, null, new ServerAddress(), Set.of());
+        });
+        ChunkCloneResult result = new ChunkCloneResult(NS, null);
+        inserter.insert(docs(10), result);
+
+        assertEquals(List.of(10), calls);
+        assertEquals(7, result.successCount);
+        assertEquals(2, result.duplicateKeyCount);
+        assertEquals(1, result.errorCount);
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        CloneBatchInserter inserter = new CloneBatchInserter(NS, docs -> {
+            throw new AssertionError("no insert expected");
+        });
+        ChunkCloneResult result = new ChunkCloneResult(NS, null);
+        inserter.insert(new ArrayList<>(), result);
+        assertEquals(0, result.successCount);
+    }
+}
@@ -0,0 +1,41 @@
+package com.mongodb.mongosync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class FlushControllerTest {
+
+    @Test
+    public void testGrowsWithBacklogAndShrinksOnSlowWrites() {
+        FlushController controller = new FlushController("test", 1000, 15000, 5000);
+        long now = System.currentTimeMillis();
+
+        controller.onFlush(1000, 100, 0, 0, now);
+        assertEquals(1000, controller.getBatchSize());
+
+        controller.onFlush(1000, 100, 0, 10, now);
+        assertEquals(1125, controller.getBatchSize());
+
+        controller.onFlush(1125, 6000, 0, 10, now);
+        assertEquals(562, controller.getBatchSize());
+
+        controller.onFlush(562, 100, 100, 10, now);
+        assertEquals(281, controller.getBatchSize());
+    }
+
+    @Test
+    public void testFlushInterval() {
+        FlushController controller = new FlushController("test", 1000, 2000, 5000);
+        long now = System.currentTimeMillis();
+        controller.onFlush(10, 500, 0, 0, now);
+        assertEquals(1500, controller.getFlushIntervalMillis());
+
+        assertFalse(controller.shouldFlush(0, now + 10000));
+        assertFalse(controller.shouldFlush(10, now + 1000));
+        assertTrue(controller.shouldFlush(10, now + 1500));
+        assertTrue(controller.shouldFlush(1000, now));
+    }
+}
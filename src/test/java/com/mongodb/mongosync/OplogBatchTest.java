@@ -0,0 +1,93 @@
+package com.mongodb.mongosync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.WriteModel;
+
+public class OplogBatchTest {
+
+    private static WriteModel<BsonDocument> insert(int id) {
+        return new InsertOneModel<>(new BsonDocument("_id", new BsonInt32(id)));
+    }
+
+    private static WriteModel<BsonDocument> delete(int id) {
+        return new DeleteOneModel<>(new BsonDocument("_id", new BsonInt32(id)));
+    }
+
+    @Test
+    public void testWavesFollowPerIdOrder() {
+        OplogBatch batch = new OplogBatch(10);
+        WriteModel<BsonDocument> i1 = insert(1);
+        WriteModel<BsonDocument> i2 = insert(2);
+        WriteModel<BsonDocument> d1 = delete(1);
+        WriteModel<BsonDocument> i3 = insert(3);
+        WriteModel<BsonDocument> i1Again = insert(1);
+        batch.addWriteModel(i1, new BsonInt32(1));
+        batch.addWriteModel(i2, new BsonInt32(2));
+        batch.addWriteModel(d1, new BsonInt32(1));
+        batch.addWriteModel(i3, new BsonInt32(3));
+        batch.addWriteModel(i1Again, new BsonInt32(1));
+
+        assertEquals(5, batch.size());
+        List<List<WriteModel<BsonDocument>>> waves = batch.getWaves();
+        assertEquals(Arrays.asList(i1, i2, i3), waves.get(0));
+        assertEquals(Arrays.asList(d1), waves.get(1));
+        assertEquals(Arrays.asList(i1Again), waves.get(2));
+    }
+
+    @Test
+    public void testCoalescedModelKeepsItsWave() {
+        OplogBatch batch = new OplogBatch(10, true);
+        WriteModel<BsonDocument> i1 = insert(1);
+        WriteModel<BsonDocument> i2 = insert(2);
+        WriteModel<BsonDocument> d2 = delete(2);
+        WriteModel<BsonDocument> i3 = insert(3);
+        batch.addWriteModel(i1, new BsonInt32(1));
+        batch.addWriteModel(i2, new BsonInt32(2));
+        // insert then delete of 2 is the delete, in the insert's place
+        batch.addWriteModel(d2, new BsonInt32(2));
+        batch.addWriteModel(i3, new BsonInt32(3));
+        // delete then insert of 2 merges again, an upserting replace
+        WriteModel<BsonDocument> i2Again = insert(2);
+        batch.addWriteModel(i2Again, new BsonInt32(2));
+
+        assertEquals(3, batch.size());
+        assertEquals(2, batch.getCoalescedCount());
+        List<List<WriteModel<BsonDocument>>> waves = batch.getWaves();
+        assertEquals(1, waves.size());
+        assertEquals(3, waves.get(0).size());
+        assertSame(i1, waves.get(0).get(0));
+        assertTrue(waves.get(0).get(1) instanceof ReplaceOneModel);
+        assertSame(i3, waves.get(0).get(2));
+    }
+
+    @Test
+    public void testClear() {
+        OplogBatch batch = new OplogBatch(10, true);
+        batch.addWriteModel(insert(1), new BsonInt32(1));
+        batch.addWriteModel(delete(1), new BsonInt32(1));
+        batch.addWriteModel(insert(2), new BsonInt32(2));
+
+        batch.clear();
+        assertEquals(0, batch.size());
+        assertEquals(0, batch.getCoalescedCount());
+        assertEquals(0, batch.getWaves().size());
+
+        // ids from before the clear start a new chain in wave 0
+        WriteModel<BsonDocument> i1 = insert(1);
+        batch.addWriteModel(i1, new BsonInt32(1));
+        assertEquals(Arrays.asList(Arrays.asList(i1)), batch.getWaves());
+    }
+}
@@ -0,0 +1,122 @@
+package com.mongodb.mongosync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+
+public class OplogCoalescerTest {
+
+    private static final BsonDocument FILTER = BsonDocument.parse("{_id: 1}");
+
+    private static WriteModel<BsonDocument> update(String json) {
+        return new UpdateOneModel<>(FILTER, BsonDocument.parse(json));
+    }
+
+    @Test
+    public void testInsertThenUpdatesIsUpsertReplace() {
+        WriteModel<BsonDocument> merged = OplogCoalescer.coalesce(
+                new InsertOneModel<>(BsonDocument.parse("{_id: 1, a: 1, b: 2}")), update("{$set: {a: 5, c: 3}}"));
+        merged = OplogCoalescer.coalesce(merged, update("{$unset: {b: ''}}"));
+        ReplaceOneModel<BsonDocument> replace = (ReplaceOneModel<BsonDocument>) merged;
+        assertEquals(BsonDocument.parse("{_id: 1, a: 5, c: 3}"), replace.getReplacement());
+        assertTrue(replace.getReplaceOptions().isUpsert());
+        assertEquals(FILTER, replace.getFilter());
+    }
+
+    @Test
+    public void testInsertNeverCoalescesIntoInsert() {
+        // an insert replayed onto an existing document fails with a duplicate key, the
+        // merged model must still apply the later write to that document
+        BsonDocument shardKeyFilter = BsonDocument.parse("{_id: 1, sk: 'a'}");
+        WriteModel<BsonDocument> insert = new InsertOneModel<>(BsonDocument.parse("{_id: 1, sk: 'a', n: 0}"));
+
+        WriteModel<BsonDocument> merged = OplogCoalescer.coalesce(insert,
+                new UpdateOneModel<>(shardKeyFilter, BsonDocument.parse("{$set: {n: 1}}")));
+        ReplaceOneModel<BsonDocument> replace = (ReplaceOneModel<BsonDocument>) merged;
+        assertTrue(replace.getReplaceOptions().isUpsert());
+        assertEquals(shardKeyFilter, replace.getFilter());
+        assertEquals(BsonDocument.parse("{_id: 1, sk: 'a', n: 1}"), replace.getReplacement());
+
+        merged = OplogCoalescer.coalesce(insert,
+                new ReplaceOneModel<>(shardKeyFilter, BsonDocument.parse("{_id: 1, sk: 'a', n: 2}")));
+        replace = (ReplaceOneModel<BsonDocument>) merged;
+        assertTrue(replace.getReplaceOptions().isUpsert());
+        assertEquals(shardKeyFilter, replace.getFilter());
+        assertEquals(BsonDocument.parse("{_id: 1, sk: 'a', n: 2}"), replace.getReplacement());
+    }
+
+    @Test
+    public void testUpdatesThenDeleteIsDelete() {
+        WriteModel<BsonDocument> delete = new DeleteOneModel<>(FILTER);
+        WriteModel<BsonDocument> merged = OplogCoalescer.coalesce(update("{$inc: {n: 1}}"), delete);
+        assertSame(delete, merged);
+    }
+
+    @Test
+    public void testMergeSimpleUpdates() {
+        WriteModel<BsonDocument> merged = OplogCoalescer.coalesce(update("{$set: {a: 1}, $unset: {b: ''}}"),
+                update("{$set: {b: 2}, $unset: {a: ''}}"));
+        assertEquals(BsonDocument.parse("{$set: {b: 2}, $unset: {a: ''}}"),
+                ((UpdateOneModel<BsonDocument>) merged).getUpdate());
+    }
+
+    @Test
+    public void testDeleteThenInsertIsUpsertReplace() {
+        WriteModel<BsonDocument> merged = OplogCoalescer.coalesce(new DeleteOneModel<>(FILTER),
+                new InsertOneModel<>(BsonDocument.parse("{_id: 1, a: 1}")));
+        ReplaceOneModel<BsonDocument> replace = (ReplaceOneModel<BsonDocument>) merged;
+        assertTrue(replace.getReplaceOptions().isUpsert());
+        assertEquals(FILTER, replace.getFilter());
+    }
+
+    @Test
+    public void testDeleteThenInsertKeepsShardKeyFilter() {
+        // the delete's filter routes the upsert to one shard behind mongos
+        BsonDocument shardKeyFilter = BsonDocument.parse("{_id: 1, sk: 'a'}");
+        BsonDocument doc = BsonDocument.parse("{_id: 1, sk: 'a', n: 1}");
+        WriteModel<BsonDocument> merged = OplogCoalescer.coalesce(new DeleteOneModel<>(shardKeyFilter),
+                new InsertOneModel<>(doc));
+        ReplaceOneModel<BsonDocument> replace = (ReplaceOneModel<BsonDocument>) merged;
+        assertTrue(replace.getReplaceOptions().isUpsert());
+        assertEquals(shardKeyFilter, replace.getFilter());
+        assertEquals(doc, replace.getReplacement());
+    }
+
+    @Test
+    public void testNotMerged() {
+        assertNull(OplogCoalescer.coalesce(update("{$inc: {n: 1}}"), update("{$inc: {n: 1}}")));
+        assertNull(OplogCoalescer.coalesce(update("{$set: {'a.b': 1}}"), update("{$set: {a: 1}}")));
+        assertNull(OplogCoalescer.coalesce(new InsertOneModel<>(BsonDocument.parse("{_id: 1}")),
+                new InsertOneModel<>(BsonDocument.parse("{_id: 1}"))));
+        assertNull(OplogCoalescer.coalesce(new DeleteOneModel<>(FILTER), update("{$set: {a: 1}}")));
+    }
+
+    @Test
+    public void testBatchCoalescesChains() {
+        OplogBatch batch = new OplogBatch(10, true);
+        batch.addWriteModel(new InsertOneModel<>(BsonDocument.parse("{_id: 1, n: 0}")), new BsonInt32(1));
+        batch.addWriteModel(update("{$set: {n: 1}}"), new BsonInt32(1));
+        batch.addWriteModel(update("{$inc: {n: 1}}"), new BsonInt32(1));
+        batch.addWriteModel(new DeleteOneModel<>(FILTER), new BsonInt32(1));
+
+        assertEquals(2, batch.getCoalescedCount());
+        List<List<WriteModel<BsonDocument>>> waves = batch.getWaves();
+        assertEquals(2, waves.size());
+        assertEquals(BsonDocument.parse("{_id: 1, n: 1}"),
+                ((ReplaceOneModel<BsonDocument>) waves.get(0).get(0)).getReplacement());
+        assertTrue(waves.get(1).get(0) instanceof DeleteOneModel);
+    }
+}
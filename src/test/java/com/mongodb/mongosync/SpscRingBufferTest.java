@@ -0,0 +1,123 @@
+package com.mongodb.mongosync;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class SpscRingBufferTest {
+
+    @Test
+    public void testCapacityRoundsUpToPowerOfTwo() {
+        assertEquals(2, new SpscRingBuffer<Integer>(1).capacity());
+        assertEquals(8, new SpscRingBuffer<Integer>(8).capacity());
+        assertEquals(16, new SpscRingBuffer<Integer>(9).capacity());
+    }
+
+    @Test
+    public void testFullAndEmpty() {
+        SpscRingBuffer<Integer> buffer = new SpscRingBuffer<>(4);
+        assertTrue(buffer.isEmpty());
+        assertNull(buffer.poll());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertEquals(4, buffer.size());
+        assertFalse(buffer.offer(4));
+        assertEquals(0, buffer.poll());
+        assertTrue(buffer.offer(4));
+        assertFalse(buffer.offer(5));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, buffer.poll());
+        }
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testWrapsAroundPastCapacity() {
+        SpscRingBuffer<Integer> buffer = new SpscRingBuffer<>(4);
+        int next = 0;
+        for (int round = 0; round < 100; round++) {
+            // a different number of elements each round so the slots shift
+            int n = 1 + round % 4;
+            for (int i = 0; i < n; i++) {
+                assertTrue(buffer.offer(next + i));
+            }
+            for (int i = 0; i < n; i++) {
+                assertEquals(next + i, buffer.poll());
+            }
+            assertNull(buffer.poll());
+            next += n;
+        }
+    }
+
+    @Test
+    public void testTimedPollForEachStrategy() throws InterruptedException {
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            SpscRingBuffer<Integer> buffer = new SpscRingBuffer<>(4);
+            long start = System.nanoTime();
+            assertNull(buffer.poll(20, TimeUnit.MILLISECONDS, strategy), strategy.name());
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(elapsed >= 20, strategy + " returned after " + elapsed + "ms");
+
+            buffer.offer(1);
+            assertEquals(1, buffer.poll(20, TimeUnit.MILLISECONDS, strategy));
+        }
+    }
+
+    @Test
+    public void testTimedPollInterrupted() {
+        SpscRingBuffer<Integer> buffer = new SpscRingBuffer<>(4);
+        Thread.currentThread().interrupt();
+        try {
+            buffer.poll(1, TimeUnit.SECONDS, WaitStrategy.PARK);
+        } catch (InterruptedException e) {
+            return;
+        }
+        throw new AssertionError("expected InterruptedException");
+    }
+
+    @Test
+    public void testConcurrentProducerConsumer() throws Exception {
+        final int count = 200_000;
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            if (strategy == WaitStrategy.SPIN && Runtime.getRuntime().availableProcessors() == 1) {
+                // both sides spin away their whole time slice on a single cpu
+                continue;
+            }
+            SpscRingBuffer<Integer> buffer = new SpscRingBuffer<>(16);
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<?> producer = executor.submit(() -> {
+                    for (int i = 0; i < count; i++) {
+                        buffer.put(i, strategy);
+                    }
+                    return null;
+                });
+                for (int expected = 0; expected < count; expected++) {
+                    Integer e = buffer.poll(10, TimeUnit.SECONDS, strategy);
+                    assertEquals(expected, e, strategy.name());
+                }
+                producer.get(10, TimeUnit.SECONDS);
+                assertNull(buffer.poll());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void testFromString() {
+        assertEquals(WaitStrategy.PARK, WaitStrategy.fromString(null));
+        assertEquals(WaitStrategy.SPIN, WaitStrategy.fromString(" spin "));
+        assertEquals(WaitStrategy.YIELD, WaitStrategy.fromString("YIELD"));
+    }
+}
@@ -0,0 +1,143 @@
+package com.mongodb.oplog;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.ServerAddress;
+
+public class ApplyOpsBatcherTest {
+
+    /**
+     * Records the applyOps batches, and fails every batch that holds one of the bad ids.
+     */
+    private static class FakeRunner {
+        final List<String> dbNames = new ArrayList<>();
+        final List<List<Integer>> batches = new ArrayList<>();
+        final List<Integer> applied = new ArrayList<>();
+        final Set<Integer> badIds = new HashSet<>();
+
+        void run(String dbName, BsonDocument command) {
+            List<Integer> ids = new ArrayList<>();
+            for (BsonValue op : command.getArray("applyOps")) {
+                ids.add(op.asDocument().getInt32("i").getValue());
+            }
+            dbNames.add(dbName);
+            batches.add(ids);
+            for (Integer id : ids) {
+                if (badIds.contains(id)) {
+                    throw new MongoCommandException(BsonDocument.parse("{ok: 0, code: 11000, errmsg: 'bad op'}"),
+                            new ServerAddress());
+                }
+            }
+            applied.addAll(ids);
+        }
+    }
+
+    private static BsonDocument op(String type, int i) {
+        return new BsonDocument("op", new BsonString(type)).append("i", new BsonInt32(i));
+    }
+
+    @Test
+    public void testFlushRules() {
+        FakeRunner runner = new FakeRunner();
+        ApplyOpsBatcher batcher = new ApplyOpsBatcher(runner::run, 3);
+        assertFalse(batcher.shouldFlushBefore("a", true, 10), "nothing pending");
+
+        batcher.add("a", op("i", 0), 10);
+        assertFalse(batcher.shouldFlushBefore("a", false, 10));
+        assertTrue(batcher.shouldFlushBefore("b", false, 10), "db change");
+        assertTrue(batcher.shouldFlushBefore("a", true, 10), "command");
+        assertTrue(batcher.shouldFlushBefore("a", false, ApplyOpsBatcher.MAX_BATCH_BYTES), "bytes");
+
+        batcher.add("a", op("i", 1), 10);
+        batcher.add("a", op("i", 2), 10);
+        assertTrue(batcher.shouldFlushBefore("a", false, 10), "maxOps");
+        assertTrue(runner.batches.isEmpty());
+    }
+
+    @Test
+    public void testBatchesInOplogOrder() {
+        FakeRunner runner = new FakeRunner();
+        ApplyOpsBatcher batcher = new ApplyOpsBatcher(runner::run, 3);
+        int i = 0;
+        // 4 ops of a: a full batch of 3, then 1
+        for (; i < 4; i++) {
+            batcher.add("a", op("i", i), 100);
+        }
+        // db change
+        batcher.add("b", op("u", i++), 100);
+        // a command is applied alone, after the pending batch
+        batcher.add("b", op("c", i++), 100);
+        batcher.add("b", op("d", i++), 100);
+        // bytes limit
+        batcher.add("b", op("i", i++), ApplyOpsBatcher.MAX_BATCH_BYTES - 100);
+        batcher.add("b", op("i", i++), 200);
+        batcher.flush();
+        batcher.flush();
+
+        assertEquals(List.of(List.of(0, 1, 2), List.of(3), List.of(4), List.of(5), List.of(6, 7), List.of(8)),
+                runner.batches);
+        assertEquals(List.of("a", "a", "b", "b", "b", "b"), runner.dbNames);
+        assertEquals(9, batcher.getAppliedCount());
+        assertEquals(1, batcher.getCommandCount());
+        assertEquals(0, batcher.getErrorCount());
+        assertEquals(9, batcher.getCount());
+    }
+
+    @Test
+    public void testHalvingRetryKeepsOrderAndCountsFailures() {
+        FakeRunner runner = new FakeRunner();
+        runner.badIds.add(2);
+        runner.badIds.add(3);
+        runner.badIds.add(13);
+        ApplyOpsBatcher batcher = new ApplyOpsBatcher(runner::run, 16);
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            batcher.add("a", op("i", i), 100);
+            if (!runner.badIds.contains(i)) {
+                expected.add(i);
+            }
+        }
+        batcher.flush();
+
+        assertEquals(expected, runner.applied);
+        assertEquals(3, batcher.getErrorCount());
+        assertEquals(13, batcher.getAppliedCount());
+        assertEquals(16, batcher.getCount());
+        // halves down to the bad entries only, far fewer round trips than one per entry
+        assertTrue(runner.batches.size() < 16, runner.batches.toString());
+        for (List<Integer> batch : runner.batches) {
+            for (int j = 1; j < batch.size(); j++) {
+                assertEquals(batch.get(j - 1) + 1, batch.get(j));
+            }
+        }
+    }
+
+    @Test
+    public void testFailingCommandCountedOnce() {
+        FakeRunner runner = new FakeRunner();
+        runner.badIds.add(1);
+        ApplyOpsBatcher batcher = new ApplyOpsBatcher(runner::run, 16);
+        batcher.add("a", op("i", 0), 100);
+        batcher.add("a", op("c", 1), 100);
+        batcher.add("a", op("i", 2), 100);
+        batcher.flush();
+
+        assertEquals(List.of(0, 2), runner.applied);
+        assertEquals(1, batcher.getErrorCount());
+        assertEquals(1, batcher.getCommandCount());
+    }
+}
@@ -0,0 +1,104 @@
+package com.mongodb.oplog;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class OplogArchiveTest {
+
+    @TempDir
+    Path dir;
+
+    private static RawBsonDocument entry(int i) {
+        String ns = i < 500 ? "db.a" : (i % 2 == 0 ? "db.b" : "db.c");
+        BsonDocument doc = new BsonDocument("ts", new BsonTimestamp(1000 + i, 1))
+                .append("op", new BsonString("i"))
+                .append("ns", new BsonString(ns))
+                .append("o", new BsonDocument("_id", new BsonInt32(i)));
+        return new RawBsonDocument(doc, new BsonDocumentCodec());
+    }
+
+    private Path writeArchive(int n) throws IOException {
+        Path path = dir.resolve("test.oplog");
+        try (OplogArchiveWriter writer = new OplogArchiveWriter(path, 4096)) {
+            for (int i = 0; i < n; i++) {
+                writer.write(entry(i));
+            }
+            assertEquals(n, writer.getCount());
+        }
+        return path;
+    }
+
+    private static int id(RawBsonDocument doc) {
+        return doc.getDocument("o").getInt32("_id").getValue();
+    }
+
+    @Test
+    public void testReadAll() throws IOException {
+        Path path = writeArchive(1000);
+        assertTrue(Files.exists(OplogArchiveWriter.indexPath(path)));
+        try (OplogArchiveReader reader = new OplogArchiveReader(path)) {
+            assertTrue(reader.getBlockCount() > 1);
+            assertEquals(1000, reader.getCount());
+            int i = 0;
+            for (RawBsonDocument doc : reader.read()) {
+                assertEquals(i++, id(doc));
+            }
+            assertEquals(1000, i);
+        }
+    }
+
+    @Test
+    public void testSeekAndNamespaceFilter() throws IOException {
+        Path path = writeArchive(1000);
+        try (OplogArchiveReader reader = new OplogArchiveReader(path)) {
+            int i = 700;
+            for (RawBsonDocument doc : reader.read(new BsonTimestamp(1700, 0), null)) {
+                assertEquals(i++, id(doc));
+            }
+            assertEquals(1000, i);
+
+            int count = 0;
+            for (RawBsonDocument doc : reader.read(null, Set.of("db.c"))) {
+                assertEquals(1, id(doc) % 2);
+                count++;
+            }
+            assertEquals(250, count);
+
+            // every block before the seek point is skipped
+            assertTrue(reader.seek(new BsonTimestamp(1700, 0).getValue()) > 0);
+            assertFalse(reader.read(new BsonTimestamp(5000, 0), null).iterator().hasNext());
+        }
+    }
+
+    @Test
+    public void testRebuildIndex() throws IOException {
+        Path path = writeArchive(1000);
+        Files.delete(OplogArchiveWriter.indexPath(path));
+        // simulate a crash while writing the last block
+        Files.write(path, new byte[] { 0, 0, 1, 0, 0, 0 }, StandardOpenOption.APPEND);
+        try (OplogArchiveReader reader = new OplogArchiveReader(path)) {
+            assertEquals(1000, reader.getCount());
+            int i = 500;
+            for (RawBsonDocument doc : reader.read(new BsonTimestamp(1500, 1), null)) {
+                assertEquals(i++, id(doc));
+            }
+            assertEquals(1000, i);
+        }
+    }
+}
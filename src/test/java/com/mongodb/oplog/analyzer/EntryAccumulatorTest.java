@@ -0,0 +1,32 @@
+package com.mongodb.oplog.analyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class EntryAccumulatorTest {
+
+    @Test
+    public void testMergePercentiles() {
+        EntryAccumulator shard0 = new EntryAccumulator(new OplogEntryKey("db.c", "i", "d"));
+        EntryAccumulator shard1 = new EntryAccumulator(new OplogEntryKey("db.c", "i", "d"));
+        for (int i = 0; i < 999; i++) {
+            (i % 2 == 0 ? shard0 : shard1).addExecution(200);
+        }
+        // one large entry, hidden by the average
+        shard1.addExecution(4 * 1024 * 1024);
+
+        EntryAccumulator total = new EntryAccumulator(new OplogEntryKey("db.c", "i"));
+        total.merge(shard0);
+        total.merge(shard1);
+
+        assertEquals(1000, total.getCount());
+        assertEquals(200, total.getMin());
+        assertEquals(4 * 1024 * 1024, total.getMax());
+        long p50 = total.getPercentile(50);
+        assertTrue(p50 >= 200 && p50 <= 200 * 17 / 16, "p50 " + p50);
+        assertTrue(total.getPercentile(99) < 1024);
+        assertTrue(total.getPercentile(99.95) >= 4 * 1024 * 1024 * 15 / 16);
+    }
+}
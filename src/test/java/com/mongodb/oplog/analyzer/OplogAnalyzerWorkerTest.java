@@ -0,0 +1,27 @@
+package com.mongodb.oplog.analyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import org.junit.jupiter.api.Test;
+
+public class OplogAnalyzerWorkerTest {
+
+    private static long epoch(int hour, int minute, int second) {
+        return LocalDateTime.of(2024, 1, 1, hour, minute, second).toEpochSecond(ZoneOffset.UTC);
+    }
+
+    @Test
+    public void testBucketOf() {
+        // the minute is rounded up to the next multiple of the bucket width
+        assertEquals(epoch(12, 0, 0), OplogAnalyzerWorker.bucketOf(epoch(12, 0, 59), 5));
+        assertEquals(epoch(12, 5, 0), OplogAnalyzerWorker.bucketOf(epoch(12, 1, 0), 5));
+        assertEquals(epoch(12, 5, 0), OplogAnalyzerWorker.bucketOf(epoch(12, 4, 59), 5));
+        assertEquals(epoch(12, 5, 0), OplogAnalyzerWorker.bucketOf(epoch(12, 5, 30), 5));
+        assertEquals(epoch(13, 0, 0), OplogAnalyzerWorker.bucketOf(epoch(12, 56, 0), 5));
+        assertEquals(epoch(12, 1, 0), OplogAnalyzerWorker.bucketOf(epoch(12, 1, 10), 1));
+        assertEquals(epoch(13, 0, 0), OplogAnalyzerWorker.bucketOf(epoch(12, 1, 0), 60));
+    }
+}
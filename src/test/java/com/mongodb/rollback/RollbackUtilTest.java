@@ -0,0 +1,55 @@
+package com.mongodb.rollback;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import org.bson.BasicBSONDecoder;
+import org.bson.BsonBinary;
+import org.bson.BsonDateTime;
+import org.bson.BsonDecimal128;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.types.Decimal128;
+import org.junit.jupiter.api.Test;
+
+public class RollbackUtilTest {
+
+    private static RawBsonDocument doc(BsonValue id) {
+        return new RawBsonDocument(new BsonDocument("_id", id).append("x", new BsonInt32(1)), new BsonDocumentCodec());
+    }
+
+    private static Object legacy(RawBsonDocument doc) {
+        ByteBuffer buffer = doc.getByteBuffer().asNIO();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new BasicBSONDecoder().readObject(bytes).get("_id");
+    }
+
+    @Test
+    public void testLegacyValuePrintsAsBefore() {
+        BsonValue[] ids = { new BsonObjectId(), new BsonString("abc"), new BsonInt32(5), new BsonInt64(5L),
+                new BsonDouble(2.5), new BsonDateTime(1700000000000L), new BsonDecimal128(Decimal128.parse("1.10")),
+                new BsonDocument("a", new BsonInt32(1)).append("b", new BsonString("c")),
+                new BsonBinary(UUID.randomUUID()) };
+        for (BsonValue id : ids) {
+            RawBsonDocument doc = doc(id);
+            assertEquals(String.valueOf(legacy(doc)), String.valueOf(RollbackUtil.legacyValue(doc, "_id")),
+                    id.getBsonType().name());
+        }
+        assertEquals("abc", RollbackUtil.legacyValue(doc(new BsonString("abc")), "_id"));
+        assertEquals(5, RollbackUtil.legacyValue(doc(new BsonInt32(5)), "_id"));
+        assertNull(RollbackUtil.legacyValue(doc(BsonNull.VALUE), "_id"));
+        assertNull(RollbackUtil.legacyValue(doc(new BsonInt32(5)), "missing"));
+    }
+}
@@ -0,0 +1,54 @@
+package com.mongodb.util.bson;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.Test;
+
+public class BsonFieldDiffTest {
+
+    private static RawBsonDocument raw(String json) {
+        return RawBsonDocument.parse(json);
+    }
+
+    @Test
+    public void testIdentical() {
+        BsonFieldDiff diff = BsonFieldDiff.diff(raw("{_id: 1, a: 'x', b: {c: [1, 2]}}"),
+                raw("{_id: 1, a: 'x', b: {c: [1, 2]}}"));
+        assertTrue(diff.isEquivalent());
+        assertFalse(diff.isKeyOrderOnly());
+    }
+
+    @Test
+    public void testKeyOrderOnly() {
+        BsonFieldDiff diff = BsonFieldDiff.diff(raw("{_id: 1, a: 1, b: {x: 1, y: 2}}"),
+                raw("{_id: 1, b: {y: 2, x: 1}, a: 1}"));
+        assertTrue(diff.isEquivalent());
+        assertTrue(diff.isKeyOrderOnly());
+    }
+
+    @Test
+    public void testAddedRemovedChanged() {
+        BsonFieldDiff diff = BsonFieldDiff.diff(
+                raw("{_id: 1, a: 1, b: {c: 'x', d: [1, 2, 3]}, gone: true}"),
+                raw("{_id: 1, a: NumberLong(1), b: {c: 'y', d: [1, 5, 3], e: null}}"));
+        assertFalse(diff.isEquivalent());
+        assertFalse(diff.isKeyOrderOnly());
+        assertEquals(Arrays.asList("b.e"), diff.getAdded());
+        assertEquals(Arrays.asList("gone"), diff.getRemoved());
+        assertEquals(Arrays.asList("a", "b.c", "b.d.1"), diff.getChanged());
+    }
+
+    @Test
+    public void testRemovedFieldIsNotReorder() {
+        BsonFieldDiff diff = BsonFieldDiff.diff(raw("{_id: 1, a: 1, b: 2, c: 3}"), raw("{_id: 1, a: 1, c: 3}"));
+        assertEquals(Arrays.asList("b"), diff.getRemoved());
+        assertEquals(Collections.emptyList(), diff.getChanged());
+        assertFalse(diff.isKeyOrderDiffers());
+    }
+}
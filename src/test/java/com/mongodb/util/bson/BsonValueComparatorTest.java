@@ -3,9 +3,17 @@ package com.mongodb.util.bson;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonMaxKey;
+import org.bson.BsonMinKey;
+import org.bson.BsonNull;
+import org.bson.BsonObjectId;
 import org.bson.BsonString;
 import org.bson.RawBsonDocument;
 import org.bson.codecs.BsonDocumentCodec;
+import org.bson.types.ObjectId;
 import org.junit.jupiter.api.Test;
 
 public class BsonValueComparatorTest {
@@ -54,4 +62,31 @@ public class BsonValueComparatorTest {
         assertEquals(0, compareResult);
     }
 
+    @Test
+    public void testCanonicalTypeOrder() {
+        assertEquals(-1, comparator.compare(new BsonMinKey(), BsonNull.VALUE));
+        assertEquals(-1, comparator.compare(BsonNull.VALUE, new BsonInt32(-5)));
+        assertEquals(-1, comparator.compare(new BsonInt32(100), new BsonString("1")));
+        assertEquals(-1, comparator.compare(new BsonString("z"), new BsonObjectId(new ObjectId())));
+        assertEquals(1, comparator.compare(new BsonMaxKey(), new BsonObjectId(new ObjectId())));
+    }
+    
+    @Test
+    public void testMixedNumbers() {
+        assertEquals(0, comparator.compare(new BsonInt32(1), new BsonDouble(1.0)));
+        assertEquals(0, comparator.compare(new BsonInt64(7), new BsonInt32(7)));
+        assertEquals(-1, comparator.compare(new BsonInt64(Long.MAX_VALUE - 1), new BsonInt64(Long.MAX_VALUE)));
+        assertEquals(1, comparator.compare(new BsonDouble(2.5), new BsonInt64(2)));
+        assertEquals(-1, comparator.compare(new BsonDouble(Double.NaN), new BsonInt32(Integer.MIN_VALUE)));
+    }
+    
+    @Test
+    public void testDocumentFieldOrder() {
+        BsonDocument d1 = new BsonDocument("a", new BsonInt32(1)).append("b", new BsonInt32(2));
+        BsonDocument d2 = new BsonDocument("a", new BsonInt32(1)).append("c", new BsonInt32(0));
+        BsonDocument d3 = new BsonDocument("a", new BsonInt32(1));
+        assertEquals(-1, comparator.compare(d1, d2));
+        assertEquals(1, comparator.compare(d1, d3));
+    }
+
 }
@@ -0,0 +1,87 @@
+package com.mongodb.util.bson;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonSerializationException;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MappedBsonReaderTest {
+
+    @TempDir
+    Path dir;
+
+    private Path writeDocs(int n) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < n; i++) {
+            BsonDocument doc = new BsonDocument("_id", new BsonInt32(i)).append("s", new BsonString("x".repeat(i % 50)));
+            ByteBuffer bytes = new RawBsonDocument(doc, new BsonDocumentCodec()).getByteBuffer().asNIO();
+            out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        }
+        Path file = dir.resolve("docs.bson");
+        Files.write(file, out.toByteArray());
+        return file;
+    }
+
+    @Test
+    public void testIterate() throws IOException {
+        Path file = writeDocs(1000);
+        int i = 0;
+        try (MappedBsonReader reader = new MappedBsonReader(file)) {
+            for (RawBsonDocument doc : reader) {
+                assertEquals(i, doc.getInt32("_id").getValue());
+                assertEquals(i % 50, doc.getString("s").getValue().length());
+                i++;
+            }
+            assertEquals(Files.size(file), reader.getPosition());
+        }
+        assertEquals(1000, i);
+    }
+
+    @Test
+    public void testSplitOffsets() throws IOException {
+        Path file = writeDocs(1000);
+        long[] offsets = MappedBsonReader.splitOffsets(file, 4);
+        assertEquals(5, offsets.length, Arrays.toString(offsets));
+        assertEquals(0, offsets[0]);
+        assertEquals(Files.size(file), offsets[4]);
+
+        int expected = 0;
+        for (int part = 0; part < 4; part++) {
+            try (MappedBsonReader reader = new MappedBsonReader(file, offsets[part], offsets[part + 1])) {
+                for (RawBsonDocument doc : reader) {
+                    assertEquals(expected++, doc.getInt32("_id").getValue());
+                }
+            }
+        }
+        assertEquals(1000, expected);
+
+        assertEquals(2, MappedBsonReader.splitOffsets(writeDocs(1), 4).length);
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        Path file = writeDocs(2);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+        try (MappedBsonReader reader = new MappedBsonReader(file)) {
+            reader.next();
+            assertThrows(BsonSerializationException.class, reader::next);
+            assertFalse(reader.getPosition() == Files.size(file));
+        }
+    }
+}
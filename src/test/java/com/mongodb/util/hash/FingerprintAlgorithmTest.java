@@ -0,0 +1,70 @@
+package com.mongodb.util.hash;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.bson.BsonInt32;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.mongodb.util.CodecUtils;
+
+public class FingerprintAlgorithmTest {
+
+    @Test
+    public void testMd5MatchesHex() {
+        byte[] bytes = "hello world".getBytes(StandardCharsets.UTF_8);
+        assertEquals(CodecUtils.md5Hex(bytes), FingerprintAlgorithm.MD5.fingerprint(bytes).toHex());
+    }
+
+    @Test
+    public void testMurmur3MatchesGuava() {
+        Random random = new Random(42);
+        for (int len = 0; len < 100; len++) {
+            byte[] bytes = new byte[len];
+            random.nextBytes(bytes);
+            HashCode expected = Hashing.murmur3_128().hashBytes(bytes);
+            long[] words = FingerprintAlgorithm.murmur3x64_128(bytes, 0, len, 0);
+            assertEquals(expected.asLong(), words[0]);
+            assertEquals(expected.toString(), String.format("%016x%016x",
+                    Long.reverseBytes(words[0]), Long.reverseBytes(words[1])));
+        }
+    }
+
+    @Test
+    public void testXxHash64() {
+        assertEquals(0xEF46DB3751D8E999L, FingerprintAlgorithm.XXHASH64.hash64(new byte[0]));
+        assertEquals(0x44BC2CF5AD770999L, FingerprintAlgorithm.XXHASH64.hash64("abc".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(0x0B242D361FDA71BCL, FingerprintAlgorithm.XXHASH64.hash64(
+                "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testFingerprintMap() {
+        FingerprintMap map = new FingerprintMap(4);
+        for (int i = 0; i < 1000; i++) {
+            map.put(new BsonInt32(i), i, -i);
+        }
+        assertEquals(1000, map.size());
+        for (int i = 0; i < 1000; i += 2) {
+            assertTrue(map.remove(new BsonInt32(i)));
+        }
+        assertEquals(500, map.size());
+        for (int i = 0; i < 1000; i++) {
+            if (i % 2 == 0) {
+                assertNull(map.get(new BsonInt32(i)));
+                assertEquals(-1, map.matches(new BsonInt32(i), i, -i));
+            } else {
+                assertEquals(new Fingerprint(i, -i), map.get(new BsonInt32(i)));
+                assertEquals(0, map.matches(new BsonInt32(i), i, i));
+            }
+        }
+        assertFalse(map.remove(new BsonInt32(0)));
+    }
+}
@@ -0,0 +1,75 @@
+package com.mongodb.util.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long v : new long[] { 0, 1, 15, 16, 17, 31, 32, 1000, 123456789L, Long.MAX_VALUE }) {
+            int index = Histogram.bucketIndex(v);
+            assertTrue(index >= 0 && index < Histogram.BUCKETS);
+            assertTrue(Histogram.bucketLowerBound(index) <= v, "lower bound of " + v);
+            assertTrue(Histogram.bucketUpperBound(index) >= v, "upper bound of " + v);
+        }
+        assertEquals(Histogram.BUCKETS - 1, Histogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testHistogramPercentilesAndMerge() {
+        Histogram a = new Histogram();
+        Histogram b = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            (i % 2 == 0 ? a : b).record(i);
+        }
+        a.merge(b);
+        assertEquals(1000, a.getCount());
+        assertEquals(500500, a.getSum());
+        assertEquals(1, a.getMin());
+        assertEquals(1000, a.getMax());
+        long p50 = a.getValueAtPercentile(50);
+        assertTrue(p50 >= 500 && p50 <= 500 * 17 / 16, "p50 " + p50);
+        long p99 = a.getValueAtPercentile(99);
+        assertTrue(p99 >= 990 && p99 <= 1000, "p99 " + p99);
+        assertEquals(1000, a.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testScrapeAndHttp() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter counter = registry.counter("test_ops_total", "shard", "s0");
+        assertSame(counter, registry.counter("test_ops_total", "shard", "s0"));
+        counter.add(5);
+        registry.gauge("test_lag_seconds", () -> 2, "shard", "s0");
+        registry.histogram("test_flush_millis").record(10);
+
+        String scrape = registry.scrape();
+        assertTrue(scrape.contains("# TYPE test_ops_total counter\ntest_ops_total{shard=\"s0\"} 5\n"), scrape);
+        assertTrue(scrape.contains("test_lag_seconds{shard=\"s0\"} 2\n"), scrape);
+        assertTrue(scrape.contains("test_flush_millis_count 1\n"), scrape);
+        assertTrue(scrape.contains("test_flush_millis{quantile=\"0.99\"} 10\n"), scrape);
+
+        MetricsExporter exporter = new MetricsExporter(registry);
+        exporter.startHttp(0);
+        try {
+            URL url = new URL("http://127.0.0.1:" + exporter.getPort() + "/metrics");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            assertEquals(200, connection.getResponseCode());
+            try (InputStream in = connection.getInputStream()) {
+                String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                assertTrue(body.contains("test_ops_total{shard=\"s0\"} 5"), body);
+            }
+        } finally {
+            exporter.stop();
+        }
+    }
+}